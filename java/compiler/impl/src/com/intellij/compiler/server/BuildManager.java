@@ -41,10 +41,7 @@ import com.intellij.openapi.project.ProjectManager;
 import com.intellij.openapi.project.ProjectManagerAdapter;
 import com.intellij.openapi.projectRoots.*;
 import com.intellij.openapi.projectRoots.impl.JavaAwareProjectJdkTableImpl;
-import com.intellij.openapi.roots.ModuleRootAdapter;
-import com.intellij.openapi.roots.ModuleRootEvent;
-import com.intellij.openapi.roots.ModuleRootManager;
-import com.intellij.openapi.roots.OrderRootType;
+import com.intellij.openapi.roots.*;
 import com.intellij.openapi.roots.libraries.Library;
 import com.intellij.openapi.roots.libraries.LibraryTable;
 import com.intellij.openapi.roots.libraries.LibraryTablesRegistrar;
@@ -60,6 +57,7 @@ import com.intellij.openapi.vfs.encoding.EncodingManager;
 import com.intellij.openapi.vfs.newvfs.BulkFileListener;
 import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
 import com.intellij.util.Alarm;
+import com.intellij.util.concurrency.Semaphore;
 import com.intellij.util.messages.MessageBusConnection;
 import com.intellij.util.net.NetUtils;
 import gnu.trove.THashSet;
@@ -103,6 +101,8 @@ public class BuildManager implements ApplicationComponent{
   private static final String LOGGER_CONFIG = "log.xml";
   private static final String DEFAULT_LOGGER_CONFIG = "defaultLogConfig.xml";
   private static final int MAKE_TRIGGER_DELAY = 3 * 1000 + 500/*3.5 seconds*/;
+  // a kept alive build process is not reused when it is about to exit by the idle timeout
+  private static final int KEEP_ALIVE_MARGIN = 10 * 1000;
   private final boolean IS_UNIT_TEST_MODE;
 
   private final File mySystemDirectory;
@@ -119,6 +119,7 @@ public class BuildManager implements ApplicationComponent{
   };
   private final SequentialTaskExecutor myRequestsProcessor = new SequentialTaskExecutor(myPooledThreadExecutor);
   private final Map<String, ProjectData> myProjectDataMap = Collections.synchronizedMap(new HashMap<String, ProjectData>());
+  private final Map<String, BuildDaemon> myBuildDaemons = new HashMap<String, BuildDaemon>();
 
   private final Alarm myAlarm = new Alarm(Alarm.ThreadToUse.SHARED_THREAD);
   private final AtomicBoolean myAutoMakeInProgress = new AtomicBoolean(false);
@@ -227,7 +228,7 @@ public class BuildManager implements ApplicationComponent{
   }
 
   public void clearState(Project project) {
-    myGlobals = null;
+    projectModelChanged(project);
     final String projectPath = getProjectPath(project);
     synchronized (myProjectDataMap) {
       final ProjectData data = myProjectDataMap.get(projectPath);
@@ -237,6 +238,18 @@ public class BuildManager implements ApplicationComponent{
     }
   }
 
+  private void projectModelChanged(Project project) {
+    myGlobals = null;
+    final String projectPath = getProjectPath(project);
+    synchronized (myBuildDaemons) {
+      final BuildDaemon daemon = myBuildDaemons.get(projectPath);
+      if (daemon != null) {
+        // the project model loaded by the process is out of date; it will be shut down before the next build
+        daemon.myModelChanged = true;
+      }
+    }
+  }
+
   public boolean rescanRequired(Project project) {
     final String projectPath = getProjectPath(project);
     synchronized (myProjectDataMap) {
@@ -432,7 +445,9 @@ public class BuildManager implements ApplicationComponent{
                      CmdlineProtoUtil.createForceCompileRequest(projectPath, modules, artifacts, paths, userData, globals, currentFSChanges);
           }
 
-          myMessageDispatcher.registerBuildMessageHandler(sessionId, handler, params);
+          final int keepAliveTimeout = Registry.intValue("compiler.process.keep.alive.timeout");
+          final BuilderMessageHandler sessionHandler = keepAliveTimeout > 0 ? new BuildDaemonSessionHandler(handler) : handler;
+          myMessageDispatcher.registerBuildMessageHandler(sessionId, sessionHandler, params);
 
           try {
             projectTaskQueue.submit(new Runnable() {
@@ -445,7 +460,11 @@ public class BuildManager implements ApplicationComponent{
                     return;
                   }
                   myBuildsInProgress.put(projectPath, future);
-                  final Process process = launchBuildProcess(project, myListenPort, sessionId);
+                  if (sessionHandler instanceof BuildDaemonSessionHandler) {
+                    runInBuildDaemon(project, projectPath, sessionId, (BuildDaemonSessionHandler)sessionHandler, keepAliveTimeout);
+                    return;
+                  }
+                  final Process process = launchBuildProcess(project, myListenPort, sessionId, 0);
                   final OSProcessHandler processHandler = new OSProcessHandler(process, null) {
                     @Override
                     protected boolean shouldDestroyProcessRecursively() {
@@ -667,7 +686,49 @@ public class BuildManager implements ApplicationComponent{
     return paths;
   }
 
-  private Process launchBuildProcess(Project project, final int port, final UUID sessionId) throws ExecutionException {
+  private void runInBuildDaemon(Project project,
+                                String projectPath,
+                                UUID sessionId,
+                                BuildDaemonSessionHandler handler,
+                                int keepAliveTimeout) throws ExecutionException {
+    BuildDaemon daemon;
+    synchronized (myBuildDaemons) {
+      daemon = myBuildDaemons.get(projectPath);
+      if (daemon != null && !daemon.canStartSession(keepAliveTimeout * 1000L - KEEP_ALIVE_MARGIN)) {
+        myBuildDaemons.remove(projectPath);
+        daemon.shutdown();
+        daemon = null;
+      }
+    }
+    if (daemon != null) {
+      LOG.info("Reusing build process for " + projectPath);
+      daemon.myCurrentSession = sessionId;
+      myMessageDispatcher.startSession(sessionId, daemon.myChannel);
+    }
+    else {
+      daemon = new BuildDaemon(projectPath, launchBuildProcess(project, myListenPort, sessionId, keepAliveTimeout));
+      daemon.myCurrentSession = sessionId;
+      synchronized (myBuildDaemons) {
+        myBuildDaemons.put(projectPath, daemon);
+      }
+      daemon.myProcessHandler.startNotify();
+    }
+
+    while (!handler.waitFor(500)) {
+      if (daemon.myProcessHandler.isProcessTerminated()) {
+        break;
+      }
+    }
+    daemon.myChannel = myMessageDispatcher.getConnectedChannel(sessionId);
+    daemon.myCurrentSession = null;
+    daemon.myLastSessionEnd = System.currentTimeMillis();
+    final BuilderMessageHandler sessionHandler = myMessageDispatcher.unregisterBuildMessageHandler(sessionId);
+    if (sessionHandler != null) {
+      sessionHandler.sessionTerminated();
+    }
+  }
+
+  private Process launchBuildProcess(Project project, final int port, final UUID sessionId, final int keepAliveTimeout) throws ExecutionException {
     // choosing sdk with which the build process should be run
     Sdk projectJdk = null;
     JavaSdkVersion sdkVersion = null;
@@ -775,6 +836,9 @@ public class BuildManager implements ApplicationComponent{
     if (Registry.is("compiler.process.use.external.javac")) {
       cmdLine.addParameter("-D"+ GlobalOptions.USE_EXTERNAL_JAVAC_OPTION);
     }
+    if (keepAliveTimeout > 0) {
+      cmdLine.addParameter("-D"+ GlobalOptions.KEEP_ALIVE_TIMEOUT_OPTION + "=" + keepAliveTimeout * 1000L);
+    }
     final String host = NetUtils.getLocalHostString();
     cmdLine.addParameter("-D"+ GlobalOptions.HOSTNAME_OPTION + "=" + host);
 
@@ -929,17 +993,19 @@ public class BuildManager implements ApplicationComponent{
 
   private class ProjectWatcher extends ProjectManagerAdapter {
     private final Map<Project, MessageBusConnection> myConnections = new HashMap<Project, MessageBusConnection>();
+    private final Map<Project, Map<String, String>> myRootsLayouts = new HashMap<Project, Map<String, String>>();
 
     @Override
     public void projectOpened(final Project project) {
       final MessageBusConnection conn = project.getMessageBus().connect();
       myConnections.put(project, conn);
+      myRootsLayouts.put(project, getModuleRootsLayouts(project));
       conn.subscribe(ProjectTopics.PROJECT_ROOTS, new ModuleRootAdapter() {
         @Override
         public void rootsChanged(final ModuleRootEvent event) {
           final Object source = event.getSource();
           if (source instanceof Project) {
-            clearState((Project)source);
+            sourceRootsChanged((Project)source);
           }
         }
       });
@@ -965,9 +1031,74 @@ public class BuildManager implements ApplicationComponent{
       }
     }
 
+    /**
+     * Instead of dropping the events journal of the project, which makes the build process rescan all the sources, reports source
+     * roots of the modules with changed roots as changed directories: the build process rescans only these modules
+     */
+    private void sourceRootsChanged(Project project) {
+      projectModelChanged(project);
+      final Map<String, String> layouts = getModuleRootsLayouts(project);
+      final Map<String, String> previousLayouts = myRootsLayouts.put(project, layouts);
+      if (previousLayouts == null) {
+        clearState(project);
+        return;
+      }
+      final List<String> changedRoots = new ArrayList<String>();
+      for (Module module : ModuleManager.getInstance(project).getModules()) {
+        final String layout = layouts.get(module.getName());
+        if (!layout.equals(previousLayouts.get(module.getName()))) {
+          for (ContentEntry entry : ModuleRootManager.getInstance(module).getContentEntries()) {
+            for (SourceFolder folder : entry.getSourceFolders()) {
+              changedRoots.add(VfsUtilCore.urlToPath(folder.getUrl()));
+            }
+          }
+        }
+      }
+      if (!changedRoots.isEmpty()) {
+        notifyFilesChanged(changedRoots);
+      }
+    }
+
+    /**
+     * @return module name -> description of what the build process scans in the module sources: the roots, the excludes and the outputs
+     */
+    private Map<String, String> getModuleRootsLayouts(Project project) {
+      final Map<String, String> layouts = new HashMap<String, String>();
+      for (Module module : ModuleManager.getInstance(project).getModules()) {
+        final StringBuilder layout = new StringBuilder();
+        for (ContentEntry entry : ModuleRootManager.getInstance(module).getContentEntries()) {
+          for (SourceFolder folder : entry.getSourceFolders()) {
+            layout.append(folder.isTestSource() ? "test:" : "src:").append(folder.getUrl()).append('\n');
+          }
+          for (ExcludeFolder folder : entry.getExcludeFolders()) {
+            layout.append("exclude:").append(folder.getUrl()).append('\n');
+          }
+        }
+        final CompilerModuleExtension extension = CompilerModuleExtension.getInstance(module);
+        if (extension != null) {
+          layout.append("output:").append(extension.getCompilerOutputUrl()).append('\n');
+          layout.append("test output:").append(extension.getCompilerOutputUrlForTests()).append('\n');
+        }
+        layouts.put(module.getName(), layout.toString());
+      }
+      return layouts;
+    }
+
     @Override
     public void projectClosed(Project project) {
-      myProjectDataMap.remove(getProjectPath(project));
+      final String projectPath = getProjectPath(project);
+      synchronized (myBuildDaemons) {
+        final BuildDaemon daemon = myBuildDaemons.get(projectPath);
+        if (daemon != null) {
+          daemon.myModelChanged = true;
+          if (daemon.myCurrentSession == null) {
+            myBuildDaemons.remove(projectPath);
+            daemon.shutdown();
+          }
+        }
+      }
+      myProjectDataMap.remove(projectPath);
+      myRootsLayouts.remove(project);
       final MessageBusConnection conn = myConnections.remove(project);
       if (conn != null) {
         conn.disconnect();
@@ -975,6 +1106,118 @@ public class BuildManager implements ApplicationComponent{
     }
   }
 
+  /**
+   * Build process kept alive between builds of a project, so that the next build doesn't pay for starting a VM, loading the project
+   * model and opening the caches. See "compiler.process.keep.alive.timeout" registry key.
+   */
+  private class BuildDaemon extends ProcessAdapter {
+    private final String myProjectPath;
+    private final OSProcessHandler myProcessHandler;
+    private final StringBuilder myStdErrOutput = new StringBuilder();
+    private volatile UUID myCurrentSession;
+    private volatile Channel myChannel;
+    private volatile long myLastSessionEnd;
+    private volatile boolean myModelChanged;
+
+    private BuildDaemon(String projectPath, Process process) {
+      myProjectPath = projectPath;
+      myProcessHandler = new OSProcessHandler(process, null) {
+        @Override
+        protected boolean shouldDestroyProcessRecursively() {
+          return true;
+        }
+      };
+      myProcessHandler.addProcessListener(this);
+    }
+
+    private boolean canStartSession(long maxIdleTime) {
+      final Channel channel = myChannel;
+      return !myModelChanged && !myProcessHandler.isProcessTerminated() && channel != null && channel.isConnected() &&
+             System.currentTimeMillis() - myLastSessionEnd < maxIdleTime;
+    }
+
+    private void shutdown() {
+      final Channel channel = myChannel;
+      if (channel != null && channel.isConnected()) {
+        // the process exits as soon as it's disconnected
+        channel.close();
+      }
+      else {
+        myProcessHandler.destroyProcess();
+      }
+    }
+
+    @Override
+    public void processTerminated(ProcessEvent event) {
+      synchronized (myBuildDaemons) {
+        if (myBuildDaemons.get(myProjectPath) == this) {
+          myBuildDaemons.remove(myProjectPath);
+        }
+      }
+      final UUID sessionId = myCurrentSession;
+      if (sessionId != null) {
+        final BuilderMessageHandler handler = myMessageDispatcher.unregisterBuildMessageHandler(sessionId);
+        if (handler != null) {
+          if (event.getExitCode() != 0) {
+            final String error = myStdErrOutput.length() > 0 ? "\n" + myStdErrOutput : "unknown error";
+            handler.handleFailure(sessionId, CmdlineProtoUtil.createFailure("Abnormal build process termination: " + error, null));
+          }
+          handler.sessionTerminated();
+        }
+      }
+    }
+
+    @Override
+    public void onTextAvailable(ProcessEvent event, Key outputType) {
+      // re-translate builder's output to idea.log
+      final String text = event.getText();
+      if (!StringUtil.isEmptyOrSpaces(text)) {
+        LOG.info("BUILDER_PROCESS [" + outputType.toString() + "]: " + text.trim());
+        if (myStdErrOutput.length() < 1024 && ProcessOutputTypes.STDERR.equals(outputType)) {
+          myStdErrOutput.append(text);
+        }
+      }
+    }
+  }
+
+  /**
+   * Tells when a session run by a {@link BuildDaemon} is over: the process doesn't exit after the build
+   */
+  private static class BuildDaemonSessionHandler implements BuilderMessageHandler {
+    private final BuilderMessageHandler myDelegate;
+    private final Semaphore myFinished = new Semaphore();
+
+    private BuildDaemonSessionHandler(BuilderMessageHandler delegate) {
+      myDelegate = delegate;
+      myFinished.down();
+    }
+
+    @Override
+    public void handleBuildMessage(Channel channel, UUID sessionId, CmdlineRemoteProto.Message.BuilderMessage msg) {
+      myDelegate.handleBuildMessage(channel, sessionId, msg);
+      if (msg.getType() == CmdlineRemoteProto.Message.BuilderMessage.Type.BUILD_EVENT &&
+          msg.getBuildEvent().getEventType() == CmdlineRemoteProto.Message.BuilderMessage.BuildEvent.Type.BUILD_COMPLETED) {
+        myFinished.up();
+      }
+    }
+
+    @Override
+    public void handleFailure(UUID sessionId, CmdlineRemoteProto.Message.Failure failure) {
+      myDelegate.handleFailure(sessionId, failure);
+      myFinished.up();
+    }
+
+    @Override
+    public void sessionTerminated() {
+      myDelegate.sessionTerminated();
+      myFinished.up();
+    }
+
+    private boolean waitFor(long timeout) {
+      return myFinished.waitFor(timeout);
+    }
+  }
+
   private static class ProjectData {
     final SequentialTaskExecutor taskQueue;
     private final Set<String> myChanged = new THashSet<String>(PathHashingStrategy.INSTANCE);
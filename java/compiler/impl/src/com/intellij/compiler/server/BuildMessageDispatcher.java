@@ -50,6 +50,21 @@ class BuildMessageDispatcher extends SimpleChannelHandler {
     return data != null? data.handler : null;
   }
 
+  /**
+   * Starts the registered session in a build process which is already connected, see {@link BuildManager}
+   */
+  public void startSession(UUID sessionId, Channel channel) {
+    final SessionData data = myMessageHandlers.get(sessionId);
+    if (data != null) {
+      final CmdlineRemoteProto.Message.ControllerMessage params = data.params;
+      data.params = null;
+      data.channel = channel;
+      if (params != null) {
+        Channels.write(channel, CmdlineProtoUtil.toMessage(sessionId, params));
+      }
+    }
+  }
+
   public void cancelSession(UUID sessionId) {
     if (myCanceledSessions.add(sessionId)) {
       final Channel channel = getConnectedChannel(sessionId);
@@ -78,12 +93,11 @@ class BuildMessageDispatcher extends SimpleChannelHandler {
 
     SessionData sessionData = (SessionData)ctx.getAttachment();
 
-    UUID sessionId;
-    if (sessionData == null) {
+    final CmdlineRemoteProto.Message.UUID id = message.getSessionId();
+    final UUID sessionId = new UUID(id.getMostSigBits(), id.getLeastSigBits());
+    // a build process kept alive between builds runs sessions one after another over the same connection
+    if (sessionData == null || !sessionData.sessionId.equals(sessionId)) {
       // this is the first message for this session, so fill session data with missing info
-      final CmdlineRemoteProto.Message.UUID id = message.getSessionId();
-      sessionId = new UUID(id.getMostSigBits(), id.getLeastSigBits());
-
       sessionData = myMessageHandlers.get(sessionId);
       if (sessionData != null) {
         sessionData.channel = ctx.getChannel();
@@ -93,9 +107,6 @@ class BuildMessageDispatcher extends SimpleChannelHandler {
         Channels.write(ctx.getChannel(), CmdlineProtoUtil.toMessage(sessionId, CmdlineProtoUtil.createCancelCommand()));
       }
     }
-    else {
-      sessionId = sessionData.sessionId;
-    }
 
     final BuilderMessageHandler handler = sessionData != null? sessionData.handler : null;
     if (handler == null) {
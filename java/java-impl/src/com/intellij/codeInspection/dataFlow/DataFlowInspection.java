@@ -33,11 +33,15 @@ import com.intellij.codeInsight.daemon.impl.quickfix.SimplifyBooleanExpressionFi
 import com.intellij.codeInspection.*;
 import com.intellij.codeInspection.dataFlow.instructions.*;
 import com.intellij.codeInspection.ex.BaseLocalInspectionTool;
+import com.intellij.concurrency.JobLauncher;
 import com.intellij.ide.DataManager;
 import com.intellij.openapi.actionSystem.PlatformDataKeys;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.project.ProjectManager;
+import com.intellij.openapi.util.Key;
 import com.intellij.openapi.util.Pair;
 import com.intellij.pom.java.LanguageLevel;
 import com.intellij.psi.*;
@@ -45,7 +49,10 @@ import com.intellij.psi.util.PsiTreeUtil;
 import com.intellij.psi.util.PsiUtil;
 import com.intellij.util.ArrayUtil;
 import com.intellij.util.IncorrectOperationException;
+import com.intellij.util.Processor;
 import com.intellij.util.SmartList;
+import com.intellij.util.SystemProperties;
+import com.intellij.util.containers.ContainerUtil;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -58,10 +65,16 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class DataFlowInspection extends BaseLocalInspectionTool {
   private static final Logger LOG = Logger.getInstance("#com.intellij.codeInspection.dataFlow.DataFlowInspection");
   @NonNls private static final String SHORT_NAME = "ConstantConditions";
+  /**
+   * In batch mode methods of a file are collected while the file is visited and analyzed concurrently when the visit is finished.
+   */
+  private static final boolean ANALYZE_CONCURRENTLY = SystemProperties.getBooleanProperty("idea.dataflow.concurrent.batch", true);
+  private static final Key<List<PsiCodeBlock>> CODE_BLOCKS_TO_ANALYZE = Key.create("DataFlowInspection.CODE_BLOCKS_TO_ANALYZE");
   public boolean SUGGEST_NULLABLE_ANNOTATIONS = false;
   public boolean DONT_REPORT_TRUE_ASSERT_STATEMENTS = false;
 
@@ -91,11 +104,74 @@ public class DataFlowInspection extends BaseLocalInspectionTool {
     };
   }
 
+  @NotNull
+  @Override
+  public PsiElementVisitor buildVisitor(@NotNull final ProblemsHolder holder,
+                                        boolean isOnTheFly,
+                                        @NotNull LocalInspectionToolSession session) {
+    if (isOnTheFly || !ANALYZE_CONCURRENTLY) {
+      return buildVisitor(holder, isOnTheFly);
+    }
+    final List<PsiCodeBlock> blocks = new ArrayList<PsiCodeBlock>();
+    session.putUserData(CODE_BLOCKS_TO_ANALYZE, blocks);
+    final PsiElementVisitor visitor = buildVisitor(holder, false);
+    return new JavaElementVisitor() {
+      @Override
+      public void visitField(PsiField field) {
+        field.accept(visitor);
+      }
+
+      @Override
+      public void visitMethod(PsiMethod method) {
+        ContainerUtil.addIfNotNull(method.getBody(), blocks);
+      }
+
+      @Override
+      public void visitClassInitializer(PsiClassInitializer initializer) {
+        ContainerUtil.addIfNotNull(initializer.getBody(), blocks);
+      }
+    };
+  }
+
+  @Override
+  public void inspectionFinished(LocalInspectionToolSession session, ProblemsHolder holder) {
+    List<PsiCodeBlock> blocks = session.getUserData(CODE_BLOCKS_TO_ANALYZE);
+    if (blocks == null) return;
+    session.putUserData(CODE_BLOCKS_TO_ANALYZE, null);
+
+    // every block is analyzed by a runner of its own, problems are registered in this thread in the order of blocks
+    final Map<PsiCodeBlock, AnalysisResult> results = new ConcurrentHashMap<PsiCodeBlock, AnalysisResult>();
+    boolean completed = JobLauncher.getInstance().invokeConcurrentlyUnderProgress(
+      blocks, ProgressManager.getInstance().getProgressIndicator(), false, new Processor<PsiCodeBlock>() {
+      @Override
+      public boolean process(PsiCodeBlock block) {
+        results.put(block, analyze(block));
+        return true;
+      }
+    });
+    if (!completed) throw new ProcessCanceledException();
+    for (PsiCodeBlock block : blocks) {
+      reportProblems(block, results.get(block), holder);
+    }
+  }
+
   private void analyzeCodeBlock(final PsiCodeBlock body, ProblemsHolder holder) {
     if (body == null) return;
+    reportProblems(body, analyze(body), holder);
+  }
+
+  @NotNull
+  private AnalysisResult analyze(@NotNull PsiCodeBlock body) {
     final StandardDataFlowRunner dfaRunner = new StandardDataFlowRunner(SUGGEST_NULLABLE_ANNOTATIONS);
     final StandardInstructionVisitor visitor = new DataFlowInstructionVisitor();
     final RunnerResult rc = dfaRunner.analyzeMethod(body, visitor);
+    return new AnalysisResult(dfaRunner, visitor, rc);
+  }
+
+  private void reportProblems(@NotNull PsiCodeBlock body, @NotNull AnalysisResult result, @NotNull ProblemsHolder holder) {
+    final StandardDataFlowRunner dfaRunner = result.myRunner;
+    final StandardInstructionVisitor visitor = result.myVisitor;
+    final RunnerResult rc = result.myResult;
     if (rc == RunnerResult.OK) {
       if (dfaRunner.problemsDetected(visitor)) {
         createDescription(dfaRunner, holder, visitor);
@@ -550,4 +626,16 @@ public class DataFlowInspection extends BaseLocalInspectionTool {
       ((StandardDataFlowRunner)runner).onPassingNullParameter(arg); // Parameters on stack are reverted.
     }
   }
+
+  private static class AnalysisResult {
+    private final StandardDataFlowRunner myRunner;
+    private final StandardInstructionVisitor myVisitor;
+    private final RunnerResult myResult;
+
+    private AnalysisResult(StandardDataFlowRunner runner, StandardInstructionVisitor visitor, RunnerResult result) {
+      myRunner = runner;
+      myVisitor = visitor;
+      myResult = result;
+    }
+  }
 }
@@ -116,7 +116,7 @@ public class DataFlowRunner {
         return RunnerResult.TOO_COMPLEX;
       }
 
-      final ArrayList<DfaInstructionState> queue = new ArrayList<DfaInstructionState>();
+      final ArrayDeque<DfaInstructionState> queue = new ArrayDeque<DfaInstructionState>();
       for (final DfaMemoryState initialState : initialStates) {
         queue.add(new DfaInstructionState(myInstructions[0], initialState));
       }
@@ -133,7 +133,7 @@ public class DataFlowRunner {
         }
         ProgressManager.checkCanceled();
 
-        DfaInstructionState instructionState = queue.remove(0);
+        DfaInstructionState instructionState = queue.removeFirst();
         if (LOG.isDebugEnabled()) {
           LOG.debug(instructionState.toString());
         }
@@ -142,6 +142,11 @@ public class DataFlowRunner {
         long distance = instructionState.getDistanceFromStart();
 
         if (instruction instanceof BranchingInstruction) {
+          // an equal state could have reached the join point after this one was queued
+          if (instruction.isMemoryStateProcessed(instructionState.getMemoryState())) {
+            count++;
+            continue;
+          }
           if (!instruction.setMemoryStateProcessed(instructionState.getMemoryState().createCopy())) {
             return RunnerResult.TOO_COMPLEX; // Too complex :(
           }
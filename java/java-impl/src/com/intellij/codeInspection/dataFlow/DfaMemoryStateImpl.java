@@ -36,6 +36,7 @@ import com.intellij.util.containers.Stack;
 import gnu.trove.*;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
 
 import java.util.*;
 
@@ -50,8 +51,15 @@ public class DfaMemoryStateImpl implements DfaMemoryState {
   private TIntStack myOffsetStack;
   private TLongHashSet myDistinctClasses;
   private THashMap<DfaVariableValue,DfaVariableState> myVariableStates;
+  // the map and the states are shared with copies of this memory state until they are modified, see getVariableState()
+  private boolean myVariableStatesShared;
+  // variables which states are not shared with other memory states
+  private final THashSet<DfaVariableValue> myOwnVariableStates = new THashSet<DfaVariableValue>();
   private boolean myHasDirtyFields = true;
 
+  // copies used to clone all the variable states; that's kept for comparison in performance tests
+  private static volatile boolean ourShareVariableStates = true;
+
   public DfaMemoryStateImpl(final DfaValueFactory factory) {
     myFactory = factory;
     myEqClasses = new ArrayList<SortedIntSet>();
@@ -77,7 +85,24 @@ public class DfaMemoryStateImpl implements DfaMemoryState {
     newState.myDistinctClasses = new TLongHashSet(myDistinctClasses.toArray());
     newState.myEqClasses = new ArrayList<SortedIntSet>();
     newState.myStateSize = myStateSize;
-    newState.myVariableStates = new THashMap<DfaVariableValue, DfaVariableState>();
+    if (ourShareVariableStates) {
+      newState.myVariableStates = myVariableStates;
+      newState.myVariableStatesShared = true;
+      myVariableStatesShared = true;
+      myOwnVariableStates.clear();
+    }
+    else {
+      newState.myVariableStates = new THashMap<DfaVariableValue, DfaVariableState>();
+      try {
+        for (DfaVariableValue var : myVariableStates.keySet()) {
+          newState.myVariableStates.put(var, (DfaVariableState)myVariableStates.get(var).clone());
+          newState.myOwnVariableStates.add(var);
+        }
+      }
+      catch (CloneNotSupportedException e) {
+        LOG.error(e);
+      }
+    }
     newState.myOffsetStack = new TIntStack(myOffsetStack);
     newState.myHasDirtyFields = myHasDirtyFields;
 
@@ -85,20 +110,14 @@ public class DfaMemoryStateImpl implements DfaMemoryState {
       SortedIntSet aClass = myEqClasses.get(i);
       newState.myEqClasses.add(aClass != null ? new SortedIntSet(aClass.toNativeArray()) : null);
     }
-
-    try {
-      for (Object o : myVariableStates.keySet()) {
-        DfaVariableValue dfaVariableValue = (DfaVariableValue)o;
-        DfaVariableState clone = (DfaVariableState)myVariableStates.get(dfaVariableValue).clone();
-        newState.myVariableStates.put(dfaVariableValue, clone);
-      }
-    }
-    catch (CloneNotSupportedException e) {
-      LOG.error(e);
-    }
     return newState;
   }
 
+  @TestOnly
+  public static void setShareVariableStates(boolean share) {
+    ourShareVariableStates = share;
+  }
+
   public boolean equals(Object obj) {
     if (obj == this) return true;
     if (!(obj instanceof DfaMemoryStateImpl)) return false;
@@ -187,8 +206,16 @@ public class DfaMemoryStateImpl implements DfaMemoryState {
   }
 
   public int hashCode() {
-    return 0;
-    //return myEqClasses.hashCode() + myStack.hashCode() + myVariableStates.hashCode();
+    int result = myStateSize;
+    result = 31 * result + myStack.hashCode();
+    result = 31 * result + myVariableStates.hashCode();
+    result = 31 * result + myDistinctClasses.size();
+    // equals() doesn't depend on the order of classes
+    int classesHash = 0;
+    for (SortedIntSet aClass : myEqClasses) {
+      if (aClass != null) classesHash += aClass.hashCode();
+    }
+    return 31 * result + classesHash;
   }
 
   private void appendClass(StringBuffer buf, int aClassIndex) {
@@ -287,7 +314,9 @@ public class DfaMemoryStateImpl implements DfaMemoryState {
       if (value instanceof DfaVariableValue) {
         try {
           DfaVariableState newState = (DfaVariableState)getVariableState((DfaVariableValue)value).clone();
+          unshareVariableStates();
           myVariableStates.put(var, newState);
+          myOwnVariableStates.add(var);
         }
         catch (CloneNotSupportedException e) {
           LOG.error(e);
@@ -708,17 +737,41 @@ public class DfaMemoryStateImpl implements DfaMemoryState {
     if (state == null) {
       final PsiVariable psiVariable = dfaVar.getPsiVariable();
       state = createVariableState(psiVariable);
+      unshareVariableStates();
       myVariableStates.put(dfaVar, state);
+      myOwnVariableStates.add(dfaVar);
       if (psiVariable != null) {
         state.setInstanceofValue(myFactory.getTypeFactory().create(psiVariable.getType()));
       }
     }
+    else if (!myOwnVariableStates.contains(dfaVar)) {
+      // the caller may modify the state
+      try {
+        state = (DfaVariableState)state.clone();
+      }
+      catch (CloneNotSupportedException e) {
+        LOG.error(e);
+      }
+      unshareVariableStates();
+      myVariableStates.put(dfaVar, state);
+      myOwnVariableStates.add(dfaVar);
+    }
 
     return state;
   }
 
+  private void unshareVariableStates() {
+    if (myVariableStatesShared) {
+      myVariableStates = new THashMap<DfaVariableValue, DfaVariableState>((Map<DfaVariableValue, DfaVariableState>)myVariableStates);
+      myVariableStatesShared = false;
+    }
+  }
+
+  /**
+   * @return the states of variables, not to be modified
+   */
   protected Map<DfaVariableValue, DfaVariableState> getVariableStates() {
-    return myVariableStates;
+    return Collections.unmodifiableMap(myVariableStates);
   }
 
   protected DfaVariableState createVariableState(final PsiVariable psiVariable) {
@@ -792,8 +845,13 @@ public class DfaMemoryStateImpl implements DfaMemoryState {
       }
     }
 
-    myVariableStates.remove(varPlain);
-    myVariableStates.remove(varNegated);
+    if (myVariableStates.containsKey(varPlain) || myVariableStates.containsKey(varNegated)) {
+      unshareVariableStates();
+      myVariableStates.remove(varPlain);
+      myVariableStates.remove(varNegated);
+    }
+    myOwnVariableStates.remove(varPlain);
+    myOwnVariableStates.remove(varNegated);
   }
 
   private boolean containsConstantsOnly(int id) {
@@ -28,16 +28,14 @@ import com.intellij.codeInspection.dataFlow.DataFlowRunner;
 import com.intellij.codeInspection.dataFlow.DfaInstructionState;
 import com.intellij.codeInspection.dataFlow.DfaMemoryState;
 import com.intellij.codeInspection.dataFlow.InstructionVisitor;
-import com.intellij.openapi.progress.ProgressManager;
-
-import java.util.ArrayList;
+import gnu.trove.THashSet;
 
 public abstract class Instruction {
   private int myIndex;
-  private final ArrayList<DfaMemoryState> myProcessedStates;
+  private final THashSet<DfaMemoryState> myProcessedStates;
 
   protected Instruction() {
-    myProcessedStates = new ArrayList<DfaMemoryState>();
+    myProcessedStates = new THashSet<DfaMemoryState>();
   }
 
   protected final DfaInstructionState[] nextInstruction(DataFlowRunner runner, DfaMemoryState stateBefore) {
@@ -47,16 +45,13 @@ public abstract class Instruction {
   public abstract DfaInstructionState[] accept(DataFlowRunner runner, DfaMemoryState stateBefore, InstructionVisitor visitor);
 
   public boolean isMemoryStateProcessed(DfaMemoryState dfaMemState) {
-    for (DfaMemoryState state : myProcessedStates) {
-      ProgressManager.checkCanceled();
-      if (dfaMemState.equals(state)) {
-        return true;
-      }
-    }
-
-    return false;
+    return myProcessedStates.contains(dfaMemState);
   }
 
+  /**
+   * @param dfaMemState a state which won't be modified any more
+   * @return false if too many distinct states have reached the instruction
+   */
   public boolean setMemoryStateProcessed(DfaMemoryState dfaMemState) {
     if (myProcessedStates.size() > DataFlowRunner.MAX_STATES_PER_BRANCH) return false;
     myProcessedStates.add(dfaMemState);
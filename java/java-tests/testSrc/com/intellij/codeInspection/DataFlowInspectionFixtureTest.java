@@ -17,9 +17,23 @@ package com.intellij.codeInspection;
 
 import com.intellij.JavaTestUtil;
 import com.intellij.codeInspection.dataFlow.DataFlowInspection;
+import com.intellij.codeInspection.dataFlow.DfaMemoryStateImpl;
+import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.pom.java.LanguageLevel;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiElementVisitor;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiRecursiveElementWalkingVisitor;
+import com.intellij.testFramework.PlatformTestUtil;
 import com.intellij.testFramework.builders.JavaModuleFixtureBuilder;
 import com.intellij.testFramework.fixtures.JavaCodeInsightFixtureTestCase;
+import com.intellij.util.ThrowableRunnable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * @author peter
@@ -72,4 +86,91 @@ public class DataFlowInspectionFixtureTest extends JavaCodeInsightFixtureTestCas
 
   public void testEqualsNotNull() throws Throwable { doTest(); }
 
+  public void testBatchModeResultsSameAsSequential() throws Throwable {
+    final String[] names = {"BigMethodNotComplex", "BuildRegexpNotComplex", "Boxing128", "EqualsNotNull", "FieldInAnonymous",
+      "FinalFieldsInitializedByAnnotatedParameters", "MultiCatch", "NullableAnonymousVolatileNotNull", "StringTernaryAlwaysTrue"};
+    int problemCount = 0;
+    for (String name : names) {
+      final PsiFile file = addWithoutMarkup(name);
+      final List<String> sequential = runInspection(file, false);
+      assertEquals(name, sequential, runInspection(file, true));
+      problemCount += sequential.size();
+    }
+    assertTrue(problemCount > 0);
+  }
+
+  public void testPerformanceOfComplexMethods() throws Throwable {
+    final String[] names = {"BigMethodNotComplex", "BuildRegexpNotComplex", "TernaryInWhileNotComplex", "TryCatchInForNotComplex"};
+    final List<PsiFile> files = new ArrayList<PsiFile>();
+    for (String name : names) {
+      files.add(addWithoutMarkup(name));
+    }
+
+    // memory states copied with all their variable states, as before they were shared
+    DfaMemoryStateImpl.setShareVariableStates(false);
+    final long copying;
+    try {
+      copying = measure(files, false);
+    }
+    finally {
+      DfaMemoryStateImpl.setShareVariableStates(true);
+    }
+    final long sharing = measure(files, false);
+    final long batch = measure(files, true);
+    System.out.println("dataflow analysis of complex methods: " + copying + " ms copying variable states, " + sharing +
+                       " ms sharing them, " + batch + " ms sharing them in batch mode");
+
+    PlatformTestUtil.startPerformanceTest("dataflow analysis of complex methods", 3000, new ThrowableRunnable() {
+      @Override
+      public void run() throws Throwable {
+        analyze(files, false);
+      }
+    }).cpuBound().assertTiming();
+  }
+
+  private long measure(List<PsiFile> files, boolean batch) {
+    analyze(files, batch); // warmup
+    final long start = System.currentTimeMillis();
+    analyze(files, batch);
+    return System.currentTimeMillis() - start;
+  }
+
+  private void analyze(List<PsiFile> files, boolean batch) {
+    for (int i = 0; i < 5; i++) {
+      for (PsiFile file : files) {
+        runInspection(file, batch);
+      }
+    }
+  }
+
+  private PsiFile addWithoutMarkup(String name) throws IOException {
+    final String text = FileUtil.loadFile(new File(getTestDataPath(), name + ".java"));
+    // the file is analyzed as is, without the expected highlighting markup
+    return myFixture.addFileToProject(name + ".java", text.replaceAll("<warning descr=\"[^\"]*\">|</warning>", ""));
+  }
+
+  private List<String> runInspection(PsiFile file, boolean batch) {
+    final DataFlowInspection inspection = new DataFlowInspection();
+    inspection.SUGGEST_NULLABLE_ANNOTATIONS = true;
+    final ProblemsHolder holder = new ProblemsHolder(InspectionManager.getInstance(getProject()), file, false);
+    final LocalInspectionToolSession session = new LocalInspectionToolSession(file, 0, file.getTextLength());
+    final PsiElementVisitor visitor = batch ? inspection.buildVisitor(holder, false, session) : inspection.buildVisitor(holder, false);
+    file.accept(new PsiRecursiveElementWalkingVisitor() {
+      @Override
+      public void visitElement(PsiElement element) {
+        element.accept(visitor);
+        super.visitElement(element);
+      }
+    });
+    inspection.inspectionFinished(session, holder);
+
+    final List<String> problems = new ArrayList<String>();
+    for (ProblemDescriptor descriptor : holder.getResults()) {
+      problems.add(descriptor.getStartElement().getTextRange() + " " + descriptor.getHighlightType() + " " +
+                   descriptor.getDescriptionTemplate());
+    }
+    // fields are reported while the file is visited, code blocks only when the visit is finished
+    Collections.sort(problems);
+    return problems;
+  }
 }
@@ -4,6 +4,7 @@ import com.intellij.JavaTestUtil;
 import com.intellij.codeInsight.CodeInsightTestCase;
 import com.intellij.ide.todo.TodoConfiguration;
 import com.intellij.ide.todo.TodoIndexPatternProvider;
+import com.intellij.openapi.file.exclude.EnforcedPlainTextFileTypeManager;
 import com.intellij.openapi.fileEditor.FileDocumentManager;
 import com.intellij.openapi.projectRoots.impl.JavaSdkImpl;
 import com.intellij.openapi.util.io.FileUtil;
@@ -203,6 +204,27 @@ public class IdCacheTest extends CodeInsightTestCase{
     assertEquals(1, todocache.getTodoCount(myRootDir.findChild("4.java"), TodoIndexPatternProvider.getInstance()));
   }
 
+  public void testMarkAsPlainText() throws Exception {
+    VirtualFile child = myRootDir.createChildData(null, "4.xml");
+    VfsUtil.saveText(child, "<root>xxx</root>");
+
+    final CacheManager cache = CacheManager.SERVICE.getInstance(myProject);
+    final GlobalSearchScope scope = GlobalSearchScope.projectScope(myProject);
+    checkResult(new String[]{"4.xml"}, convert(cache.getFilesWithWord("xxx", UsageSearchContext.IN_FOREIGN_LANGUAGES, scope, false)));
+
+    // the content is the same, but the indexers of another file type have to run
+    final EnforcedPlainTextFileTypeManager plainTextManager = EnforcedPlainTextFileTypeManager.getInstance();
+    plainTextManager.markAsPlainText(child);
+    try {
+      checkResult(ArrayUtil.EMPTY_STRING_ARRAY, convert(cache.getFilesWithWord("xxx", UsageSearchContext.IN_FOREIGN_LANGUAGES, scope, false)));
+      checkResult(new String[]{"4.xml"}, convert(cache.getFilesWithWord("xxx", UsageSearchContext.IN_PLAIN_TEXT, scope, false)));
+    }
+    finally {
+      plainTextManager.unmarkPlainText(child);
+    }
+    checkResult(new String[]{"4.xml"}, convert(cache.getFilesWithWord("xxx", UsageSearchContext.IN_FOREIGN_LANGUAGES, scope, false)));
+  }
+
   public void testCrash() throws Exception {
     final CacheManager cache = CacheManager.SERVICE.getInstance(myProject);
     cache.getFilesWithWord("xxx", UsageSearchContext.ANY, GlobalSearchScope.projectScope(myProject), false);
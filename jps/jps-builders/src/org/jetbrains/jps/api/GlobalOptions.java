@@ -11,4 +11,6 @@ public interface GlobalOptions {
   String GENERATE_CLASSPATH_INDEX_OPTION = "generate.classpath.index";
   String COMPILE_PARALLEL_OPTION = "compile.parallel";
   String COMPILE_PARALLEL_MAX_THREADS_OPTION = "compile.parallel.max.threads";
+  // milliseconds the build process waits for the next build of the same project; if not set, the process exits after the first build
+  String KEEP_ALIVE_TIMEOUT_OPTION = "build.process.keep.alive.timeout";
 }
@@ -22,7 +22,8 @@ public class SharedThreadPool implements Executor {
     }
     MAX_BUILDER_THREADS = maxThreads;
   }
-  private static final ExecutorService ourBuilderPool = Executors.newFixedThreadPool(Math.min(MAX_BUILDER_THREADS, Math.max(2, Runtime.getRuntime().availableProcessors())));
+  private static final int BUILDER_THREADS_COUNT = Math.min(MAX_BUILDER_THREADS, Math.max(2, Runtime.getRuntime().availableProcessors()));
+  private static final ExecutorService ourBuilderPool = Executors.newFixedThreadPool(BUILDER_THREADS_COUNT);
 
   public static final SharedThreadPool INSTANCE = new SharedThreadPool();
 
@@ -40,6 +41,11 @@ public class SharedThreadPool implements Executor {
     return _submit(task, ourBuilderPool);
   }
 
+  /** @noinspection MethodMayBeStatic*/
+  public int getBuilderThreadsCount() {
+    return BUILDER_THREADS_COUNT;
+  }
+
   private static Future<?> _submit(final Runnable task, final ExecutorService service) {
     return service.submit(new Runnable() {
       public void run() {
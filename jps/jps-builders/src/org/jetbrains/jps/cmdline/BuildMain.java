@@ -15,11 +15,14 @@ import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.jps.api.CmdlineProtoUtil;
 import org.jetbrains.jps.api.CmdlineRemoteProto;
+import org.jetbrains.jps.api.GlobalOptions;
 import org.jetbrains.jps.api.SharedThreadPool;
 import org.jetbrains.jps.incremental.Utils;
 
 import java.io.File;
 import java.net.InetSocketAddress;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.UUID;
 
 /**
@@ -30,6 +33,12 @@ public class BuildMain {
   private static final String LOG_FILE_NAME = "log.xml";
   private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.cmdline.BuildMain");
   private static NioClientSocketChannelFactory ourChannelFactory;
+  /**
+   * If positive, the process doesn't exit after a build but keeps the project loaded and waits for the next build request
+   * from the same connection, until no builds are requested for this number of milliseconds
+   */
+  private static final long KEEP_ALIVE_TIMEOUT = Long.getLong(GlobalOptions.KEEP_ALIVE_TIMEOUT_OPTION, 0L);
+  private static final Timer ourIdleTimer = new Timer("Build process idle timer", true);
 
   public static void main(String[] args){
     System.out.println("Build process started. Classpath: " + System.getProperty("java.class.path"));
@@ -79,6 +88,10 @@ public class BuildMain {
   private static class MyMessageHandler extends SimpleChannelHandler {
     private final UUID mySessionId;
     private volatile BuildSession mySession;
+    // in keep-alive mode, the build requested while the previous one was finishing
+    private UUID myPendingSessionId;
+    private CmdlineRemoteProto.Message.ControllerMessage myPendingParams;
+    private int mySessionCount;
 
     private MyMessageHandler(UUID sessionId) {
       mySessionId = sessionId;
@@ -95,25 +108,7 @@ public class BuildMain {
         switch (controllerMessage.getType()) {
 
           case BUILD_PARAMETERS: {
-            if (mySession == null) {
-              final CmdlineRemoteProto.Message.ControllerMessage.FSEvent delta = controllerMessage.hasFsEvent()? controllerMessage.getFsEvent() : null;
-              final BuildSession session = new BuildSession(mySessionId, channel, controllerMessage.getParamsMessage(), delta);
-              mySession = session;
-              SharedThreadPool.INSTANCE.submit(new Runnable() {
-                public void run() {
-                  try {
-                    session.run();
-                  }
-                  finally {
-                    channel.close();
-                    System.exit(0);
-                  }
-                }
-              });
-            }
-            else {
-              LOG.info("Cannot start another build session because one is already running");
-            }
+            startSession(toUUID(message.getSessionId()), channel, controllerMessage);
             return;
           }
 
@@ -136,7 +131,9 @@ public class BuildMain {
           case CANCEL_BUILD_COMMAND: {
             final BuildSession session = mySession;
             if (session != null) {
-              session.cancel();
+              if (session.getSessionId().equals(toUUID(message.getSessionId()))) {
+                session.cancel();
+              }
             }
             else {
               LOG.info("Cannot cancel build: no build session is running");
@@ -150,6 +147,65 @@ public class BuildMain {
       Channels.write(channel, CmdlineProtoUtil.toMessage(mySessionId, CmdlineProtoUtil.createFailure("Unsupported message type: " + type.name(), null)));
     }
 
+    private synchronized void startSession(UUID sessionId, final Channel channel, CmdlineRemoteProto.Message.ControllerMessage controllerMessage) {
+      if (mySession != null) {
+        if (KEEP_ALIVE_TIMEOUT > 0 && myPendingSessionId == null) {
+          // the controller may send the next build as soon as it receives the last message of the current one
+          myPendingSessionId = sessionId;
+          myPendingParams = controllerMessage;
+        }
+        else {
+          LOG.info("Cannot start another build session because one is already running");
+        }
+        return;
+      }
+      final CmdlineRemoteProto.Message.ControllerMessage.FSEvent delta = controllerMessage.hasFsEvent()? controllerMessage.getFsEvent() : null;
+      final BuildSession session = new BuildSession(sessionId, channel, controllerMessage.getParamsMessage(), delta);
+      mySession = session;
+      mySessionCount++;
+      SharedThreadPool.INSTANCE.submit(new Runnable() {
+        public void run() {
+          try {
+            session.run();
+          }
+          finally {
+            if (KEEP_ALIVE_TIMEOUT > 0) {
+              sessionFinished(channel);
+            }
+            else {
+              channel.close();
+              System.exit(0);
+            }
+          }
+        }
+      });
+    }
+
+    private synchronized void sessionFinished(final Channel channel) {
+      mySession = null;
+      final UUID pendingSessionId = myPendingSessionId;
+      if (pendingSessionId != null) {
+        final CmdlineRemoteProto.Message.ControllerMessage pendingParams = myPendingParams;
+        myPendingSessionId = null;
+        myPendingParams = null;
+        startSession(pendingSessionId, channel, pendingParams);
+        return;
+      }
+      final int sessionCount = mySessionCount;
+      ourIdleTimer.schedule(new TimerTask() {
+        @Override
+        public void run() {
+          synchronized (MyMessageHandler.this) {
+            if (mySession != null || mySessionCount != sessionCount) {
+              return;
+            }
+          }
+          LOG.info("No builds requested for " + KEEP_ALIVE_TIMEOUT + " ms, exiting");
+          channel.close();
+        }
+      }, KEEP_ALIVE_TIMEOUT);
+    }
+
     @Override
     public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
       try {
@@ -180,6 +236,14 @@ public class BuildMain {
     }
   }
 
+  static boolean isKeepAlive() {
+    return KEEP_ALIVE_TIMEOUT > 0;
+  }
+
+  private static UUID toUUID(CmdlineRemoteProto.Message.UUID id) {
+    return new UUID(id.getMostSigBits(), id.getLeastSigBits());
+  }
+
   private static void initLoggers() {
     if (new File(LOG_FILE_NAME).exists()) {
       DOMConfigurator.configure(LOG_FILE_NAME);
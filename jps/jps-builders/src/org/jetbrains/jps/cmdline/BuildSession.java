@@ -1,6 +1,7 @@
 package org.jetbrains.jps.cmdline;
 
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.Comparing;
 import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.Ref;
 import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
@@ -48,6 +49,10 @@ final class BuildSession implements Runnable, CanceledStatus {
   private final Map<Pair<String, String>, ConstantSearchFuture> mySearchTasks = Collections.synchronizedMap(new HashMap<Pair<String, String>, ConstantSearchFuture>());
   private final ConstantSearch myConstantSearch = new ConstantSearch();
   private final BuildRunner myBuildRunner;
+  private final ModelKey myModelKey;
+  // the project loaded by the previous session of a process kept alive between builds, with its storages open
+  private static ProjectDescriptor ourCachedDescriptor;
+  private static ModelKey ourCachedDescriptorKey;
 
   BuildSession(UUID sessionId,
                Channel channel,
@@ -77,6 +82,7 @@ final class BuildSession implements Runnable, CanceledStatus {
       builderParams.put(pair.getKey(), pair.getValue());
     }
     myInitialFSDelta = delta;
+    myModelKey = new ModelKey(myProjectPath, globalOptionsPath, pathVars, globalEncoding, ignorePatterns);
     myBuildRunner = new BuildRunner(myProjectPath, globalOptionsPath, pathVars, globalEncoding, ignorePatterns, modules, myBuildType, artifacts, filePaths, builderParams);
   }
 
@@ -139,15 +145,22 @@ final class BuildSession implements Runnable, CanceledStatus {
                                                                                       myProjectPath));
       return;
     }
-    final BuildFSState fsState = new BuildFSState(false);
+    final ProjectDescriptor cachedDescriptor = BuildMain.isKeepAlive() ? takeCachedDescriptor(myModelKey, dataStorageRoot) : null;
+    myProjectDescriptor = cachedDescriptor;
+    final BuildFSState fsState = cachedDescriptor != null ? cachedDescriptor.fsState : new BuildFSState(false);
+    boolean completed = false;
 
     try {
       final boolean shouldApplyEvent = loadFsState(fsState, dataStorageRoot, myInitialFSDelta);
       if (shouldApplyEvent && myBuildRunner.getBuildType() == BuildType.MAKE && !containsChanges(myInitialFSDelta) && !fsState.hasWorkToDo()) {
         applyFSEvent(null, myInitialFSDelta);
+        completed = true;
         return;
       }
-      ProjectDescriptor pd = myBuildRunner.load(msgHandler, dataStorageRoot, fsState);
+      if (cachedDescriptor != null) {
+        LOG.info("Reusing project " + myProjectPath + " loaded by the previous build");
+      }
+      ProjectDescriptor pd = cachedDescriptor != null ? cachedDescriptor : myBuildRunner.load(msgHandler, dataStorageRoot, fsState);
       myProjectDescriptor = pd;
       if (shouldApplyEvent) {
         applyFSEvent(myProjectDescriptor, myInitialFSDelta);
@@ -160,19 +173,26 @@ final class BuildSession implements Runnable, CanceledStatus {
       myEventsProcessor.startProcessing();
 
       myBuildRunner.runBuild(pd, cs, myConstantSearch, msgHandler);
+      completed = true;
     }
     finally {
-      saveData(fsState, dataStorageRoot);
+      // after a failure the loaded data can't be trusted, so the next build loads the project anew
+      saveData(fsState, dataStorageRoot, completed && BuildMain.isKeepAlive());
     }
   }
 
-  private void saveData(final BuildFSState fsState, File dataStorageRoot) {
+  private void saveData(final BuildFSState fsState, File dataStorageRoot, boolean keepProjectLoaded) {
     final boolean wasInterrupted = Thread.interrupted();
     try {
       saveFsState(dataStorageRoot, fsState, myLastEventOrdinal);
       final ProjectDescriptor pd = myProjectDescriptor;
       if (pd != null) {
-        pd.release();
+        if (keepProjectLoaded) {
+          cacheDescriptor(myModelKey, pd);
+        }
+        else {
+          pd.release();
+        }
       }
     }
     finally {
@@ -182,6 +202,36 @@ final class BuildSession implements Runnable, CanceledStatus {
     }
   }
 
+  @Nullable
+  static synchronized ProjectDescriptor takeCachedDescriptor(ModelKey key, File dataStorageRoot) {
+    final ProjectDescriptor pd = ourCachedDescriptor;
+    final boolean matches = key.equals(ourCachedDescriptorKey);
+    ourCachedDescriptor = null;
+    ourCachedDescriptorKey = null;
+    if (pd != null && (!matches || !dataStorageRoot.exists())) {
+      pd.release();
+      return null;
+    }
+    return pd;
+  }
+
+  static synchronized void cacheDescriptor(ModelKey key, ProjectDescriptor pd) {
+    final ProjectDescriptor previous = ourCachedDescriptor;
+    if (previous != null && previous != pd) {
+      previous.release();
+    }
+    ourCachedDescriptor = pd;
+    ourCachedDescriptorKey = key;
+  }
+
+  ModelKey getModelKey() {
+    return myModelKey;
+  }
+
+  public UUID getSessionId() {
+    return mySessionId;
+  }
+
   public void processFSEvent(final CmdlineRemoteProto.Message.ControllerMessage.FSEvent event) {
     myEventsProcessor.submit(new Runnable() {
       @Override
@@ -248,7 +298,15 @@ final class BuildSession implements Runnable, CanceledStatus {
       for (String changed : event.getChangedPathsList()) {
         final File file = new File(changed);
         final RootDescriptor rd = pd.rootsIndex.getModuleAndRoot(null, file);
-        if (rd != null) {
+        if (rd != null && file.isDirectory()) {
+          // the controller reports a directory when any content under it may have changed without separate events for the files,
+          // e.g. when it became a source root again
+          if (Utils.IS_TEST_MODE) {
+            LOG.info("Applying dirty directory from fs event: " + file.getPath());
+          }
+          pd.fsState.markInitialScanRequired(rd.module);
+        }
+        else if (rd != null) {
           if (Utils.IS_TEST_MODE) {
             LOG.info("Applying dirty path from fs event: " + file.getPath());
           }
@@ -328,6 +386,7 @@ final class BuildSession implements Runnable, CanceledStatus {
       try {
         final long savedOrdinal = in.readLong();
         if (initialEvent != null && (savedOrdinal + 1L == initialEvent.getOrdinal())) {
+          fsState.clearAll();
           fsState.load(in);
           myLastEventOrdinal = savedOrdinal;
           shouldApplyEvent = true;
@@ -424,6 +483,53 @@ final class BuildSession implements Runnable, CanceledStatus {
     return BuildType.MAKE; // use make by default
   }
 
+  /**
+   * The project path and the global settings the project model depends on. Compared by value, as every session gets the settings
+   * in a newly parsed message.
+   */
+  static final class ModelKey {
+    private final String myProjectPath;
+    private final String myGlobalOptionsPath;
+    private final Map<String, String> myPathVars;
+    @Nullable private final String myGlobalEncoding;
+    @Nullable private final String myIgnorePatterns;
+
+    ModelKey(String projectPath,
+             String globalOptionsPath,
+             Map<String, String> pathVars,
+             @Nullable String globalEncoding,
+             @Nullable String ignorePatterns) {
+      myProjectPath = projectPath;
+      myGlobalOptionsPath = globalOptionsPath;
+      myPathVars = pathVars;
+      myGlobalEncoding = globalEncoding;
+      myIgnorePatterns = ignorePatterns;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+
+      final ModelKey key = (ModelKey)o;
+      return myProjectPath.equals(key.myProjectPath) &&
+             myGlobalOptionsPath.equals(key.myGlobalOptionsPath) &&
+             myPathVars.equals(key.myPathVars) &&
+             Comparing.equal(myGlobalEncoding, key.myGlobalEncoding) &&
+             Comparing.equal(myIgnorePatterns, key.myIgnorePatterns);
+    }
+
+    @Override
+    public int hashCode() {
+      int result = myProjectPath.hashCode();
+      result = 31 * result + myGlobalOptionsPath.hashCode();
+      result = 31 * result + myPathVars.hashCode();
+      result = 31 * result + Comparing.hashcode(myGlobalEncoding);
+      result = 31 * result + Comparing.hashcode(myIgnorePatterns);
+      return result;
+    }
+  }
+
   private static class EventsProcessor extends SequentialTaskExecutor {
     private final AtomicBoolean myProcessingEnabled = new AtomicBoolean(false);
 
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental;
+
+import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.jps.ModuleChunk;
+
+import java.util.*;
+import java.util.concurrent.Executor;
+
+/**
+ * Builds module chunks in parallel respecting dependencies between them: a chunk is started as soon as all chunks it depends on are built,
+ * without waiting for unrelated chunks. Among chunks ready to be built the ones heading the longest (by weight) chains of dependent chunks
+ * are started first, so the critical path of the build is never delayed by chunks nobody waits for.
+ */
+class ChunkBuildScheduler {
+  private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.incremental.ChunkBuildScheduler");
+
+  interface ChunkProcessor {
+    /**
+     * @return estimated cost of building the chunk, used to compute critical path
+     */
+    int getWeight(@NotNull ModuleChunk chunk);
+
+    void build(@NotNull ModuleChunk chunk) throws ProjectBuildException;
+  }
+
+  private final ChunkProcessor myProcessor;
+  private final List<Node> myNodes;
+  private final PriorityQueue<Node> myReadyNodes = new PriorityQueue<Node>(11, new Comparator<Node>() {
+    @Override
+    public int compare(Node n1, Node n2) {
+      if (n1.myPriority != n2.myPriority) {
+        return n1.myPriority > n2.myPriority ? -1 : 1;
+      }
+      return n1.myIndex - n2.myIndex;
+    }
+  });
+  private final Object myLock = new Object();
+  private int myRunningCount;
+  private int myFinishedCount;
+  @Nullable private Throwable myException;
+
+  /**
+   * @param chunks chunks in topological order, i.e. every chunk goes after the chunks it depends on
+   * @param dependencies chunks each chunk depends on, transitive dependencies are allowed
+   */
+  ChunkBuildScheduler(@NotNull List<ModuleChunk> chunks,
+                      @NotNull Map<ModuleChunk, ? extends Collection<ModuleChunk>> dependencies,
+                      @NotNull ChunkProcessor processor) {
+    myProcessor = processor;
+    final Map<ModuleChunk, Node> chunkToNode = new HashMap<ModuleChunk, Node>();
+    myNodes = new ArrayList<Node>(chunks.size());
+    for (ModuleChunk chunk : chunks) {
+      final Node node = new Node(chunk, myNodes.size(), processor.getWeight(chunk));
+      myNodes.add(node);
+      chunkToNode.put(chunk, node);
+    }
+
+    for (Node node : myNodes) {
+      final Collection<ModuleChunk> deps = dependencies.get(node.myChunk);
+      if (deps == null) continue;
+      for (ModuleChunk dep : deps) {
+        final Node depNode = chunkToNode.get(dep);
+        if (depNode != null && depNode != node && depNode.myDependents.add(node)) {
+          node.myUnfinishedDependencies++;
+        }
+      }
+    }
+
+    // dependents go after their dependencies, so reverse order visits all dependents of a node before the node itself
+    for (int i = myNodes.size() - 1; i >= 0; i--) {
+      final Node node = myNodes.get(i);
+      long maxDependentPriority = 0;
+      for (Node dependent : node.myDependents) {
+        maxDependentPriority = Math.max(maxDependentPriority, dependent.myPriority);
+      }
+      node.myPriority = node.myWeight + maxDependentPriority;
+    }
+  }
+
+  /**
+   * Builds all chunks using at most parallelism threads of the executor, returns when all chunks are built or after the first failure,
+   * in the latter case chunks being built at the moment are allowed to finish but no new chunks are started.
+   */
+  void run(@NotNull Executor executor, int parallelism) throws ProjectBuildException {
+    synchronized (myLock) {
+      for (Node node : myNodes) {
+        if (node.myUnfinishedDependencies == 0) {
+          myReadyNodes.add(node);
+        }
+      }
+
+      while (true) {
+        while (myException == null && myRunningCount < parallelism && !myReadyNodes.isEmpty()) {
+          final Node node = myReadyNodes.poll();
+          myRunningCount++;
+          if (LOG.isDebugEnabled()) {
+            LOG.debug("Starting chunk " + node.myChunk.getName() + " (critical path " + node.myPriority + ")");
+          }
+          executor.execute(new Runnable() {
+            @Override
+            public void run() {
+              Throwable error = null;
+              try {
+                myProcessor.build(node.myChunk);
+              }
+              catch (Throwable e) {
+                LOG.info(e);
+                error = e;
+              }
+              finally {
+                onFinished(node, error);
+              }
+            }
+          });
+        }
+
+        if (myRunningCount == 0) {
+          if (myException != null || myFinishedCount == myNodes.size()) {
+            break;
+          }
+          throw new ProjectBuildException("Cannot schedule build of " + (myNodes.size() - myFinishedCount) + " chunks: cyclic dependencies");
+        }
+
+        try {
+          myLock.wait();
+        }
+        catch (InterruptedException e) {
+          LOG.info(e);
+        }
+      }
+    }
+
+    final Throwable exception = myException;
+    if (exception != null) {
+      if (exception instanceof ProjectBuildException) {
+        throw (ProjectBuildException)exception;
+      }
+      throw new ProjectBuildException(exception);
+    }
+  }
+
+  private void onFinished(@NotNull Node node, @Nullable Throwable error) {
+    synchronized (myLock) {
+      myRunningCount--;
+      myFinishedCount++;
+      if (error != null) {
+        if (myException == null) {
+          myException = error;
+        }
+      }
+      else {
+        for (Node dependent : node.myDependents) {
+          if (--dependent.myUnfinishedDependencies == 0) {
+            myReadyNodes.add(dependent);
+          }
+        }
+      }
+      myLock.notifyAll();
+    }
+  }
+
+  private static class Node {
+    private final ModuleChunk myChunk;
+    private final int myIndex;
+    private final int myWeight;
+    private final Set<Node> myDependents = new LinkedHashSet<Node>();
+    private int myUnfinishedDependencies;
+    private long myPriority;
+
+    private Node(@NotNull ModuleChunk chunk, int index, int weight) {
+      myChunk = chunk;
+      myIndex = index;
+      myWeight = weight;
+    }
+  }
+}
@@ -36,7 +36,7 @@ import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.util.*;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
@@ -414,75 +414,7 @@ public class IncProjectBuilder {
     final ProjectDescriptor pd = context.getProjectDescriptor();
     try {
       if (PARALLEL_BUILD_ENABLED) {
-        final List<ChunkGroup> chunkGroups = buildChunkGroups(context, chunks);
-        for (ChunkGroup group : chunkGroups) {
-          final List<ModuleChunk> groupChunks = group.getChunks();
-          final int chunkCount = groupChunks.size();
-          if (chunkCount == 0) {
-            continue;
-          }
-          try {
-            if (chunkCount == 1) {
-              _buildChunk(createContextWrapper(context), scope, groupChunks.iterator().next());
-            }
-            else {
-              final CountDownLatch latch = new CountDownLatch(chunkCount);
-              final Ref<Throwable> exRef = new Ref<Throwable>(null);
-
-              if (LOG.isDebugEnabled()) {
-                final StringBuilder logBuilder = new StringBuilder("Building chunks in parallel: ");
-                for (ModuleChunk chunk : groupChunks) {
-                  logBuilder.append(chunk.getName()).append("; ");
-                }
-                LOG.debug(logBuilder.toString());
-              }
-
-              for (final ModuleChunk chunk : groupChunks) {
-                final CompileContext chunkLocalContext = createContextWrapper(context);
-                SharedThreadPool.INSTANCE.submitBuildTask(new Runnable() {
-                  @Override
-                  public void run() {
-                    try {
-                      _buildChunk(chunkLocalContext, scope, chunk);
-                    }
-                    catch (Throwable e) {
-                      synchronized (exRef) {
-                        if (exRef.isNull()) {
-                          exRef.set(e);
-                        }
-                      }
-                      LOG.info(e);
-                    }
-                    finally {
-                      latch.countDown();
-                    }
-                  }
-                });
-              }
-
-              try {
-                latch.await();
-              }
-              catch (InterruptedException e) {
-                LOG.info(e);
-              }
-
-              final Throwable exception = exRef.get();
-              if (exception != null) {
-                if (exception instanceof ProjectBuildException) {
-                  throw (ProjectBuildException)exception;
-                }
-                else {
-                  throw new ProjectBuildException(exception);
-                }
-              }
-            }
-          }
-          finally {
-            pd.dataManager.closeSourceToOutputStorages(groupChunks, context.isCompilingTests());
-            pd.dataManager.flush(true);
-          }
-        }
+        buildChunksInParallel(context, chunks);
       }
       else {
         // non-parallel build
@@ -853,45 +785,63 @@ public class IncProjectBuilder {
     }
   }
 
-  private static List<ChunkGroup> buildChunkGroups(CompileContext context, ProjectChunks chunks) {
+  private void buildChunksInParallel(final CompileContextImpl context, ProjectChunks chunks) throws ProjectBuildException {
+    final CompileScope scope = context.getScope();
+    final ProjectDescriptor pd = context.getProjectDescriptor();
     final List<ModuleChunk> allChunks = chunks.getChunkList();
 
     // building aux dependencies map
-    final Map<JpsModule, Set<JpsModule>> depsMap = new HashMap<JpsModule, Set<JpsModule>>();
     final boolean compilingTests = context.isCompilingTests();
-    for (JpsModule module : context.getProjectDescriptor().jpsProject.getModules()) {
-      Set<JpsModule> dependent = depsMap.get(module);
-      if (dependent == null) {
-        dependent = ProjectPaths.getModulesWithDependentsRecursively(module, compilingTests);
-        dependent.remove(module);
-        depsMap.put(module, dependent);
-      }
-    }
-
-    final List<ChunkGroup> groups = new ArrayList<ChunkGroup>();
-    ChunkGroup currentGroup = new ChunkGroup();
-    groups.add(currentGroup);
+    final Map<ModuleChunk, Set<ModuleChunk>> chunkDeps = new HashMap<ModuleChunk, Set<ModuleChunk>>();
     for (ModuleChunk chunk : allChunks) {
-      if (dependsOnGroup(chunk, currentGroup, depsMap)) {
-        currentGroup = new ChunkGroup();
-        groups.add(currentGroup);
+      final Set<ModuleChunk> deps = new HashSet<ModuleChunk>();
+      for (JpsModule module : chunk.getModules()) {
+        for (JpsModule dep : ProjectPaths.getModulesWithDependentsRecursively(module, compilingTests)) {
+          final ModuleChunk depChunk = chunks.findChunk(dep);
+          if (depChunk != null && depChunk != chunk) {
+            deps.add(depChunk);
+          }
+        }
       }
-      currentGroup.addChunk(chunk);
+      chunkDeps.put(chunk, deps);
     }
-    return groups;
-  }
 
+    final ChunkBuildScheduler.ChunkProcessor processor = new ChunkBuildScheduler.ChunkProcessor() {
+      @Override
+      public int getWeight(@NotNull ModuleChunk chunk) {
+        // up-to-date chunks are only marked as processed
+        return scope.isAffected(chunk) ? chunk.getModules().size() : 0;
+      }
 
-  public static boolean dependsOnGroup(ModuleChunk chunk, ChunkGroup group, Map<JpsModule, Set<JpsModule>> depsMap) {
-    for (ModuleChunk groupChunk : group.getChunks()) {
-      final Set<JpsModule> groupChunkModules = groupChunk.getModules();
-      for (JpsModule module : chunk.getModules()) {
-        if (Utils.intersects(depsMap.get(module), groupChunkModules)) {
-          return true;
+      @Override
+      public void build(@NotNull ModuleChunk chunk) throws ProjectBuildException {
+        boolean built = false;
+        try {
+          _buildChunk(createContextWrapper(context), scope, chunk);
+          built = true;
+        }
+        finally {
+          try {
+            pd.dataManager.closeSourceToOutputStorages(Collections.singleton(chunk), compilingTests);
+            pd.dataManager.flush(true);
+          }
+          catch (IOException e) {
+            if (built) {
+              throw new ProjectBuildException(e);
+            }
+            // the failure of the build itself is the one to report
+            LOG.info(e);
+          }
         }
       }
-    }
-    return false;
+    };
+    final Executor builderPool = new Executor() {
+      @Override
+      public void execute(@NotNull Runnable command) {
+        SharedThreadPool.INSTANCE.submitBuildTask(command);
+      }
+    };
+    new ChunkBuildScheduler(allChunks, chunkDeps, processor).run(builderPool, SharedThreadPool.INSTANCE.getBuilderThreadsCount());
   }
 
   private static void onChunkBuildComplete(CompileContext context, @NotNull ModuleChunk chunk) throws IOException {
@@ -908,7 +858,7 @@ public class IncProjectBuilder {
           context.clearNonIncrementalMark(module);
         }
         if (context.isProjectRebuild()) {
-          fsState.markInitialScanPerformed(module.getName(), context.isCompilingTests());
+          fsState.markInitialScanPerformed(module.getName(), context.isCompilingTests(), getRootsLayout(context, module));
         }
         final Timestamps timestamps = pd.timestamps.getStorage();
         final List<RootDescriptor> roots = pd.rootsIndex.getModuleRoots(context, module);
@@ -936,7 +886,7 @@ public class IncProjectBuilder {
       }
       else {
         if (context.isMake()) {
-          if (pd.fsState.markInitialScanPerformed(module.getName(), context.isCompilingTests())) {
+          if (pd.fsState.markInitialScanPerformed(module.getName(), context.isCompilingTests(), getRootsLayout(context, module))) {
             initModuleFSState(context, module);
             updateOutputRootsLayout(context, module);
           }
@@ -954,6 +904,38 @@ public class IncProjectBuilder {
     }
   }
 
+  /**
+   * @return description of what the initial scan of the module sources depends on: the roots, the excludes and the output
+   */
+  private static String getRootsLayout(CompileContext context, JpsModule module) {
+    final ModuleRootsIndex rootsIndex = context.getProjectDescriptor().rootsIndex;
+    final List<String> roots = new ArrayList<String>();
+    for (RootDescriptor rd : rootsIndex.getModuleRoots(context, module)) {
+      if (rd.isTestRoot == context.isCompilingTests() && !rd.isTemp) {
+        roots.add(FileUtil.toSystemIndependentName(rd.root.getPath()));
+      }
+    }
+    final List<String> excludes = new ArrayList<String>();
+    for (File exclude : rootsIndex.getModuleExcludes(module)) {
+      excludes.add(FileUtil.toSystemIndependentName(exclude.getPath()));
+    }
+    Collections.sort(roots);
+    Collections.sort(excludes);
+
+    final StringBuilder layout = new StringBuilder();
+    for (String root : roots) {
+      layout.append(root).append('\n');
+    }
+    for (String exclude : excludes) {
+      layout.append('-').append(exclude).append('\n');
+    }
+    final File output = context.getProjectPaths().getModuleOutputDir(module, context.isCompilingTests());
+    if (output != null) {
+      layout.append('>').append(FileUtil.toSystemIndependentName(output.getPath()));
+    }
+    return layout.toString();
+  }
+
   private static void initModuleFSState(CompileContext context, JpsModule module) throws IOException {
     boolean forceMarkDirty = false;
     final File currentOutput = context.getProjectPaths().getModuleOutputDir(module, context.isCompilingTests());
@@ -1008,18 +990,6 @@ public class IncProjectBuilder {
     outputRootsLayout.update(module.getName(), Pair.create(productionPath, testPath));
   }
 
-  private static class ChunkGroup {
-    private final List<ModuleChunk> myChunks = new ArrayList<ModuleChunk>();
-
-    public void addChunk(ModuleChunk chunk) {
-      myChunks.add(chunk);
-    }
-
-    public List<ModuleChunk> getChunks() {
-      return myChunks;
-    }
-  }
-
   private static final Set<Key> GLOBAL_CONTEXT_KEYS = new HashSet<Key>();
   static {
     // keys for data that must be visible to all threads
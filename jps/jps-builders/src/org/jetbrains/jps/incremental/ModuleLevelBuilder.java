@@ -277,10 +277,13 @@ public abstract class ModuleLevelBuilder extends Builder {
       if (myChunkModules.contains(moduleOfFile)) {
         return true;
       }
-      Set<JpsModule> moduleOfFileWithDependencies = myCache.get(moduleOfFile);
-      if (moduleOfFileWithDependencies == null) {
-        moduleOfFileWithDependencies = ProjectPaths.getModulesWithDependentsRecursively(moduleOfFile, true);
-        myCache.put(moduleOfFile, moduleOfFileWithDependencies);
+      Set<JpsModule> moduleOfFileWithDependencies;
+      synchronized (myCache) { // dependencies may be differentiated concurrently
+        moduleOfFileWithDependencies = myCache.get(moduleOfFile);
+        if (moduleOfFileWithDependencies == null) {
+          moduleOfFileWithDependencies = ProjectPaths.getModulesWithDependentsRecursively(moduleOfFile, true);
+          myCache.put(moduleOfFile, moduleOfFileWithDependencies);
+        }
       }
       return Utils.intersects(moduleOfFileWithDependencies, myChunkModules);
     }
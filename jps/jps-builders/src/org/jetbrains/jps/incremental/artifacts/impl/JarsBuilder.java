@@ -19,18 +19,22 @@ package org.jetbrains.jps.incremental.artifacts.impl;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.Ref;
+import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.util.ArrayUtil;
 import com.intellij.util.graph.CachingSemiGraph;
 import com.intellij.util.graph.DFSTBuilder;
 import com.intellij.util.graph.GraphGenerator;
-import com.intellij.util.io.ZipUtil;
+import com.intellij.util.io.zip.JBZipEntry;
+import com.intellij.util.io.zip.JBZipFile;
 import gnu.trove.THashSet;
+import gnu.trove.TObjectIntHashMap;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.jps.JpsPathUtil;
+import org.jetbrains.jps.api.SharedThreadPool;
 import org.jetbrains.jps.incremental.CompileContext;
 import org.jetbrains.jps.incremental.ProjectBuildException;
 import org.jetbrains.jps.incremental.artifacts.*;
@@ -42,10 +46,9 @@ import org.jetbrains.jps.incremental.messages.ProgressMessage;
 import java.io.*;
 import java.util.*;
 import java.util.jar.JarFile;
-import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 /**
  * @author nik
@@ -58,6 +61,8 @@ public class JarsBuilder {
   private final ArtifactSourceToOutputMapping mySrcOutMapping;
   private final ArtifactOutputToSourceMapping myOutSrcMapping;
   private final ArtifactInstructionsBuilder myInstructions;
+  // guards the mappings, the logger and myBuiltJars, which are used by all threads when jars are built in parallel
+  private final Object myDataLock = new Object();
 
   public JarsBuilder(Set<JarInfo> jarsToBuild,
                      CompileContext context,
@@ -84,9 +89,15 @@ public class JarsBuilder {
 
     myBuiltJars = new HashMap<JarInfo, File>();
     try {
-      for (JarInfo jar : sortedJars) {
-        myContext.checkCanceled();
-        buildJar(jar);
+      final int parallelism = Math.min(SharedThreadPool.INSTANCE.getBuilderThreadsCount(), Runtime.getRuntime().availableProcessors());
+      if (parallelism > 1 && sortedJars.length > 1) {
+        buildJarsInParallel(sortedJars, parallelism);
+      }
+      else {
+        for (JarInfo jar : sortedJars) {
+          myContext.checkCanceled();
+          buildJar(jar);
+        }
       }
 
       myContext.processMessage(new ProgressMessage("Copying archives..."));
@@ -100,6 +111,103 @@ public class JarsBuilder {
     return true;
   }
 
+  /**
+   * Builds jars using at most parallelism builder threads. A jar is started as soon as all jars nested into it are built.
+   */
+  private void buildJarsInParallel(JarInfo[] sortedJars, int parallelism) throws IOException, ProjectBuildException {
+    final Map<JarInfo, JarInfo> parentJars = new HashMap<JarInfo, JarInfo>();
+    final TObjectIntHashMap<JarInfo> nestedJarsToBuild = new TObjectIntHashMap<JarInfo>();
+    for (JarInfo jar : sortedJars) {
+      final DestinationInfo destination = jar.getDestination();
+      if (destination instanceof JarDestinationInfo) {
+        final JarInfo parent = ((JarDestinationInfo)destination).getJarInfo();
+        if (myJarsToBuild.contains(parent)) {
+          parentJars.put(jar, parent);
+          if (!nestedJarsToBuild.increment(parent)) {
+            nestedJarsToBuild.put(parent, 1);
+          }
+        }
+      }
+    }
+    final LinkedList<JarInfo> readyJars = new LinkedList<JarInfo>();
+    for (JarInfo jar : sortedJars) {
+      if (!nestedJarsToBuild.containsKey(jar)) {
+        readyJars.add(jar);
+      }
+    }
+
+    final Object lock = new Object();
+    final int[] runningCount = new int[1];
+    final Ref<Throwable> exception = Ref.create(null);
+    boolean interrupted = false;
+    synchronized (lock) {
+      while (true) {
+        while (exception.isNull() && runningCount[0] < parallelism && !readyJars.isEmpty()) {
+          final JarInfo jar = readyJars.removeFirst();
+          runningCount[0]++;
+          SharedThreadPool.INSTANCE.submitBuildTask(new Runnable() {
+            @Override
+            public void run() {
+              Throwable error = null;
+              try {
+                myContext.checkCanceled();
+                buildJar(jar);
+              }
+              catch (Throwable e) {
+                error = e;
+              }
+              finally {
+                synchronized (lock) {
+                  runningCount[0]--;
+                  if (error != null) {
+                    if (exception.isNull()) {
+                      exception.set(error);
+                    }
+                  }
+                  else {
+                    final JarInfo parent = parentJars.get(jar);
+                    if (parent != null && nestedJarsToBuild.adjustValue(parent, -1) && nestedJarsToBuild.get(parent) == 0) {
+                      readyJars.add(parent);
+                    }
+                  }
+                  lock.notifyAll();
+                }
+              }
+            }
+          });
+        }
+
+        if (runningCount[0] == 0) {
+          break;
+        }
+        try {
+          lock.wait();
+        }
+        catch (InterruptedException e) {
+          // treated as a cancel: no new jars are started, the running ones are waited for as they write the temporary files
+          interrupted = true;
+          if (exception.isNull()) {
+            exception.set(e);
+          }
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+
+    final Throwable error = exception.get();
+    if (error instanceof IOException) {
+      throw (IOException)error;
+    }
+    if (error instanceof ProjectBuildException) {
+      throw (ProjectBuildException)error;
+    }
+    if (error != null) {
+      throw new ProjectBuildException(error);
+    }
+  }
+
   private void deleteTemporaryJars() {
     for (File file : myBuiltJars.values()) {
       FileUtil.delete(file);
@@ -144,17 +252,18 @@ public class JarsBuilder {
 
     myContext.processMessage(new ProgressMessage("Building " + jar.getPresentableDestination() + "..."));
     File jarFile = FileUtil.createTempFile("artifactCompiler", "tmp");
-    myBuiltJars.put(jar, jarFile);
+    synchronized (myDataLock) {
+      myBuiltJars.put(jar, jarFile);
+    }
 
     FileUtil.createParentDirs(jarFile);
     final String targetJarPath = jar.getDestination().getOutputFilePath();
     Manifest manifest = loadManifest(jar, targetJarPath);
-    final JarOutputStream jarOutputStream = createJarOutputStream(jarFile, manifest);
+    final JarWriter writer = new JarWriter(jarFile, getPreviousJarFile(jar));
 
     try {
-      final THashSet<String> writtenPaths = new THashSet<String>();
       if (manifest != null) {
-        writtenPaths.add(JarFile.MANIFEST_NAME);
+        writer.addManifest(manifest);
       }
 
       for (Pair<String, Object> pair : jar.getContent()) {
@@ -164,23 +273,27 @@ public class JarsBuilder {
           final int rootIndex = descriptor.getRootIndex();
           final ArtifactBuilderLogger logger = myContext.getLoggingManager().getArtifactBuilderLogger();
           if (descriptor instanceof FileBasedArtifactRootDescriptor) {
-            addFileToJar(jarOutputStream, jarFile, descriptor.getRootFile(), descriptor.getFilter(), relativePath, targetJarPath, writtenPaths,
-                         rootIndex);
+            addFileToJar(writer, jarFile, descriptor.getRootFile(), descriptor.getFilter(), relativePath, targetJarPath, rootIndex);
           }
           else {
             final String filePath = FileUtil.toSystemIndependentName(descriptor.getRootFile().getAbsolutePath());
-            logger.fileCopied(filePath);
-            mySrcOutMapping.appendData(filePath, Collections.singletonList(targetJarPath));
-            myOutSrcMapping.appendData(targetJarPath, Collections
-              .singletonList(new ArtifactOutputToSourceMapping.SourcePathAndRootIndex(filePath, rootIndex)));
-            extractFileAndAddToJar(jarOutputStream, (JarBasedArtifactRootDescriptor)descriptor, relativePath, writtenPaths);
+            synchronized (myDataLock) {
+              logger.fileCopied(filePath);
+              mySrcOutMapping.appendData(filePath, Collections.singletonList(targetJarPath));
+              myOutSrcMapping.appendData(targetJarPath, Collections
+                .singletonList(new ArtifactOutputToSourceMapping.SourcePathAndRootIndex(filePath, rootIndex)));
+            }
+            extractFileAndAddToJar(writer, (JarBasedArtifactRootDescriptor)descriptor, relativePath);
           }
         }
         else {
           JarInfo nestedJar = (JarInfo)pair.getSecond();
-          File nestedJarFile = myBuiltJars.get(nestedJar);
+          File nestedJarFile;
+          synchronized (myDataLock) {
+            nestedJarFile = myBuiltJars.get(nestedJar);
+          }
           if (nestedJarFile != null) {
-            addFileToJar(jarOutputStream, jarFile, nestedJarFile, SourceFileFilter.ALL, relativePath, targetJarPath, writtenPaths, -1);
+            addFileToJar(writer, jarFile, nestedJarFile, SourceFileFilter.ALL, relativePath, targetJarPath, -1);
           }
           else {
             LOG.debug("nested jar file " + relativePath + " for " + jar.getPresentableDestination() + " not found");
@@ -189,16 +302,23 @@ public class JarsBuilder {
       }
     }
     finally {
-      jarOutputStream.close();
+      writer.close();
     }
   }
 
-  private static JarOutputStream createJarOutputStream(File jarFile, @Nullable Manifest manifest) throws IOException {
-    final BufferedOutputStream outputStream = new BufferedOutputStream(new FileOutputStream(jarFile));
-    if (manifest != null) {
-      return new JarOutputStream(outputStream, manifest);
+  /**
+   * @return the jar built last time, if it's still there; its entries which haven't changed since then are copied to the new jar as is
+   */
+  @Nullable
+  private static File getPreviousJarFile(JarInfo jar) {
+    final DestinationInfo destination = jar.getDestination();
+    if (destination instanceof ExplodedDestinationInfo) {
+      final File file = new File(FileUtil.toSystemDependentName(destination.getOutputPath()));
+      if (file.isFile()) {
+        return file;
+      }
     }
-    return new JarOutputStream(outputStream);
+    return null;
   }
 
   @Nullable
@@ -215,8 +335,10 @@ public class JarsBuilder {
           final File manifestFile = new File(descriptor.getRootFile(), manifestPath);
           if (manifestFile.exists()) {
             final String fullManifestPath = FileUtil.toSystemIndependentName(manifestFile.getAbsolutePath());
-            myContext.getLoggingManager().getArtifactBuilderLogger().fileCopied(fullManifestPath);
-            mySrcOutMapping.appendData(fullManifestPath, Collections.singletonList(targetJarPath));
+            synchronized (myDataLock) {
+              myContext.getLoggingManager().getArtifactBuilderLogger().fileCopied(fullManifestPath);
+              mySrcOutMapping.appendData(fullManifestPath, Collections.singletonList(targetJarPath));
+            }
             //noinspection IOResourceOpenedButNotSafelyClosed
             return createManifest(new FileInputStream(manifestFile), manifestFile);
           }
@@ -258,46 +380,56 @@ public class JarsBuilder {
     }
   }
 
-  private static void extractFileAndAddToJar(final JarOutputStream jarOutputStream, final JarBasedArtifactRootDescriptor root,
-                                             final String relativeOutputPath, final Set<String> writtenPaths)
+  private static void extractFileAndAddToJar(final JarWriter writer, final JarBasedArtifactRootDescriptor root,
+                                             final String relativeOutputPath)
     throws IOException {
     final long timestamp = root.getRootFile().lastModified();
+    final boolean processed = root.processRawEntries(new JarBasedArtifactRootDescriptor.RawEntryProcessor() {
+      @Override
+      public void process(@NotNull JBZipEntry entry, @NotNull String relativePath) throws IOException {
+        String pathInJar = writer.addParentDirectories(JpsPathUtil.appendToPath(relativeOutputPath, relativePath));
+
+        if (entry.isDirectory()) {
+          writer.addDirectory(pathInJar + "/");
+        }
+        else {
+          writer.addRawEntry(pathInJar, entry, timestamp);
+        }
+      }
+    });
+    if (processed) return;
+
     root.processEntries(new JarBasedArtifactRootDescriptor.EntryProcessor() {
       @Override
       public void process(@Nullable InputStream inputStream, @NotNull String relativePath) throws IOException {
-        String pathInJar = addParentDirectories(jarOutputStream, writtenPaths, JpsPathUtil.appendToPath(relativeOutputPath, relativePath));
+        String pathInJar = writer.addParentDirectories(JpsPathUtil.appendToPath(relativeOutputPath, relativePath));
 
         if (inputStream == null) {
-          addDirectoryEntry(jarOutputStream, pathInJar + "/", writtenPaths);
+          writer.addDirectory(pathInJar + "/");
         }
-        else if (writtenPaths.add(pathInJar)) {
-          ZipEntry entry = new ZipEntry(pathInJar);
-          entry.setTime(timestamp);
-          jarOutputStream.putNextEntry(entry);
-          FileUtil.copy(inputStream, jarOutputStream);
-          jarOutputStream.closeEntry();
+        else if (!writer.isWritten(pathInJar)) {
+          writer.addEntry(pathInJar, inputStream, timestamp);
         }
       }
     });
-
   }
 
-  private void addFileToJar(final @NotNull JarOutputStream jarOutputStream, final @NotNull File jarFile, @NotNull File file,
+  private void addFileToJar(final @NotNull JarWriter writer, final @NotNull File jarFile, @NotNull File file,
                             SourceFileFilter filter, @NotNull String relativePath, String targetJarPath,
-                            final @NotNull Set<String> writtenPaths, final int rootIndex) throws IOException {
+                            final int rootIndex) throws IOException {
     if (!file.exists() || FileUtil.isAncestor(file, jarFile, false)) {
       return;
     }
 
-    relativePath = addParentDirectories(jarOutputStream, writtenPaths, relativePath);
-    addFileOrDirRecursively(jarOutputStream, file, filter, relativePath, targetJarPath, writtenPaths, rootIndex);
+    relativePath = writer.addParentDirectories(relativePath);
+    addFileOrDirRecursively(writer, file, filter, relativePath, targetJarPath, rootIndex);
   }
 
-  private void addFileOrDirRecursively(@NotNull ZipOutputStream jarOutputStream,
+  private void addFileOrDirRecursively(@NotNull JarWriter writer,
                                        @NotNull File file,
                                        SourceFileFilter filter,
                                        @NotNull String relativePath,
-                                       String targetJarPath, @NotNull Set<String> writtenItemRelativePaths, int rootIndex) throws IOException {
+                                       String targetJarPath, int rootIndex) throws IOException {
     final String filePath = FileUtil.toSystemIndependentName(file.getAbsolutePath());
     if (!filter.accept(filePath, myContext.getProjectDescriptor().dataManager)) {
       return;
@@ -306,53 +438,197 @@ public class JarsBuilder {
     if (file.isDirectory()) {
       final String directoryPath = relativePath.length() == 0 ? "" : relativePath + "/";
       if (!directoryPath.isEmpty()) {
-        addDirectoryEntry(jarOutputStream, directoryPath, writtenItemRelativePaths);
+        writer.addDirectory(directoryPath);
       }
       final File[] children = file.listFiles();
       if (children != null) {
         for (File child : children) {
-          addFileOrDirRecursively(jarOutputStream, child, filter, directoryPath + child.getName(), targetJarPath, writtenItemRelativePaths,
-                                  rootIndex);
+          addFileOrDirRecursively(writer, child, filter, directoryPath + child.getName(), targetJarPath, rootIndex);
         }
       }
       return;
     }
 
-    final boolean added = ZipUtil.addFileToZip(jarOutputStream, file, relativePath, writtenItemRelativePaths, null);
+    final boolean added = !writer.isWritten(relativePath) && writer.addEntry(relativePath, file, file.lastModified());
     if (rootIndex != -1) {
-      myOutSrcMapping.appendData(targetJarPath, Collections.singletonList(new ArtifactOutputToSourceMapping.SourcePathAndRootIndex(filePath, rootIndex)));
-      if (added) {
-        mySrcOutMapping.appendData(filePath, Collections.singletonList(targetJarPath));
-        myContext.getLoggingManager().getArtifactBuilderLogger().fileCopied(filePath);
+      synchronized (myDataLock) {
+        myOutSrcMapping.appendData(targetJarPath, Collections.singletonList(new ArtifactOutputToSourceMapping.SourcePathAndRootIndex(filePath, rootIndex)));
+        if (added) {
+          mySrcOutMapping.appendData(filePath, Collections.singletonList(targetJarPath));
+          myContext.getLoggingManager().getArtifactBuilderLogger().fileCopied(filePath);
+        }
       }
     }
   }
 
+  /**
+   * Writes entries of a jar. If the previous version of the jar is available, compressed data of its entries which haven't changed is
+   * copied as is instead of compressing the same content again.
+   */
+  private static class JarWriter {
+    // larger entries are compressed while they are read instead of being loaded into memory
+    private static final int MAX_LOADED_ENTRY_SIZE = 1024 * 1024;
+
+    private final JBZipFile myZipFile;
+    @Nullable private final JBZipFile myPreviousJar;
+    private final Set<String> myWrittenPaths = new THashSet<String>();
+    private final CRC32 myCrc = new CRC32();
+
+    private JarWriter(@NotNull File jarFile, @Nullable File previousJarFile) throws IOException {
+      myZipFile = new JBZipFile(jarFile);
+      myPreviousJar = previousJarFile != null ? openPreviousJar(previousJarFile) : null;
+    }
+
+    @Nullable
+    private static JBZipFile openPreviousJar(@NotNull File file) {
+      try {
+        return new JBZipFile(file, "UTF-8", true);
+      }
+      catch (IOException e) {
+        LOG.debug("Cannot reuse entries of " + file.getPath(), e);
+        return null;
+      }
+    }
+
+    public boolean isWritten(@NotNull String path) {
+      return myWrittenPaths.contains(path);
+    }
 
-  private static String addParentDirectories(JarOutputStream jarOutputStream, Set<String> writtenPaths, String relativePath) throws IOException {
-    while (StringUtil.startsWithChar(relativePath, '/')) {
-      relativePath = relativePath.substring(1);
+    public void addManifest(@NotNull Manifest manifest) throws IOException {
+      final ByteArrayOutputStream output = new ByteArrayOutputStream();
+      manifest.write(output);
+      addEntry(JarFile.MANIFEST_NAME, output.toByteArray(), System.currentTimeMillis());
     }
-    int i = relativePath.indexOf('/');
-    while (i != -1) {
-      String prefix = relativePath.substring(0, i+1);
-      if (prefix.length() > 1) {
-        addDirectoryEntry(jarOutputStream, prefix, writtenPaths);
+
+    public boolean addEntry(@NotNull String path, @NotNull byte[] content, long timestamp) throws IOException {
+      if (!myWrittenPaths.add(path)) return false;
+
+      final JBZipEntry entry = myZipFile.getOrCreateEntry(path);
+      final JBZipEntry previousEntry = findUnchangedEntry(path, content);
+      if (previousEntry != null) {
+        entry.setRawData(previousEntry, timestamp);
       }
-      i = relativePath.indexOf('/', i + 1);
+      else {
+        entry.setMethod(content.length == 0 ? ZipEntry.STORED : ZipEntry.DEFLATED);
+        entry.setData(content, timestamp);
+      }
+      return true;
+    }
+
+    public boolean addEntry(@NotNull String path, @NotNull File file, long timestamp) throws IOException {
+      if (file.length() <= MAX_LOADED_ENTRY_SIZE) {
+        return addEntry(path, FileUtil.loadFileBytes(file), timestamp);
+      }
+      if (!myWrittenPaths.add(path)) return false;
+
+      final JBZipEntry entry = myZipFile.getOrCreateEntry(path);
+      final JBZipEntry previousEntry = findUnchangedEntry(path, file);
+      if (previousEntry != null) {
+        entry.setRawData(previousEntry, timestamp);
+      }
+      else {
+        final InputStream input = new FileInputStream(file);
+        try {
+          entry.setData(input, timestamp);
+        }
+        finally {
+          input.close();
+        }
+      }
+      return true;
     }
-    return relativePath;
-  }
 
-  private static void addDirectoryEntry(final ZipOutputStream output, @NonNls final String relativePath, Set<String> writtenPaths) throws IOException {
-    if (!writtenPaths.add(relativePath)) return;
+    public boolean addEntry(@NotNull String path, @NotNull InputStream input, long timestamp) throws IOException {
+      final BufferExposingByteArrayOutputStream head = new BufferExposingByteArrayOutputStream();
+      final byte[] buffer = new byte[8192];
+      int read;
+      while (head.size() <= MAX_LOADED_ENTRY_SIZE && (read = input.read(buffer)) > 0) {
+        head.write(buffer, 0, read);
+      }
+      if (head.size() <= MAX_LOADED_ENTRY_SIZE) {
+        return addEntry(path, head.toByteArray(), timestamp);
+      }
+      if (!myWrittenPaths.add(path)) return false;
 
-    ZipEntry e = new ZipEntry(relativePath);
-    e.setMethod(ZipEntry.STORED);
-    e.setSize(0);
-    e.setCrc(0);
-    output.putNextEntry(e);
-    output.closeEntry();
+      // the size of the content isn't known in advance, so it's not compared with the previous jar
+      final InputStream content = new SequenceInputStream(new ByteArrayInputStream(head.getInternalBuffer(), 0, head.size()), input);
+      myZipFile.getOrCreateEntry(path).setData(content, timestamp);
+      return true;
+    }
+
+    public void addRawEntry(@NotNull String path, @NotNull JBZipEntry source, long timestamp) throws IOException {
+      if (!myWrittenPaths.add(path)) return;
+
+      myZipFile.getOrCreateEntry(path).setRawData(source, timestamp);
+    }
+
+    public void addDirectory(@NonNls @NotNull String path) throws IOException {
+      if (!myWrittenPaths.add(path)) return;
+
+      final JBZipEntry entry = myZipFile.getOrCreateEntry(path);
+      entry.setMethod(ZipEntry.STORED);
+      entry.setData(ArrayUtil.EMPTY_BYTE_ARRAY, System.currentTimeMillis());
+    }
+
+    public String addParentDirectories(String relativePath) throws IOException {
+      while (StringUtil.startsWithChar(relativePath, '/')) {
+        relativePath = relativePath.substring(1);
+      }
+      int i = relativePath.indexOf('/');
+      while (i != -1) {
+        String prefix = relativePath.substring(0, i+1);
+        if (prefix.length() > 1) {
+          addDirectory(prefix);
+        }
+        i = relativePath.indexOf('/', i + 1);
+      }
+      return relativePath;
+    }
+
+    @Nullable
+    private JBZipEntry findUnchangedEntry(@NotNull String path, @NotNull byte[] content) {
+      if (myPreviousJar == null || content.length == 0) return null;
+
+      final JBZipEntry entry = myPreviousJar.getEntry(path);
+      if (entry == null || entry.getMethod() != ZipEntry.DEFLATED || entry.getSize() != content.length) return null;
+
+      myCrc.reset();
+      myCrc.update(content);
+      return entry.getCrc() == myCrc.getValue() ? entry : null;
+    }
+
+    @Nullable
+    private JBZipEntry findUnchangedEntry(@NotNull String path, @NotNull File file) throws IOException {
+      if (myPreviousJar == null) return null;
+
+      final JBZipEntry entry = myPreviousJar.getEntry(path);
+      if (entry == null || entry.getMethod() != ZipEntry.DEFLATED || entry.getSize() != file.length()) return null;
+
+      myCrc.reset();
+      final InputStream input = new FileInputStream(file);
+      try {
+        final byte[] buffer = new byte[8192];
+        int read;
+        while ((read = input.read(buffer)) > 0) {
+          myCrc.update(buffer, 0, read);
+        }
+      }
+      finally {
+        input.close();
+      }
+      return entry.getCrc() == myCrc.getValue() ? entry : null;
+    }
+
+    public void close() throws IOException {
+      try {
+        myZipFile.close();
+      }
+      finally {
+        if (myPreviousJar != null) {
+          myPreviousJar.close();
+        }
+      }
+    }
   }
 
   private class JarsGraph implements GraphGenerator.SemiGraph<JarInfo> {
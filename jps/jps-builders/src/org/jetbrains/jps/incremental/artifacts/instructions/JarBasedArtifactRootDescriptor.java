@@ -1,7 +1,10 @@
 package org.jetbrains.jps.incremental.artifacts.instructions;
 
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.util.io.zip.JBZipEntry;
+import com.intellij.util.io.zip.JBZipFile;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.jps.JpsPathUtil;
@@ -20,6 +23,7 @@ import java.util.zip.ZipFile;
  * @author nik
  */
 public class JarBasedArtifactRootDescriptor extends ArtifactRootDescriptor {
+  private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.incremental.artifacts.instructions.JarBasedArtifactRootDescriptor");
   private final String myPathInJar;
 
   public JarBasedArtifactRootDescriptor(@NotNull File jarFile,
@@ -37,12 +41,7 @@ public class JarBasedArtifactRootDescriptor extends ArtifactRootDescriptor {
   }
 
   public void processEntries(EntryProcessor processor) throws IOException {
-    String prefix = StringUtil.trimStart(myPathInJar, "/");
-    if (!StringUtil.endsWithChar(prefix, '/')) prefix += "/";
-    if (prefix.equals("/")) {
-      prefix = "";
-    }
-
+    final String prefix = getEntryPrefix();
     ZipFile zipFile = new ZipFile(myRoot);
     try {
       final Enumeration<? extends ZipEntry> entries = zipFile.entries();
@@ -61,6 +60,46 @@ public class JarBasedArtifactRootDescriptor extends ArtifactRootDescriptor {
     }
   }
 
+  /**
+   * Processes entries as {@link #processEntries} does, but gives access to their compressed data, so they can be put to another archive
+   * without decompressing and compressing them again
+   *
+   * @return false if the jar cannot be read this way, no entries are processed in that case
+   */
+  public boolean processRawEntries(RawEntryProcessor processor) throws IOException {
+    final String prefix = getEntryPrefix();
+    final JBZipFile zipFile;
+    try {
+      zipFile = new JBZipFile(myRoot, "UTF-8", true);
+    }
+    catch (IOException e) {
+      LOG.debug("Cannot read " + myRoot.getPath() + " as is", e);
+      return false;
+    }
+
+    try {
+      for (JBZipEntry entry : zipFile.getEntries()) {
+        final String name = entry.getName();
+        if (name.startsWith(prefix)) {
+          processor.process(entry, name.substring(prefix.length()));
+        }
+      }
+    }
+    finally {
+      zipFile.close();
+    }
+    return true;
+  }
+
+  private String getEntryPrefix() {
+    String prefix = StringUtil.trimStart(myPathInJar, "/");
+    if (!StringUtil.endsWithChar(prefix, '/')) prefix += "/";
+    if (prefix.equals("/")) {
+      prefix = "";
+    }
+    return prefix;
+  }
+
   public void copyFromRoot(final String filePath,
                            final int rootIndex, final String outputPath,
                            CompileContext context, final ArtifactSourceToOutputMapping srcOutMapping,
@@ -99,4 +138,8 @@ public class JarBasedArtifactRootDescriptor extends ArtifactRootDescriptor {
   public interface EntryProcessor {
     void process(@Nullable InputStream inputStream, @NotNull String relativePath) throws IOException;
   }
+
+  public interface RawEntryProcessor {
+    void process(@NotNull JBZipEntry entry, @NotNull String relativePath) throws IOException;
+  }
 }
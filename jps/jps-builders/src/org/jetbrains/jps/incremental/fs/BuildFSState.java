@@ -44,8 +44,8 @@ public class BuildFSState extends FSState {
   }
 
   @Override
-  public boolean markInitialScanPerformed(String moduleName, boolean forTests) {
-    return myAlwaysScanFS || super.markInitialScanPerformed(moduleName, forTests);
+  public boolean markInitialScanPerformed(String moduleName, boolean forTests, @NotNull String rootsLayout) {
+    return myAlwaysScanFS || super.markInitialScanPerformed(moduleName, forTests, rootsLayout);
   }
 
   @Override
@@ -96,6 +96,8 @@ public class BuildFSState extends FSState {
     clearContextChunk(null);
     myInitialProductionScanPerformed.clear();
     myInitialTestsScanPerformed.clear();
+    myProductionScannedRootsLayout.clear();
+    myTestsScannedRootsLayout.clear();
     super.clearAll();
   }
 
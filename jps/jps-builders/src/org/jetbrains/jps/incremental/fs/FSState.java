@@ -26,6 +26,10 @@ public class FSState {
   protected final Set<String> myInitialProductionScanPerformed = Collections.synchronizedSet(new HashSet<String>());
   private final Map<String, ArtifactFilesDelta> myArtifactDeltas = Collections.synchronizedMap(new HashMap<String, ArtifactFilesDelta>());
   private final Set<String> myArtifactInitialScanPerformed = Collections.synchronizedSet(new HashSet<String>());
+  // module name -> layout of the module roots the initial scan was performed with; the scan is repeated when the layout changes,
+  // so that a change of the module roots doesn't require rescanning the whole project
+  protected final Map<String, String> myTestsScannedRootsLayout = Collections.synchronizedMap(new HashMap<String, String>());
+  protected final Map<String, String> myProductionScannedRootsLayout = Collections.synchronizedMap(new HashMap<String, String>());
 
   public void save(DataOutput out) throws IOException {
     out.writeInt(myInitialTestsScanPerformed.size());
@@ -44,6 +48,32 @@ public class FSState {
       IOUtil.writeString(artifactName, out);
       getDelta(artifactName).save(out);
     }
+    saveRootsLayout(out, myTestsScannedRootsLayout, myInitialTestsScanPerformed);
+    saveRootsLayout(out, myProductionScannedRootsLayout, myInitialProductionScanPerformed);
+  }
+
+  private static void saveRootsLayout(DataOutput out, Map<String, String> layouts, Set<String> scannedModules) throws IOException {
+    final Map<String, String> toSave = new HashMap<String, String>();
+    synchronized (layouts) {
+      for (Map.Entry<String, String> entry : layouts.entrySet()) {
+        if (scannedModules.contains(entry.getKey())) {
+          toSave.put(entry.getKey(), entry.getValue());
+        }
+      }
+    }
+    out.writeInt(toSave.size());
+    for (Map.Entry<String, String> entry : toSave.entrySet()) {
+      IOUtil.writeString(entry.getKey(), out);
+      IOUtil.writeString(entry.getValue(), out);
+    }
+  }
+
+  private static void loadRootsLayout(DataInputStream in, Map<String, String> layouts) throws IOException {
+    int count = in.readInt();
+    while (count-- > 0) {
+      final String moduleName = IOUtil.readString(in);
+      layouts.put(moduleName, IOUtil.readString(in));
+    }
   }
 
   public void load(DataInputStream in) throws IOException {
@@ -68,6 +98,10 @@ public class FSState {
         myArtifactInitialScanPerformed.add(name);
       }
     }
+    if (in.available() > 0) {
+      loadRootsLayout(in, myTestsScannedRootsLayout);
+      loadRootsLayout(in, myProductionScannedRootsLayout);
+    }
   }
 
   protected ArtifactFilesDelta getDelta(String artifactName) {
@@ -219,14 +253,34 @@ public class FSState {
     return false;
   }
 
-  public boolean markInitialScanPerformed(final String moduleName, boolean forTests) {
-    return getInitialScanPerformedSet(forTests).add(moduleName);
+  /**
+   * @param rootsLayout description of the module roots the sources are going to be scanned with
+   * @return true if the initial scan of the module sources wasn't performed yet or was performed with a different roots layout
+   */
+  public boolean markInitialScanPerformed(final String moduleName, boolean forTests, @NotNull String rootsLayout) {
+    final String previousLayout = getScannedRootsLayout(forTests).put(moduleName, rootsLayout);
+    final boolean added = getInitialScanPerformedSet(forTests).add(moduleName);
+    // the layout is unknown for modules scanned before the layouts were stored
+    return added || (previousLayout != null && !previousLayout.equals(rootsLayout));
+  }
+
+  /**
+   * Makes the next build scan the module sources again, e.g. when the IDE reports that any content under a module root may have
+   * changed without separate events for the files
+   */
+  public void markInitialScanRequired(final String moduleName) {
+    myInitialTestsScanPerformed.remove(moduleName);
+    myInitialProductionScanPerformed.remove(moduleName);
   }
 
   private Set<String> getInitialScanPerformedSet(boolean forTests) {
     return forTests ? myInitialTestsScanPerformed : myInitialProductionScanPerformed;
   }
 
+  private Map<String, String> getScannedRootsLayout(boolean forTests) {
+    return forTests ? myTestsScannedRootsLayout : myProductionScannedRootsLayout;
+  }
+
   public boolean markInitialScanPerformed(String artifactName) {
     return myArtifactInitialScanPerformed.add(artifactName);
   }
@@ -283,7 +283,7 @@ public class JavaBuilder extends ModuleLevelBuilder {
 
     // begin compilation round
     final DiagnosticSink diagnosticSink = new DiagnosticSink(context);
-    final OutputFilesSink outputSink = new OutputFilesSink(context);
+    final OutputFilesSink outputSink = new OutputFilesSink(context, forms.isEmpty() && !addNotNullAssertions);
     final Mappings delta = pd.dataManager.getMappings().createDelta();
     DELTA_MAPPINGS_CALLBACK_KEY.set(context, delta.getCallback());
     try {
@@ -2,7 +2,9 @@ package org.jetbrains.jps.incremental.java;
 
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
-import org.jetbrains.jps.incremental.CompileContext;
+import org.jetbrains.jps.api.SequentialTaskExecutor;
+import org.jetbrains.jps.api.SharedThreadPool;
+import org.jetbrains.jps.incremental.MessageHandler;
 import org.jetbrains.jps.incremental.messages.BuildMessage;
 import org.jetbrains.jps.incremental.messages.CompilerMessage;
 import org.jetbrains.jps.incremental.messages.FileGeneratedEvent;
@@ -12,20 +14,38 @@ import org.jetbrains.jps.javac.OutputFileObject;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
-* @author Eugene Zhuravlev
-*         Date: 2/16/12
-*/
+ * Output files are written by a few background writers. If nothing is going to change the files after compilation, they are written
+ * as soon as the compiler produces them, otherwise all of them are written by {@link #writePendingData()}.
+ *
+ * @author Eugene Zhuravlev
+ *         Date: 2/16/12
+ */
 class OutputFilesSink implements OutputFileConsumer {
-  private final CompileContext myContextI;
+  private static final int WRITER_THREADS = Math.max(1, Integer.parseInt(System.getProperty("jps.output.writer.threads", "2")));
+  private final MessageHandler myMessageHandler;
+  private final boolean myWriteAsCompiled;
   private final Set<File> mySuccessfullyCompiled = new LinkedHashSet<File>();
   private final Set<File> myProblematic = new HashSet<File>();
   private final List<OutputFileObject> myFileObjects = new ArrayList<OutputFileObject>();
   private final Map<String, OutputFileObject> myCompiledClasses = new HashMap<String, OutputFileObject>();
+  private final Map<OutputFileObject, FileWriteTask> myWriteTasks = new HashMap<OutputFileObject, FileWriteTask>();
+  private final SequentialTaskExecutor[] myWriters = new SequentialTaskExecutor[WRITER_THREADS];
+  private final Set<File> myExistingDirs = Collections.synchronizedSet(new HashSet<File>());
 
-  public OutputFilesSink(CompileContext context) {
-    myContextI = context;
+  /**
+   * @param writeAsCompiled whether files may be written as soon as they are produced, i.e. their content isn't going to be changed
+   *                        after compilation, e.g. by instrumentation
+   */
+  public OutputFilesSink(MessageHandler messageHandler, boolean writeAsCompiled) {
+    myMessageHandler = messageHandler;
+    myWriteAsCompiled = writeAsCompiled;
+    for (int i = 0; i < myWriters.length; i++) {
+      myWriters[i] = new SequentialTaskExecutor(SharedThreadPool.INSTANCE);
+    }
   }
 
   public void save(final @NotNull OutputFileObject fileObject) {
@@ -42,6 +62,13 @@ class OutputFilesSink implements OutputFileConsumer {
     synchronized (myFileObjects) {
       myFileObjects.add(fileObject);
     }
+
+    if (myWriteAsCompiled) {
+      final OutputFileObject.Content content = fileObject.getContent();
+      if (content != null) {
+        scheduleWrite(fileObject, content);
+      }
+    }
   }
 
   @Nullable
@@ -59,29 +86,44 @@ class OutputFilesSink implements OutputFileConsumer {
   public void writePendingData() {
     try {
       if (!myFileObjects.isEmpty()) {
+        // files written during compilation are written once more if their content has been changed since then
+        for (OutputFileObject fileObject : myFileObjects) {
+          final OutputFileObject.Content content = fileObject.getContent();
+          if (content != null) {
+            final FileWriteTask task = getWriteTask(fileObject);
+            if (task == null || task.myContent != content) {
+              scheduleWrite(fileObject, content);
+            }
+          }
+        }
+
         final FileGeneratedEvent event = new FileGeneratedEvent();
         try {
           for (OutputFileObject fileObject : myFileObjects) {
             try {
-              writeToDisk(fileObject);
+              waitForWrite(fileObject);
               final File rootFile = fileObject.getOutputRoot();
               if (rootFile != null) {
                 event.add(rootFile.getPath(), fileObject.getRelativePath());
               }
+              onFileWritten(fileObject);
             }
             catch (IOException e) {
-              myContextI.processMessage(new CompilerMessage(JavaBuilder.BUILDER_NAME, BuildMessage.Kind.ERROR, e.getMessage()));
+              myMessageHandler.processMessage(new CompilerMessage(JavaBuilder.BUILDER_NAME, BuildMessage.Kind.ERROR, e.getMessage()));
             }
           }
         }
         finally {
-          myContextI.processMessage(event);
+          myMessageHandler.processMessage(event);
         }
       }
     }
     finally {
       myFileObjects.clear();
       myCompiledClasses.clear();
+      synchronized (myWriteTasks) {
+        myWriteTasks.clear();
+      }
     }
   }
 
@@ -89,41 +131,84 @@ class OutputFilesSink implements OutputFileConsumer {
     return Collections.unmodifiableSet(mySuccessfullyCompiled);
   }
 
-  private void writeToDisk(@NotNull OutputFileObject fileObject) throws IOException {
+  private void scheduleWrite(@NotNull OutputFileObject fileObject, @NotNull OutputFileObject.Content content) {
     final File file = fileObject.getFile();
-    final OutputFileObject.Content content = fileObject.getContent();
-    if (content == null) {
+    final FileWriteTask task = new FileWriteTask(file, content);
+    // all writes of a file go to the same writer, so the last content written is the last one scheduled
+    task.myFuture = myWriters[(file.hashCode() & Integer.MAX_VALUE) % myWriters.length].submit(task);
+    synchronized (myWriteTasks) {
+      myWriteTasks.put(fileObject, task);
+    }
+  }
+
+  @Nullable
+  private FileWriteTask getWriteTask(@NotNull OutputFileObject fileObject) {
+    synchronized (myWriteTasks) {
+      return myWriteTasks.get(fileObject);
+    }
+  }
+
+  private void waitForWrite(@NotNull OutputFileObject fileObject) throws IOException {
+    final File file = fileObject.getFile();
+    final FileWriteTask task = getWriteTask(fileObject);
+    if (task == null) {
       throw new IOException("Missing content for file " + file);
     }
 
+    try {
+      task.myFuture.get();
+    }
+    catch (InterruptedException e) {
+      throw new IOException("Interrupted while writing " + file);
+    }
+    catch (ExecutionException e) {
+      final IOException exception = new IOException("Cannot write " + file + ": " + e.getCause().getMessage());
+      exception.initCause(e.getCause());
+      throw exception;
+    }
+    if (task.myException != null) {
+      throw task.myException;
+    }
+  }
+
+  private void onFileWritten(@NotNull OutputFileObject fileObject) {
+    final File source = fileObject.getSourceFile();
+    if (!fileObject.isTemp() && source != null && !myProblematic.contains(source)) {
+      mySuccessfullyCompiled.add(source);
+      final String className = fileObject.getClassName();
+      if (className != null) {
+        myMessageHandler.processMessage(new ProgressMessage("Compiled " + className));
+      }
+    }
+  }
+
+  private void writeToDisk(@NotNull File file, @NotNull OutputFileObject.Content content) throws IOException {
+    final File parentFile = file.getParentFile();
+    if (parentFile != null && !myExistingDirs.contains(parentFile)) {
+      // the directory may be created by another writer at the same time
+      if (parentFile.mkdirs() || parentFile.isDirectory()) {
+        myExistingDirs.add(parentFile);
+      }
+    }
+
     try {
       _writeToFile(file, content);
     }
     catch (IOException e) {
       // assuming the reason is non-existing parent
-      final File parentFile = file.getParentFile();
       if (parentFile == null) {
         throw e;
       }
-      if (!parentFile.mkdirs()) {
+      if (!parentFile.mkdirs() && !parentFile.isDirectory()) {
         throw e;
       }
       // second attempt
       _writeToFile(file, content);
     }
-    
-    final File source = fileObject.getSourceFile();
-    if (!fileObject.isTemp() && source != null && !myProblematic.contains(source)) {
-      mySuccessfullyCompiled.add(source);
-      final String className = fileObject.getClassName();
-      if (className != null) {
-        myContextI.processMessage(new ProgressMessage("Compiled " + className));
-      }
-    }
   }
 
   private static void _writeToFile(final File file, OutputFileObject.Content content) throws IOException {
-    final OutputStream stream = new BufferedOutputStream(new FileOutputStream(file));
+    final OutputStream stream = new FileOutputStream(file);
     try {
       stream.write(content.getBuffer(), content.getOffset(), content.getLength());
     }
@@ -138,4 +223,26 @@ class OutputFilesSink implements OutputFileConsumer {
       myProblematic.add(source);
     }
   }
+
+  private class FileWriteTask implements Runnable {
+    private final File myFile;
+    private final OutputFileObject.Content myContent;
+    private Future<?> myFuture;
+    private IOException myException;
+
+    private FileWriteTask(@NotNull File file, @NotNull OutputFileObject.Content content) {
+      myFile = file;
+      myContent = content;
+    }
+
+    @Override
+    public void run() {
+      try {
+        writeToDisk(myFile, myContent);
+      }
+      catch (IOException e) {
+        myException = e;
+      }
+    }
+  }
 }
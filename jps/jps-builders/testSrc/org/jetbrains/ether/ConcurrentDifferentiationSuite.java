@@ -0,0 +1,63 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.ether;
+
+import junit.extensions.TestSetup;
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+/**
+ * Runs the incremental compilation scenarios once more, with compiled files compared to their previous versions concurrently,
+ * even if there are only a few of them; the expected logs are the same as for the sequential differentiation.
+ */
+public class ConcurrentDifferentiationSuite {
+  private static final String DIFFERENTIATE_THREADS = "4";
+  private static final String MIN_FILES_PER_THREAD = "1";
+
+  private ConcurrentDifferentiationSuite() {
+  }
+
+  public static Test suite() {
+    final TestSuite suite = new TestSuite("Concurrent Differentiation Suite");
+    suite.addTestSuite(AnnotationTest.class);
+    suite.addTestSuite(ClassModifierTest.class);
+    suite.addTestSuite(ClassPropertyTest.class);
+    suite.addTestSuite(ClassRenameTest.class);
+    suite.addTestSuite(CommonTest.class);
+    suite.addTestSuite(FieldModifierTest.class);
+    suite.addTestSuite(FieldPropertyTest.class);
+    suite.addTestSuite(GenericTest.class);
+    suite.addTestSuite(MarkDirtyTest.class);
+    suite.addTestSuite(MemberChangeTest.class);
+    suite.addTestSuite(MethodModifierTest.class);
+    suite.addTestSuite(MethodPropertyTest.class);
+    suite.addTestSuite(PackageInfoTest.class);
+
+    return new TestSetup(suite) {
+      @Override
+      protected void setUp() throws Exception {
+        System.setProperty("jps.differentiate.threads", DIFFERENTIATE_THREADS);
+        System.setProperty("jps.differentiate.min.files.per.thread", MIN_FILES_PER_THREAD);
+      }
+
+      @Override
+      protected void tearDown() throws Exception {
+        System.clearProperty("jps.differentiate.threads");
+        System.clearProperty("jps.differentiate.min.files.per.thread");
+      }
+    };
+  }
+}
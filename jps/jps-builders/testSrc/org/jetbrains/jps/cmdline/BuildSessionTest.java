@@ -0,0 +1,61 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.cmdline;
+
+import org.jetbrains.jps.api.CmdlineRemoteProto;
+import org.jetbrains.jps.builders.JpsBuildTestCase;
+import org.jetbrains.jps.incremental.BuildLoggingManager;
+import org.jetbrains.jps.incremental.Utils;
+
+import java.io.File;
+import java.util.UUID;
+
+public class BuildSessionTest extends JpsBuildTestCase {
+  public void testSessionsWithSameParametersReuseProject() throws Exception {
+    final File dataStorageRoot = Utils.getDataStorageRoot(myProject);
+    final ProjectDescriptor pd = createProjectDescriptor(BuildLoggingManager.DEFAULT);
+    try {
+      BuildSession.cacheDescriptor(createSession("UTF-8").getModelKey(), pd);
+      // every session gets its parameters in a newly parsed message
+      assertSame(pd, BuildSession.takeCachedDescriptor(createSession("UTF-8").getModelKey(), dataStorageRoot));
+
+      pd.incUsageCounter();
+      BuildSession.cacheDescriptor(createSession("UTF-8").getModelKey(), pd);
+      assertNull(BuildSession.takeCachedDescriptor(createSession("windows-1251").getModelKey(), dataStorageRoot));
+    }
+    finally {
+      pd.release();
+    }
+  }
+
+  private static BuildSession createSession(String encoding) throws Exception {
+    final CmdlineRemoteProto.Message.ControllerMessage.GlobalSettings globals =
+      CmdlineRemoteProto.Message.ControllerMessage.GlobalSettings.newBuilder()
+        .addPathVariable(CmdlineRemoteProto.Message.KeyValuePair.newBuilder().setKey("VAR").setValue("/var/path"))
+        .setGlobalEncoding(encoding)
+        .setGlobalOptionsPath("/options")
+        .build();
+    final CmdlineRemoteProto.Message.ControllerMessage.ParametersMessage params =
+      CmdlineRemoteProto.Message.ControllerMessage.ParametersMessage.newBuilder()
+        .setBuildType(CmdlineRemoteProto.Message.ControllerMessage.ParametersMessage.Type.MAKE)
+        .setGlobalSettings(globals)
+        .setProjectId("/project")
+        .build();
+    final CmdlineRemoteProto.Message.ControllerMessage.ParametersMessage parsed =
+      CmdlineRemoteProto.Message.ControllerMessage.ParametersMessage.parseFrom(params.toByteArray());
+    return new BuildSession(UUID.randomUUID(), null, parsed, null);
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental;
+
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.jps.ModuleChunk;
+import org.jetbrains.jps.model.module.JpsModule;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class ChunkBuildSchedulerTest extends TestCase {
+  private ExecutorService myExecutor;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myExecutor = Executors.newFixedThreadPool(4);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    myExecutor.shutdownNow();
+    super.tearDown();
+  }
+
+  public void testDependenciesAreBuiltFirst() throws Exception {
+    // a <- b, a <- c, b <- d, c <- d, e is independent
+    final List<ModuleChunk> chunks = createChunks(5);
+    final Map<ModuleChunk, List<ModuleChunk>> deps = new HashMap<ModuleChunk, List<ModuleChunk>>();
+    deps.put(chunks.get(1), Arrays.asList(chunks.get(0)));
+    deps.put(chunks.get(2), Arrays.asList(chunks.get(0)));
+    deps.put(chunks.get(3), Arrays.asList(chunks.get(0), chunks.get(1), chunks.get(2)));
+
+    final Set<ModuleChunk> built = Collections.synchronizedSet(new HashSet<ModuleChunk>());
+    final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+    final TestProcessor processor = new TestProcessor() {
+      @Override
+      public void build(@NotNull ModuleChunk chunk) {
+        final List<ModuleChunk> chunkDeps = deps.get(chunk);
+        if (chunkDeps != null && !built.containsAll(chunkDeps)) {
+          errors.add(chunk + " is built before its dependencies");
+        }
+        if (!built.add(chunk)) {
+          errors.add(chunk + " is built twice");
+        }
+      }
+    };
+    new ChunkBuildScheduler(chunks, deps, processor).run(myExecutor, 4);
+    assertEquals(Collections.<String>emptyList(), errors);
+    assertEquals(new HashSet<ModuleChunk>(chunks), built);
+  }
+
+  public void testCriticalPathIsStartedFirst() throws Exception {
+    // a <- b <- c, d is independent but goes first in topological order
+    final List<ModuleChunk> chunks = createChunks(4);
+    final List<ModuleChunk> order = Arrays.asList(chunks.get(3), chunks.get(0), chunks.get(1), chunks.get(2));
+    final Map<ModuleChunk, List<ModuleChunk>> deps = new HashMap<ModuleChunk, List<ModuleChunk>>();
+    deps.put(chunks.get(1), Arrays.asList(chunks.get(0)));
+    deps.put(chunks.get(2), Arrays.asList(chunks.get(1)));
+
+    final List<ModuleChunk> built = Collections.synchronizedList(new ArrayList<ModuleChunk>());
+    final TestProcessor processor = new TestProcessor() {
+      @Override
+      public void build(@NotNull ModuleChunk chunk) {
+        built.add(chunk);
+      }
+    };
+    new ChunkBuildScheduler(order, deps, processor).run(myExecutor, 1);
+    assertEquals(chunks.get(0), built.get(0));
+    assertEquals(4, built.size());
+  }
+
+  public void testFailureStopsBuild() throws Exception {
+    final List<ModuleChunk> chunks = createChunks(3);
+    final Map<ModuleChunk, List<ModuleChunk>> deps = new HashMap<ModuleChunk, List<ModuleChunk>>();
+    deps.put(chunks.get(1), Arrays.asList(chunks.get(0)));
+    deps.put(chunks.get(2), Arrays.asList(chunks.get(1)));
+
+    final List<ModuleChunk> built = Collections.synchronizedList(new ArrayList<ModuleChunk>());
+    final TestProcessor processor = new TestProcessor() {
+      @Override
+      public void build(@NotNull ModuleChunk chunk) throws ProjectBuildException {
+        built.add(chunk);
+        if (chunk == chunks.get(1)) {
+          throw new ProjectBuildException("failed");
+        }
+      }
+    };
+    try {
+      new ChunkBuildScheduler(chunks, deps, processor).run(myExecutor, 4);
+      fail("exception expected");
+    }
+    catch (ProjectBuildException e) {
+      assertEquals("failed", e.getMessage());
+    }
+    assertEquals(Arrays.asList(chunks.get(0), chunks.get(1)), built);
+  }
+
+  private static List<ModuleChunk> createChunks(int count) {
+    final List<ModuleChunk> chunks = new ArrayList<ModuleChunk>();
+    for (int i = 0; i < count; i++) {
+      chunks.add(new ModuleChunk(new HashSet<JpsModule>()));
+    }
+    return chunks;
+  }
+
+  private abstract static class TestProcessor implements ChunkBuildScheduler.ChunkProcessor {
+    @Override
+    public int getWeight(@NotNull ModuleChunk chunk) {
+      return 1;
+    }
+  }
+}
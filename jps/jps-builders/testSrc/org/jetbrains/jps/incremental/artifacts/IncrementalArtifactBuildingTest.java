@@ -71,6 +71,22 @@ public class IncrementalArtifactBuildingTest extends ArtifactBuilderTestCase {
     buildAllAndAssertUpToDate();
   }
 
+  public void testPackChangedFileIntoNestedArchive() {
+    String file1 = createFile("a.txt", "aaa");
+    String file2 = createFile("b.txt", "bbb");
+    final JpsArtifact a = addArtifact(root().archive("a.jar")
+                                        .archive("b.jar").fileCopy(file1).end()
+                                        .archive("c.jar").fileCopy(file2));
+    buildAll();
+    assertOutput(a, fs().archive("a.jar").archive("b.jar").file("a.txt", "aaa").end().archive("c.jar").file("b.txt", "bbb"));
+    buildAllAndAssertUpToDate();
+
+    change(file1, "xxx");
+    buildAll();
+    assertOutput(a, fs().archive("a.jar").archive("b.jar").file("a.txt", "xxx").end().archive("c.jar").file("b.txt", "bbb"));
+    buildAllAndAssertUpToDate();
+  }
+
   public void testRemoveDeletedFileFromArchive() {
     String file1 = createFile("a.txt");
     String file2 = createFile("b.txt");
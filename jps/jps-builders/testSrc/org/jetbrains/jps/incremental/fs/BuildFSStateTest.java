@@ -0,0 +1,80 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental.fs;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+public class BuildFSStateTest extends TestCase {
+  public void testModuleIsRescannedWhenRootsLayoutChanges() {
+    BuildFSState state = new BuildFSState(false);
+    assertTrue(state.markInitialScanPerformed("m", false, "/src\n"));
+    assertFalse(state.markInitialScanPerformed("m", false, "/src\n"));
+    assertTrue(state.markInitialScanPerformed("m", true, "/test\n"));
+
+    assertTrue(state.markInitialScanPerformed("m", false, "/src\n/gen\n"));
+    assertFalse(state.markInitialScanPerformed("m", false, "/src\n/gen\n"));
+    assertFalse(state.markInitialScanPerformed("m", true, "/test\n"));
+  }
+
+  public void testRescanRequired() {
+    BuildFSState state = new BuildFSState(false);
+    state.markInitialScanPerformed("m", false, "/src\n");
+    state.markInitialScanPerformed("m", true, "/test\n");
+    state.markInitialScanPerformed("other", false, "/other\n");
+
+    state.markInitialScanRequired("m");
+    assertTrue(state.markInitialScanPerformed("m", false, "/src\n"));
+    assertTrue(state.markInitialScanPerformed("m", true, "/test\n"));
+    assertFalse(state.markInitialScanPerformed("other", false, "/other\n"));
+  }
+
+  public void testRootsLayoutIsSaved() throws IOException {
+    BuildFSState state = new BuildFSState(false);
+    state.markInitialScanPerformed("m", false, "/src\n");
+    state.markInitialScanPerformed("m", true, "/test\n");
+
+    BuildFSState loaded = saveAndLoad(state);
+    assertFalse(loaded.markInitialScanPerformed("m", false, "/src\n"));
+    assertTrue(loaded.markInitialScanPerformed("m", true, "/test\n/test2\n"));
+    assertTrue(loaded.markInitialScanPerformed("new", false, "/new\n"));
+
+    loaded.clearAll();
+    assertTrue(loaded.markInitialScanPerformed("m", false, "/src\n"));
+  }
+
+  private static BuildFSState saveAndLoad(BuildFSState state) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    state.save(out);
+    out.close();
+
+    BuildFSState loaded = new BuildFSState(false);
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    try {
+      loaded.load(in);
+    }
+    finally {
+      in.close();
+    }
+    return loaded;
+  }
+}
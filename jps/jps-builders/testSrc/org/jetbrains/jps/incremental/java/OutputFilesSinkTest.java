@@ -0,0 +1,140 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental.java;
+
+import com.intellij.openapi.util.Pair;
+import com.intellij.openapi.util.io.FileUtil;
+import junit.framework.TestCase;
+import org.jetbrains.jps.incremental.MessageHandler;
+import org.jetbrains.jps.incremental.messages.BuildMessage;
+import org.jetbrains.jps.incremental.messages.CompilerMessage;
+import org.jetbrains.jps.incremental.messages.FileGeneratedEvent;
+import org.jetbrains.jps.javac.OutputFileObject;
+
+import javax.tools.JavaFileObject;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class OutputFilesSinkTest extends TestCase {
+  private File myOutputRoot;
+  private File mySourceRoot;
+  private final List<BuildMessage> myMessages = new ArrayList<BuildMessage>();
+  private final MessageHandler myMessageHandler = new MessageHandler() {
+    @Override
+    public void processMessage(BuildMessage msg) {
+      myMessages.add(msg);
+    }
+  };
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myOutputRoot = FileUtil.createTempDirectory("output", null);
+    mySourceRoot = FileUtil.createTempDirectory("src", null);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtil.delete(myOutputRoot);
+    FileUtil.delete(mySourceRoot);
+    super.tearDown();
+  }
+
+  public void testWriteAsCompiled() throws IOException {
+    final OutputFilesSink sink = new OutputFilesSink(myMessageHandler, true);
+    final List<OutputFileObject> fileObjects = new ArrayList<OutputFileObject>();
+    for (int i = 0; i < 20; i++) {
+      final OutputFileObject fileObject = createFileObject("p" + i % 3 + "/A" + i, "content" + i);
+      fileObjects.add(fileObject);
+      sink.save(fileObject);
+    }
+    sink.writePendingData();
+
+    for (int i = 0; i < fileObjects.size(); i++) {
+      assertEquals("content" + i, FileUtil.loadFile(fileObjects.get(i).getFile()));
+    }
+    assertEquals(fileObjects.size(), getGeneratedPaths().size());
+    assertEquals(fileObjects.size(), sink.getSuccessfullyCompiled().size());
+    assertTrue(getErrors().isEmpty());
+  }
+
+  public void testInstrumentedContentIsWritten() throws IOException {
+    final OutputFilesSink sink = new OutputFilesSink(myMessageHandler, true);
+    final OutputFileObject fileObject = createFileObject("p/A", "compiled");
+    sink.save(fileObject);
+    // content changed after the file has been scheduled for writing, e.g. by an instrumenter
+    fileObject.updateContent("instrumented".getBytes());
+    sink.writePendingData();
+
+    assertEquals("instrumented", FileUtil.loadFile(fileObject.getFile()));
+    assertEquals(1, getGeneratedPaths().size());
+  }
+
+  public void testWriteErrorIsReported() throws IOException {
+    // the output directory can't be created, as a file with its name exists
+    FileUtil.writeToFile(new File(myOutputRoot, "p"), "file");
+    final OutputFilesSink sink = new OutputFilesSink(myMessageHandler, false);
+    final OutputFileObject failed = createFileObject("p/A", "content");
+    final OutputFileObject written = createFileObject("q/B", "content");
+    sink.save(failed);
+    sink.save(written);
+    sink.writePendingData();
+
+    assertEquals(1, getErrors().size());
+    assertEquals("content", FileUtil.loadFile(written.getFile()));
+    final Set<String> generated = getGeneratedPaths();
+    assertEquals(1, generated.size());
+    assertTrue(generated.contains("q/B.class"));
+    final Set<File> compiled = sink.getSuccessfullyCompiled();
+    assertEquals(1, compiled.size());
+    assertTrue(compiled.contains(written.getSourceFile()));
+  }
+
+  private OutputFileObject createFileObject(String className, String content) {
+    final String relativePath = className + ".class";
+    final File source = new File(mySourceRoot, className + ".java");
+    final OutputFileObject fileObject = new OutputFileObject(null, myOutputRoot, relativePath, new File(myOutputRoot, relativePath),
+                                                             JavaFileObject.Kind.CLASS, className, source.toURI(), null);
+    fileObject.updateContent(content.getBytes());
+    return fileObject;
+  }
+
+  private Set<String> getGeneratedPaths() {
+    final Set<String> paths = new HashSet<String>();
+    for (BuildMessage message : myMessages) {
+      if (message instanceof FileGeneratedEvent) {
+        for (Pair<String, String> pair : ((FileGeneratedEvent)message).getPaths()) {
+          paths.add(pair.second);
+        }
+      }
+    }
+    return paths;
+  }
+
+  private List<CompilerMessage> getErrors() {
+    final List<CompilerMessage> errors = new ArrayList<CompilerMessage>();
+    for (BuildMessage message : myMessages) {
+      if (message instanceof CompilerMessage && message.getKind() == BuildMessage.Kind.ERROR) {
+        errors.add((CompilerMessage)message);
+      }
+    }
+    return errors;
+  }
+}
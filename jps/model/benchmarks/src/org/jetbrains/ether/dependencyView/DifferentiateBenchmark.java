@@ -0,0 +1,214 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.ether.dependencyView;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.SystemProperties;
+import org.jetbrains.asm4.ClassReader;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Time of {@link Mappings#differentiateOnIncrementalMake} with sequential and concurrent differentiation, see
+ * {@code jps.differentiate.threads}.
+ * <p/>
+ * The scenario is a change of a base class which is extended and used by many classes: a method overload is added to
+ * the base class and every subclass overrides it, and all the files are compiled again and differentiated against the mappings
+ * of the previous build. The sources are generated and compiled by the system java compiler, so a JDK is required.
+ * <p/>
+ * Parameters are given by system properties:
+ * <ul>
+ *   <li>{@code benchmark.classes} - number of subclasses, 2000 by default</li>
+ *   <li>{@code benchmark.threads} - comma separated numbers of differentiation threads, "1,&lt;available processors&gt;" by default</li>
+ *   <li>{@code benchmark.warmup}, {@code benchmark.iterations} - numbers of iterations, 3 and 10 by default</li>
+ * </ul>
+ */
+public class DifferentiateBenchmark {
+  private static final int CLASSES = SystemProperties.getIntProperty("benchmark.classes", 2000);
+  private static final int WARMUP_ITERATIONS = SystemProperties.getIntProperty("benchmark.warmup", 3);
+  private static final int MEASUREMENT_ITERATIONS = SystemProperties.getIntProperty("benchmark.iterations", 10);
+
+  private DifferentiateBenchmark() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    List<Integer> threadCounts = new ArrayList<Integer>();
+    String defaultThreads = "1," + Runtime.getRuntime().availableProcessors();
+    for (String count : System.getProperty("benchmark.threads", defaultThreads).split(",")) {
+      threadCounts.add(Integer.parseInt(count.trim()));
+    }
+
+    File dir = FileUtil.createTempDirectory("differentiate", "benchmark");
+    try {
+      File srcDir = new File(dir, "src");
+      List<File> sources = generate(srcDir, false);
+      Map<File, byte[]> before = compile(sources, new File(dir, "before"));
+      generate(srcDir, true);
+      Map<File, byte[]> after = compile(sources, new File(dir, "after"));
+
+      Mappings mappings = new Mappings(new File(dir, "mappings"), true);
+      try {
+        Mappings delta = createDelta(mappings, before);
+        mappings.differentiateOnRebuild(delta);
+        mappings.integrate(delta);
+
+        System.out.println(String.format("%-40s %8s %10s %10s", "Benchmark", "Threads", "Time, ms", "Error"));
+        for (int threads : threadCounts) {
+          System.setProperty("jps.differentiate.threads", String.valueOf(threads));
+          for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            differentiate(mappings, after);
+          }
+          double[] times = new double[MEASUREMENT_ITERATIONS];
+          for (int i = 0; i < times.length; i++) {
+            times[i] = differentiate(mappings, after) / 1e6;
+          }
+          System.out.println(String.format("%-40s %8d %10.1f %10.1f", "base class change, " + CLASSES + " subclasses", threads,
+                                           mean(times), error(times)));
+        }
+      }
+      finally {
+        mappings.close();
+      }
+    }
+    finally {
+      FileUtil.delete(dir);
+    }
+  }
+
+  /**
+   * @return nanoseconds taken by the differentiation of the compiled files against the mappings
+   */
+  private static long differentiate(Mappings mappings, Map<File, byte[]> compiled) {
+    Mappings delta = createDelta(mappings, compiled);
+    try {
+      Set<File> files = compiled.keySet();
+      long start = System.nanoTime();
+      boolean incremental = mappings.differentiateOnIncrementalMake(delta, Collections.<String>emptySet(), files, new HashSet<File>(files),
+                                                                    new HashSet<File>(), Mappings.DependentFilesFilter.ALL_FILES, null);
+      long elapsed = System.nanoTime() - start;
+      if (!incremental) {
+        throw new IllegalStateException("Differentiation has turned non-incremental");
+      }
+      return elapsed;
+    }
+    finally {
+      // the delta isn't integrated, so every iteration differentiates the same change
+      delta.close();
+    }
+  }
+
+  private static Mappings createDelta(Mappings mappings, Map<File, byte[]> compiled) {
+    Mappings delta = mappings.createDelta();
+    Callbacks.Backend callback = delta.getCallback();
+    for (Map.Entry<File, byte[]> entry : compiled.entrySet()) {
+      File source = entry.getKey();
+      String classFile = FileUtil.getNameWithoutExtension(source) + ".class";
+      callback.associate(classFile, FileUtil.toSystemIndependentName(source.getAbsolutePath()), new ClassReader(entry.getValue()));
+    }
+    return delta;
+  }
+
+  private static List<File> generate(File srcDir, boolean changed) throws IOException {
+    List<File> sources = new ArrayList<File>();
+    StringBuilder base = new StringBuilder();
+    base.append("public class Base {\n");
+    base.append("  protected int value;\n");
+    base.append("  public int compute(int x) { return x + value; }\n");
+    if (changed) {
+      base.append("  public int compute(long x) { return (int)x + value; }\n");
+    }
+    base.append("}\n");
+    sources.add(write(srcDir, "Base", base));
+
+    for (int i = 0; i < CLASSES; i++) {
+      String name = "Sub" + i;
+      StringBuilder sub = new StringBuilder();
+      sub.append("public class ").append(name).append(" extends Base {\n");
+      sub.append("  public int compute(int x) { return super.compute(x) + ").append(i).append("; }\n");
+      if (changed) {
+        sub.append("  public int compute(long x) { return super.compute(x) - ").append(i).append("; }\n");
+      }
+      // every subclass uses the base class and the previous subclass
+      sub.append("  public int use(Base base) { return base.compute(").append(i).append(") + value; }\n");
+      if (i > 0) {
+        sub.append("  public int usePrevious(Sub").append(i - 1).append(" previous) { return previous.use(this); }\n");
+      }
+      sub.append("}\n");
+      sources.add(write(srcDir, name, sub));
+    }
+    return sources;
+  }
+
+  private static File write(File srcDir, String className, CharSequence text) throws IOException {
+    File file = new File(srcDir, className + ".java");
+    FileUtil.writeToFile(file, text.toString());
+    return file;
+  }
+
+  private static Map<File, byte[]> compile(List<File> sources, File outputDir) throws IOException {
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    if (compiler == null) {
+      throw new IllegalStateException("The benchmark should be run on a JDK");
+    }
+    FileUtil.createDirectory(outputDir);
+    List<String> args = new ArrayList<String>();
+    args.add("-nowarn");
+    // class files of the version the dependency analyzer reads
+    args.add("-source");
+    args.add("1.6");
+    args.add("-target");
+    args.add("1.6");
+    args.add("-d");
+    args.add(outputDir.getPath());
+    for (File source : sources) {
+      args.add(source.getPath());
+    }
+    if (compiler.run(null, null, null, args.toArray(new String[args.size()])) != 0) {
+      throw new IllegalStateException("Compilation failed");
+    }
+
+    Map<File, byte[]> result = new LinkedHashMap<File, byte[]>();
+    for (File source : sources) {
+      result.put(source, FileUtil.loadFileBytes(new File(outputDir, FileUtil.getNameWithoutExtension(source) + ".class")));
+    }
+    return result;
+  }
+
+  private static double mean(double[] values) {
+    double sum = 0;
+    for (double value : values) {
+      sum += value;
+    }
+    return sum / values.length;
+  }
+
+  /**
+   * @return half-width of the 99.9% confidence interval of the mean, by the normal approximation
+   */
+  private static double error(double[] values) {
+    if (values.length < 2) return Double.NaN;
+    double mean = mean(values);
+    double squares = 0;
+    for (double value : values) {
+      squares += (value - mean) * (value - mean);
+    }
+    return 3.29 * Math.sqrt(squares / (values.length - 1)) / Math.sqrt(values.length);
+  }
+}
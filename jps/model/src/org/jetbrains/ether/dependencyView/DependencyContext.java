@@ -22,7 +22,8 @@ class DependencyContext {
   private final Map<TypeRepr.AbstractType, TypeRepr.AbstractType> myTypeMap = new HashMap<TypeRepr.AbstractType, TypeRepr.AbstractType>();
   private final Map<UsageRepr.Usage, UsageRepr.Usage> myUsageMap = new HashMap<UsageRepr.Usage, UsageRepr.Usage>();
 
-   UsageRepr.Usage getUsage(final UsageRepr.Usage u) {
+  // interning maps are shared by threads loading class representations during concurrent differentiation
+   synchronized UsageRepr.Usage getUsage(final UsageRepr.Usage u) {
      final UsageRepr.Usage r = myUsageMap.get(u);
 
      if (r == null) {
@@ -33,7 +34,7 @@ class DependencyContext {
      return r;
    }
 
-  TypeRepr.AbstractType getType(final TypeRepr.AbstractType t) {
+  synchronized TypeRepr.AbstractType getType(final TypeRepr.AbstractType t) {
     final TypeRepr.AbstractType r = myTypeMap.get(t);
 
     if (r != null) {
@@ -45,7 +46,7 @@ class DependencyContext {
     return t;
   }
 
-  void clearMemoryCaches() {
+  synchronized void clearMemoryCaches() {
     myTypeMap.clear();
     myUsageMap.clear();
   }
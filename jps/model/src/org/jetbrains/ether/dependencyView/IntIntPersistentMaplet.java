@@ -84,7 +84,7 @@ public class IntIntPersistentMaplet extends IntIntMaplet {
   }
 
   @Override
-  public int get(final int key) {
+  public synchronized int get(final int key) {
     final Object obj = myCache.get(key);
     return obj == NULL_OBJ? 0 : (Integer)obj;
   }
@@ -69,7 +69,7 @@ class IntIntPersistentMultiMaplet extends IntIntMultiMaplet {
   }
 
   @Override
-  public TIntHashSet get(final int key) {
+  public synchronized TIntHashSet get(final int key) {
     final TIntHashSet collection = myCache.get(key);
     return collection == NULL_COLLECTION? null : collection;
   }
@@ -74,7 +74,7 @@ class IntObjectPersistentMultiMaplet<V extends Streamable> extends IntObjectMult
   }
 
   @Override
-  public Collection<V> get(final int key) {
+  public synchronized Collection<V> get(final int key) {
     final Collection<V> collection = myCache.get(key);
     return collection == NULL_COLLECTION? null : collection;
   }
@@ -4,6 +4,7 @@ import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.Ref;
 import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.SystemProperties;
 import com.intellij.util.io.IntInlineKeyDescriptor;
 import gnu.trove.TIntHashSet;
 import gnu.trove.TIntIntProcedure;
@@ -20,8 +21,8 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.lang.annotation.RetentionPolicy;
 import java.util.*;
-import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Created by IntelliJ IDEA.
@@ -42,6 +43,19 @@ public class Mappings {
   private static final IntInlineKeyDescriptor INT_KEY_DESCRIPTOR = new IntInlineKeyDescriptor();
   private static final int DEFAULT_SET_CAPACITY = 32;
   private static final float DEFAULT_SET_LOAD_FACTOR = 0.98f;
+  // number of threads comparing compiled classes with their previous versions on incremental make; 1 means the calling thread
+  private static final String DIFFERENTIATE_THREADS_PROPERTY = "jps.differentiate.threads";
+  // smaller shards of compiled files are not worth a thread
+  private static final String MIN_FILES_PER_THREAD_PROPERTY = "jps.differentiate.min.files.per.thread";
+  // threads are reused by subsequent differentiations and die after a minute of idleness
+  private static final ExecutorService ourDifferentiateExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+    @Override
+    public Thread newThread(@NotNull Runnable r) {
+      final Thread thread = new Thread(r, "Dependency differentiation");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
   private static final CollectionFactory<ClassRepr> ourClassSetConstructor = new CollectionFactory<ClassRepr>() {
     public Set<ClassRepr> create() {
       return new HashSet<ClassRepr>(DEFAULT_SET_CAPACITY, DEFAULT_SET_LOAD_FACTOR);
@@ -754,6 +768,9 @@ public class Mappings {
     return true;
   }
 
+  /**
+   * May be called from several threads at once if differentiation is done concurrently ({@code jps.differentiate.threads}).
+   */
   public interface DependentFilesFilter {
     DependentFilesFilter ALL_FILES = new DependentFilesFilter() {
       @Override
@@ -934,6 +951,26 @@ public class Mappings {
       myEasyMode = false;
     }
 
+    /**
+     * A differential which processes a part of compiled files concurrently with others:
+     * affected files and delayed works are collected separately and then merged into those of the parent.
+     */
+    private Differential(final Differential parent) {
+      this.myDelta = parent.myDelta;
+      this.myFilesToCompile = parent.myFilesToCompile;
+      this.myCompiledFiles = parent.myCompiledFiles;
+      this.myAffectedFiles = parent.myAffectedFiles == null ? null : new HashSet<File>();
+      this.myFilter = parent.myFilter;
+      this.myConstantSearch = parent.myConstantSearch;
+
+      myDelayedWorks = parent.myDelayedWorks == null ? null : new DelayedWorks();
+
+      myFuture = parent.myFuture;
+      myPresent = parent.myPresent;
+
+      myEasyMode = parent.myEasyMode;
+    }
+
     private void processDisappearedClasses() {
       myDelta.compensateRemovedContent(myFilesToCompile);
 
@@ -1670,7 +1707,7 @@ public class Mappings {
         final int fileName = myClassToSourceFile.get(c.name);
 
         if (fileName > 0) {
-          myDelta.myChangedFiles.add(fileName);
+          myDelta.addChangedFile(fileName);
         }
 
         if (!myEasyMode) {
@@ -1792,6 +1829,93 @@ public class Mappings {
       });
     }
 
+    /**
+     * @return false if the changes of the file's classes can't be handled incrementally
+     */
+    private boolean processFile(final FileClasses compiledFile) {
+      final int fileName = compiledFile.myFileName;
+      final Set<ClassRepr> classes = compiledFile.myFileClasses;
+      final Set<ClassRepr> pastClasses = (Set<ClassRepr>)mySourceFileToClasses.get(fileName);
+      final DiffState state = new DiffState(Difference.make(pastClasses, classes));
+
+      if (!processChangedClasses(state)) {
+        if (!myEasyMode) {
+          return false;
+        }
+      }
+
+      processRemovedClases(state);
+      processAddedClasses(state);
+
+      if (!myEasyMode) {
+        calculateAffectedFiles(state);
+      }
+      return true;
+    }
+
+    /**
+     * Splits compiled files into shards processed by their own differentials in parallel. Every file is processed
+     * independently of the others (mappings are only read, and delta registrations are synchronized), so merging
+     * affected files and delayed works of the shards gives the same result as processing the files one by one.
+     *
+     * @return false if changes of some file can't be handled incrementally
+     */
+    private boolean processFilesConcurrently(final List<FileClasses> files, final int threads) {
+      final AtomicBoolean incremental = new AtomicBoolean(true);
+      final List<Future<Differential>> shards = new ArrayList<Future<Differential>>(threads);
+      for (int i = 0; i < threads; i++) {
+        final int shard = i;
+        shards.add(ourDifferentiateExecutor.submit(new Callable<Differential>() {
+          @Override
+          public Differential call() {
+            final Differential differential = new Differential(Differential.this);
+            for (int j = shard; j < files.size() && incremental.get(); j += threads) {
+              if (!differential.processFile(files.get(j))) {
+                incremental.set(false);
+              }
+            }
+            return differential;
+          }
+        }));
+      }
+
+      boolean completed = false;
+      try {
+        for (Future<Differential> shard : shards) {
+          final Differential differential = getShardResult(shard);
+          myAffectedFiles.addAll(differential.myAffectedFiles);
+          myDelayedWorks.myQueue.addAll(differential.myDelayedWorks.myQueue);
+        }
+        completed = true;
+        return incremental.get();
+      }
+      finally {
+        if (!completed) {
+          // the shards still running have nothing to do after a failure of another one
+          incremental.set(false);
+        }
+      }
+    }
+
+    private Differential getShardResult(final Future<Differential> shard) {
+      try {
+        return shard.get();
+      }
+      catch (ExecutionException e) {
+        final Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) {
+          throw (RuntimeException)cause;
+        }
+        if (cause instanceof Error) {
+          throw (Error)cause;
+        }
+        throw new RuntimeException(cause);
+      }
+      catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
     boolean differentiate() {
       synchronized (myLock) {
         myDelta.myIsDifferentiated = true;
@@ -1814,25 +1938,20 @@ public class Mappings {
           }
         });
 
-        for (final FileClasses compiledFile : newClasses) {
-          final int fileName = compiledFile.myFileName;
-          final Set<ClassRepr> classes = compiledFile.myFileClasses;
-          final Set<ClassRepr> pastClasses = (Set<ClassRepr>)mySourceFileToClasses.get(fileName);
-          final DiffState state = new DiffState(Difference.make(pastClasses, classes));
-
-          if (!processChangedClasses(state)) {
-            if (!myEasyMode) {
+        final int threads = myEasyMode ? 1 : Math.min(SystemProperties.getIntProperty(DIFFERENTIATE_THREADS_PROPERTY, 1),
+                                                      newClasses.size() / Math.max(1, SystemProperties.getIntProperty(MIN_FILES_PER_THREAD_PROPERTY, 4)));
+        if (threads > 1) {
+          if (!processFilesConcurrently(newClasses, threads)) {
+            return false;
+          }
+        }
+        else {
+          for (final FileClasses compiledFile : newClasses) {
+            if (!processFile(compiledFile)) {
               // turning non-incremental
               return false;
             }
           }
-
-          processRemovedClases(state);
-          processAddedClasses(state);
-
-          if (!myEasyMode) {
-            calculateAffectedFiles(state);
-          }
         }
 
         debug("End of Differentiate.");
@@ -2196,12 +2315,12 @@ public class Mappings {
     });
   }
 
-  private void registerAddedSuperClass(final int aClass, final int superClass) {
+  private synchronized void registerAddedSuperClass(final int aClass, final int superClass) {
     assert (myAddedSuperClasses != null);
     myAddedSuperClasses.put(superClass, aClass);
   }
 
-  private void registerRemovedSuperClass(final int aClass, final int superClass) {
+  private synchronized void registerRemovedSuperClass(final int aClass, final int superClass) {
     assert (myRemovedSuperClasses != null);
     myRemovedSuperClasses.put(superClass, aClass);
   }
@@ -2214,7 +2333,7 @@ public class Mappings {
     return myIsRebuild;
   }
 
-  private void addDeletedClass(final ClassRepr cr) {
+  private synchronized void addDeletedClass(final ClassRepr cr) {
     assert (myDeletedClasses != null);
 
     myDeletedClasses.add(cr);
@@ -2222,7 +2341,7 @@ public class Mappings {
     addChangedClass(cr.name);
   }
 
-  private void addChangedClass(final int it) {
+  private synchronized void addChangedClass(final int it) {
     assert (myChangedClasses != null && myChangedFiles != null);
     myChangedClasses.add(it);
 
@@ -2232,6 +2351,11 @@ public class Mappings {
       myChangedFiles.add(file);
     }
   }
+  private synchronized void addChangedFile(final int file) {
+    assert (myChangedFiles != null);
+    myChangedFiles.add(file);
+  }
+
 
   @NotNull
   private Set<ClassRepr> getDeletedClasses() {
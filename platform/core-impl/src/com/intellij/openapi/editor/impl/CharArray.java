@@ -20,9 +20,11 @@ import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.editor.event.DocumentEvent;
 import com.intellij.util.ArrayUtil;
 import com.intellij.util.LocalTimeCounter;
+import com.intellij.util.SystemProperties;
 import com.intellij.util.text.CharArrayCharSequence;
 import com.intellij.util.text.CharArrayUtil;
 import com.intellij.util.text.CharSequenceBackedByArray;
+import com.intellij.util.text.ImmutableText;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -54,13 +56,20 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
    */
   private static final int MAX_DEFERRED_CHANGES_NUMBER = 10000;
 
+  /**
+   * Store document text as an {@link ImmutableText} instead of a flat array: edits take O(log n) instead of shifting the array tail,
+   * and {@link #getCharArray()} returns an immutable snapshot which background readers can keep using while the document changes.
+   */
+  static final boolean USE_IMMUTABLE_TEXT = SystemProperties.getBooleanProperty("idea.document.immutable.text", false);
+
   private final TextChangesStorage myDeferredChangesStorage;
 
   private volatile int myStart; // start offset in myArray (used as an optimization when call substring())
   private volatile int myCount;
 
   private volatile CharSequence myOriginalSequence;
-  private volatile char[] myArray;
+  private volatile char[] myArray; // in the immutable text mode, a flat copy of the text made on demand by getChars()
+  private volatile ImmutableText myImmutableText; // not null in the immutable text mode
   private volatile Reference<String> myStringRef; // buffers String value - for not to generate it every time
   private volatile int myBufferSize;
   private volatile int myDeferredShift;
@@ -99,12 +108,21 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
 
   // bufferSize == 0 means unbounded
   CharArray(final int bufferSize, @NotNull char[] data, int length) {
+    this(bufferSize, data, length, false);
+  }
+
+  CharArray(final int bufferSize, @NotNull char[] data, int length, boolean immutableText) {
     myBufferSize = bufferSize;
     myDeferredChangesStorage = new TextChangesStorage();
-    myArray = Arrays.copyOf(data, length);
+    if (immutableText) {
+      myImmutableText = ImmutableText.valueOf(new CharArrayCharSequence(data, 0, length));
+    }
+    else {
+      myArray = Arrays.copyOf(data, length);
+    }
     myCount = length;
 
-    if (myDebug) {
+    if (myDebug && !immutableText) {
       myDebugArray = new CharArray(bufferSize, data, length) {
         @NotNull
         @Override
@@ -183,6 +201,11 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
   }
 
   private void assertConsistency() {
+    ImmutableText immutableText = myImmutableText;
+    if (immutableText != null) {
+      assert myCount == immutableText.length();
+      return;
+    }
     if (isDeferredChangeMode()) {
       assert myOriginalSequence == null;
     }
@@ -253,6 +276,10 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
   }
 
   private void doReplace(int startOffset, int endOffset, @NotNull CharSequence newString) {
+    if (myImmutableText != null) {
+      setImmutableText(myImmutableText.replace(startOffset, endOffset, newString));
+      return;
+    }
     prepareForModification();
 
     if (isDeferredChangeMode()) {
@@ -290,6 +317,10 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
     if (startIndex == endIndex) {
       return;
     }
+    if (myImmutableText != null) {
+      setImmutableText(myImmutableText.delete(startIndex, endIndex));
+      return;
+    }
     prepareForModification();
 
     if (isDeferredChangeMode()) {
@@ -318,6 +349,10 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
   }
 
   private void doInsert(@NotNull CharSequence s, final int startIndex) {
+    if (myImmutableText != null) {
+      setImmutableText(myImmutableText.insert(startIndex, s));
+      return;
+    }
     prepareForModification();
 
     if (isDeferredChangeMode()) {
@@ -339,6 +374,13 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
     }
   }
 
+  private void setImmutableText(@NotNull ImmutableText text) {
+    myImmutableText = text;
+    myCount = text.length();
+    myArray = null;
+    myStringRef = null;
+  }
+
   /**
    * Stores given change at collection of deferred changes (merging it with others if necessary) and updates current object
    * state ({@link #length() length} etc).
@@ -379,12 +421,30 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
 
   @NotNull
   public CharSequence getCharArray() {
+    ImmutableText immutableText = myImmutableText;
+    if (immutableText != null) {
+      return immutableText;
+    }
     assertConsistency();
     CharSequence originalSequence = myOriginalSequence;
     return originalSequence == null ? this : originalSequence;
   }
 
+  /**
+   * @return the current text which is not affected by subsequent changes: the immutable text itself in the immutable text mode,
+   * or the (cached) string otherwise
+   */
+  @NotNull
+  public CharSequence getImmutableCharSequence() {
+    ImmutableText immutableText = myImmutableText;
+    return immutableText != null ? immutableText : toString();
+  }
+
   public String toString() {
+    ImmutableText immutableText = myImmutableText;
+    if (immutableText != null) {
+      return immutableText.toString();
+    }
     assertConsistency();
     String str = myStringRef == null ? null : myStringRef.get();
     if (str == null) {
@@ -421,6 +481,10 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
     if (i < 0 || i >= length()) {
       throw new IndexOutOfBoundsException("Wrong offset: " + i + "; count:" + length());
     }
+    ImmutableText immutableText = myImmutableText;
+    if (immutableText != null) {
+      return immutableText.charAt(i);
+    }
     i += myStart;
     final char result;
     if (!myHasDeferredChanges) {
@@ -449,6 +513,9 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
   public CharSequence subSequence(final int start, final int end) {
     assertReadAccess();
     assertConsistency();
+    if (myImmutableText != null) {
+      return myImmutableText.subtext(start, end);
+    }
     if (start == 0 && end == length()) return this;
     if (myOriginalSequence != null) {
       return myOriginalSequence.subSequence(start, end);
@@ -462,6 +529,17 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
   public char[] getChars() {
     assertReadAccess();
     assertConsistency();
+    ImmutableText immutableText = myImmutableText;
+    if (immutableText != null) {
+      // the copy is kept until the next change
+      char[] array = myArray;
+      if (array == null) {
+        array = new char[immutableText.length()];
+        immutableText.getChars(0, array.length, array, 0);
+        myArray = array;
+      }
+      return array;
+    }
     char[] array = myArray;
     CharSequence originalSequence = myOriginalSequence;
     if (myHasDeferredChanges || originalSequence != null && array == null) {
@@ -486,6 +564,11 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
   public void getChars(@NotNull final char[] dst, final int dstOffset) {
     assertReadAccess();
     assertConsistency();
+    ImmutableText immutableText = myImmutableText;
+    if (immutableText != null) {
+      immutableText.getChars(0, immutableText.length(), dst, dstOffset);
+      return;
+    }
     flushDeferredChanged();
     if (myOriginalSequence == null) {
       System.arraycopy(myArray, myStart, dst, dstOffset, length());
@@ -519,7 +602,10 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
   private CharSequence doSubString(int start, int end) {
     if (start == end) return "";
     final CharSequence result;
-    if (myOriginalSequence == null) {
+    if (myImmutableText != null) {
+      result = myImmutableText.subtext(start, end);
+    }
+    else if (myOriginalSequence == null) {
       result = myDeferredChangesStorage.substring(myArray, start + myStart, end + myStart);
     }
     else {
@@ -603,7 +689,8 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
    * @param deferredChangeMode    flag that defines if <code>'defer changes'</code> mode should be used by the current object
    */
   public void setDeferredChangeMode(boolean deferredChangeMode) {
-    if (!DISABLE_DEFERRED_PROCESSING) {
+    // immutable text edits don't move the text tail, so there is nothing to defer
+    if (!DISABLE_DEFERRED_PROCESSING && myImmutableText == null) {
       if (deferredChangeMode) {
         if (myDebug) {
           myDebugArray.setText(myDebugTextOnBatchUpdateStart = toString());
@@ -671,8 +758,8 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
   @NonNls
   @NotNull
   public String dumpState() {
-    return "deferred changes mode: " + isDeferredChangeMode()+", length: " + length()+" (data array length: " + myCount+
-           ", deferred shift: " + myDeferredShift+"); view offsets: [" + myStart+"; "+myCount+"]; deferred changes: "+myDeferredChangesStorage;
+    return "immutable text: " + (myImmutableText != null) + ", deferred changes mode: " + isDeferredChangeMode()+
+           ", length: " + length()+" (data array length: " + myCount+", deferred shift: " + myDeferredShift+"); view offsets: [" + myStart+"; "+myCount+"]; deferred changes: "+myDeferredChangesStorage;
   }
   
   private void checkStrings(@NonNls @NotNull String operation, @NotNull String expected, @NotNull String actual) {
@@ -608,6 +608,16 @@ public class DocumentImpl extends UserDataHolderBase implements DocumentEx {
     return myText.getCharArray();
   }
 
+  /**
+   * @return snapshot of the document text which doesn't change with the document, so it can be read without a read action,
+   * e.g. by background highlighting or indexing. Cheap in the {@code idea.document.immutable.text} mode, otherwise the text is
+   * copied to a string on the first call after a change.
+   */
+  @NotNull
+  public CharSequence getImmutableCharSequence() {
+    return myText.getImmutableCharSequence();
+  }
+
 
   @Override
   public void addDocumentListener(@NotNull DocumentListener listener) {
@@ -803,7 +813,7 @@ public class DocumentImpl extends UserDataHolderBase implements DocumentEx {
   
   private class MyCharArray extends CharArray {
     private MyCharArray(@NotNull char[] chars, int length) {
-      super(0, chars, length);
+      super(0, chars, length, CharArray.USE_IMMUTABLE_TEXT);
     }
 
     @Override
@@ -0,0 +1,339 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.editor.impl;
+
+import com.intellij.util.ArrayUtil;
+import com.intellij.util.containers.IntArrayList;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Sequence of document lines stored as a treap keyed by line index (an implicit treap). Every node keeps the length of its line
+ * including the separator, arbitrary per-line data, and the number of lines and the text length of its subtree, so that
+ * line start offsets, line lookup by offset, line length changes and replacement of a range of lines take O(log n) expected time,
+ * and following lines never have to be shifted.
+ * <p/>
+ * Nodes live in parallel arrays indexed by node id, 0 stands for no node. Node priorities are derived from node ids.
+ * <p/>
+ * Not thread-safe.
+ */
+final class LineLengthTree {
+  private static final int NIL = 0;
+
+  private int[] myLeft;
+  private int[] myRight;
+  private int[] myLineCount; // lines in the subtree
+  private int[] myTextLength; // chars in the subtree
+  private int[] myLength; // chars in the line of the node, including the separator
+  private byte[] myData;
+
+  private int myRoot = NIL;
+  private int myAllocated = 1;
+  private int myFreeList = NIL; // chained through myLeft
+
+  // results of split()
+  private int mySplitLeft;
+  private int mySplitRight;
+
+  LineLengthTree() {
+    allocateArrays(16);
+  }
+
+  private void allocateArrays(int size) {
+    myLeft = ArrayUtil.realloc(myLeft == null ? ArrayUtil.EMPTY_INT_ARRAY : myLeft, size);
+    myRight = ArrayUtil.realloc(myRight == null ? ArrayUtil.EMPTY_INT_ARRAY : myRight, size);
+    myLineCount = ArrayUtil.realloc(myLineCount == null ? ArrayUtil.EMPTY_INT_ARRAY : myLineCount, size);
+    myTextLength = ArrayUtil.realloc(myTextLength == null ? ArrayUtil.EMPTY_INT_ARRAY : myTextLength, size);
+    myLength = ArrayUtil.realloc(myLength == null ? ArrayUtil.EMPTY_INT_ARRAY : myLength, size);
+    myData = ArrayUtil.realloc(myData == null ? ArrayUtil.EMPTY_BYTE_ARRAY : myData, size);
+  }
+
+  int getLineCount() {
+    return myLineCount[myRoot];
+  }
+
+  int getTextLength() {
+    return myTextLength[myRoot];
+  }
+
+  int getLineStart(int line) {
+    checkLine(line);
+    int start = 0;
+    int node = myRoot;
+    while (true) {
+      int left = myLeft[node];
+      int leftCount = myLineCount[left];
+      if (line < leftCount) {
+        node = left;
+        continue;
+      }
+      start += myTextLength[left];
+      if (line == leftCount) return start;
+      start += myLength[node];
+      line -= leftCount + 1;
+      node = myRight[node];
+    }
+  }
+
+  int getLineLength(int line) {
+    return myLength[findNode(line)];
+  }
+
+  int getData(int line) {
+    return myData[findNode(line)];
+  }
+
+  void setData(int line, int data) {
+    myData[findNode(line)] = (byte)data;
+  }
+
+  void changeLength(int line, int delta) {
+    checkLine(line);
+    int node = myRoot;
+    while (true) {
+      myTextLength[node] += delta;
+      int left = myLeft[node];
+      int leftCount = myLineCount[left];
+      if (line < leftCount) {
+        node = left;
+      }
+      else if (line == leftCount) {
+        myLength[node] += delta;
+        return;
+      }
+      else {
+        line -= leftCount + 1;
+        node = myRight[node];
+      }
+    }
+  }
+
+  /**
+   * @return index of the line which contains the given offset, or the last line for the offset at the end of the text
+   */
+  int findLine(int offset) {
+    int lineCount = getLineCount();
+    if (lineCount == 0) {
+      if (offset == 0) return 0;
+      throw new IllegalStateException("no segments available. offset = " + offset);
+    }
+    int textLength = getTextLength();
+    if (offset > textLength || offset < 0) {
+      throw new IndexOutOfBoundsException("Wrong offset: " + offset + ". Should be in range: [0, " + textLength + "]");
+    }
+    if (offset == textLength) return lineCount - 1;
+
+    int line = 0;
+    int node = myRoot;
+    while (true) {
+      int left = myLeft[node];
+      int leftLength = myTextLength[left];
+      if (offset < leftLength) {
+        node = left;
+        continue;
+      }
+      offset -= leftLength;
+      line += myLineCount[left];
+      if (offset < myLength[node]) return line;
+      offset -= myLength[node];
+      line++;
+      node = myRight[node];
+    }
+  }
+
+  /**
+   * Replaces lines from {@code startLine} inclusive to {@code endLine} exclusive with lines of the given lengths and data.
+   */
+  void replace(int startLine, int endLine, @NotNull IntArrayList lengths, @NotNull IntArrayList data) {
+    if (startLine < 0 || startLine > endLine || endLine > getLineCount()) {
+      throw new IndexOutOfBoundsException("Wrong lines: [" + startLine + ", " + endLine + "). Available lines count: " + getLineCount());
+    }
+    split(myRoot, startLine);
+    int head = mySplitLeft;
+    split(mySplitRight, endLine - startLine);
+    int tail = mySplitRight;
+    free(mySplitLeft);
+    myRoot = merge(merge(head, build(lengths, data)), tail);
+  }
+
+  void insert(int line, int length, int data) {
+    if (line < 0 || line > getLineCount()) {
+      throw new IndexOutOfBoundsException("Wrong line: " + line + ". Available lines count: " + getLineCount());
+    }
+    int node = allocate(length, data);
+    update(node);
+    split(myRoot, line);
+    myRoot = merge(merge(mySplitLeft, node), mySplitRight);
+  }
+
+  void clear() {
+    myRoot = NIL;
+    myAllocated = 1;
+    myFreeList = NIL;
+  }
+
+  /**
+   * Clears the given bits in data of all lines.
+   */
+  void clearData(int mask) {
+    clearData(myRoot, (byte)~mask);
+  }
+
+  private void clearData(int node, byte mask) {
+    while (node != NIL) {
+      myData[node] &= mask;
+      clearData(myLeft[node], mask);
+      node = myRight[node];
+    }
+  }
+
+  private void checkLine(int line) {
+    if (line < 0 || line >= getLineCount()) {
+      throw new IndexOutOfBoundsException("Wrong line: " + line + ". Available lines count: " + getLineCount());
+    }
+  }
+
+  private int findNode(int line) {
+    checkLine(line);
+    int node = myRoot;
+    while (true) {
+      int left = myLeft[node];
+      int leftCount = myLineCount[left];
+      if (line < leftCount) {
+        node = left;
+      }
+      else if (line == leftCount) {
+        return node;
+      }
+      else {
+        line -= leftCount + 1;
+        node = myRight[node];
+      }
+    }
+  }
+
+  private static int priority(int node) {
+    // a bijection, so that priorities of different nodes differ
+    int h = node * 0x9E3779B9;
+    h ^= h >>> 16;
+    h *= 0x85EBCA6B;
+    h ^= h >>> 13;
+    return h;
+  }
+
+  private void update(int node) {
+    int left = myLeft[node];
+    int right = myRight[node];
+    myLineCount[node] = myLineCount[left] + myLineCount[right] + 1;
+    myTextLength[node] = myTextLength[left] + myTextLength[right] + myLength[node];
+  }
+
+  /**
+   * Splits the subtree of the given node into the first {@code count} lines ({@link #mySplitLeft}) and the rest ({@link #mySplitRight}).
+   */
+  private void split(int node, int count) {
+    if (node == NIL) {
+      mySplitLeft = mySplitRight = NIL;
+      return;
+    }
+    int leftCount = myLineCount[myLeft[node]];
+    if (count <= leftCount) {
+      split(myLeft[node], count);
+      myLeft[node] = mySplitRight;
+      update(node);
+      mySplitRight = node;
+    }
+    else {
+      split(myRight[node], count - leftCount - 1);
+      myRight[node] = mySplitLeft;
+      update(node);
+      mySplitLeft = node;
+    }
+  }
+
+  private int merge(int left, int right) {
+    if (left == NIL) return right;
+    if (right == NIL) return left;
+    if (priority(left) > priority(right)) {
+      myRight[left] = merge(myRight[left], right);
+      update(left);
+      return left;
+    }
+    myLeft[right] = merge(left, myLeft[right]);
+    update(right);
+    return right;
+  }
+
+  /**
+   * Builds a treap of the given lines in linear time, the rightmost path is kept on a stack.
+   */
+  private int build(@NotNull IntArrayList lengths, @NotNull IntArrayList data) {
+    int count = lengths.size();
+    if (count == 0) return NIL;
+    int[] stack = new int[count];
+    int top = 0;
+    for (int i = 0; i < count; i++) {
+      int node = allocate(lengths.get(i), data.get(i));
+      int last = NIL;
+      while (top > 0 && priority(stack[top - 1]) < priority(node)) {
+        last = stack[--top];
+      }
+      myLeft[node] = last;
+      if (top > 0) {
+        myRight[stack[top - 1]] = node;
+      }
+      stack[top++] = node;
+    }
+    int root = stack[0];
+    updateSubtree(root);
+    return root;
+  }
+
+  private void updateSubtree(int node) {
+    if (node == NIL) return;
+    updateSubtree(myLeft[node]);
+    updateSubtree(myRight[node]);
+    update(node);
+  }
+
+  private int allocate(int length, int data) {
+    int node;
+    if (myFreeList != NIL) {
+      node = myFreeList;
+      myFreeList = myLeft[node];
+    }
+    else {
+      if (myAllocated == myLeft.length) {
+        allocateArrays(myLeft.length * 3 / 2 + 1);
+      }
+      node = myAllocated++;
+    }
+    myLeft[node] = NIL;
+    myRight[node] = NIL;
+    myLength[node] = length;
+    myData[node] = (byte)data;
+    return node;
+  }
+
+  private void free(int node) {
+    while (node != NIL) {
+      free(myLeft[node]);
+      int right = myRight[node];
+      myLeft[node] = myFreeList;
+      myFreeList = node;
+      node = right;
+    }
+  }
+}
@@ -17,7 +17,6 @@ package com.intellij.openapi.editor.impl.event;
 
 import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.editor.event.DocumentEvent;
-import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.util.diff.Diff;
 import com.intellij.util.diff.FilesTooBigForDiffException;
 import org.jetbrains.annotations.NotNull;
@@ -41,12 +40,6 @@ public class DocumentEventImpl extends DocumentEvent {
   private static final Diff.Change TOO_BIG_FILE = new Diff.Change(0, 0, 0, 0, null) {
   };
 
-  private int myOptimizedLineShift = -1;
-  private boolean myOptimizedLineShiftCalculated;
-
-  private int myOptimizedOldLineShift = -1;
-  private boolean myOptimizedOldLineShiftCalculated;
-
   public DocumentEventImpl(@NotNull Document document,
                            int offset,
                            CharSequence oldString,
@@ -197,30 +190,4 @@ public class DocumentEventImpl extends DocumentEvent {
     }
     return myChange;
   }
-
-  public int getOptimizedLineShift() {
-    if (!myOptimizedLineShiftCalculated) {
-      myOptimizedLineShiftCalculated = true;
-
-      if (myOldLength == 0) {
-        int lineShift = StringUtil.countNewLines(myNewString);
-
-        myOptimizedLineShift = lineShift == 0 ? -1 : lineShift;
-      }
-    }
-    return myOptimizedLineShift;
-  }
-
-  public int getOptimizedOldLineShift() {
-    if (!myOptimizedOldLineShiftCalculated) {
-      myOptimizedOldLineShiftCalculated = true;
-
-      if (myNewLength == 0) {
-        int lineShift = StringUtil.countNewLines(myOldString);
-
-        myOptimizedOldLineShift = lineShift == 0 ? -1 : lineShift;
-      }
-    }
-    return myOptimizedOldLineShift;
-  }
 }
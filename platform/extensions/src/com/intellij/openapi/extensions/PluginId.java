@@ -39,7 +39,7 @@ public class PluginId implements Comparable<PluginId> {
     return myIdString.compareTo(o.myIdString);
   }
 
-  public static PluginId getId(String idString) {
+  public static synchronized PluginId getId(String idString) {
     PluginId pluginId = ourRegisteredIds.get(idString);
     if (pluginId == null) {
       pluginId = new PluginId(idString);
@@ -74,4 +74,13 @@ public abstract class FileBasedIndexExtension<K, V> {
   public boolean isKeyHighlySelective() {
     return false;
   }
+
+  /**
+   * Indices with keys associated with many files, like word indices, may return true to store ids of files associated with a value
+   * in sorted arrays or bitmaps. This takes several times less memory than the default hash sets and iterates ids in ascending order,
+   * at the cost of slower updates of sparse sets with many ids.
+   */
+  public boolean useCompactInputIdSets() {
+    return false;
+  }
 }
@@ -19,6 +19,7 @@ import com.intellij.execution.filters.HyperlinkInfo;
 import com.intellij.execution.ui.ConsoleViewContentType;
 import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.util.Condition;
 import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.text.StringUtil;
 import gnu.trove.TIntArrayList;
@@ -253,6 +254,34 @@ public class ConsoleBuffer {
     myDeferredUserInput.replace(startOffset, endOffset, text);
   }
 
+  /**
+   * Blocks the calling thread while there are at least <code>limit</code> deferred symbols, but not longer than
+   * <code>timeoutMs</code>, and stops waiting as soon as the given condition doesn't hold, e.g. when nothing is going to flush
+   * the buffer any more.
+   * <p/>
+   * Is expected to be called under the given lock which guards the buffer; the thread which flushes the buffer should notify
+   * the lock then.
+   *
+   * @return <code>true</code> if the deferred text has got shorter than the limit
+   */
+  boolean waitForFlush(@NotNull Object lock, int limit, long timeoutMs, @NotNull Condition<ConsoleBuffer> canWait) {
+    long deadline = System.currentTimeMillis() + timeoutMs;
+    while (getLength() >= limit && canWait.value(this)) {
+      long timeout = deadline - System.currentTimeMillis();
+      if (timeout <= 0) {
+        break;
+      }
+      try {
+        lock.wait(timeout);
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    return getLength() < limit;
+  }
+
   /**
    * Asks current buffer to store given text of the given type.
    *
@@ -31,6 +31,7 @@ import com.intellij.ide.CommonActionsManager;
 import com.intellij.ide.OccurenceNavigator;
 import com.intellij.openapi.Disposable;
 import com.intellij.openapi.actionSystem.*;
+import com.intellij.openapi.application.Application;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.application.ModalityState;
 import com.intellij.openapi.command.CommandProcessor;
@@ -93,6 +94,20 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
 
   private static final int DEFAULT_FLUSH_DELAY = SystemProperties.getIntProperty("console.flush.delay.ms", 200);
 
+  /**
+   * Number of deferred symbols after which a non-EDT thread printing to the console (normally a process output reader) waits
+   * for them to be flushed to the document, so that a chatty process is slowed down instead of having its output trimmed
+   * when the EDT can't keep up with it. Zero disables the waiting.
+   */
+  private static final int BACKPRESSURE_SIZE = SystemProperties.getIntProperty("console.backpressure.size.kb", 256) * 1024;
+  private static final int BACKPRESSURE_TIMEOUT = SystemProperties.getIntProperty("console.backpressure.timeout.ms", 1000);
+
+  /**
+   * When more lines than that are flushed at once, filters are run only over the visible ones, and the rest are filtered
+   * when scrolled into view.
+   */
+  private static final int LAZY_HIGHLIGHTING_LINES = SystemProperties.getIntProperty("console.lazy.highlighting.lines", 500);
+
   public static final Key<ConsoleViewImpl> CONSOLE_VIEW_IN_EDITOR_VIEW = Key.create("CONSOLE_VIEW_IN_EDITOR_VIEW");
 
   static {
@@ -246,6 +261,33 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
   private final Alarm myFoldingAlarm = new Alarm(Alarm.ThreadToUse.SWING_THREAD, this);
   private final List<FoldRegion> myPendingFoldRegions = new ArrayList<FoldRegion>();
 
+  /**
+   * Line ranges of the document filters haven't been run over yet, see {@link #LAZY_HIGHLIGHTING_LINES}. Accessed from EDT only.
+   */
+  private final PendingLineRanges<RangeMarker> myPendingHighlightRanges = new PendingLineRanges<RangeMarker>() {
+    @NotNull
+    @Override
+    protected RangeMarker createRange(int line1, int endLine) {
+      Document document = myEditor.getDocument();
+      return document.createRangeMarker(document.getLineStartOffset(line1), document.getLineEndOffset(endLine));
+    }
+
+    @Nullable
+    @Override
+    protected int[] getLines(@NotNull RangeMarker range) {
+      if (!range.isValid()) {
+        return null;
+      }
+      Document document = range.getDocument();
+      return new int[]{document.getLineNumber(range.getStartOffset()), document.getLineNumber(range.getEndOffset())};
+    }
+
+    @Override
+    protected void disposeRange(@NotNull RangeMarker range) {
+      range.dispose();
+    }
+  };
+
   public void addConsoleUserInputListener(ConsoleInputListener consoleInputListener) {
     myConsoleInputListeners.add(consoleInputListener);
   }
@@ -328,6 +370,7 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
       myContentSize = 0;
       myBuffer.clear();
       myFolding.clear();
+      LOCK.notifyAll();
 
       final EditorHyperlinkSupport hyperlinks = myHyperlinks;
       if (hyperlinks != null) {
@@ -401,6 +444,11 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
     if (!value) {
       requestFlushImmediately();
     }
+    else {
+      synchronized (LOCK) {
+        LOCK.notifyAll();
+      }
+    }
   }
 
   @Override
@@ -466,6 +514,7 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
               && myEditor.getCaretModel().getOffset() == myEditor.getDocument().getTextLength()) {
             EditorUtil.scrollToTheEnd(myEditor);
           } 
+          highlightVisiblePendingRanges();
         }
       });
     }
@@ -487,9 +536,11 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
     if (myEditor != null) {
       cancelAllFlushRequests();
       mySpareTimeAlarm.cancelAllRequests();
+      myPendingHighlightRanges.clear();
       disposeEditor();
       synchronized (LOCK) {
         myBuffer.clear();
+        LOCK.notifyAll();
       }
       myEditor = null;
       myHyperlinks = null;
@@ -522,6 +573,9 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
 
   private void printHyperlink(String s, ConsoleViewContentType contentType, HyperlinkInfo info) {
     synchronized (LOCK) {
+      if (contentType != ConsoleViewContentType.USER_INPUT) {
+        waitForDeferredTextFlush();
+      }
       Pair<String, Integer> pair = myBuffer.print(s, contentType, info);
       s = pair.first;
       myContentSize += s.length() - pair.second;
@@ -538,6 +592,36 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
     }
   }
 
+  /**
+   * Blocks the printing thread while there are more than {@link #BACKPRESSURE_SIZE} deferred symbols, but not longer than
+   * {@link #BACKPRESSURE_TIMEOUT}. Doesn't wait in EDT or under read action, as the flush can't happen then, and doesn't
+   * wait when nothing is going to be flushed, i.e. the console isn't shown or its output is paused.
+   * <p/>
+   * Is expected to be called under {@link #LOCK}.
+   */
+  private void waitForDeferredTextFlush() {
+    int limit = myBuffer.isUseCyclicBuffer() ? Math.min(BACKPRESSURE_SIZE, myBuffer.getCyclicBufferSize() / 2) : BACKPRESSURE_SIZE;
+    if (limit <= 0 || myBuffer.getLength() < limit || !canWaitForFlush()) {
+      return;
+    }
+    Application application = ApplicationManager.getApplication();
+    if (application.isDispatchThread() || application.isReadAccessAllowed()) {
+      return;
+    }
+
+    addFlushRequest(new MyFlushRunnable());
+    myBuffer.waitForFlush(LOCK, limit, BACKPRESSURE_TIMEOUT, new Condition<ConsoleBuffer>() {
+      @Override
+      public boolean value(ConsoleBuffer buffer) {
+        return canWaitForFlush();
+      }
+    });
+  }
+
+  private boolean canWaitForFlush() {
+    return !myOutputPaused && myEditor != null && !myFlushAlarm.isDisposed();
+  }
+
   public void setFlushDelay(int flushDelay) throws IllegalArgumentException {
     if (flushDelay < 0) {
       throw new IllegalArgumentException("Can't accept negative flush delay value: " + flushDelay);
@@ -604,6 +688,7 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
         myFoldingAlarm.cancelAllRequests();
         cancelHeavyAlarm();
       }
+      myPendingHighlightRanges.clear();
       CommandProcessor.getInstance().executeCommand(myProject, new Runnable() {
         @Override
         public void run() {
@@ -636,6 +721,7 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
       deferredTokensSize = deferredTokens.size();
       myBuffer.clear(false);
       cancelHeavyAlarm();
+      LOCK.notifyAll();
     }
     final Document document = myEditor.getDocument();
     final int oldLineCount = document.getLineCount();
@@ -913,15 +999,62 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
     }
     ApplicationManager.getApplication().assertIsDispatchThread();
     PsiDocumentManager.getInstance(myProject).commitAllDocuments();
-    if (canHighlightHyperlinks) {
+    int startLine = Math.max(0, line1);
+    if (endLine - startLine < LAZY_HIGHLIGHTING_LINES) {
+      runFilters(startLine, endLine);
+    }
+    else {
+      // a lot of output at once: filter what the user sees now, and the rest when it's scrolled into view
+      int[] visibleLines = myPendingHighlightRanges.addInvisible(startLine, endLine, getVisibleLines());
+      if (visibleLines != null) {
+        runFilters(visibleLines[0], visibleLines[1]);
+      }
+    }
+    if (myUpdateFoldingsEnabled) {
+      updateFoldings(line1, endLine, true);
+    }
+  }
+
+  private void runFilters(int line1, int endLine) {
+    if (!myCustomFilter.isEmpty() || !myPredefinedMessageFilter.isEmpty()) {
       myHyperlinks.highlightHyperlinks(myCustomFilter, myPredefinedMessageFilter, line1, endLine);
     }
-    
     if (myAllowHeavyFilters && myPredefinedMessageFilter.isAnyHeavy() && myPredefinedMessageFilter.shouldRunHeavy()) {
       runHeavyFilters(line1, endLine);
     }
-    if (myUpdateFoldingsEnabled) {
-      updateFoldings(line1, endLine, true);
+  }
+
+  /**
+   * @return first and last lines of the document shown in the editor, or null if the editor isn't shown
+   */
+  @Nullable
+  private int[] getVisibleLines() {
+    Rectangle area = myEditor.getScrollingModel().getVisibleArea();
+    if (area.height <= 0) {
+      return null;
+    }
+    int lastDocumentLine = Math.max(0, myEditor.getDocument().getLineCount() - 1);
+    int first = myEditor.xyToLogicalPosition(new Point(0, area.y)).line;
+    int last = myEditor.xyToLogicalPosition(new Point(0, area.y + area.height)).line;
+    return new int[]{Math.min(first, lastDocumentLine), Math.min(last, lastDocumentLine)};
+  }
+
+  private void highlightVisiblePendingRanges() {
+    if (myPendingHighlightRanges.isEmpty() || myEditor == null) return;
+    int[] visibleLines = getVisibleLines();
+    if (visibleLines == null) return;
+
+    PsiDocumentManager.getInstance(myProject).commitAllDocuments();
+    for (int[] lines : myPendingHighlightRanges.takeVisible(visibleLines)) {
+      runFilters(lines[0], lines[1]);
+    }
+  }
+
+  private void highlightAllPendingRanges() {
+    if (myPendingHighlightRanges.isEmpty() || myEditor == null) return;
+    PsiDocumentManager.getInstance(myProject).commitAllDocuments();
+    for (int[] lines : myPendingHighlightRanges.takeAll()) {
+      runFilters(lines[0], lines[1]);
     }
   }
 
@@ -1341,16 +1474,17 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
   // navigate up/down in stack trace
   @Override
   public boolean hasNextOccurence() {
-    return calcNextOccurrence(1) != null;
+    return !myPendingHighlightRanges.isEmpty() || calcNextOccurrence(1) != null;
   }
 
   @Override
   public boolean hasPreviousOccurence() {
-    return calcNextOccurrence(-1) != null;
+    return !myPendingHighlightRanges.isEmpty() || calcNextOccurrence(-1) != null;
   }
 
   @Override
   public OccurenceInfo goNextOccurence() {
+    highlightAllPendingRanges();
     return calcNextOccurrence(1);
   }
 
@@ -1370,6 +1504,7 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
 
   @Override
   public OccurenceInfo goPreviousOccurence() {
+    highlightAllPendingRanges();
     return calcNextOccurrence(-1);
   }
 
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.execution.impl;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Line ranges of the console text which filters haven't been run over yet, as the lines were out of view when they were flushed
+ * to the document. Every range is kept as an object created by {@link #createRange(int, int)}, e.g. a range marker which follows
+ * the text when the lines above it are removed.
+ * <p/>
+ * Lines are given as pairs of the first and the last line, both inclusive.
+ * <p/>
+ * Not thread-safe.
+ * <p/>
+ * <b>Note:</b> the class is cut from {@link ConsoleViewImpl} in order to make it possible to cover it by tests.
+ */
+abstract class PendingLineRanges<T> {
+  private final List<T> myRanges = new ArrayList<T>();
+
+  @NotNull
+  protected abstract T createRange(int line1, int endLine);
+
+  /**
+   * @return first and last lines of the range, or null if the range isn't valid any more
+   */
+  @Nullable
+  protected abstract int[] getLines(@NotNull T range);
+
+  protected abstract void disposeRange(@NotNull T range);
+
+  public boolean isEmpty() {
+    return myRanges.isEmpty();
+  }
+
+  /**
+   * Keeps the given lines for filtering later, merging them with the last range if it ends right before them, not to keep a range
+   * per flush while the console isn't shown.
+   */
+  public void add(int line1, int endLine) {
+    if (!myRanges.isEmpty()) {
+      T last = myRanges.get(myRanges.size() - 1);
+      int[] lines = getLines(last);
+      if (lines != null && lines[1] + 1 == line1) {
+        myRanges.remove(myRanges.size() - 1);
+        disposeRange(last);
+        line1 = lines[0];
+      }
+    }
+    myRanges.add(createRange(line1, endLine));
+  }
+
+  /**
+   * Keeps the flushed lines which aren't visible for filtering later.
+   *
+   * @param visibleLines first and last lines shown in the editor, or null if the editor isn't shown
+   * @return the visible part of the flushed lines to be filtered now, or null if none of them is visible
+   */
+  @Nullable
+  public int[] addInvisible(int line1, int endLine, @Nullable int[] visibleLines) {
+    int visibleStart = visibleLines == null ? endLine + 1 : Math.max(line1, visibleLines[0]);
+    int visibleEnd = visibleLines == null ? endLine : Math.min(endLine, visibleLines[1]);
+    if (visibleStart > visibleEnd) {
+      add(line1, endLine);
+      return null;
+    }
+    if (line1 < visibleStart) add(line1, visibleStart - 1);
+    if (visibleEnd < endLine) add(visibleEnd + 1, endLine);
+    return new int[]{visibleStart, visibleEnd};
+  }
+
+  /**
+   * Removes the lines which have been scrolled into view from the kept ones.
+   *
+   * @param visibleLines first and last lines shown in the editor
+   * @return line ranges to be filtered now
+   */
+  @NotNull
+  public List<int[]> takeVisible(@NotNull int[] visibleLines) {
+    List<int[]> result = new ArrayList<int[]>();
+    List<T> ranges = new ArrayList<T>(myRanges);
+    myRanges.clear();
+    for (T range : ranges) {
+      int[] lines = getLines(range);
+      if (lines == null) {
+        disposeRange(range);
+        continue;
+      }
+      int start = Math.max(lines[0], visibleLines[0]);
+      int end = Math.min(lines[1], visibleLines[1]);
+      if (start > end) {
+        myRanges.add(range);
+        continue;
+      }
+      disposeRange(range);
+      if (lines[0] < start) add(lines[0], start - 1);
+      if (end < lines[1]) add(end + 1, lines[1]);
+      result.add(new int[]{start, end});
+    }
+    return result;
+  }
+
+  /**
+   * Removes all the kept lines.
+   *
+   * @return line ranges to be filtered now
+   */
+  @NotNull
+  public List<int[]> takeAll() {
+    List<int[]> result = new ArrayList<int[]>();
+    for (T range : myRanges) {
+      int[] lines = getLines(range);
+      if (lines != null) {
+        result.add(lines);
+      }
+      disposeRange(range);
+    }
+    myRanges.clear();
+    return result;
+  }
+
+  public void clear() {
+    for (T range : myRanges) {
+      disposeRange(range);
+    }
+    myRanges.clear();
+  }
+}
@@ -42,6 +42,7 @@ import com.intellij.openapi.progress.impl.BackgroundableProcessIndicator;
 import com.intellij.openapi.project.*;
 import com.intellij.openapi.roots.*;
 import com.intellij.openapi.util.*;
+import com.intellij.openapi.util.io.ByteSequence;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.registry.Registry;
 import com.intellij.openapi.vfs.*;
@@ -50,6 +51,7 @@ import com.intellij.openapi.vfs.newvfs.BulkFileListener;
 import com.intellij.openapi.vfs.newvfs.ManagingFS;
 import com.intellij.openapi.vfs.newvfs.NewVirtualFile;
 import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.openapi.vfs.newvfs.persistent.FSRecords;
 import com.intellij.openapi.vfs.newvfs.persistent.FlushingDaemon;
 import com.intellij.openapi.vfs.newvfs.persistent.PersistentFS;
 import com.intellij.psi.*;
@@ -112,6 +114,14 @@ public class FileBasedIndexImpl extends FileBasedIndex {
   private static final int REBUILD_IN_PROGRESS = 3;
   private static final Map<ID<?, ?>, AtomicInteger> ourRebuildStatus = new THashMap<ID<?,?>, AtomicInteger>();
 
+  private static final boolean ourBatchIndexWrites = SystemProperties.getBooleanProperty("idea.indexing.batch.writes", true);
+  private static final int MAX_INDEX_UPDATES_BATCH = 64;
+  private static final boolean ourSkipUnchangedContent = SystemProperties.getBooleanProperty("idea.indexing.skip.unchanged.content", true);
+  private final ConcurrentLinkedQueue<FileIndexUpdates> myPendingIndexUpdates = new ConcurrentLinkedQueue<FileIndexUpdates>();
+  private final Object myIndexWriterLock = new Object();
+  private boolean myIndexWriterActive; // guarded by myIndexWriterLock
+  private final IndexingStatistics myIndexingStatistics = new IndexingStatistics();
+
   private final VirtualFileManagerEx myVfManager;
   private final FileDocumentManager myFileDocumentManager;
   private final FileTypeManager myFileTypeManager;
@@ -129,12 +139,12 @@ public class FileBasedIndexImpl extends FileBasedIndex {
   private volatile boolean myInitialized; // need this variable for memory barrier
   @Override
   public void requestReindex(@NotNull final VirtualFile file) {
-    myChangedFilesCollector.invalidateIndices(file, true);
+    myChangedFilesCollector.invalidateIndices(file, true, false);
   }
 
   @Override
   public void requestReindexExcluded(@NotNull final VirtualFile file) {
-    myChangedFilesCollector.invalidateIndices(file, false);
+    myChangedFilesCollector.invalidateIndices(file, false, false);
   }
 
   public FileBasedIndexImpl(final VirtualFileManagerEx vfManager,
@@ -399,7 +409,8 @@ public class FileBasedIndexImpl extends FileBasedIndex {
           extension.getKeyDescriptor(),
           extension.getValueExternalizer(),
           extension.getCacheSize(),
-          extension.isKeyHighlySelective()
+          extension.isKeyHighlySelective(),
+          extension.useCompactInputIdSets()
         );
         final MemoryIndexStorage<K, V> memStorage = new MemoryIndexStorage<K, V>(storage);
         final UpdatableIndex<K, V, FileContent> index = createIndex(name, extension, memStorage);
@@ -973,8 +984,8 @@ public class FileBasedIndexImpl extends FileBasedIndex {
                                                       @Nullable Condition<V> valueChecker,
                                                       @NotNull final Processor<VirtualFile> processor) {
     ProjectIndexableFilesFilter filesSet = projectIndexableFiles(filter.getProject());
-    final TIntHashSet set = collectFileIdsContainingAllKeys(indexId, dataKeys, filter, valueChecker, filesSet);
-    return set != null && processVirtualFiles(set, filter, processor);
+    final int[] ids = collectFileIdsContainingAllKeys(indexId, dataKeys, filter, valueChecker, filesSet);
+    return ids != null && processVirtualFiles(ids, filter, processor);
   }
 
   private static final Key<SoftReference<ProjectIndexableFilesFilter>> ourProjectFilesSetKey = Key.create("projectFiles");
@@ -1057,56 +1068,76 @@ public class FileBasedIndexImpl extends FileBasedIndex {
     }
   }
 
-  @Nullable 
-  private <K, V> TIntHashSet collectFileIdsContainingAllKeys(@NotNull final ID<K, V> indexId,
-                                                             @NotNull final Collection<K> dataKeys,
-                                                             @NotNull final GlobalSearchScope filter,
-                                                             @Nullable final Condition<V> valueChecker,
-                                                             @Nullable final ProjectIndexableFilesFilter projectFilesFilter) {
-    final ThrowableConvertor<UpdatableIndex<K, V, FileContent>, TIntHashSet, StorageException> convertor =
-      new ThrowableConvertor<UpdatableIndex<K, V, FileContent>, TIntHashSet, StorageException>() {
+  /**
+   * @return ascending ids of files associated with all the keys, or null if there are no keys or the index is being rebuilt
+   */
+  @Nullable
+  private <K, V> int[] collectFileIdsContainingAllKeys(@NotNull final ID<K, V> indexId,
+                                                       @NotNull final Collection<K> dataKeys,
+                                                       @NotNull final GlobalSearchScope filter,
+                                                       @Nullable final Condition<V> valueChecker,
+                                                       @Nullable final ProjectIndexableFilesFilter projectFilesFilter) {
+    final ThrowableConvertor<UpdatableIndex<K, V, FileContent>, int[], StorageException> convertor =
+      new ThrowableConvertor<UpdatableIndex<K, V, FileContent>, int[], StorageException>() {
         @Nullable
         @Override
-        public TIntHashSet convert(@NotNull UpdatableIndex<K, V, FileContent> index) throws StorageException {
-          TIntHashSet mainIntersection = null;
+        public int[] convert(@NotNull UpdatableIndex<K, V, FileContent> index) throws StorageException {
+          // the intersection is kept in a sorted array and narrowed in place, without building a set per key
+          int[] mainIntersection = null;
 
           for (K dataKey : dataKeys) {
             ProgressManager.checkCanceled();
-            final TIntHashSet copy = new TIntHashSet();
             final ValueContainer<V> container = index.getData(dataKey);
 
-            for (final Iterator<V> valueIt = container.getValueIterator(); valueIt.hasNext(); ) {
-              final V value = valueIt.next();
-              if (valueChecker != null && !valueChecker.value(value)) {
-                continue;
+            if (mainIntersection == null) {
+              final TIntArrayList ids = new TIntArrayList();
+              for (final Iterator<V> valueIt = container.getValueIterator(); valueIt.hasNext(); ) {
+                final V value = valueIt.next();
+                if (valueChecker != null && !valueChecker.value(value)) {
+                  continue;
+                }
+                for (final ValueContainer.IntIterator inputIdsIterator = container.getInputIdsIterator(value); inputIdsIterator.hasNext(); ) {
+                  final int id = inputIdsIterator.next();
+                  if (projectFilesFilter == null || projectFilesFilter.contains(id)) {
+                    ids.add(id);
+                  }
+                }
               }
+              mainIntersection = toSortedUniqueArray(ids);
+            }
+            else {
+              final BitSet matched = new BitSet(mainIntersection.length);
+              for (final Iterator<V> valueIt = container.getValueIterator(); valueIt.hasNext(); ) {
+                final V value = valueIt.next();
+                if (valueChecker != null && !valueChecker.value(value)) {
+                  continue;
+                }
 
-              ValueContainer.IntIterator iterator = container.getInputIdsIterator(value);
-
-              if (mainIntersection == null || iterator.size() < mainIntersection.size()) {
-                for (final ValueContainer.IntIterator inputIdsIterator = iterator; inputIdsIterator.hasNext(); ) {
-                  final int id = inputIdsIterator.next();
-                  if (mainIntersection == null && (projectFilesFilter == null || projectFilesFilter.contains(id)) ||
-                      mainIntersection != null && mainIntersection.contains(id)
-                     ) {
-                    copy.add(id);
+                final ValueContainer.IntIterator iterator = container.getInputIdsIterator(value);
+                if (iterator.size() < mainIntersection.length) {
+                  while (iterator.hasNext()) {
+                    final int position = Arrays.binarySearch(mainIntersection, iterator.next());
+                    if (position >= 0) matched.set(position);
                   }
                 }
-              } else {
-                mainIntersection.forEach(new TIntProcedure() {
+                else {
                   final ValueContainer.IntPredicate predicate = container.getValueAssociationPredicate(value);
-                  @Override
-                  public boolean execute(int id) {
-                    if (predicate.contains(id)) copy.add(id);
-                    return true;
+                  for (int i = matched.nextClearBit(0); i < mainIntersection.length; i = matched.nextClearBit(i + 1)) {
+                    if (predicate.contains(mainIntersection[i])) matched.set(i);
                   }
-                });
+                }
+              }
+
+              final int[] intersection = new int[matched.cardinality()];
+              int size = 0;
+              for (int i = matched.nextSetBit(0); i >= 0; i = matched.nextSetBit(i + 1)) {
+                intersection[size++] = mainIntersection[i];
               }
+              mainIntersection = intersection;
             }
 
-            mainIntersection = copy;
-            if (mainIntersection.isEmpty()) {
-              return new TIntHashSet();
+            if (mainIntersection.length == 0) {
+              return ArrayUtil.EMPTY_INT_ARRAY;
             }
           }
 
@@ -1118,21 +1149,32 @@ public class FileBasedIndexImpl extends FileBasedIndex {
     return processExceptions(indexId, null, filter, convertor);
   }
 
-  private static boolean processVirtualFiles(@NotNull TIntHashSet ids,
+  @NotNull
+  private static int[] toSortedUniqueArray(@NotNull TIntArrayList ids) {
+    if (ids.isEmpty()) return ArrayUtil.EMPTY_INT_ARRAY;
+    final int[] array = ids.toNativeArray();
+    Arrays.sort(array);
+    int size = 1;
+    for (int i = 1; i < array.length; i++) {
+      if (array[i] != array[size - 1]) {
+        array[size++] = array[i];
+      }
+    }
+    return size == array.length ? array : Arrays.copyOf(array, size);
+  }
+
+  private static boolean processVirtualFiles(@NotNull int[] ids,
                                              @NotNull final GlobalSearchScope filter,
                                              @NotNull final Processor<VirtualFile> processor) {
     final PersistentFS fs = (PersistentFS)ManagingFS.getInstance();
-    return ids.forEach(new TIntProcedure() {
-      @Override
-      public boolean execute(int id) {
-        ProgressManager.checkCanceled();
-        VirtualFile file = IndexInfrastructure.findFileByIdIfCached(fs, id);
-        if (file != null && filter.accept(file)) {
-          return processor.process(file);
-        }
-        return true;
+    for (int id : ids) {
+      ProgressManager.checkCanceled();
+      VirtualFile file = IndexInfrastructure.findFileByIdIfCached(fs, id);
+      if (file != null && filter.accept(file) && !processor.process(file)) {
+        return false;
       }
-    });
+    }
+    return true;
   }
 
   @Nullable
@@ -1622,6 +1664,9 @@ public class FileBasedIndexImpl extends FileBasedIndex {
     myChangedFilesCollector.ensureAllInvalidateTasksCompleted();
     final VirtualFile file = content.getVirtualFile();
     FileContentImpl fc = null;
+    FileIndexUpdates updates = null;
+    byte[] contentHash = null;
+    TObjectLongHashMap<ID<?, ?>> indexedStamps = null;
 
     PsiFile psiFile = null;
 
@@ -1648,11 +1693,45 @@ public class FileBasedIndexImpl extends FileBasedIndex {
               project = ProjectUtil.guessProjectForFile(file);
             }
             fc.putUserData(IndexingDataKeys.PROJECT, project);
+            myIndexingStatistics.fileIndexed(currentBytes.length);
+
+            if (ourSkipUnchangedContent && file instanceof NewVirtualFile) {
+              contentHash = FSRecords.calculateContentHash(new ByteSequence(currentBytes));
+              indexedStamps = IndexedContentHashes.getIndexStamps(file, file.getFileType(), contentHash);
+              if (indexedStamps == null) {
+                indexedStamps = new TObjectLongHashMap<ID<?, ?>>();
+              }
+            }
+          }
+
+          final long creationStamp = IndexInfrastructure.getIndexCreationStamp(indexId);
+          if (indexedStamps != null && needsFileContentLoading(indexId) && indexedStamps.get(indexId) == creationStamp) {
+            // the index still holds the data of the same content
+            ApplicationManager.getApplication().runReadAction(new Runnable() {
+              @Override
+              public void run() {
+                if (file.isValid()) {
+                  IndexingStamp.update(file, indexId, creationStamp);
+                }
+              }
+            });
+            continue;
           }
 
           try {
             ProgressManager.checkCanceled();
-            updateSingleIndex(indexId, file, fc);
+            if (ourBatchIndexWrites) {
+              if (updates == null) {
+                updates = new FileIndexUpdates();
+              }
+              prepareSingleIndexUpdate(indexId, file, fc, updates);
+            }
+            else {
+              updateSingleIndex(indexId, file, fc);
+            }
+            if (indexedStamps != null) {
+              indexedStamps.put(indexId, creationStamp);
+            }
           }
           catch (ProcessCanceledException e) {
             myChangedFilesCollector.scheduleForUpdate(file);
@@ -1661,10 +1740,20 @@ public class FileBasedIndexImpl extends FileBasedIndex {
           catch (StorageException e) {
             requestRebuild(indexId);
             LOG.info(e);
+            if (indexedStamps != null) {
+              indexedStamps.remove(indexId);
+            }
           }
         }
       }
 
+      if (updates != null) {
+        writeIndexUpdates(file, updates);
+      }
+      if (indexedStamps != null) {
+        IndexedContentHashes.setIndexStamps(file, file.getFileType(), contentHash, indexedStamps);
+      }
+
       if (psiFile != null) {
         psiFile.putUserData(PsiFileImpl.BUILDING_STUB, null);
       }
@@ -1673,6 +1762,194 @@ public class FileBasedIndexImpl extends FileBasedIndex {
     }
   }
 
+  @NotNull
+  public String getIndexingStatistics() {
+    return myIndexingStatistics.report();
+  }
+
+  public void resetIndexingStatistics() {
+    myIndexingStatistics.reset();
+  }
+
+  private void prepareSingleIndexUpdate(@NotNull ID<?, ?> indexId,
+                                        @NotNull VirtualFile file,
+                                        @NotNull FileContentImpl fc,
+                                        @NotNull FileIndexUpdates updates) throws StorageException {
+    if (ourRebuildStatus.get(indexId).get() == REQUIRES_REBUILD) {
+      return; // the index is scheduled for rebuild, no need to update
+    }
+    final int inputId = Math.abs(getFileId(file));
+    final UpdatableIndex<?, ?, FileContent> index = getIndex(indexId);
+    assert index != null;
+    if (!(index instanceof MapReduceIndex)) {
+      // custom index implementations can only be updated in one go
+      updateSingleIndex(indexId, file, fc);
+      return;
+    }
+
+    final long started = System.nanoTime();
+    final ThrowableRunnable<StorageException> update = ((MapReduceIndex<?, ?, FileContent>)index).prepareUpdate(inputId, fc);
+    myIndexingStatistics.contentMapped(indexId, fc.getContent().length, System.nanoTime() - started);
+    updates.add(indexId, update);
+  }
+
+  /**
+   * Indexers are run in parallel by the threads indexing files (see CacheUpdateRunner) while all the data is written by a single
+   * thread at a time: a thread which has its data ready either takes the writer role and writes the data of all the files queued
+   * so far, in batches grouped by index, or waits for the current writer to write its data. Waiting threads hold no locks, so the
+   * writer only needs the index locks.
+   */
+  private void writeIndexUpdates(@NotNull final VirtualFile file, @NotNull FileIndexUpdates updates) {
+    if (updates.isEmpty()) {
+      return;
+    }
+    myPendingIndexUpdates.add(updates);
+    boolean interrupted = false;
+    while (true) {
+      synchronized (myIndexWriterLock) {
+        // the writer may finish before taking these updates, then one of the waiting threads becomes the writer
+        while (myIndexWriterActive && !updates.myWritten) {
+          try {
+            myIndexWriterLock.wait();
+          }
+          catch (InterruptedException e) {
+            interrupted = true;
+          }
+        }
+        if (updates.myWritten) {
+          break;
+        }
+        myIndexWriterActive = true;
+      }
+      try {
+        ProgressManager.getInstance().executeNonCancelableSection(new Runnable() {
+          @Override
+          public void run() {
+            writePendingIndexUpdates();
+          }
+        });
+      }
+      finally {
+        synchronized (myIndexWriterLock) {
+          myIndexWriterActive = false;
+          myIndexWriterLock.notifyAll();
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+
+    for (int i = 0; i < updates.myIndexIds.size(); i++) {
+      final ID<?, ?> indexId = updates.myIndexIds.get(i);
+      final Throwable error = updates.myErrors.get(i);
+      if (error instanceof StorageException) {
+        requestRebuild(indexId);
+        LOG.info(error);
+      }
+      else if (error instanceof RuntimeException) {
+        throw (RuntimeException)error;
+      }
+      else if (error instanceof Error) {
+        throw (Error)error;
+      }
+      else if (ourRebuildStatus.get(indexId).get() != REQUIRES_REBUILD) {
+        ApplicationManager.getApplication().runReadAction(new Runnable() {
+          @Override
+          public void run() {
+            if (file.isValid()) {
+              IndexingStamp.update(file, indexId, IndexInfrastructure.getIndexCreationStamp(indexId));
+            }
+          }
+        });
+      }
+    }
+  }
+
+  private void writePendingIndexUpdates() {
+    while (true) {
+      final List<FileIndexUpdates> batch = new ArrayList<FileIndexUpdates>();
+      FileIndexUpdates updates;
+      while (batch.size() < MAX_INDEX_UPDATES_BATCH && (updates = myPendingIndexUpdates.poll()) != null) {
+        batch.add(updates);
+      }
+      if (batch.isEmpty()) {
+        return;
+      }
+
+      // the same index gets updated for all the files of the batch while its storage is warm, in the order files came
+      final Map<ID<?, ?>, List<Pair<FileIndexUpdates, Integer>>> byIndex = new LinkedHashMap<ID<?, ?>, List<Pair<FileIndexUpdates, Integer>>>();
+      for (FileIndexUpdates fileUpdates : batch) {
+        for (int i = 0; i < fileUpdates.myIndexIds.size(); i++) {
+          final ID<?, ?> indexId = fileUpdates.myIndexIds.get(i);
+          List<Pair<FileIndexUpdates, Integer>> list = byIndex.get(indexId);
+          if (list == null) {
+            byIndex.put(indexId, list = new ArrayList<Pair<FileIndexUpdates, Integer>>());
+          }
+          list.add(Pair.create(fileUpdates, i));
+        }
+      }
+
+      final StorageGuard.Holder lock = setDataBufferingEnabled(false);
+      try {
+        for (Map.Entry<ID<?, ?>, List<Pair<FileIndexUpdates, Integer>>> entry : byIndex.entrySet()) {
+          final ID<?, ?> indexId = entry.getKey();
+          final UpdatableIndex<?, ?, FileContent> index = getIndex(indexId);
+          assert index != null;
+          final long started = System.nanoTime();
+          final Lock writeLock = index.getWriteLock();
+          writeLock.lock();
+          try {
+            for (Pair<FileIndexUpdates, Integer> pair : entry.getValue()) {
+              final FileIndexUpdates fileUpdates = pair.first;
+              final int idx = pair.second;
+              if (ourRebuildStatus.get(indexId).get() == REQUIRES_REBUILD) {
+                continue; // the index is scheduled for rebuild, no need to update
+              }
+              myLocalModCount++;
+              try {
+                fileUpdates.myUpdates.get(idx).run();
+              }
+              catch (Throwable e) {
+                fileUpdates.myErrors.set(idx, e);
+              }
+            }
+          }
+          finally {
+            writeLock.unlock();
+          }
+          myIndexingStatistics.dataWritten(indexId, System.nanoTime() - started);
+        }
+      }
+      finally {
+        lock.leave();
+        synchronized (myIndexWriterLock) {
+          for (FileIndexUpdates fileUpdates : batch) {
+            fileUpdates.myWritten = true;
+          }
+          myIndexWriterLock.notifyAll();
+        }
+      }
+    }
+  }
+
+  private static class FileIndexUpdates {
+    private final List<ID<?, ?>> myIndexIds = new ArrayList<ID<?, ?>>();
+    private final List<ThrowableRunnable<StorageException>> myUpdates = new ArrayList<ThrowableRunnable<StorageException>>();
+    private final List<Throwable> myErrors = new ArrayList<Throwable>();
+    private boolean myWritten; // guarded by myIndexWriterLock
+
+    private void add(@NotNull ID<?, ?> indexId, @NotNull ThrowableRunnable<StorageException> update) {
+      myIndexIds.add(indexId);
+      myUpdates.add(update);
+      myErrors.add(null);
+    }
+
+    private boolean isEmpty() {
+      return myIndexIds.isEmpty();
+    }
+  }
+
   private void updateSingleIndex(final ID<?, ?> indexId, @NotNull final VirtualFile file, @Nullable final FileContent currentFC) throws StorageException {
     if (ourRebuildStatus.get(indexId).get() == REQUIRES_REBUILD) {
       return; // the index is scheduled for rebuild, no need to update
@@ -1763,12 +2040,12 @@ public class FileBasedIndexImpl extends FileBasedIndex {
 
     @Override
     public void beforeFileDeletion(@NotNull final VirtualFileEvent event) {
-      invalidateIndices(event.getFile(), false);
+      invalidateIndices(event.getFile(), false, false);
     }
 
     @Override
     public void beforeContentsChange(@NotNull final VirtualFileEvent event) {
-      invalidateIndices(event.getFile(), true);
+      invalidateIndices(event.getFile(), true, true);
     }
 
     @Override
@@ -1784,7 +2061,7 @@ public class FileBasedIndexImpl extends FileBasedIndex {
         if (!file.isDirectory()) {
           // name change may lead to filetype change so the file might become not indexable
           // in general case have to 'unindex' the file and index it again if needed after the name has been changed
-          invalidateIndices(file, false);
+          invalidateIndices(file, false, false);
         }
       }
     }
@@ -1842,7 +2119,12 @@ public class FileBasedIndexImpl extends FileBasedIndex {
       myFilesToUpdate.add(file);
     }
 
-    void invalidateIndices(@NotNull final VirtualFile file, final boolean markForReindex) {
+    /**
+     * @param contentChanged true if the file is invalidated because its content is about to change. Only in this case the indices may
+     *                       keep the data of the file if its new content turns out to be the same as the indexed one; an explicit reindex
+     *                       request must rerun the indexers as their results may depend on something else, e.g. on the file type
+     */
+    void invalidateIndices(@NotNull final VirtualFile file, final boolean markForReindex, final boolean contentChanged) {
       if (isUnderConfigOrSystem(file)) {
         return;
       }
@@ -1851,13 +2133,17 @@ public class FileBasedIndexImpl extends FileBasedIndex {
           final Iterable<VirtualFile> children = file instanceof NewVirtualFile
                                                  ? ((NewVirtualFile)file).iterInDbChildren() : Arrays.asList(file.getChildren());
           for (VirtualFile child : children) {
-            invalidateIndices(child, markForReindex);
+            invalidateIndices(child, markForReindex, contentChanged);
           }
         }
       }
       else {
         cleanProcessedFlag(file);
         IndexingStamp.flushCache(file);
+        if (!contentChanged || !markForReindex || isTooLarge(file)) {
+          // the data of the file is going to be removed from the indices or recalculated
+          IndexedContentHashes.clear(file);
+        }
         final List<ID<?, ?>> affectedIndices = new ArrayList<ID<?, ?>>(myIndices.size());
 
         for (final ID<?, ?> indexId : myIndices.keySet()) {
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.indexing;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.fileTypes.FileType;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.newvfs.FileAttribute;
+import com.intellij.openapi.vfs.newvfs.NewVirtualFile;
+import com.intellij.util.io.DataInputOutputUtil;
+import com.intellij.util.io.IOUtil;
+import gnu.trove.TObjectLongHashMap;
+import gnu.trove.TObjectLongProcedure;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Remembers the hash and the file type of the file content the indices currently hold data for, together with creation stamps of
+ * these indices.
+ * The data of a file is kept in the indices when its content changes and the file is only marked for reindexing,
+ * so if the file gets back the same content (e.g. after a VCS checkout), the indices are up-to-date without reindexing.
+ */
+class IndexedContentHashes {
+  private static final Logger LOG = Logger.getInstance("#com.intellij.util.indexing.IndexedContentHashes");
+  private static final FileAttribute PERSISTENCE = new FileAttribute("__indexed_content_hash__", 2, false);
+
+  private IndexedContentHashes() {
+  }
+
+  /**
+   * @return creation stamps of the indices holding data of the content with the given hash and file type, or null if the indices
+   * hold data of another content
+   */
+  @Nullable
+  static TObjectLongHashMap<ID<?, ?>> getIndexStamps(@NotNull VirtualFile file, @NotNull FileType fileType, @NotNull byte[] contentHash) {
+    if (!(file instanceof NewVirtualFile) || !file.isValid()) return null;
+    try {
+      final DataInputStream stream = PERSISTENCE.readAttribute(file);
+      if (stream == null) return null;
+      try {
+        if (stream.available() == 0) return null;
+        final byte[] hash = new byte[DataInputOutputUtil.readINT(stream)];
+        stream.readFully(hash);
+        if (!Arrays.equals(hash, contentHash)) return null;
+        if (!fileType.getName().equals(IOUtil.readString(stream))) return null;
+
+        final TObjectLongHashMap<ID<?, ?>> stamps = new TObjectLongHashMap<ID<?, ?>>();
+        while (stream.available() > 0) {
+          final ID<?, ?> id = ID.findById(DataInputOutputUtil.readINT(stream));
+          final long stamp = DataInputOutputUtil.readTIME(stream);
+          if (id != null) {
+            stamps.put(id, stamp);
+          }
+        }
+        return stamps;
+      }
+      finally {
+        stream.close();
+      }
+    }
+    catch (IOException e) {
+      LOG.info(e);
+      return null;
+    }
+  }
+
+  static void setIndexStamps(@NotNull VirtualFile file,
+                             @NotNull FileType fileType,
+                             @NotNull byte[] contentHash,
+                             @NotNull TObjectLongHashMap<ID<?, ?>> stamps) {
+    if (!(file instanceof NewVirtualFile) || !file.isValid()) return;
+    try {
+      final DataOutputStream stream = PERSISTENCE.writeAttribute(file);
+      try {
+        DataInputOutputUtil.writeINT(stream, contentHash.length);
+        stream.write(contentHash);
+        IOUtil.writeString(fileType.getName(), stream);
+        final IOException[] exception = new IOException[1];
+        stamps.forEachEntry(new TObjectLongProcedure<ID<?, ?>>() {
+          @Override
+          public boolean execute(ID<?, ?> id, long stamp) {
+            try {
+              DataInputOutputUtil.writeINT(stream, id.getUniqueId());
+              DataInputOutputUtil.writeTIME(stream, stamp);
+              return true;
+            }
+            catch (IOException e) {
+              exception[0] = e;
+              return false;
+            }
+          }
+        });
+        if (exception[0] != null) throw exception[0];
+      }
+      finally {
+        stream.close();
+      }
+    }
+    catch (IOException e) {
+      LOG.info(e);
+    }
+  }
+
+  /**
+   * Should be called when the data of the file is removed from the indices or is going to be recalculated regardless of its content
+   */
+  static void clear(@NotNull VirtualFile file) {
+    if (!(file instanceof NewVirtualFile) || !file.isValid()) return;
+    try {
+      final DataInputStream existing = PERSISTENCE.readAttribute(file);
+      if (existing == null) return;
+      try {
+        if (existing.available() == 0) return;
+      }
+      finally {
+        existing.close();
+      }
+      PERSISTENCE.writeAttribute(file).close();
+    }
+    catch (IOException e) {
+      LOG.info(e);
+    }
+  }
+}
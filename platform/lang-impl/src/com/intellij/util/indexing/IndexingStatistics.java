@@ -0,0 +1,117 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.indexing;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput of file content indexing per index: time spent by the indexer and time spent writing its data to the storage.
+ * Indices are reported starting from the slowest one.
+ */
+class IndexingStatistics {
+  private final ConcurrentMap<ID<?, ?>, IndexCounters> myCounters = new ConcurrentHashMap<ID<?, ?>, IndexCounters>();
+  private final AtomicLong myFiles = new AtomicLong();
+  private final AtomicLong myBytes = new AtomicLong();
+  private volatile long myStarted = System.nanoTime();
+
+  void reset() {
+    myCounters.clear();
+    myFiles.set(0);
+    myBytes.set(0);
+    myStarted = System.nanoTime();
+  }
+
+  void fileIndexed(long bytes) {
+    myFiles.incrementAndGet();
+    myBytes.addAndGet(bytes);
+  }
+
+  void contentMapped(@NotNull ID<?, ?> indexId, long bytes, long nanos) {
+    final IndexCounters counters = getCounters(indexId);
+    counters.myFiles.incrementAndGet();
+    counters.myBytes.addAndGet(bytes);
+    counters.myMappingNanos.addAndGet(nanos);
+  }
+
+  void dataWritten(@NotNull ID<?, ?> indexId, long nanos) {
+    getCounters(indexId).myWritingNanos.addAndGet(nanos);
+  }
+
+  @NotNull
+  private IndexCounters getCounters(@NotNull ID<?, ?> indexId) {
+    IndexCounters counters = myCounters.get(indexId);
+    if (counters == null) {
+      final IndexCounters newCounters = new IndexCounters(indexId);
+      counters = myCounters.putIfAbsent(indexId, newCounters);
+      if (counters == null) {
+        counters = newCounters;
+      }
+    }
+    return counters;
+  }
+
+  @NotNull
+  String report() {
+    final long elapsedNanos = Math.max(1, System.nanoTime() - myStarted);
+    final StringBuilder builder = new StringBuilder();
+    builder.append("Indexed ").append(myFiles.get()).append(" files (").append(myBytes.get() / 1024).append(" KB) at ")
+      .append(perSecond(myFiles.get(), elapsedNanos)).append(" files/s, ")
+      .append(perSecond(myBytes.get() / 1024, elapsedNanos)).append(" KB/s");
+
+    final List<IndexCounters> counters = new ArrayList<IndexCounters>(myCounters.values());
+    Collections.sort(counters, new Comparator<IndexCounters>() {
+      @Override
+      public int compare(IndexCounters c1, IndexCounters c2) {
+        final long t1 = c1.myMappingNanos.get() + c1.myWritingNanos.get();
+        final long t2 = c2.myMappingNanos.get() + c2.myWritingNanos.get();
+        return t1 < t2 ? 1 : t1 == t2 ? 0 : -1;
+      }
+    });
+    for (IndexCounters c : counters) {
+      final long nanos = Math.max(1, c.myMappingNanos.get() + c.myWritingNanos.get());
+      builder.append("\n  ").append(c.myIndexId).append(": ").append(c.myFiles.get()).append(" files, ")
+        .append(perSecond(c.myFiles.get(), nanos)).append(" files/s, ")
+        .append(perSecond(c.myBytes.get() / 1024, nanos)).append(" KB/s; indexing ")
+        .append(c.myMappingNanos.get() / 1000000).append(" ms, writing ")
+        .append(c.myWritingNanos.get() / 1000000).append(" ms");
+    }
+    return builder.toString();
+  }
+
+  private static long perSecond(long count, long nanos) {
+    return (long)(count * 1e9 / nanos);
+  }
+
+  private static class IndexCounters {
+    private final ID<?, ?> myIndexId;
+    private final AtomicLong myFiles = new AtomicLong();
+    private final AtomicLong myBytes = new AtomicLong();
+    private final AtomicLong myMappingNanos = new AtomicLong();
+    private final AtomicLong myWritingNanos = new AtomicLong();
+
+    private IndexCounters(@NotNull ID<?, ?> indexId) {
+      myIndexId = indexId;
+    }
+  }
+}
@@ -19,8 +19,11 @@ package com.intellij.util.indexing;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.util.CommonProcessors;
+import com.intellij.util.ConcurrencyUtil;
 import com.intellij.util.Processor;
+import com.intellij.util.SystemProperties;
 import com.intellij.util.containers.SLRUCache;
+import com.intellij.util.containers.ShareableKey;
 import com.intellij.util.io.DataExternalizer;
 import com.intellij.util.io.KeyDescriptor;
 import com.intellij.util.io.PersistentMap;
@@ -29,9 +32,11 @@ import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -41,6 +46,9 @@ import java.util.concurrent.locks.ReentrantLock;
 */
 public final class MapIndexStorage<Key, Value> implements IndexStorage<Key, Value>{
   private static final Logger LOG = Logger.getInstance("#com.intellij.util.indexing.MapIndexStorage");
+  private static final boolean WRITE_BEHIND = SystemProperties.getBooleanProperty("idea.indices.write.behind", true);
+  private static final int WRITE_BEHIND_BATCH_SIZE = 256;
+  private static final ExecutorService ourWriteBehindExecutor = ConcurrencyUtil.newSingleThreadExecutor("Index write-behind");
   private PersistentMap<Key, ValueContainer<Value>> myMap;
   private SLRUCache<Key, ChangeTrackingValueContainer<Value>> myCache;
   private final File myStorageFile;
@@ -48,8 +56,16 @@ public final class MapIndexStorage<Key, Value> implements IndexStorage<Key, Valu
   private final int myCacheSize;
 
   private final Lock l = new ReentrantLock();
+  // containers currently in myCache, read without the lock; a hit doesn't update the LRU order of the cache
+  private final ConcurrentMap<Key, ChangeTrackingValueContainer<Value>> myCachedContainers =
+    new ConcurrentHashMap<Key, ChangeTrackingValueContainer<Value>>();
+  // dirty containers dropped from myCache and not written to myMap yet, guarded by l
+  private final Map<Key, ChangeTrackingValueContainer<Value>> myPendingWrites = new HashMap<Key, ChangeTrackingValueContainer<Value>>();
+  private final AtomicBoolean myWriteBehindScheduled = new AtomicBoolean();
+  private volatile IOException myWriteBehindError;
   private final DataExternalizer<Value> myDataExternalizer;
   private boolean myHighKeySelectivity;
+  private final boolean myCompactInputIdSets;
 
   public MapIndexStorage(@NotNull File storageFile,
                          @NotNull KeyDescriptor<Key> keyDescriptor,
@@ -64,21 +80,35 @@ public final class MapIndexStorage<Key, Value> implements IndexStorage<Key, Valu
                          @NotNull DataExternalizer<Value> valueExternalizer,
                          final int cacheSize,
                          boolean highKeySelectivity) throws IOException {
+    this(storageFile, keyDescriptor, valueExternalizer, cacheSize, highKeySelectivity, false);
+  }
+
+  public MapIndexStorage(@NotNull File storageFile,
+                         @NotNull KeyDescriptor<Key> keyDescriptor,
+                         @NotNull DataExternalizer<Value> valueExternalizer,
+                         final int cacheSize,
+                         boolean highKeySelectivity,
+                         boolean compactInputIdSets) throws IOException {
 
     myStorageFile = storageFile;
     myKeyDescriptor = keyDescriptor;
     myCacheSize = cacheSize;
     myDataExternalizer = valueExternalizer;
     myHighKeySelectivity = highKeySelectivity;
+    myCompactInputIdSets = compactInputIdSets;
     initMapAndCache();
   }
 
   private void initMapAndCache() throws IOException {
-    final ValueContainerMap<Key, Value> map = new ValueContainerMap<Key, Value>(myStorageFile, myKeyDescriptor, myDataExternalizer);
+    final ValueContainerMap<Key, Value> map = new ValueContainerMap<Key, Value>(myStorageFile, myKeyDescriptor, myDataExternalizer, myCompactInputIdSets);
     myCache = new SLRUCache<Key, ChangeTrackingValueContainer<Value>>(myCacheSize, (int)(Math.ceil(myCacheSize * 0.25)) /* 25% from the main cache size*/) {
       @Override
       @NotNull
       public ChangeTrackingValueContainer<Value> createValue(final Key key) {
+        final ChangeTrackingValueContainer<Value> pending = myPendingWrites.remove(key);
+        if (pending != null) {
+          return pending; // its changes aren't in the map yet
+        }
         return new ChangeTrackingValueContainer<Value>(new ChangeTrackingValueContainer.Initializer<Value>() {
           @NotNull
           @Override
@@ -93,7 +123,7 @@ public final class MapIndexStorage<Key, Value> implements IndexStorage<Key, Valu
             try {
               value = map.get(key);
               if (value == null) {
-                value = new ValueContainerImpl<Value>();
+                value = new ValueContainerImpl<Value>(myCompactInputIdSets);
               }
             }
             catch (IOException e) {
@@ -106,7 +136,15 @@ public final class MapIndexStorage<Key, Value> implements IndexStorage<Key, Valu
 
       @Override
       protected void onDropFromCache(final Key key, @NotNull final ChangeTrackingValueContainer<Value> valueContainer) {
+        myCachedContainers.remove(key);
         if (valueContainer.isDirty()) {
+          if (WRITE_BEHIND) {
+            myPendingWrites.put(key, valueContainer);
+            if (myPendingWrites.size() >= WRITE_BEHIND_BATCH_SIZE) {
+              scheduleWriteBehind();
+            }
+            return;
+          }
           try {
             map.put(key, valueContainer);
           }
@@ -121,12 +159,18 @@ public final class MapIndexStorage<Key, Value> implements IndexStorage<Key, Valu
   }
 
   @Override
-  public void flush() {
+  public void flush() throws IOException {
     l.lock();
     try {
-      if (!myMap.isClosed() && myMap.isDirty()) {
-        myCache.clear();
-        myMap.force();
+      if (!myMap.isClosed()) {
+        if (myMap.isDirty() || hasDirtyCachedContainers()) {
+          myCache.clear();
+        }
+        // the map is not marked dirty by the containers waiting to be written behind, e.g. if it was forced after they had been changed
+        writePendingContainers(Integer.MAX_VALUE);
+        if (myMap.isDirty()) {
+          myMap.force();
+        }
       }
     }
     finally {
@@ -157,6 +201,15 @@ public final class MapIndexStorage<Key, Value> implements IndexStorage<Key, Valu
 
   @Override
   public void clear() throws StorageException{
+    l.lock();
+    try {
+      myPendingWrites.clear();
+      myCachedContainers.clear();
+      myWriteBehindError = null;
+    }
+    finally {
+      l.unlock();
+    }
     try {
       myMap.close();
     }
@@ -187,6 +240,7 @@ public final class MapIndexStorage<Key, Value> implements IndexStorage<Key, Valu
     l.lock();
     try {
       myCache.clear(); // this will ensure that all new keys are made into the map
+      writePendingContainers(Integer.MAX_VALUE);
       return myMap.processKeys(processor);
     }
     catch (IOException e) {
@@ -218,9 +272,16 @@ public final class MapIndexStorage<Key, Value> implements IndexStorage<Key, Valu
   @Override
   @NotNull
   public ChangeTrackingValueContainer<Value> read(final Key key) throws StorageException {
+    final ChangeTrackingValueContainer<Value> cached = myCachedContainers.get(key);
+    if (cached != null) {
+      return cached;
+    }
+
     l.lock();
     try {
-      return myCache.get(key);
+      final ChangeTrackingValueContainer<Value> container = myCache.get(key);
+      myCachedContainers.put(getStableKey(key), container);
+      return container;
     }
     catch (RuntimeException e) {
       final Throwable cause = e.getCause();
@@ -246,9 +307,10 @@ public final class MapIndexStorage<Key, Value> implements IndexStorage<Key, Valu
         return;
       }
 
-      ChangeTrackingValueContainer<Value> cached = myCache.getIfCached(key);
-      if (cached != null) {
-        cached.addValue(inputId, value);
+      ChangeTrackingValueContainer<Value> cached = myCachedContainers.get(key);
+      if (cached != null || hasPendingWrite(key)) {
+        // changes of the key made before must go to the map first
+        read(key).addValue(inputId, value);
         return;
       }
       // do not pollute the cache with highly selective data
@@ -273,4 +335,93 @@ public final class MapIndexStorage<Key, Value> implements IndexStorage<Key, Valu
     }
   }
 
+  private boolean hasDirtyCachedContainers() {
+    for (ChangeTrackingValueContainer<Value> container : myCachedContainers.values()) {
+      if (container.isDirty()) return true;
+    }
+    return false;
+  }
+
+  private boolean hasPendingWrite(Key key) {
+    if (!WRITE_BEHIND) return false;
+    l.lock();
+    try {
+      return myPendingWrites.containsKey(key);
+    }
+    finally {
+      l.unlock();
+    }
+  }
+
+  private void scheduleWriteBehind() {
+    if (myWriteBehindScheduled.compareAndSet(false, true)) {
+      ourWriteBehindExecutor.submit(new Runnable() {
+        @Override
+        public void run() {
+          myWriteBehindScheduled.set(false);
+          try {
+            boolean hasMore = true;
+            while (hasMore) {
+              // write in batches so that readers missing the cache don't wait for all the pending containers
+              l.lock();
+              try {
+                if (myMap.isClosed()) return;
+                hasMore = writePendingContainers(WRITE_BEHIND_BATCH_SIZE);
+              }
+              finally {
+                l.unlock();
+              }
+            }
+          }
+          catch (IOException e) {
+            LOG.info(e);
+            myWriteBehindError = e; // reported on the next flush
+          }
+          catch (RuntimeException e) {
+            LOG.error(e);
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Should be called under the lock.
+   * @return true if there are more pending containers to write
+   */
+  private boolean writePendingContainers(int maxCount) throws IOException {
+    final IOException error = myWriteBehindError;
+    if (error != null) {
+      myWriteBehindError = null;
+      throw error;
+    }
+    if (myPendingWrites.isEmpty()) return false;
+
+    final List<Map.Entry<Key, ChangeTrackingValueContainer<Value>>> entries =
+      new ArrayList<Map.Entry<Key, ChangeTrackingValueContainer<Value>>>(myPendingWrites.entrySet());
+    // keys with close hashes are likely to be close in the map files
+    Collections.sort(entries, new Comparator<Map.Entry<Key, ChangeTrackingValueContainer<Value>>>() {
+      @Override
+      public int compare(Map.Entry<Key, ChangeTrackingValueContainer<Value>> e1, Map.Entry<Key, ChangeTrackingValueContainer<Value>> e2) {
+        final int h1 = myKeyDescriptor.getHashCode(e1.getKey());
+        final int h2 = myKeyDescriptor.getHashCode(e2.getKey());
+        return h1 < h2 ? -1 : h1 == h2 ? 0 : 1;
+      }
+    });
+
+    final int count = Math.min(maxCount, entries.size());
+    for (int i = 0; i < count; i++) {
+      final Map.Entry<Key, ChangeTrackingValueContainer<Value>> entry = entries.get(i);
+      myPendingWrites.remove(entry.getKey());
+      myMap.put(entry.getKey(), entry.getValue());
+    }
+    return count < entries.size();
+  }
+
+  private static <K> K getStableKey(K key) {
+    if (key instanceof ShareableKey) {
+      return (K)((ShareableKey)key).getStableCopy();
+    }
+    return key;
+  }
 }
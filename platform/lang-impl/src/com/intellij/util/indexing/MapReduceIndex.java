@@ -22,6 +22,7 @@ import com.intellij.openapi.util.Ref;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.util.CommonProcessors;
 import com.intellij.util.Processor;
+import com.intellij.util.ThrowableRunnable;
 import com.intellij.util.io.PersistentHashMap;
 import gnu.trove.THashMap;
 import gnu.trove.TObjectObjectProcedure;
@@ -210,17 +211,31 @@ public class MapReduceIndex<Key, Value, Input> implements UpdatableIndex<Key,Val
 
   @Override
   public final void update(final int inputId, @Nullable Input content) throws StorageException {
+    prepareUpdate(inputId, content).run();
+  }
+
+  /**
+   * Runs the indexer without taking the index lock, so contents of different files may be indexed concurrently,
+   * the returned computation writes the data to the storage.
+   */
+  @NotNull
+  public final ThrowableRunnable<StorageException> prepareUpdate(final int inputId, @Nullable Input content) {
     assert myInputsIndex != null;
 
     final Map<Key, Value> data = content != null ? myIndexer.map(content) : Collections.<Key, Value>emptyMap();
 
-    updateWithMap(inputId, data, new Callable<Collection<Key>>() {
+    return new ThrowableRunnable<StorageException>() {
       @Override
-      public Collection<Key> call() throws Exception {
-        final Collection<Key> oldKeys = myInputsIndex.get(inputId);
-        return oldKeys == null? Collections.<Key>emptyList() : oldKeys;
+      public void run() throws StorageException {
+        updateWithMap(inputId, data, new Callable<Collection<Key>>() {
+          @Override
+          public Collection<Key> call() throws Exception {
+            final Collection<Key> oldKeys = myInputsIndex.get(inputId);
+            return oldKeys == null? Collections.<Key>emptyList() : oldKeys;
+          }
+        });
       }
-    });
+    };
   }
 
   protected void updateWithMap(final int inputId, @NotNull Map<Key, Value> newData, @NotNull Callable<Collection<Key>> oldKeysGetter) throws StorageException {
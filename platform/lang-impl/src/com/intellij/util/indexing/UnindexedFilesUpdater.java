@@ -57,6 +57,7 @@ public class UnindexedFilesUpdater implements CacheUpdater {
     List<VirtualFile> files = finder.getFiles();
     LOG.info("Unindexed files update started: " + files.size() + " files to update");
     myStarted = System.currentTimeMillis();
+    myIndex.resetIndexingStatistics();
     return VfsUtil.toVirtualFileArray(files);
   }
 
@@ -69,6 +70,7 @@ public class UnindexedFilesUpdater implements CacheUpdater {
   @Override
   public void updatingDone() {
     LOG.info("Unindexed files update done in " + (System.currentTimeMillis() - myStarted) + " ms");
+    LOG.info(myIndex.getIndexingStatistics());
   }
 
   @Override
@@ -23,6 +23,7 @@ import gnu.trove.THashMap;
 import gnu.trove.TIntHashSet;
 import gnu.trove.TIntIterator;
 import gnu.trove.TObjectObjectProcedure;
+import org.jetbrains.annotations.NotNull;
 
 import java.util.*;
 
@@ -38,6 +39,18 @@ class ValueContainerImpl<Value> extends UpdatableValueContainer<Value> implement
   // when there are several value mapped, myInputIdMapping is THashMap<Value, Data>, myInputIdMappingValue = null
   private Object myInputIdMapping;
   private Object myInputIdMappingValue;
+  private final boolean myCompactIdSets;
+
+  ValueContainerImpl() {
+    this(false);
+  }
+
+  /**
+   * @param compactIdSets whether ids of inputs associated with the same value are kept in {@link CompactIdSet}s instead of hash sets
+   */
+  ValueContainerImpl(boolean compactIdSets) {
+    myCompactIdSets = compactIdSets;
+  }
 
   @Override
   public void addValue(int inputId, Value value) {
@@ -58,15 +71,15 @@ class ValueContainerImpl<Value> extends UpdatableValueContainer<Value> implement
       }
     }
     else {
-      final TIntHashSet idSet;
+      final InputIdSet idSet;
       if (input instanceof Integer) {
-        idSet = new IdSet(3, 0.98f);
+        idSet = myCompactIdSets ? new CompactIdSet() : new IdSet(3, 0.98f);
         idSet.add(((Integer)input).intValue());
         if (!(myInputIdMapping instanceof THashMap)) myInputIdMappingValue = idSet;
         else ((THashMap<Value, Object>)myInputIdMapping).put(value, idSet);
       }
       else {
-        idSet = (TIntHashSet)input;
+        idSet = (InputIdSet)input;
       }
       idSet.add(inputId);
     }
@@ -103,8 +116,8 @@ class ValueContainerImpl<Value> extends UpdatableValueContainer<Value> implement
       return false;
     }
 
-    if (input instanceof TIntHashSet) {
-      final TIntHashSet idSet = (TIntHashSet)input;
+    if (input instanceof InputIdSet) {
+      final InputIdSet idSet = (InputIdSet)input;
       final boolean reallyRemoved = idSet.remove(inputId);
       if (reallyRemoved) {
         idSet.compact();
@@ -199,8 +212,8 @@ class ValueContainerImpl<Value> extends UpdatableValueContainer<Value> implement
   @Override
   public boolean isAssociated(Value value, final int inputId) {
     final Object input = getInput(value);
-    if (input instanceof TIntHashSet) {
-      return ((TIntHashSet)input).contains(inputId);
+    if (input instanceof InputIdSet) {
+      return ((InputIdSet)input).contains(inputId);
     }
     if (input instanceof Integer ){
       return inputId == ((Integer)input).intValue();
@@ -222,7 +235,7 @@ class ValueContainerImpl<Value> extends UpdatableValueContainer<Value> implement
       };
     }
     return new IntPredicate() {
-      final TIntHashSet mySet = (TIntHashSet)input;
+      final InputIdSet mySet = (InputIdSet)input;
       @Override
       boolean contains(int id) {
         return mySet.contains(id);
@@ -234,8 +247,8 @@ class ValueContainerImpl<Value> extends UpdatableValueContainer<Value> implement
   public IntIterator getInputIdsIterator(Value value) {
     final Object input = getInput(value);
     final IntIterator it;
-    if (input instanceof TIntHashSet) {
-      it = new IntSetIterator((TIntHashSet)input);
+    if (input instanceof InputIdSet) {
+      it = ((InputIdSet)input).intIterator();
     }
     else if (input instanceof Integer ){
       it = new SingleValueIterator(((Integer)input).intValue());
@@ -267,8 +280,8 @@ class ValueContainerImpl<Value> extends UpdatableValueContainer<Value> implement
       final ValueContainerImpl clone = (ValueContainerImpl)super.clone();
       if (myInputIdMapping instanceof THashMap) {
         clone.myInputIdMapping = mapCopy((THashMap<Value, Object>)myInputIdMapping);
-      } else if (myInputIdMappingValue instanceof TIntHashSet) {
-        clone.myInputIdMappingValue = ((TIntHashSet)myInputIdMappingValue).clone();
+      } else if (myInputIdMappingValue instanceof InputIdSet) {
+        clone.myInputIdMappingValue = ((InputIdSet)myInputIdMappingValue).clone();
       }
       return clone;
     }
@@ -295,7 +308,7 @@ class ValueContainerImpl<Value> extends UpdatableValueContainer<Value> implement
   };
 
   public ValueContainerImpl<Value> copy() {
-    ValueContainerImpl<Value> container = new ValueContainerImpl<Value>();
+    ValueContainerImpl<Value> container = new ValueContainerImpl<Value>(myCompactIdSets);
 
     if (myInputIdMapping instanceof THashMap) {
       final THashMap<Value, Object> mapping = (THashMap<Value, Object>)myInputIdMapping;
@@ -305,8 +318,8 @@ class ValueContainerImpl<Value> extends UpdatableValueContainer<Value> implement
       mapping.forEachEntry(new TObjectObjectProcedure<Value, Object>() {
         @Override
         public boolean execute(Value key, Object val) {
-          if (val instanceof TIntHashSet) {
-            newMapping.put(key, ((TIntHashSet)val).clone());
+          if (val instanceof InputIdSet) {
+            newMapping.put(key, ((InputIdSet)val).clone());
           }
           else {
             newMapping.put(key, val);
@@ -316,8 +329,8 @@ class ValueContainerImpl<Value> extends UpdatableValueContainer<Value> implement
       });
     } else {
       container.myInputIdMapping = myInputIdMapping;
-      container.myInputIdMappingValue = myInputIdMappingValue instanceof TIntHashSet ?
-                                        ((TIntHashSet)myInputIdMappingValue).clone():myInputIdMappingValue;
+      container.myInputIdMappingValue = myInputIdMappingValue instanceof InputIdSet ?
+                                        ((InputIdSet)myInputIdMappingValue).clone():myInputIdMappingValue;
     }
     return container;
   }
@@ -381,8 +394,8 @@ class ValueContainerImpl<Value> extends UpdatableValueContainer<Value> implement
     cloned.forEachEntry(new TObjectObjectProcedure<Value, Object>() {
       @Override
       public boolean execute(Value key, Object val) {
-        if (val instanceof TIntHashSet) {
-          cloned.put(key, ((TIntHashSet)val).clone());
+        if (val instanceof InputIdSet) {
+          cloned.put(key, ((InputIdSet)val).clone());
         }
         return true;
       }
@@ -398,12 +411,42 @@ class ValueContainerImpl<Value> extends UpdatableValueContainer<Value> implement
     }
   };
 
-  private static class IdSet extends TIntHashSet {
+  interface InputIdSet extends Cloneable {
+    boolean add(int id);
+
+    boolean remove(int id);
+
+    boolean contains(int id);
+
+    int size();
+
+    boolean isEmpty();
+
+    void compact();
+
+    @NotNull
+    IntIterator intIterator();
+
+    InputIdSet clone();
+  }
+
+  private static class IdSet extends TIntHashSet implements InputIdSet {
 
     private IdSet(final int initialCapacity, final float loadFactor) {
       super(initialCapacity, loadFactor);
     }
 
+    @NotNull
+    @Override
+    public IntIterator intIterator() {
+      return new IntSetIterator(this);
+    }
+
+    @Override
+    public IdSet clone() {
+      return (IdSet)super.clone();
+    }
+
     @Override
     public void compact() {
       if (((int)(capacity() * _loadFactor)/ Math.max(1, size())) >= 3) {
@@ -18,9 +18,10 @@ class ValueContainerMap<Key, Value> extends PersistentHashMap<Key, ValueContaine
 
   ValueContainerMap(@NotNull final File file,
                     @NotNull KeyDescriptor<Key> keyKeyDescriptor,
-                    @NotNull DataExternalizer<Value> valueExternalizer) throws IOException {
+                    @NotNull DataExternalizer<Value> valueExternalizer,
+                    boolean compactInputIdSets) throws IOException {
 
-    super(file, keyKeyDescriptor, new ValueContainerExternalizer<Value>(valueExternalizer));
+    super(file, keyKeyDescriptor, new ValueContainerExternalizer<Value>(valueExternalizer, compactInputIdSets));
     myValueContainerExternalizer = (ValueContainerExternalizer<Value>)myValueExternalizer;
   }
 
@@ -65,9 +66,11 @@ class ValueContainerMap<Key, Value> extends PersistentHashMap<Key, ValueContaine
 
   private static final class ValueContainerExternalizer<T> implements DataExternalizer<ValueContainer<T>> {
     @NotNull private final DataExternalizer<T> myExternalizer;
+    private final boolean myCompactInputIdSets;
 
-    private ValueContainerExternalizer(@NotNull DataExternalizer<T> externalizer) {
+    private ValueContainerExternalizer(@NotNull DataExternalizer<T> externalizer, boolean compactInputIdSets) {
       myExternalizer = externalizer;
+      myCompactInputIdSets = compactInputIdSets;
     }
 
     @Override
@@ -103,7 +106,7 @@ class ValueContainerMap<Key, Value> extends PersistentHashMap<Key, ValueContaine
     @Override
     public ValueContainerImpl<T> read(final DataInput in) throws IOException {
       DataInputStream stream = (DataInputStream)in;
-      final ValueContainerImpl<T> valueContainer = new ValueContainerImpl<T>();
+      final ValueContainerImpl<T> valueContainer = new ValueContainerImpl<T>(myCompactInputIdSets);
 
       while (stream.available() > 0) {
         final int valueCount = DataInputOutputUtil.readSINT(in);
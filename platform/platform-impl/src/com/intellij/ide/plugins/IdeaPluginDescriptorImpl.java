@@ -109,12 +109,41 @@ public class IdeaPluginDescriptorImpl implements IdeaPluginDescriptor {
 
   protected static StringInterner ourInterner = new StringInterner();
 
+  /**
+   * While set, descriptors remember their documents with includes resolved, so that they can be stored in {@link PluginDescriptorCache}.
+   */
+  static volatile boolean ourKeepLoadedDocuments;
+  private Document myLoadedDocument;
+  private URL myLoadedUrl;
+
   public void readExternal(Document document, final URL url) throws InvalidDataException, FileNotFoundException {
     document = JDOMXIncluder.resolve(document, url.toExternalForm());
-    JDOMUtil.internElement(document.getRootElement(), ourInterner);
+    if (ourKeepLoadedDocuments) {
+      myLoadedDocument = (Document)document.clone();
+      myLoadedUrl = url;
+    }
+    // descriptors are loaded concurrently on startup
+    synchronized (ourInterner) {
+      JDOMUtil.internElement(document.getRootElement(), ourInterner);
+    }
     readExternal(document.getRootElement());
   }
 
+  @Nullable
+  Document getLoadedDocument() {
+    return myLoadedDocument;
+  }
+
+  @Nullable
+  URL getLoadedUrl() {
+    return myLoadedUrl;
+  }
+
+  void forgetLoadedDocument() {
+    myLoadedDocument = null;
+    myLoadedUrl = null;
+  }
+
   public void readExternal(final URL url) throws InvalidDataException, FileNotFoundException {
     try {
       Document document = JDOMUtil.loadDocument(url);
@@ -0,0 +1,314 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.ide.plugins;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.extensions.PluginId;
+import com.intellij.openapi.util.JDOMUtil;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.SystemProperties;
+import com.intellij.util.io.IOUtil;
+import org.jdom.Document;
+import org.jdom.output.Format;
+import org.jdom.output.XMLOutputter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches resolved descriptors of installed plugins in the system directory between runs, keyed by plugin jar or directory.
+ * An entry is reloaded when the files it was read from change, and the whole cache is dropped when the IDE build changes.
+ */
+class PluginDescriptorCache {
+  private static final int FORMAT_VERSION = 1;
+  private static final boolean ENABLED = SystemProperties.getBooleanProperty("idea.plugins.descriptor.cache", true);
+
+  private final File myFile;
+  private final Map<String, CachedRoot> myStoredRoots;
+  private final Map<String, CachedRoot> myUsedRoots = new ConcurrentHashMap<String, CachedRoot>();
+  private final Map<String, long[]> myCurrentStamps = new ConcurrentHashMap<String, long[]>();
+
+  private PluginDescriptorCache(@NotNull File file, @NotNull Map<String, CachedRoot> storedRoots) {
+    myFile = file;
+    myStoredRoots = storedRoots;
+  }
+
+  /**
+   * @return null if the cache is disabled
+   */
+  @Nullable
+  static PluginDescriptorCache load() {
+    if (!ENABLED) return null;
+    return load(new File(PathManager.getSystemPath(), "caches" + File.separator + "plugin_descriptors.dat"));
+  }
+
+  @NotNull
+  static PluginDescriptorCache load(@NotNull File file) {
+    Map<String, CachedRoot> roots = new HashMap<String, CachedRoot>();
+    if (file.exists()) {
+      try {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+          if (input.readInt() == FORMAT_VERSION && getBuildStamp().equals(IOUtil.readString(input))) {
+            int count = input.readInt();
+            for (int i = 0; i < count; i++) {
+              String path = IOUtil.readString(input);
+              long[] stamps = new long[input.readInt()];
+              for (int j = 0; j < stamps.length; j++) {
+                stamps[j] = input.readLong();
+              }
+              roots.put(path, new CachedRoot(stamps, CachedDescriptor.read(input)));
+            }
+          }
+        }
+        finally {
+          input.close();
+        }
+      }
+      catch (IOException e) {
+        PluginManager.getLogger().info("Cannot read plugin descriptor cache " + file, e);
+        roots.clear();
+      }
+    }
+    return new PluginDescriptorCache(file, roots);
+  }
+
+  /**
+   * @return the descriptor loaded from the cache, or null if the root isn't cached or has changed since it was
+   */
+  @Nullable
+  IdeaPluginDescriptorImpl get(@NotNull File root) {
+    String path = root.getPath();
+    long[] stamps = computeStamps(root);
+    myCurrentStamps.put(path, stamps);
+
+    CachedRoot cached = myStoredRoots.get(path);
+    if (cached == null || !Arrays.equals(cached.stamps, stamps)) return null;
+
+    try {
+      IdeaPluginDescriptorImpl descriptor = cached.descriptor.restore();
+      myUsedRoots.put(path, cached);
+      return descriptor;
+    }
+    catch (Exception e) {
+      PluginManager.getLogger().info("Cannot restore cached descriptor of " + root, e);
+      return null;
+    }
+  }
+
+  /**
+   * Remembers the descriptor just loaded from the root. Should be called after {@link #get(File)} has been called for the root,
+   * while {@link IdeaPluginDescriptorImpl#ourKeepLoadedDocuments} is set.
+   */
+  void put(@NotNull File root, @Nullable IdeaPluginDescriptorImpl descriptor) {
+    if (descriptor == null) return;
+
+    String path = root.getPath();
+    CachedDescriptor cached = CachedDescriptor.create(descriptor, root);
+    long[] stamps = myCurrentStamps.get(path);
+    if (cached != null && stamps != null) {
+      myUsedRoots.put(path, new CachedRoot(stamps, cached));
+    }
+  }
+
+  void save() {
+    try {
+      FileUtil.createParentDirs(myFile);
+      DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(myFile)));
+      try {
+        output.writeInt(FORMAT_VERSION);
+        IOUtil.writeString(getBuildStamp(), output);
+        output.writeInt(myUsedRoots.size());
+        for (Map.Entry<String, CachedRoot> entry : myUsedRoots.entrySet()) {
+          IOUtil.writeString(entry.getKey(), output);
+          long[] stamps = entry.getValue().stamps;
+          output.writeInt(stamps.length);
+          for (long stamp : stamps) {
+            output.writeLong(stamp);
+          }
+          entry.getValue().descriptor.write(output);
+        }
+      }
+      finally {
+        output.close();
+      }
+    }
+    catch (IOException e) {
+      PluginManager.getLogger().info("Cannot write plugin descriptor cache " + myFile, e);
+      FileUtil.delete(myFile);
+    }
+  }
+
+  @NotNull
+  private static String getBuildStamp() {
+    return String.valueOf(PluginManager.getBuildNumber());
+  }
+
+  /**
+   * Names, modification times and lengths of the files {@link PluginManager#loadDescriptor(File, String)} looks into.
+   */
+  @NotNull
+  private static long[] computeStamps(@NotNull File root) {
+    StampCollector collector = new StampCollector();
+    collector.add(root);
+    if (root.isDirectory()) {
+      collector.addChildren(new File(root, PluginManager.META_INF));
+      File libDir = new File(root, "lib");
+      collector.add(libDir);
+      File[] libFiles = collector.addChildren(libDir);
+      for (File file : libFiles) {
+        if (file.isDirectory()) {
+          collector.addChildren(new File(file, PluginManager.META_INF));
+        }
+      }
+    }
+    return collector.getStamps();
+  }
+
+  private static class StampCollector {
+    private long[] myStamps = new long[12];
+    private int mySize;
+
+    void add(@NotNull File file) {
+      if (mySize + 3 > myStamps.length) {
+        myStamps = Arrays.copyOf(myStamps, myStamps.length * 2);
+      }
+      myStamps[mySize++] = file.getName().hashCode();
+      myStamps[mySize++] = file.lastModified();
+      myStamps[mySize++] = file.length();
+    }
+
+    @NotNull
+    File[] addChildren(@NotNull File dir) {
+      File[] files = dir.listFiles();
+      if (files == null) return new File[0];
+      Arrays.sort(files);
+      for (File file : files) {
+        add(file);
+      }
+      return files;
+    }
+
+    @NotNull
+    long[] getStamps() {
+      return Arrays.copyOf(myStamps, mySize);
+    }
+  }
+
+  private static class CachedRoot {
+    private final long[] stamps;
+    private final CachedDescriptor descriptor;
+
+    private CachedRoot(@NotNull long[] stamps, @NotNull CachedDescriptor descriptor) {
+      this.stamps = stamps;
+      this.descriptor = descriptor;
+    }
+  }
+
+  private static class CachedDescriptor {
+    private final String myPath;
+    private final String myUrl;
+    private final String myText;
+    @Nullable private final Map<String, CachedDescriptor> myOptionalDescriptors;
+
+    private CachedDescriptor(@NotNull String path, @NotNull String url, @NotNull String text,
+                             @Nullable Map<String, CachedDescriptor> optionalDescriptors) {
+      myPath = path;
+      myUrl = url;
+      myText = text;
+      myOptionalDescriptors = optionalDescriptors;
+    }
+
+    /**
+     * @return null if the descriptor or any of its optional descriptors wasn't read completely from inside the root
+     */
+    @Nullable
+    static CachedDescriptor create(@NotNull IdeaPluginDescriptorImpl descriptor, @NotNull File root) {
+      Document document = descriptor.getLoadedDocument();
+      URL url = descriptor.getLoadedUrl();
+      descriptor.forgetLoadedDocument();
+      File path = descriptor.getPath();
+      // optional descriptors may be found on the class path, which isn't tracked by the stamps
+      if (document == null || url == null || path == null || !FileUtil.isAncestor(root, path, false)) return null;
+
+      Map<String, CachedDescriptor> optionalDescriptors = null;
+      Map<PluginId, IdeaPluginDescriptorImpl> descriptors = descriptor.getOptionalDescriptors();
+      if (descriptors != null) {
+        optionalDescriptors = new HashMap<String, CachedDescriptor>(descriptors.size());
+        for (Map.Entry<PluginId, IdeaPluginDescriptorImpl> entry : descriptors.entrySet()) {
+          CachedDescriptor optionalDescriptor = create(entry.getValue(), root);
+          if (optionalDescriptor == null) return null;
+          optionalDescriptors.put(entry.getKey().getIdString(), optionalDescriptor);
+        }
+      }
+      return new CachedDescriptor(path.getPath(), url.toExternalForm(), new XMLOutputter(Format.getRawFormat()).outputString(document), optionalDescriptors);
+    }
+
+    @NotNull
+    IdeaPluginDescriptorImpl restore() throws Exception {
+      IdeaPluginDescriptorImpl descriptor = new IdeaPluginDescriptorImpl(new File(myPath));
+      descriptor.readExternal(JDOMUtil.loadDocument(myText), new URL(myUrl));
+      descriptor.forgetLoadedDocument();
+      if (myOptionalDescriptors != null) {
+        Map<PluginId, IdeaPluginDescriptorImpl> descriptors = new HashMap<PluginId, IdeaPluginDescriptorImpl>(myOptionalDescriptors.size());
+        for (Map.Entry<String, CachedDescriptor> entry : myOptionalDescriptors.entrySet()) {
+          descriptors.put(PluginId.getId(entry.getKey()), entry.getValue().restore());
+        }
+        descriptor.setOptionalDescriptors(descriptors);
+      }
+      return descriptor;
+    }
+
+    @NotNull
+    static CachedDescriptor read(@NotNull DataInput input) throws IOException {
+      String path = IOUtil.readString(input);
+      String url = IOUtil.readString(input);
+      String text = IOUtil.readString(input);
+      Map<String, CachedDescriptor> optionalDescriptors = null;
+      int count = input.readInt();
+      if (count >= 0) {
+        optionalDescriptors = new HashMap<String, CachedDescriptor>(count);
+        for (int i = 0; i < count; i++) {
+          String id = IOUtil.readString(input);
+          optionalDescriptors.put(id, read(input));
+        }
+      }
+      return new CachedDescriptor(path, url, text, optionalDescriptors);
+    }
+
+    void write(@NotNull DataOutput output) throws IOException {
+      IOUtil.writeString(myPath, output);
+      IOUtil.writeString(myUrl, output);
+      IOUtil.writeString(myText, output);
+      if (myOptionalDescriptors == null) {
+        output.writeInt(-1);
+      }
+      else {
+        output.writeInt(myOptionalDescriptors.size());
+        for (Map.Entry<String, CachedDescriptor> entry : myOptionalDescriptors.entrySet()) {
+          IOUtil.writeString(entry.getKey(), output);
+          entry.getValue().write(output);
+        }
+      }
+    }
+  }
+}
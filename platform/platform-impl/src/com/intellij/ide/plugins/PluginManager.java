@@ -45,6 +45,7 @@ import com.intellij.openapi.wm.IdeFrame;
 import com.intellij.openapi.wm.ex.WindowManagerEx;
 import com.intellij.util.ArrayUtil;
 import com.intellij.util.Function;
+import com.intellij.util.SystemProperties;
 import com.intellij.util.graph.CachingSemiGraph;
 import com.intellij.util.graph.DFSTBuilder;
 import com.intellij.util.graph.Graph;
@@ -65,6 +66,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -94,6 +96,8 @@ public class PluginManager {
   @NonNls private static final String MODULE_DEPENDENCY_PREFIX = "com.intellij.module";
   private static final List<String> ourAvailableModules = new ArrayList<String>();
   private static final boolean ourOptimize = "true".equals(System.getProperty("idea.optimize"));
+  private static final int LOADING_THREADS =
+    SystemProperties.getIntProperty("idea.plugins.loading.threads", Runtime.getRuntime().availableProcessors());
 
 
   public static long startupStart;
@@ -299,7 +303,7 @@ public class PluginManager {
     }
   }
 
-  private static void prepareLoadingPluginsErrorMessage(final String errorMessage) {
+  private static synchronized void prepareLoadingPluginsErrorMessage(final String errorMessage) {
     if (errorMessage != null) {
       if (!Main.isHeadless() && !ApplicationManager.getApplication().isUnitTestMode()) {
         if (myPluginError == null) {
@@ -535,13 +539,23 @@ public class PluginManager {
     final List<IdeaPluginDescriptorImpl> result = new ArrayList<IdeaPluginDescriptorImpl>();
 
     int pluginsCount = countPlugins(PathManager.getPluginsPath()) + countPlugins(PathManager.getPreinstalledPluginsPath());
-    loadDescriptors(PathManager.getPluginsPath(), result, progress, pluginsCount);
-    Application application = ApplicationManager.getApplication();
+    PluginDescriptorCache cache = PluginDescriptorCache.load();
+    IdeaPluginDescriptorImpl.ourKeepLoadedDocuments = cache != null;
     boolean fromSources = false;
-    if (application == null || !application.isUnitTestMode()) {
-      int size = result.size();
-      loadDescriptors(PathManager.getPreinstalledPluginsPath(), result, progress, pluginsCount);
-      fromSources = size == result.size();
+    try {
+      loadDescriptors(PathManager.getPluginsPath(), result, progress, pluginsCount, cache);
+      Application application = ApplicationManager.getApplication();
+      if (application == null || !application.isUnitTestMode()) {
+        int size = result.size();
+        loadDescriptors(PathManager.getPreinstalledPluginsPath(), result, progress, pluginsCount, cache);
+        fromSources = size == result.size();
+      }
+    }
+    finally {
+      IdeaPluginDescriptorImpl.ourKeepLoadedDocuments = false;
+    }
+    if (cache != null) {
+      cache.save();
     }
 
     loadDescriptorsFromProperty(result);
@@ -833,13 +847,13 @@ public class PluginManager {
   private static void loadDescriptors(String pluginsPath,
                                       List<IdeaPluginDescriptorImpl> result,
                                       @Nullable StartupProgress progress,
-                                      int pluginsCount) {
+                                      int pluginsCount,
+                                      @Nullable PluginDescriptorCache cache) {
     final File pluginsHome = new File(pluginsPath);
     final File[] files = pluginsHome.listFiles();
     if (files != null) {
       int i = result.size();
-      for (File file : files) {
-        final IdeaPluginDescriptorImpl descriptor = loadDescriptor(file, PLUGIN_XML);
+      for (IdeaPluginDescriptorImpl descriptor : loadDescriptors(files, cache)) {
         if (descriptor == null) continue;
         if (progress != null) {
           progress.showProgress(descriptor.getName(), PLUGINS_PROGRESS_MAX_VALUE * ((float)++i / pluginsCount));
@@ -858,6 +872,70 @@ public class PluginManager {
     }
   }
 
+  /**
+   * Loads descriptors of the plugin roots concurrently: it's mostly unzipping and XML parsing, and there may be hundreds of them.
+   *
+   * @return descriptors in the order of the roots, null for the roots which aren't plugins
+   */
+  private static IdeaPluginDescriptorImpl[] loadDescriptors(final File[] files, @Nullable final PluginDescriptorCache cache) {
+    final IdeaPluginDescriptorImpl[] descriptors = new IdeaPluginDescriptorImpl[files.length];
+    int threads = Math.min(files.length, LOADING_THREADS);
+    if (threads <= 1) {
+      for (int i = 0; i < files.length; i++) {
+        descriptors[i] = loadDescriptor(files[i], cache);
+      }
+      return descriptors;
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+      @Override
+      public Thread newThread(@NotNull Runnable r) {
+        Thread thread = new Thread(r, "Plugin descriptors loader");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    try {
+      List<Callable<IdeaPluginDescriptorImpl>> tasks = new ArrayList<Callable<IdeaPluginDescriptorImpl>>(files.length);
+      for (final File file : files) {
+        tasks.add(new Callable<IdeaPluginDescriptorImpl>() {
+          @Override
+          public IdeaPluginDescriptorImpl call() {
+            return loadDescriptor(file, cache);
+          }
+        });
+      }
+      List<Future<IdeaPluginDescriptorImpl>> futures = executor.invokeAll(tasks);
+      for (int i = 0; i < files.length; i++) {
+        try {
+          descriptors[i] = futures.get(i).get();
+        }
+        catch (ExecutionException e) {
+          getLogger().info("Cannot load " + files[i], e.getCause());
+        }
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    finally {
+      executor.shutdown();
+    }
+    return descriptors;
+  }
+
+  @Nullable
+  private static IdeaPluginDescriptorImpl loadDescriptor(File file, @Nullable PluginDescriptorCache cache) {
+    IdeaPluginDescriptorImpl descriptor = cache != null ? cache.get(file) : null;
+    if (descriptor == null) {
+      descriptor = loadDescriptor(file, PLUGIN_XML);
+      if (cache != null) {
+        cache.put(file, descriptor);
+      }
+    }
+    return descriptor;
+  }
+
   @SuppressWarnings({"HardCodedStringLiteral"})
   @Nullable
   public static IdeaPluginDescriptorImpl loadDescriptor(final File file, @NonNls final String fileName) {
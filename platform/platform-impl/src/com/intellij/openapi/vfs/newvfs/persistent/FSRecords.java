@@ -30,6 +30,7 @@ import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
 import com.intellij.openapi.util.io.ByteSequence;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.util.ArrayUtil;
+import com.intellij.util.SystemProperties;
 import com.intellij.util.concurrency.JBLock;
 import com.intellij.util.concurrency.JBReentrantReadWriteLock;
 import com.intellij.util.concurrency.LockFactory;
@@ -39,12 +40,17 @@ import com.intellij.util.io.DataOutputStream;
 import com.intellij.util.io.storage.*;
 import gnu.trove.TIntArrayList;
 import gnu.trove.TObjectIntHashMap;
+import jsr166e.SequenceLock;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
 
 import javax.swing.*;
 import java.awt.*;
 import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.concurrent.ScheduledFuture;
 
 @SuppressWarnings({"PointlessArithmeticExpression", "HardCodedStringLiteral"})
@@ -87,8 +93,27 @@ public class FSRecords implements Forceable {
 
   private static final String CHILDREN_ATT = "FsRecords.DIRECTORY_CHILDREN";
 
+  // identical contents of different files are stored in one content record
+  private static final boolean ourContentDeduplication = SystemProperties.getBooleanProperty("idea.vfs.content.dedup", true);
+  private static final int CONTENT_HASH_SIZE = 20; // SHA-1
+  private static final byte[] NO_CONTENT_HASH = new byte[CONTENT_HASH_SIZE];
+  private static final ThreadLocal<MessageDigest> ourContentDigest = new ThreadLocal<MessageDigest>() {
+    @Override
+    protected MessageDigest initialValue() {
+      try {
+        return MessageDigest.getInstance("SHA-1");
+      }
+      catch (NoSuchAlgorithmException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  };
+
   private static final JBLock r;
   private static final JBLock w;
+  // advanced on every outermost acquisition and release of the write lock, see readRecordInt()/readRecordLong()
+  private static final SequenceLock ourWriteSequence = new SequenceLock();
+  private static final boolean ourOptimisticReads = SystemProperties.getBooleanProperty("idea.vfs.optimistic.reads", true);
 
   private static volatile int ourLocalModificationCount = 0;
   private static volatile boolean ourIsDisposed;
@@ -102,7 +127,20 @@ public class FSRecords implements Forceable {
 
     JBReentrantReadWriteLock lock = LockFactory.createReadWriteLock();
     r = lock.readLock();
-    w = lock.writeLock();
+    final JBLock writeLock = lock.writeLock();
+    w = new JBLock() {
+      @Override
+      public void lock() {
+        writeLock.lock();
+        ourWriteSequence.lock();
+      }
+
+      @Override
+      public void unlock() {
+        ourWriteSequence.unlock();
+        writeLock.unlock();
+      }
+    };
   }
 
   private static class DbConnection {
@@ -112,6 +150,10 @@ public class FSRecords implements Forceable {
     private static PersistentStringEnumerator myNames;
     private static Storage myAttributes;
     private static RefCountingStorage myContents;
+    // content hash of every content record, by record id
+    private static ResizeableMappedFile myContentHashes;
+    // first four bytes of content hash -> content record
+    private static PersistentHashMap<Integer, Integer> myContentHashesIndex;
     private static ResizeableMappedFile myRecords;
     private static final TIntArrayList myFreeRecords = new TIntArrayList();
 
@@ -197,6 +239,8 @@ public class FSRecords implements Forceable {
       final File attributesFile = new File(basePath, "attrib.dat");
       final File contentsFile = new File(basePath, "content.dat");
       final File recordsFile = new File(basePath, "records.dat");
+      final File contentHashesFile = new File(basePath, "content.hashes");
+      final File contentHashesIndexFile = new File(basePath, "content.hashes.index");
 
       if (!namesFile.exists()) {
         invalidateIndex();
@@ -212,6 +256,15 @@ public class FSRecords implements Forceable {
         myNames = new PersistentStringEnumerator(namesFile, storageLockContext);
         myAttributes = new Storage(attributesFile.getCanonicalPath(), REASONABLY_SMALL);
         myContents = new RefCountingStorage(contentsFile.getCanonicalPath(), CapacityAllocationPolicy.FIVE_PERCENT_FOR_GROWTH); // sources usually zipped with 4x ratio
+        if (ourContentDeduplication) {
+          myContentHashes = new ResizeableMappedFile(contentHashesFile, 64 * 1024, storageLockContext, PagedFileStorage.BUFFER_SIZE, false);
+          myContentHashesIndex = new PersistentHashMap<Integer, Integer>(contentHashesIndexFile, EnumeratorIntegerDescriptor.INSTANCE,
+                                                                         EnumeratorIntegerDescriptor.INSTANCE);
+        }
+        else if (!deleteWithSubordinates(contentHashesFile) || !deleteWithSubordinates(contentHashesIndexFile)) {
+          // hashes of the contents written from now on won't be maintained
+          throw new IOException("Cannot delete content hashes");
+        }
         boolean aligned = PagedFileStorage.BUFFER_SIZE % RECORD_SIZE == 0;
         assert aligned; // for performance
         myRecords = new ResizeableMappedFile(recordsFile, 20 * 1024, storageLockContext,
@@ -242,6 +295,8 @@ public class FSRecords implements Forceable {
           deleted &= AbstractStorage.deleteFiles(attributesFile.getCanonicalPath());
           deleted &= AbstractStorage.deleteFiles(contentsFile.getCanonicalPath());
           deleted &= deleteWithSubordinates(recordsFile);
+          deleted &= deleteWithSubordinates(contentHashesFile);
+          deleted &= deleteWithSubordinates(contentHashesIndexFile);
 
           if (!deleted) {
             throw new IOException("Cannot delete filesystem storage files");
@@ -357,6 +412,10 @@ public class FSRecords implements Forceable {
           myNames.force();
           myAttributes.force();
           myContents.force();
+          if (myContentHashes != null) {
+            myContentHashes.force();
+            myContentHashesIndex.force();
+          }
           myRecords.force();
         }
       }
@@ -377,6 +436,10 @@ public class FSRecords implements Forceable {
 
         final boolean attribsFlushed = myAttributes.flushSome();
         final boolean contentsFlushed = myContents.flushSome();
+        if (myContentHashes != null) {
+          myContentHashes.force();
+          myContentHashesIndex.force();
+        }
         if (attribsFlushed && contentsFlushed) {
           markClean();
           myRecords.force();
@@ -388,7 +451,8 @@ public class FSRecords implements Forceable {
     }
 
     public static boolean isDirty() {
-      return myDirty || myNames.isDirty() || myAttributes.isDirty() || myContents.isDirty() || myRecords.isDirty();
+      return myDirty || myNames.isDirty() || myAttributes.isDirty() || myContents.isDirty() || myRecords.isDirty() ||
+             myContentHashes != null && (myContentHashes.isDirty() || myContentHashesIndex.isDirty());
     }
 
 
@@ -444,6 +508,16 @@ public class FSRecords implements Forceable {
         myContents = null;
       }
 
+      if (myContentHashes != null) {
+        myContentHashes.close();
+        myContentHashes = null;
+      }
+
+      if (myContentHashesIndex != null) {
+        myContentHashesIndex.close();
+        myContentHashesIndex = null;
+      }
+
       if (myRecords != null) {
         markClean();
         myRecords.close();
@@ -870,30 +944,18 @@ public class FSRecords implements Forceable {
   }
 
   public static int getModCount() {
-    try {
-      r.lock();
-      return getRecords().getInt(HEADER_GLOBAL_MOD_COUNT_OFFSET);
-    }
-    finally {
-      r.unlock();
-    }
+    return readRecordInt(0, HEADER_GLOBAL_MOD_COUNT_OFFSET);
   }
 
   public static int getParent(int id) {
     try {
-      r.lock();
-      try {
-        final int parentId = getRecordInt(id, PARENT_OFFSET);
-        if (parentId == id) {
-          LOG.error("Cyclic parent child relations in the database. id = " + id);
-          return 0;
-        }
-
-        return parentId;
-      }
-      finally {
-        r.unlock();
+      final int parentId = readRecordInt(id, PARENT_OFFSET);
+      if (parentId == id) {
+        LOG.error("Cyclic parent child relations in the database. id = " + id);
+        return 0;
       }
+
+      return parentId;
     }
     catch (Throwable e) {
       throw DbConnection.handleError(e);
@@ -950,13 +1012,7 @@ public class FSRecords implements Forceable {
   }
 
   public static int getFlags(int id) {
-    try {
-      r.lock();
-      return getRecordInt(id, FLAGS_OFFSET);
-    }
-    finally {
-      r.unlock();
-    }
+    return readRecordInt(id, FLAGS_OFFSET);
   }
 
   public static void setFlags(int id, int flags, final boolean markAsChange) {
@@ -976,13 +1032,7 @@ public class FSRecords implements Forceable {
   }
 
   public static long getLength(int id) {
-    try {
-      r.lock();
-      return getRecords().getLong(getOffset(id, LENGTH_OFFSET));
-    }
-    finally {
-      r.unlock();
-    }
+    return readRecordLong(id, LENGTH_OFFSET);
   }
 
   public static void setLength(int id, long len) {
@@ -1000,13 +1050,7 @@ public class FSRecords implements Forceable {
   }
 
   public static long getTimestamp(int id) {
-    try {
-      r.lock();
-      return getRecords().getLong(getOffset(id, TIMESTAMP_OFFSET));
-    }
-    finally {
-      r.unlock();
-    }
+    return readRecordLong(id, TIMESTAMP_OFFSET);
   }
 
   public static void setTimestamp(int id, long value) {
@@ -1024,13 +1068,7 @@ public class FSRecords implements Forceable {
   }
 
   public static int getModCount(int id) {
-    try {
-      r.lock();
-      return getRecordInt(id, MOD_COUNT_OFFSET);
-    }
-    finally {
-      r.unlock();
-    }
+    return readRecordInt(id, MOD_COUNT_OFFSET);
   }
 
   private static void setModCount(int id, int value) {
@@ -1057,6 +1095,58 @@ public class FSRecords implements Forceable {
     return getRecords().getInt(getOffset(id, offset));
   }
 
+  /**
+   * Reads a fixed-size record field without taking the read lock. The value is only trusted if no write lock was held
+   * during the read, otherwise (or if the read failed because the storage was being changed) the field is read again under the lock.
+   */
+  private static int readRecordInt(int id, int offset) {
+    if (ourOptimisticReads) {
+      final long sequence = ourWriteSequence.getSequence();
+      if ((sequence & 1L) == 0L) {
+        try {
+          final int value = getRecordInt(id, offset);
+          if (ourWriteSequence.getSequence() == sequence) {
+            return value;
+          }
+        }
+        catch (RuntimeException ignored) {
+        }
+      }
+    }
+
+    try {
+      r.lock();
+      return getRecordInt(id, offset);
+    }
+    finally {
+      r.unlock();
+    }
+  }
+
+  private static long readRecordLong(int id, int offset) {
+    if (ourOptimisticReads) {
+      final long sequence = ourWriteSequence.getSequence();
+      if ((sequence & 1L) == 0L) {
+        try {
+          final long value = getRecords().getLong(getOffset(id, offset));
+          if (ourWriteSequence.getSequence() == sequence) {
+            return value;
+          }
+        }
+        catch (RuntimeException ignored) {
+        }
+      }
+    }
+
+    try {
+      r.lock();
+      return getRecords().getLong(getOffset(id, offset));
+    }
+    finally {
+      r.unlock();
+    }
+  }
+
   private static void putRecordInt(int id, int offset, int value) {
     getRecords().putInt(getOffset(id, offset), value);
   }
@@ -1121,8 +1211,13 @@ public class FSRecords implements Forceable {
     int recordId = getContentRecordId(fileId);
     if (toWrite) {
       if (recordId == 0 || getContentStorage().getRefCount(recordId) > 1) {
+        int sharedRecordId = recordId;
         recordId = getContentStorage().acquireNewRecord();
         setContentRecordId(fileId, recordId);
+        // the file doesn't refer to the shared record any more
+        if (sharedRecordId != 0) {
+          getContentStorage().releaseRecord(sharedRecordId);
+        }
       }
     }
 
@@ -1220,6 +1315,22 @@ public class FSRecords implements Forceable {
     }
   }
 
+  @TestOnly
+  static int getContentRefCount(int contentId) {
+    try {
+      r.lock();
+      try {
+        return getContentStorage().getRefCount(contentId);
+      }
+      finally {
+        r.unlock();
+      }
+    }
+    catch (Throwable e) {
+      throw DbConnection.handleError(e);
+    }
+  }
+
   @NotNull
   public static DataOutputStream writeContent(int fileId, boolean readOnly) {
     return new ContentOutputStream(fileId, readOnly);
@@ -1231,10 +1342,40 @@ public class FSRecords implements Forceable {
 
   public static int storeUnlinkedContent(byte[] bytes) {
     try {
-      int recordId = getContentStorage().acquireNewRecord();
+      final byte[] hash = ourContentDeduplication ? calculateContentHash(new ByteSequence(bytes)) : null;
+      int recordId;
+      if (hash != null) {
+        try {
+          w.lock();
+          recordId = findContentByHash(hash);
+          if (recordId != 0) {
+            getContentStorage().acquireRecord(recordId);
+            return recordId;
+          }
+          recordId = getContentStorage().acquireNewRecord();
+          setContentHash(recordId, NO_CONTENT_HASH);
+        }
+        finally {
+          w.unlock();
+        }
+      }
+      else {
+        recordId = getContentStorage().acquireNewRecord();
+      }
+
       AbstractStorage.StorageDataOutput output = getContentStorage().writeStream(recordId, true);
       output.write(bytes);
       output.close();
+
+      if (hash != null) {
+        try {
+          w.lock();
+          setContentHash(recordId, hash);
+        }
+        finally {
+          w.unlock();
+        }
+      }
       return recordId;
     }
     catch (IOException e) {
@@ -1242,6 +1383,41 @@ public class FSRecords implements Forceable {
     }
   }
 
+  @NotNull
+  public static byte[] calculateContentHash(@NotNull ByteSequence bytes) {
+    final MessageDigest digest = ourContentDigest.get();
+    digest.reset();
+    digest.update(bytes.getBytes(), bytes.getOffset(), bytes.getLength());
+    return digest.digest();
+  }
+
+  /**
+   * @return a live content record with the given content hash, or 0 if there is none
+   */
+  private static int findContentByHash(@NotNull byte[] hash) throws IOException {
+    final Integer recordId = DbConnection.myContentHashesIndex.get(getContentHashKey(hash));
+    if (recordId == null || getContentStorage().getRefCount(recordId) <= 0) return 0;
+
+    final byte[] recordHash = new byte[CONTENT_HASH_SIZE];
+    DbConnection.myContentHashes.get(recordId * CONTENT_HASH_SIZE, recordHash, 0, CONTENT_HASH_SIZE);
+    return Arrays.equals(hash, recordHash) ? recordId : 0;
+  }
+
+  /**
+   * Should be called with {@link #NO_CONTENT_HASH} before the content of the record is changed, so that nobody shares
+   * the record while its new content is being written.
+   */
+  private static void setContentHash(int recordId, @NotNull byte[] hash) throws IOException {
+    DbConnection.myContentHashes.put(recordId * CONTENT_HASH_SIZE, hash, 0, CONTENT_HASH_SIZE);
+    if (hash != NO_CONTENT_HASH) {
+      DbConnection.myContentHashesIndex.put(getContentHashKey(hash), recordId);
+    }
+  }
+
+  private static int getContentHashKey(@NotNull byte[] hash) {
+    return (hash[0] & 0xFF) << 24 | (hash[1] & 0xFF) << 16 | (hash[2] & 0xFF) << 8 | hash[3] & 0xFF;
+  }
+
   @NotNull
   public static DataOutputStream writeAttribute(final int fileId, final String attId, boolean fixedSize) {
     return new AttributeOutputStream(fileId, attId, fixedSize);
@@ -1257,6 +1433,54 @@ public class FSRecords implements Forceable {
       return findContentPage(myFileId, true);
     }
 
+    @Override
+    public void writeBytes(ByteSequence bytes, int fileId) throws IOException {
+      if (!ourContentDeduplication) {
+        super.writeBytes(bytes, fileId);
+        return;
+      }
+
+      final byte[] hash = calculateContentHash(bytes);
+      final int page;
+      try {
+        w.lock();
+        incModCount(fileId);
+        checkFileIsValid(fileId);
+
+        final int currentRecordId = getContentRecordId(fileId);
+        final int sameContentRecordId = findContentByHash(hash);
+        if (sameContentRecordId != 0) {
+          if (sameContentRecordId != currentRecordId) {
+            getContentStorage().acquireRecord(sameContentRecordId);
+            setContentRecordId(fileId, sameContentRecordId);
+            if (currentRecordId != 0) {
+              getContentStorage().releaseRecord(currentRecordId);
+            }
+          }
+          return;
+        }
+
+        page = findOrCreatePage();
+        setContentHash(page, NO_CONTENT_HASH);
+      }
+      finally {
+        w.unlock();
+      }
+
+      getStorage().writeBytes(page, bytes, myFixedSize);
+
+      try {
+        w.lock();
+        // the file could have been rewritten meanwhile, its new content has another hash then
+        if (getContentRecordId(fileId) == page) {
+          setContentHash(page, hash);
+        }
+      }
+      finally {
+        w.unlock();
+      }
+    }
+
     @Override
     protected AbstractStorage getStorage() {
       return getContentStorage();
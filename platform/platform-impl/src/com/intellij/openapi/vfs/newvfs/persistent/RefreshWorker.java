@@ -18,6 +18,7 @@ package com.intellij.openapi.vfs.newvfs.persistent;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.Comparing;
 import com.intellij.openapi.util.io.FileAttributes;
+import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VfsUtil;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.vfs.newvfs.NewVirtualFile;
@@ -26,10 +27,14 @@ import com.intellij.openapi.vfs.newvfs.events.*;
 import com.intellij.openapi.vfs.newvfs.impl.FakeVirtualFile;
 import com.intellij.openapi.vfs.newvfs.impl.VirtualDirectoryImpl;
 import com.intellij.openapi.vfs.newvfs.impl.VirtualFileSystemEntry;
+import com.intellij.util.ArrayUtil;
+import com.intellij.util.SystemProperties;
 import com.intellij.util.containers.Queue;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * @author max
@@ -37,9 +42,25 @@ import java.util.*;
 public class RefreshWorker {
   private static final Logger LOG = Logger.getInstance("#com.intellij.openapi.vfs.newvfs.persistent.RefreshWorker");
 
+  private static final int SCAN_THREADS =
+    SystemProperties.getIntProperty("idea.vfs.refresh.threads", Math.min(4, Runtime.getRuntime().availableProcessors()));
+  private static final int MAX_BATCH_SIZE = 1024;
+  private static final ExecutorService ourScanExecutor = SCAN_THREADS > 1 ? Executors.newFixedThreadPool(SCAN_THREADS, new ThreadFactory() {
+    @Override
+    public Thread newThread(@NotNull Runnable r) {
+      final Thread thread = new Thread(r, "VFS refresh scanner");
+      thread.setDaemon(true);
+      return thread;
+    }
+  }) : null;
+
   private final boolean myIsRecursive;
   private final Queue<VirtualFile> myRefreshQueue = new Queue<VirtualFile>(100);
   private final List<VFileEvent> myEvents = new ArrayList<VFileEvent>();
+  // attributes of queued files, read when their parent was scanned
+  private final Map<VirtualFile, FileAttributes> myQueuedAttributes = new HashMap<VirtualFile, FileAttributes>();
+  // directory listings and children attributes of the current batch, read in parallel
+  private final Map<VirtualFile, DirectoryScan> myDirectoryScans = new HashMap<VirtualFile, DirectoryScan>();
 
   public RefreshWorker(final VirtualFile refreshRoot, final boolean isRecursive) {
     myIsRecursive = isRecursive;
@@ -65,109 +86,192 @@ public class RefreshWorker {
 
     final PersistentFS persistence = PersistentFS.getInstance();
 
+    myQueuedAttributes.put(root, rootAttributes);
     while (!myRefreshQueue.isEmpty()) {
+      final List<VirtualFileSystemEntry> batch = pullBatch();
+      if (ourScanExecutor != null && myIsRecursive && fs instanceof LocalFileSystem) {
+        scanDirectories(fs, batch);
+      }
+      for (VirtualFileSystemEntry file : batch) {
+        refresh(fs, persistence, file);
+      }
+      myDirectoryScans.clear();
+    }
+  }
+
+  @NotNull
+  private List<VirtualFileSystemEntry> pullBatch() {
+    final List<VirtualFileSystemEntry> batch = new ArrayList<VirtualFileSystemEntry>();
+    while (!myRefreshQueue.isEmpty() && batch.size() < MAX_BATCH_SIZE) {
       final VirtualFileSystemEntry file = (VirtualFileSystemEntry)myRefreshQueue.pullFirst();
-      if (!file.isDirty()) continue;
+      if (file.isDirty()) {
+        batch.add(file);
+      }
+      else {
+        myQueuedAttributes.remove(file);
+      }
+    }
+    return batch;
+  }
 
-      final FileAttributes attributes = Comparing.equal(file, root) ? rootAttributes : fs.getAttributes(file);
-      if (attributes == null) {
-        scheduleDeletion(file);
-        continue;
+  /**
+   * Lists directories of the batch and reads attributes of their children on the scanner threads.
+   * Only file system is accessed in parallel, the VFS is compared against the result and updated by the refreshing thread.
+   */
+  private void scanDirectories(@NotNull NewVirtualFileSystem fs, @NotNull List<VirtualFileSystemEntry> batch) {
+    final List<DirectoryScan> scans = new ArrayList<DirectoryScan>();
+    for (VirtualFileSystemEntry file : batch) {
+      final FileAttributes attributes = myQueuedAttributes.get(file);
+      if (!file.isDirectory() || attributes == null || !attributes.isDirectory()) continue;
+
+      final VirtualDirectoryImpl dir = (VirtualDirectoryImpl)file;
+      final DirectoryScan scan;
+      if (dir.allChildrenLoaded()) {
+        scan = new DirectoryScan(fs, dir, null);
+      }
+      else {
+        final List<String> names = new ArrayList<String>();
+        for (VirtualFile child : dir.getCachedChildren()) {
+          names.add(child.getName());
+        }
+        for (String name : dir.getSuspiciousNames()) {
+          if (!name.isEmpty()) names.add(name);
+        }
+        scan = new DirectoryScan(fs, dir, names);
       }
+      scans.add(scan);
+      myDirectoryScans.put(file, scan);
+    }
+    if (scans.size() < 2) {
+      // nothing to run in parallel
+      myDirectoryScans.clear();
+      return;
+    }
 
-      boolean checkFurther = true;
-      final VirtualFileSystemEntry parent = file.getParent();
-      if (parent != null &&
-          (checkAndScheduleAttributesChange(parent, file, attributes) ||
-           checkAndScheduleSymLinkTargetChange(parent, file, attributes, fs))) {
-        // ignore everything else
-        checkFurther = false;
+    try {
+      for (Future<DirectoryScan> future : ourScanExecutor.invokeAll(scans)) {
+        future.get();
       }
-      else if (file.isDirectory()) {
-        final VirtualDirectoryImpl dir = (VirtualDirectoryImpl)file;
-        final boolean fullSync = dir.allChildrenLoaded();
-        if (fullSync) {
-          final Set<String> currentNames = new HashSet<String>(Arrays.asList(persistence.list(file)));
-          final Set<String> upToDateNames = new HashSet<String>(Arrays.asList(VfsUtil.filterNames(fs.list(file))));
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      myDirectoryScans.clear();
+    }
+    catch (ExecutionException e) {
+      LOG.error(e.getCause());
+      myDirectoryScans.clear();
+    }
+  }
 
-          final Set<String> newNames = new HashSet<String>(upToDateNames);
-          newNames.removeAll(currentNames);
+  private void refresh(@NotNull NewVirtualFileSystem fs, @NotNull PersistentFS persistence, @NotNull VirtualFileSystemEntry file) {
+    final FileAttributes attributes = myQueuedAttributes.containsKey(file) ? myQueuedAttributes.remove(file) : fs.getAttributes(file);
+    if (attributes == null) {
+      scheduleDeletion(file);
+      return;
+    }
 
-          final Set<String> deletedNames = new HashSet<String>(currentNames);
-          deletedNames.removeAll(upToDateNames);
+    boolean checkFurther = true;
+    final VirtualFileSystemEntry parent = file.getParent();
+    if (parent != null &&
+        (checkAndScheduleAttributesChange(parent, file, attributes) ||
+         checkAndScheduleSymLinkTargetChange(parent, file, attributes, fs))) {
+      // ignore everything else
+      checkFurther = false;
+    }
+    else if (file.isDirectory()) {
+      final VirtualDirectoryImpl dir = (VirtualDirectoryImpl)file;
+      final DirectoryScan scan = myDirectoryScans.get(file);
+      final boolean fullSync = dir.allChildrenLoaded();
+      if (fullSync) {
+        final Set<String> currentNames = new HashSet<String>(Arrays.asList(persistence.list(file)));
+        final String[] listing = scan != null && scan.myListing != null ? scan.myListing : VfsUtil.filterNames(fs.list(file));
+        final Set<String> upToDateNames = new HashSet<String>(Arrays.asList(listing));
+
+        final Set<String> newNames = new HashSet<String>(upToDateNames);
+        newNames.removeAll(currentNames);
+
+        final Set<String> deletedNames = new HashSet<String>(currentNames);
+        deletedNames.removeAll(upToDateNames);
+
+        for (String name : deletedNames) {
+          scheduleDeletion(file.findChild(name));
+        }
 
-          for (String name : deletedNames) {
-            scheduleDeletion(file.findChild(name));
+        for (String name : newNames) {
+          final FileAttributes childAttributes = getChildAttributes(fs, scan, new FakeVirtualFile(file, name));
+          if (childAttributes != null) {
+            scheduleCreation(file, name, childAttributes.isDirectory());
           }
-
-          for (String name : newNames) {
-            final FileAttributes childAttributes = fs.getAttributes(new FakeVirtualFile(file, name));
-            if (childAttributes != null) {
-              scheduleCreation(file, name, childAttributes.isDirectory());
-            }
-            else {
-              LOG.warn("fs=" + fs + " dir=" + file + " name=" + name);
-            }
-          }
-
-          for (VirtualFile child : file.getChildren()) {
-            if (!deletedNames.contains(child.getName())) {
-              final FileAttributes childAttributes = fs.getAttributes(child);
-              if (attributes != null) {
-                checkAndScheduleChildRefresh(file, child, childAttributes);
-              }
-              else {
-                LOG.warn("fs=" + fs + " dir=" + file + " name=" + child.getName());
-                scheduleDeletion(child);
-              }
-            }
+          else {
+            LOG.warn("fs=" + fs + " dir=" + file + " name=" + name);
           }
         }
-        else {
-          for (VirtualFile child : file.getCachedChildren()) {
-            final FileAttributes childAttributes = fs.getAttributes(child);
+
+        for (VirtualFile child : file.getChildren()) {
+          if (!deletedNames.contains(child.getName())) {
+            final FileAttributes childAttributes = getChildAttributes(fs, scan, child);
             if (childAttributes != null) {
               checkAndScheduleChildRefresh(file, child, childAttributes);
             }
             else {
+              LOG.warn("fs=" + fs + " dir=" + file + " name=" + child.getName());
               scheduleDeletion(child);
             }
           }
+        }
+      }
+      else {
+        for (VirtualFile child : file.getCachedChildren()) {
+          final FileAttributes childAttributes = getChildAttributes(fs, scan, child);
+          if (childAttributes != null) {
+            checkAndScheduleChildRefresh(file, child, childAttributes);
+          }
+          else {
+            scheduleDeletion(child);
+          }
+        }
 
-          final List<String> names = dir.getSuspiciousNames();
-          for (String name : names) {
-            if (name.isEmpty()) continue;
+        final List<String> names = dir.getSuspiciousNames();
+        for (String name : names) {
+          if (name.isEmpty()) continue;
 
-            final VirtualFile fake = new FakeVirtualFile(file, name);
-            final FileAttributes childAttributes = fs.getAttributes(fake);
-            if (childAttributes != null) {
-              scheduleCreation(file, name, childAttributes.isDirectory());
-            }
+          final VirtualFile fake = new FakeVirtualFile(file, name);
+          final FileAttributes childAttributes = getChildAttributes(fs, scan, fake);
+          if (childAttributes != null) {
+            scheduleCreation(file, name, childAttributes.isDirectory());
           }
         }
       }
-      else {
-        final long currentTimestamp = persistence.getTimeStamp(file);
-        final long upToDateTimestamp = attributes.lastModified;
-        final long currentLength = persistence.getLengthNoFollow(file);
-        final long upToDateLength = attributes.length;
+    }
+    else {
+      final long currentTimestamp = persistence.getTimeStamp(file);
+      final long upToDateTimestamp = attributes.lastModified;
+      final long currentLength = persistence.getLengthNoFollow(file);
+      final long upToDateLength = attributes.length;
 
-        if (currentTimestamp != upToDateTimestamp || currentLength != upToDateLength) {
-          scheduleUpdateContent(file);
-        }
+      if (currentTimestamp != upToDateTimestamp || currentLength != upToDateLength) {
+        scheduleUpdateContent(file);
       }
+    }
 
-      if (checkFurther) {
-        final boolean currentWritable = persistence.isWritable(file);
-        final boolean upToDateWritable = attributes.isWritable();
+    if (checkFurther) {
+      final boolean currentWritable = persistence.isWritable(file);
+      final boolean upToDateWritable = attributes.isWritable();
 
-        if (currentWritable != upToDateWritable) {
-          scheduleWritableAttributeChange(file, currentWritable, upToDateWritable);
-        }
+      if (currentWritable != upToDateWritable) {
+        scheduleWritableAttributeChange(file, currentWritable, upToDateWritable);
       }
+    }
 
-      file.markClean();
+    file.markClean();
+  }
+
+  @Nullable
+  private static FileAttributes getChildAttributes(@NotNull NewVirtualFileSystem fs, @Nullable DirectoryScan scan, @NotNull VirtualFile child) {
+    if (scan != null && scan.myAttributes.containsKey(child.getName())) {
+      return scan.myAttributes.get(child.getName());
     }
+    return fs.getAttributes(child);
   }
 
   private void checkAndScheduleChildRefresh(@NotNull VirtualFileSystemEntry parent,
@@ -177,6 +281,7 @@ public class RefreshWorker {
       final boolean upToDateIsDirectory = childAttributes.isDirectory();
       if (myIsRecursive || !upToDateIsDirectory) {
         myRefreshQueue.addLast(child);
+        myQueuedAttributes.put(child, childAttributes);
       }
     }
   }
@@ -244,4 +349,37 @@ public class RefreshWorker {
   public List<VFileEvent> getEvents() {
     return myEvents;
   }
+
+  private static class DirectoryScan implements Callable<DirectoryScan> {
+    private final NewVirtualFileSystem myFs;
+    private final VirtualFile myDir;
+    @Nullable private final List<String> myChildNames;
+    private final Map<String, FileAttributes> myAttributes = new HashMap<String, FileAttributes>();
+    private String[] myListing;
+
+    /**
+     * @param childNames names of the children to read attributes of, or null to list the directory and read attributes of all its children
+     */
+    private DirectoryScan(@NotNull NewVirtualFileSystem fs, @NotNull VirtualFile dir, @Nullable List<String> childNames) {
+      myFs = fs;
+      myDir = dir;
+      myChildNames = childNames;
+    }
+
+    @Override
+    public DirectoryScan call() {
+      final String[] names;
+      if (myChildNames == null) {
+        myListing = VfsUtil.filterNames(myFs.list(myDir));
+        names = myListing;
+      }
+      else {
+        names = ArrayUtil.toStringArray(myChildNames);
+      }
+      for (String name : names) {
+        myAttributes.put(name, myFs.getAttributes(new FakeVirtualFile(myDir, name)));
+      }
+      return this;
+    }
+  }
 }
@@ -2,14 +2,16 @@ package com.intellij.execution.impl;
 
 import com.intellij.execution.ui.ConsoleViewContentType;
 import com.intellij.openapi.editor.markup.TextAttributes;
+import com.intellij.openapi.util.Condition;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.util.*;
 
 import static com.intellij.execution.impl.ConsoleViewImpl.TokenInfo;
-import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.*;
 
 /**
  * @author Denis Zhdanov
@@ -113,6 +115,140 @@ public class ConsoleBufferTest {
     );
   }
   
+  @Test
+  public void floodingPrinterIsThrottledUntilFlush() throws Exception {
+    final Object lock = new Object();
+    final boolean[] released = new boolean[1];
+    Thread printer = new Thread("flooding printer") {
+      @Override
+      public void run() {
+        synchronized (lock) {
+          myBuffer.print("1234567", NORMAL_OUTPUT, null);
+          released[0] = myBuffer.waitForFlush(lock, 5, 60000, Condition.TRUE);
+        }
+      }
+    };
+    printer.start();
+    waitForWaiting(printer);
+    // nobody flushes the buffer, so the printer stays blocked
+    Thread.sleep(200);
+    assertEquals(Thread.State.TIMED_WAITING, printer.getState());
+
+    synchronized (lock) {
+      assertEquals(7, myBuffer.getLength());
+      myBuffer.clear();
+      lock.notifyAll();
+    }
+    // released by the flush long before the timeout
+    printer.join(10000);
+    assertFalse(printer.isAlive());
+    assertTrue(released[0]);
+  }
+
+  @Test
+  public void floodingPrinterIsReleasedOnTimeout() throws Exception {
+    synchronized (this) {
+      myBuffer.print("1234567", NORMAL_OUTPUT, null);
+      long start = System.currentTimeMillis();
+      assertFalse(myBuffer.waitForFlush(this, 5, 100, Condition.TRUE));
+      assertTrue(System.currentTimeMillis() - start >= 100);
+      assertEquals(7, myBuffer.getLength());
+    }
+  }
+
+  @Test
+  public void printerIsNotThrottledWhenNothingIsFlushed() throws Exception {
+    synchronized (this) {
+      myBuffer.print("1234567", NORMAL_OUTPUT, null);
+      long start = System.currentTimeMillis();
+      assertFalse(myBuffer.waitForFlush(this, 5, 60000, Condition.FALSE));
+      assertTrue(System.currentTimeMillis() - start < 10000);
+    }
+  }
+
+  @Test
+  public void invisibleLinesAreFilteredWhenScrolledIntoView() {
+    TestLineRanges ranges = new TestLineRanges();
+    // a lot of output is flushed while the console is scrolled to the end
+    assertLines(ranges.addInvisible(0, 1999, new int[]{1950, 1999}), 1950, 1999);
+    assertFalse(ranges.isEmpty());
+    assertLines(ranges.takeVisible(new int[]{1950, 1999}));
+
+    assertLines(ranges.takeVisible(new int[]{100, 149}), 100, 149);
+    // the lines aren't filtered twice
+    assertLines(ranges.takeVisible(new int[]{100, 149}));
+    assertLines(ranges.takeVisible(new int[]{130, 179}), 150, 179);
+    assertLines(ranges.takeVisible(new int[]{0, 49}), 0, 49);
+
+    // e.g. on navigation to the next hyperlink
+    assertLines(ranges.takeAll(), 50, 99, 180, 1949);
+    assertTrue(ranges.isEmpty());
+    assertEquals(0, ranges.myLiveRanges.size());
+  }
+
+  @Test
+  public void flushesToHiddenConsoleAreMerged() {
+    TestLineRanges ranges = new TestLineRanges();
+    assertNull(ranges.addInvisible(0, 9, null));
+    assertNull(ranges.addInvisible(10, 19, null));
+    assertNull(ranges.addInvisible(20, 29, null));
+    assertEquals(1, ranges.myLiveRanges.size());
+
+    assertLines(ranges.addInvisible(30, 39, new int[]{10, 35}), 30, 35);
+    assertLines(ranges.takeVisible(new int[]{10, 35}), 10, 29);
+    assertLines(ranges.takeAll(), 0, 9, 36, 39);
+    assertEquals(0, ranges.myLiveRanges.size());
+  }
+
+  private static void waitForWaiting(Thread thread) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (thread.getState() != Thread.State.TIMED_WAITING) {
+      assertTrue("The thread hasn't started waiting: " + thread.getState(), System.currentTimeMillis() < deadline);
+      Thread.sleep(10);
+    }
+  }
+
+  private static void assertLines(@Nullable int[] actual, int... expected) {
+    assertNotNull(actual);
+    assertArrayEquals(expected, actual);
+  }
+
+  private static void assertLines(@NotNull List<int[]> actual, int... expected) {
+    int[] lines = new int[actual.size() * 2];
+    for (int i = 0; i < actual.size(); i++) {
+      lines[i * 2] = actual.get(i)[0];
+      lines[i * 2 + 1] = actual.get(i)[1];
+    }
+    assertArrayEquals(expected, lines);
+  }
+
+  /**
+   * Keeps lines as they are, i.e. the document isn't changed between the flushes; ranges which aren't disposed are kept in
+   * {@link #myLiveRanges}.
+   */
+  private static class TestLineRanges extends PendingLineRanges<int[]> {
+    private final Set<int[]> myLiveRanges = new HashSet<int[]>();
+
+    @NotNull
+    @Override
+    protected int[] createRange(int line1, int endLine) {
+      int[] range = {line1, endLine};
+      myLiveRanges.add(range);
+      return range;
+    }
+
+    @Override
+    protected int[] getLines(@NotNull int[] range) {
+      assertTrue(myLiveRanges.contains(range));
+      return range.clone();
+    }
+
+    @Override
+    protected void disposeRange(@NotNull int[] range) {
+      assertTrue(myLiveRanges.remove(range));
+    }
+  }
+
   private static List<String> s(String ... strings) {
     return Arrays.asList(strings);
   }
@@ -1,6 +1,7 @@
 package com.intellij.ide.plugins;
 
 import com.intellij.openapi.application.ex.PathManagerEx;
+import com.intellij.openapi.util.io.FileUtil;
 import junit.framework.TestCase;
 
 import java.io.File;
@@ -12,10 +13,40 @@ import java.io.File;
 public class PluginDescriptorTest extends TestCase {
 
   public void testDescriptorLoading() throws Exception {
+    File file = getTestJar();
+    IdeaPluginDescriptorImpl descriptor = PluginManager.loadDescriptorFromJar(file);
+    assertNotNull(descriptor);
+  }
+
+  public void testCachedDescriptorLoading() throws Exception {
+    File file = getTestJar();
+    File cacheFile = FileUtil.createTempFile("plugin_descriptors", ".dat");
+    IdeaPluginDescriptorImpl.ourKeepLoadedDocuments = true;
+    try {
+      PluginDescriptorCache cache = PluginDescriptorCache.load(cacheFile);
+      assertNull(cache.get(file));
+      IdeaPluginDescriptorImpl descriptor = PluginManager.loadDescriptor(file, PluginManager.PLUGIN_XML);
+      assertNotNull(descriptor);
+      cache.put(file, descriptor);
+      cache.save();
+
+      IdeaPluginDescriptorImpl cached = PluginDescriptorCache.load(cacheFile).get(file);
+      assertNotNull(cached);
+      assertEquals(descriptor.getPluginId(), cached.getPluginId());
+      assertEquals(descriptor.getName(), cached.getName());
+      assertEquals(descriptor.getVersion(), cached.getVersion());
+      assertEquals(descriptor.getPath(), cached.getPath());
+    }
+    finally {
+      IdeaPluginDescriptorImpl.ourKeepLoadedDocuments = false;
+      FileUtil.delete(cacheFile);
+    }
+  }
+
+  private static File getTestJar() {
     String path = PathManagerEx.getTestDataPath().replace(File.separatorChar, '/') + "/ide/plugins/pluginDescriptor";
     File file = new File(path + "/asp.jar");
     assertTrue(file + " not exist", file.exists());
-    IdeaPluginDescriptorImpl descriptor = PluginManager.loadDescriptorFromJar(file);
-    assertNotNull(descriptor);
+    return file;
   }
 }
@@ -80,7 +80,7 @@ public class CharArrayTest {
       });
     }});
     
-    init(10);
+    init(10, myConfig != null && myConfig.immutable());
     if (myConfig != null) {
       myArray.insert(myConfig.text(), 0);
       myArray.setDeferredChangeMode(myConfig.deferred());
@@ -141,8 +141,29 @@ public class CharArrayTest {
     assertArrayEquals("1".toCharArray(), subsSequence.getChars());
   }
   
-  private void init(int size) {
-    myArray = new CharArray(size, new char[0], 0) {
+  @Config(text = "1234", immutable = true)
+  @Test
+  public void immutableTextSnapshotIsNotChanged() {
+    CharSequence snapshot = myArray.getCharArray();
+    replace(1, 3, "abc");
+    checkText("1abc4");
+    assertEquals("1234", snapshot.toString());
+
+    myArray.remove(0, 1, "1");
+    checkText("abc4");
+    assertEquals("abc4", new String(myArray.getChars(), 0, myArray.length()));
+  }
+
+  @Config(text = "0123456789", deferred = true, immutable = true)
+  @Test
+  public void immutableTextCyclicBuffer() {
+    assertFalse(myArray.isDeferredChangeMode());
+    myArray.insert("ab", 10);
+    checkText("23456789ab");
+  }
+
+  private void init(int size, boolean immutableText) {
+    myArray = new CharArray(size, new char[0], 0, immutableText) {
       @NotNull
       @Override
       protected DocumentEvent beforeChangedUpdate(int offset, CharSequence oldString, CharSequence newString,
@@ -239,5 +260,6 @@ public class CharArrayTest {
   private @interface Config {
     String text() default "";
     boolean deferred() default false;
+    boolean immutable() default false;
   }
 }
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.editor.impl;
+
+import com.intellij.openapi.util.text.LineTokenizer;
+import com.intellij.testFramework.LightPlatformTestCase;
+import com.intellij.testFramework.PlatformTestUtil;
+import com.intellij.util.ThrowableRunnable;
+
+import java.util.Random;
+
+public class LineSetStressTest extends LightPlatformTestCase {
+  private static final int LINES = 2000000;
+  private static final int EDITS = 2000;
+  private static final String[] INSERTED = {"a", "\n", "a\nb", "\n\n\n", "foo();\n  bar();\n", ""};
+
+  public void testRandomEdits() {
+    DocumentImpl document = createDocument(1000);
+    Random random = new Random(42);
+    for (int i = 0; i < EDITS; i++) {
+      edit(document, random);
+      if (i % 100 == 0) {
+        checkLines(document);
+      }
+    }
+    checkLines(document);
+  }
+
+  public void testPerformanceOfRandomEditsOfHugeDocument() {
+    final DocumentImpl document = createDocument(LINES);
+    final Random random = new Random(42);
+    PlatformTestUtil.startPerformanceTest(EDITS + " edits of a document with " + LINES + " lines", 5000, new ThrowableRunnable() {
+      @Override
+      public void run() {
+        for (int i = 0; i < EDITS; i++) {
+          edit(document, random);
+        }
+      }
+    }).cpuBound().assertTiming();
+
+    checkLines(document);
+  }
+
+  public void testEditsAtDocumentBounds() {
+    DocumentImpl document = new DocumentImpl("", true);
+    assertEquals(0, document.getLineCount());
+    document.insertString(0, "a\nb\n");
+    assertEquals(3, document.getLineCount());
+    document.insertString(document.getTextLength(), "c");
+    document.deleteString(0, 2);
+    assertEquals("b\nc", document.getText());
+    checkLines(document);
+    document.deleteString(0, document.getTextLength());
+    assertEquals(0, document.getLineCount());
+    document.insertString(0, "\n\n");
+    checkLines(document);
+  }
+
+  private static DocumentImpl createDocument(int lines) {
+    StringBuilder text = new StringBuilder(lines * 14);
+    for (int i = 0; i < lines; i++) {
+      text.append("line ").append(i).append('\n');
+    }
+    DocumentImpl document = new DocumentImpl(text, true);
+    assertEquals(lines + 1, document.getLineCount());
+    return document;
+  }
+
+  private static void edit(DocumentImpl document, Random random) {
+    int length = document.getTextLength();
+    int start = random.nextInt(length + 1);
+    int end = Math.min(length, start + random.nextInt(40));
+    String inserted = INSERTED[random.nextInt(INSERTED.length)];
+    switch (random.nextInt(3)) {
+      case 0:
+        document.insertString(start, inserted);
+        break;
+      case 1:
+        document.deleteString(start, end);
+        break;
+      default:
+        document.replaceString(start, end, inserted);
+    }
+
+    int line = document.getLineNumber(start);
+    assertTrue(document.getLineStartOffset(line) <= start);
+    assertTrue(start <= document.getLineEndOffset(line) + document.getLineSeparatorLength(line));
+  }
+
+  private static void checkLines(DocumentImpl document) {
+    LineTokenizer tokenizer = new LineTokenizer(document.getCharsSequence());
+    int line = 0;
+    while (!tokenizer.atEnd()) {
+      int start = tokenizer.getOffset();
+      assertEquals(start, document.getLineStartOffset(line));
+      assertEquals(start + tokenizer.getLength(), document.getLineEndOffset(line));
+      assertEquals(tokenizer.getLineSeparatorLength(), document.getLineSeparatorLength(line));
+      assertEquals(line, document.getLineNumber(start));
+      line++;
+      tokenizer.advance();
+    }
+    int textLength = document.getTextLength();
+    if (textLength > 0 && document.getCharsSequence().charAt(textLength - 1) == '\n') {
+      // the empty last line
+      assertEquals(textLength, document.getLineStartOffset(line));
+      line++;
+    }
+    assertEquals(line, document.getLineCount());
+  }
+}
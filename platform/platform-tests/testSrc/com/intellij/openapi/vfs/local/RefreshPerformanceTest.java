@@ -0,0 +1,92 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.vfs.local;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.newvfs.NewVirtualFile;
+import com.intellij.testFramework.LightPlatformLangTestCase;
+import com.intellij.testFramework.PlatformTestUtil;
+import com.intellij.util.ThrowableRunnable;
+
+import java.io.File;
+import java.io.IOException;
+
+public class RefreshPerformanceTest extends LightPlatformLangTestCase {
+  private static final int DEPTH = 4;
+  private static final int DIRS_PER_DIR = 6;
+  private static final int FILES_PER_DIR = 10;
+
+  public void testRecursiveRefreshOfDeepTree() throws IOException {
+    final File dir = FileUtil.createTempDirectory("refresh", "");
+    disposeOnTearDown(new Disposable() {
+      @Override
+      public void dispose() {
+        FileUtil.delete(dir);
+      }
+    });
+    createTree(dir, DEPTH);
+
+    final VirtualFile root = LocalFileSystem.getInstance().refreshAndFindFileByIoFile(dir);
+    assertNotNull(root);
+    assertEquals(FILES_PER_DIR * count(DEPTH), loadChildren(root));
+
+    PlatformTestUtil.startPerformanceTest("Recursive refresh of " + count(DEPTH) + " directories", 10000, new ThrowableRunnable() {
+      @Override
+      public void run() {
+        ((NewVirtualFile)root).markDirtyRecursively();
+        root.refresh(false, true);
+      }
+    }).ioBound().assertTiming();
+
+    // changes deep in the tree are still noticed
+    final File deepDir = new File(dir, "d1/d2/d3/d4");
+    assertTrue(new File(deepDir, "new.txt").createNewFile());
+    FileUtil.delete(new File(deepDir, "f0.txt"));
+    ((NewVirtualFile)root).markDirtyRecursively();
+    root.refresh(false, true);
+    final VirtualFile deepVDir = root.findFileByRelativePath("d1/d2/d3/d4");
+    assertNotNull(deepVDir);
+    assertNotNull(deepVDir.findChild("new.txt"));
+    assertNull(deepVDir.findChild("f0.txt"));
+  }
+
+  private static void createTree(File dir, int depth) throws IOException {
+    for (int i = 0; i < FILES_PER_DIR; i++) {
+      FileUtil.writeToFile(new File(dir, "f" + i + ".txt"), "file " + i);
+    }
+    if (depth == 0) return;
+    for (int i = 0; i < DIRS_PER_DIR; i++) {
+      final File child = new File(dir, "d" + i);
+      assertTrue(child.mkdir());
+      createTree(child, depth - 1);
+    }
+  }
+
+  private static int count(int depth) {
+    return depth == 0 ? 1 : 1 + DIRS_PER_DIR * count(depth - 1);
+  }
+
+  private static int loadChildren(VirtualFile dir) {
+    int files = 0;
+    for (VirtualFile child : dir.getChildren()) {
+      files += child.isDirectory() ? loadChildren(child) : 1;
+    }
+    return files;
+  }
+}
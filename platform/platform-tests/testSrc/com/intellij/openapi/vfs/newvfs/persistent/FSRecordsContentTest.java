@@ -0,0 +1,59 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.vfs.newvfs.persistent;
+
+import com.intellij.openapi.util.io.ByteSequence;
+import com.intellij.testFramework.PlatformLangTestCase;
+
+import java.io.IOException;
+
+public class FSRecordsContentTest extends PlatformLangTestCase {
+  public void testSharedRecordIsReleasedOnRewrite() throws IOException {
+    int file1 = FSRecords.createRecord();
+    int file2 = FSRecords.createRecord();
+    try {
+      // contents stay in the VFS between the runs, make them unique so that they aren't shared with anything else
+      String shared = "shared " + System.nanoTime();
+      write(file1, shared);
+      write(file2, shared);
+
+      int sharedId = FSRecords.getContentId(file1);
+      assertTrue(sharedId != 0);
+      assertEquals(sharedId, FSRecords.getContentId(file2));
+      assertEquals(2, FSRecords.getContentRefCount(sharedId));
+
+      write(file1, "first " + System.nanoTime());
+      int firstId = FSRecords.getContentId(file1);
+      assertTrue(firstId != sharedId);
+      assertEquals(1, FSRecords.getContentRefCount(firstId));
+      assertEquals(1, FSRecords.getContentRefCount(sharedId));
+
+      // the record isn't shared any more, so it's rewritten in place
+      write(file2, "second " + System.nanoTime());
+      assertEquals(sharedId, FSRecords.getContentId(file2));
+      assertEquals(1, FSRecords.getContentRefCount(sharedId));
+      assertEquals(1, FSRecords.getContentRefCount(firstId));
+    }
+    finally {
+      FSRecords.deleteRecordRecursively(file1);
+      FSRecords.deleteRecordRecursively(file2);
+    }
+  }
+
+  private static void write(int fileId, String text) throws IOException {
+    FSRecords.writeContent(fileId, new ByteSequence(text.getBytes("UTF-8")), false);
+  }
+}
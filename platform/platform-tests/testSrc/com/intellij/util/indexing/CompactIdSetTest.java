@@ -0,0 +1,120 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.indexing;
+
+import gnu.trove.TIntHashSet;
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class CompactIdSetTest extends TestCase {
+  public void testSparseAndDenseIds() {
+    final Random random = new Random(42);
+    for (int range : new int[]{100, 1000, 100000}) {
+      final CompactIdSet set = new CompactIdSet();
+      final TIntHashSet expected = new TIntHashSet();
+      for (int i = 0; i < 20000; i++) {
+        final int id = random.nextInt(range);
+        if (random.nextInt(3) == 0) {
+          assertEquals(expected.remove(id), set.remove(id));
+        }
+        else {
+          assertEquals(expected.add(id), set.add(id));
+        }
+        assertEquals(expected.size(), set.size());
+      }
+      assertSameIds(expected, set);
+      assertSameIds(expected, set.clone());
+    }
+  }
+
+  public void testRangeGrowsBothWays() {
+    final CompactIdSet set = new CompactIdSet();
+    final TIntHashSet expected = new TIntHashSet();
+    for (int id = 1000; id < 1200; id++) {
+      set.add(id);
+      expected.add(id);
+    }
+    for (int id = 999; id > 700; id--) {
+      set.add(id);
+      expected.add(id);
+    }
+    for (int id = 1200; id < 1500; id++) {
+      set.add(id);
+      expected.add(id);
+    }
+    // far away id makes the set sparse
+    set.add(Integer.MAX_VALUE - 1);
+    expected.add(Integer.MAX_VALUE - 1);
+    assertSameIds(expected, set);
+
+    for (int id : expected.toArray()) {
+      assertTrue(set.remove(id));
+    }
+    assertTrue(set.isEmpty());
+    assertFalse(set.intIterator().hasNext());
+  }
+
+  public void testValueContainer() {
+    final ValueContainerImpl<String> compact = new ValueContainerImpl<String>(true);
+    final ValueContainerImpl<String> plain = new ValueContainerImpl<String>(false);
+    final Random random = new Random(239);
+    for (int i = 0; i < 5000; i++) {
+      final int id = random.nextInt(2000);
+      final String value = String.valueOf(random.nextInt(5));
+      compact.removeAssociatedValue(id);
+      compact.addValue(id, value);
+      plain.removeAssociatedValue(id);
+      plain.addValue(id, value);
+    }
+    final ValueContainerImpl<String> copy = compact.copy();
+    assertEquals(plain.size(), copy.size());
+    for (String value : plain.toValueList()) {
+      final ValueContainer.IntIterator ids = copy.getInputIdsIterator(value);
+      final TIntHashSet expected = new TIntHashSet();
+      for (ValueContainer.IntIterator it = plain.getInputIdsIterator(value); it.hasNext(); ) {
+        expected.add(it.next());
+      }
+      assertEquals(expected.size(), ids.size());
+      int previous = -1;
+      while (ids.hasNext()) {
+        final int id = ids.next();
+        assertTrue(id > previous);
+        assertTrue(expected.contains(id));
+        assertTrue(copy.getValueAssociationPredicate(value).contains(id));
+        previous = id;
+      }
+    }
+  }
+
+  private static void assertSameIds(TIntHashSet expected, CompactIdSet set) {
+    final int[] expectedIds = expected.toArray();
+    Arrays.sort(expectedIds);
+    final int[] ids = new int[set.size()];
+    final ValueContainer.IntIterator iterator = set.intIterator();
+    assertEquals(expectedIds.length, iterator.size());
+    for (int i = 0; i < ids.length; i++) {
+      assertTrue(iterator.hasNext());
+      ids[i] = iterator.next();
+    }
+    assertFalse(iterator.hasNext());
+    assertTrue(Arrays.equals(expectedIds, ids));
+    for (int id : expectedIds) {
+      assertTrue(set.contains(id));
+    }
+  }
+}
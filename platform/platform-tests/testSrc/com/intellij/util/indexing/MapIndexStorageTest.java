@@ -0,0 +1,132 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.indexing;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import gnu.trove.TIntHashSet;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class MapIndexStorageTest extends TestCase {
+  private static final int KEYS_COUNT = 2000;
+
+  private File myDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDir = FileUtil.createTempDirectory("map", "index");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtil.delete(myDir);
+    super.tearDown();
+  }
+
+  public void testEvictedChangesAreNotLost() throws Exception {
+    final File file = new File(myDir, "storage");
+    final Map<String, TIntHashSet> expected = new HashMap<String, TIntHashSet>();
+    // the cache is much smaller than the number of keys, so dirty containers are evicted and written behind
+    MapIndexStorage<String, String> storage = createStorage(file);
+    try {
+      final Random random = new Random(17);
+      for (int i = 0; i < 20000; i++) {
+        final String key = "key" + random.nextInt(KEYS_COUNT);
+        final int inputId = random.nextInt(100) + 1;
+        TIntHashSet ids = expected.get(key);
+        if (ids == null) expected.put(key, ids = new TIntHashSet());
+        if (ids.contains(inputId)) {
+          storage.removeAllValues(key, inputId);
+          ids.remove(inputId);
+        }
+        else {
+          storage.addValue(key, inputId, "value");
+          ids.add(inputId);
+        }
+        if (i % 1000 == 0) {
+          assertContents(storage, expected);
+        }
+      }
+      assertContents(storage, expected);
+      storage.flush();
+      assertContents(storage, expected);
+    }
+    finally {
+      storage.close();
+    }
+
+    storage = createStorage(file);
+    try {
+      assertContents(storage, expected);
+    }
+    finally {
+      storage.close();
+    }
+  }
+
+  public void testPendingWritesAreNotLostOnClose() throws Exception {
+    final File file = new File(myDir, "storage");
+    MapIndexStorage<String, String> storage = createStorage(file);
+    try {
+      storage.addValue("key0", 1, "value");
+      storage.flush();
+      // change containers after the map has been forced, then evict them: fewer than a write-behind batch stays pending
+      for (int i = 0; i < 5; i++) {
+        storage.read("key" + i).addValue(i + 2, "value");
+      }
+      for (int i = 5; i < 100; i++) {
+        storage.read("key" + i);
+      }
+    }
+    finally {
+      storage.close();
+    }
+
+    storage = createStorage(file);
+    try {
+      final Map<String, TIntHashSet> expected = new HashMap<String, TIntHashSet>();
+      expected.put("key0", new TIntHashSet(new int[]{1, 2}));
+      for (int i = 1; i < 5; i++) {
+        expected.put("key" + i, new TIntHashSet(new int[]{i + 2}));
+      }
+      assertContents(storage, expected);
+    }
+    finally {
+      storage.close();
+    }
+  }
+
+  private static MapIndexStorage<String, String> createStorage(File file) throws Exception {
+    return new MapIndexStorage<String, String>(file, new EnumeratorStringDescriptor(), new EnumeratorStringDescriptor(), 16);
+  }
+
+  private static void assertContents(MapIndexStorage<String, String> storage, Map<String, TIntHashSet> expected) throws Exception {
+    for (Map.Entry<String, TIntHashSet> entry : expected.entrySet()) {
+      final TIntHashSet actual = new TIntHashSet();
+      final ValueContainer<String> container = storage.read(entry.getKey());
+      for (ValueContainer.IntIterator ids = container.getInputIdsIterator("value"); ids.hasNext(); ) {
+        actual.add(ids.next());
+      }
+      assertEquals(entry.getKey(), entry.getValue(), actual);
+    }
+  }
+}
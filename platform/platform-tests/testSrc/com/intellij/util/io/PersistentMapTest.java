@@ -7,10 +7,12 @@ import com.intellij.util.containers.IntObjectCache;
 import com.intellij.util.io.storage.Storage;
 import junit.framework.TestCase;
 
+import java.io.DataOutput;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * @author Eugene Zhuravlev
@@ -336,6 +338,144 @@ public class PersistentMapTest extends TestCase {
       .printf("Data file size = %d bytes\n", new File(myDataFile.getParentFile(), myDataFile.getName() + Storage.DATA_EXTENSION).length());
   }
   
+  public void testConcurrentReads() throws Exception {
+    File file = FileUtil.createTempFile("persistent", "map");
+    final PersistentHashMap<String, String> map =
+      new PersistentHashMap<String, String>(file, new EnumeratorStringDescriptor(), new EnumeratorStringDescriptor(), 4 * 1024, true);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      final List<String> keys = new ArrayList<String>();
+      for (int i = 0; i < 1000; ++i) {
+        String key = createRandomString();
+        keys.add(key);
+        map.put(key, key + "_value");
+      }
+      // multi-chunk value is compacted on read
+      map.appendData(keys.get(0), new PersistentHashMap.ValueDataAppender() {
+        @Override
+        public void append(DataOutput out) throws IOException {
+          out.writeUTF("_appended");
+        }
+      });
+
+      List<Future<?>> futures = new ArrayList<Future<?>>();
+      for (int t = 0; t < 4; ++t) {
+        futures.add(executor.submit(new Callable<Object>() {
+          @Override
+          public Object call() throws Exception {
+            for (int i = 1; i < keys.size(); ++i) {
+              String key = keys.get(i);
+              assertEquals(key + "_value", map.get(key));
+            }
+            // the appended string isn't read by the descriptor, but stays in the compacted value
+            assertEquals(keys.get(0) + "_value", map.get(keys.get(0)));
+            return null;
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+      assertEquals(keys.size(), map.getAllKeysWithExistingMapping().size());
+    }
+    finally {
+      executor.shutdownNow();
+      clearMap(file, map);
+    }
+  }
+
+  public void testPerformanceOfConcurrentReads() throws Exception {
+    final List<String> keys = new ArrayList<String>();
+    for (int i = 0; i < 50000; ++i) {
+      keys.add(createRandomString());
+    }
+    File exclusiveFile = FileUtil.createTempFile("persistent", "map");
+    File concurrentFile = FileUtil.createTempFile("persistent", "map");
+    PersistentHashMap<String, String> exclusiveMap = createFilledMap(exclusiveFile, false, keys);
+    final PersistentHashMap<String, String> concurrentMap = createFilledMap(concurrentFile, true, keys);
+    final int threadsCount = Runtime.getRuntime().availableProcessors();
+    final ExecutorService executor = Executors.newFixedThreadPool(threadsCount);
+    try {
+      // the same number of reads by a single thread and by a thread per core, with and without concurrent reads
+      long exclusiveSingle = measureReads(exclusiveMap, keys, 1, executor);
+      long exclusiveParallel = measureReads(exclusiveMap, keys, threadsCount, executor);
+      long concurrentSingle = measureReads(concurrentMap, keys, 1, executor);
+      long concurrentParallel = measureReads(concurrentMap, keys, threadsCount, executor);
+      double exclusiveSpeedup = (double)exclusiveSingle / Math.max(1, exclusiveParallel);
+      double concurrentSpeedup = (double)concurrentSingle / Math.max(1, concurrentParallel);
+      String report = String.format("Reads by 1 and %d threads: exclusive %d and %d ms (speedup %.2f), concurrent %d and %d ms (speedup %.2f)",
+                                    threadsCount, exclusiveSingle, exclusiveParallel, exclusiveSpeedup,
+                                    concurrentSingle, concurrentParallel, concurrentSpeedup);
+      System.out.println(report);
+      if (threadsCount > 1) {
+        assertTrue(report, concurrentSpeedup > exclusiveSpeedup);
+      }
+
+      PlatformTestUtil.startPerformanceTest("concurrent reads", 3000, new ThrowableRunnable() {
+        @Override
+        public void run() throws Exception {
+          readRandomKeys(concurrentMap, keys, threadsCount, executor);
+        }
+      }).cpuBound().assertTiming();
+    }
+    finally {
+      executor.shutdownNow();
+      clearMap(exclusiveFile, exclusiveMap);
+      clearMap(concurrentFile, concurrentMap);
+    }
+  }
+
+  private static PersistentHashMap<String, String> createFilledMap(File file, boolean concurrentReads, List<String> keys)
+    throws IOException {
+    PersistentHashMap<String, String> map = new PersistentHashMap<String, String>(file, new EnumeratorStringDescriptor(),
+                                                                                  new EnumeratorStringDescriptor(), 4 * 1024,
+                                                                                  concurrentReads);
+    StringBuilder valueSuffix = new StringBuilder();
+    for (int i = 0; i < 50; ++i) valueSuffix.append("_value");
+    for (String key : keys) {
+      map.put(key, key + valueSuffix);
+    }
+    map.force();
+    return map;
+  }
+
+  /**
+   * @return the best time of a few runs after a warm-up one, in milliseconds
+   */
+  private static long measureReads(PersistentHashMap<String, String> map, List<String> keys, int threadsCount, ExecutorService executor)
+    throws Exception {
+    readRandomKeys(map, keys, threadsCount, executor);
+    long best = Long.MAX_VALUE;
+    for (int i = 0; i < 3; ++i) {
+      long start = System.nanoTime();
+      readRandomKeys(map, keys, threadsCount, executor);
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    return TimeUnit.NANOSECONDS.toMillis(best);
+  }
+
+  private static void readRandomKeys(final PersistentHashMap<String, String> map, final List<String> keys, int threadsCount,
+                                     ExecutorService executor) throws Exception {
+    final int readsPerThread = keys.size() * 4 / threadsCount;
+    List<Future<?>> futures = new ArrayList<Future<?>>();
+    for (int t = 0; t < threadsCount; ++t) {
+      final int seed = t;
+      futures.add(executor.submit(new Callable<Object>() {
+        @Override
+        public Object call() throws Exception {
+          Random random = new Random(seed);
+          for (int i = 0; i < readsPerThread; ++i) {
+            assertNotNull(map.get(keys.get(random.nextInt(keys.size()))));
+          }
+          return null;
+        }
+      }));
+    }
+    for (Future<?> future : futures) {
+      future.get();
+    }
+  }
+
   private static String createRandomString() {
     return StringEnumeratorTest.createRandomString();
   }
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.execution.process;
+
+import com.intellij.openapi.util.Key;
+import com.intellij.util.SystemProperties;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput of reading process output by {@link BaseOSProcessHandler}, with polling and with blocking readers.
+ * <ul>
+ *   <li>"chatty": child processes write lines to stdout as fast as they can; reported as MB of output consumed per second</li>
+ *   <li>"idle": child processes sleep without writing anything; reported as CPU time taken by this JVM meanwhile</li>
+ * </ul>
+ * Parameters are given by system properties:
+ * <ul>
+ *   <li>{@code benchmark.processes} - comma separated numbers of concurrent child processes, "1,16" by default</li>
+ *   <li>{@code benchmark.output.mb} - output of a chatty child, 64 MB by default</li>
+ *   <li>{@code benchmark.line.length} - length of an output line, 100 by default</li>
+ *   <li>{@code benchmark.idle.ms} - how long an idle child sleeps, 3000 by default</li>
+ * </ul>
+ */
+public class ProcessOutputBenchmark {
+  private static final int OUTPUT_MB = SystemProperties.getIntProperty("benchmark.output.mb", 64);
+  private static final int LINE_LENGTH = SystemProperties.getIntProperty("benchmark.line.length", 100);
+  private static final int IDLE_MS = SystemProperties.getIntProperty("benchmark.idle.ms", 3000);
+  private static final Charset CHARSET = Charset.forName("US-ASCII");
+
+  private ProcessOutputBenchmark() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length == 2 && "child".equals(args[0])) {
+      runChild(Long.parseLong(args[1]));
+      return;
+    }
+
+    List<Integer> processCounts = new ArrayList<Integer>();
+    for (String count : System.getProperty("benchmark.processes", "1,16").split(",")) {
+      processCounts.add(Integer.parseInt(count.trim()));
+    }
+
+    System.out.println(String.format("%-30s %10s %14s %14s", "Benchmark", "Processes", "Polling", "Blocking"));
+    for (int processes : processCounts) {
+      long bytes = (long)OUTPUT_MB * 1024 * 1024;
+      // warmup
+      runChatty(processes, bytes / 8, false);
+      runChatty(processes, bytes / 8, true);
+      double polling = runChatty(processes, bytes, false);
+      double blocking = runChatty(processes, bytes, true);
+      System.out.println(String.format("%-30s %10d %11.1f MB/s %9.1f MB/s", "chatty", processes, polling, blocking));
+    }
+    for (int processes : processCounts) {
+      long polling = runIdle(processes, false);
+      long blocking = runIdle(processes, true);
+      System.out.println(String.format("%-30s %10d %11d ms %9d ms", "idle (CPU time)", processes, polling, blocking));
+    }
+    // the pooled threads of process handlers are not daemon ones
+    System.exit(0);
+  }
+
+  /**
+   * @return MB of output consumed per second
+   */
+  private static double runChatty(int processes, long bytesPerProcess, boolean blocking) throws Exception {
+    AtomicLong consumed = new AtomicLong();
+    long started = System.nanoTime();
+    runChildren(processes, bytesPerProcess, blocking, consumed);
+    long elapsed = System.nanoTime() - started;
+
+    long expected = bytesPerProcess / LINE_LENGTH * LINE_LENGTH * processes;
+    if (consumed.get() != expected) {
+      throw new IllegalStateException("Consumed " + consumed.get() + " chars of " + expected);
+    }
+    return consumed.get() / (1024.0 * 1024.0) / (elapsed / 1e9);
+  }
+
+  /**
+   * @return CPU time taken by the threads of this JVM while the processes were running
+   */
+  private static long runIdle(int processes, boolean blocking) throws Exception {
+    long cpuTime = getCpuTime();
+    runChildren(processes, -IDLE_MS, blocking, new AtomicLong());
+    return (getCpuTime() - cpuTime) / 1000000;
+  }
+
+  private static void runChildren(int processes, long arg, final boolean blocking, final AtomicLong consumed) throws IOException {
+    String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+    List<ProcessHandler> handlers = new ArrayList<ProcessHandler>();
+    for (int i = 0; i < processes; i++) {
+      Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                                           ProcessOutputBenchmark.class.getName(), "child", String.valueOf(arg)).start();
+      BaseOSProcessHandler handler = new BaseOSProcessHandler(process, null, CHARSET) {
+        @Override
+        protected boolean useBlockingRead() {
+          return blocking;
+        }
+      };
+      handler.addProcessListener(new ProcessAdapter() {
+        @Override
+        public void onTextAvailable(ProcessEvent event, Key outputType) {
+          if (outputType == ProcessOutputTypes.STDOUT) {
+            consumed.addAndGet(event.getText().length());
+          }
+        }
+      });
+      handler.startNotify();
+      handlers.add(handler);
+    }
+    for (ProcessHandler handler : handlers) {
+      handler.waitFor();
+    }
+  }
+
+  private static long getCpuTime() {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    long time = 0;
+    for (long id : threads.getAllThreadIds()) {
+      long threadTime = threads.getThreadCpuTime(id);
+      if (threadTime > 0) time += threadTime;
+    }
+    return time;
+  }
+
+  /**
+   * @param arg number of bytes to write, or minus number of milliseconds to sleep
+   */
+  private static void runChild(long arg) throws Exception {
+    if (arg < 0) {
+      Thread.sleep(-arg);
+      return;
+    }
+
+    byte[] line = new byte[LINE_LENGTH];
+    for (int i = 0; i < line.length - 1; i++) {
+      line[i] = (byte)('a' + i % 26);
+    }
+    line[line.length - 1] = '\n';
+    OutputStream out = new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 8192);
+    try {
+      for (long written = 0; written + line.length <= arg; written += line.length) {
+        out.write(line);
+      }
+    }
+    finally {
+      out.close();
+    }
+  }
+}
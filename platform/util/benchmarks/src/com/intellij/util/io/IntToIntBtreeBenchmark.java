@@ -0,0 +1,89 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.io;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The tree is not thread-safe, so operations are synchronized on it the same way as in {@link PersistentBTreeEnumerator}.
+ */
+class IntToIntBtreeBenchmark extends StorageBenchmark {
+  private static final int PAGE_SIZE = 4096;
+
+  private IntToIntBtree myTree;
+  private int myKeysCount;
+
+  IntToIntBtreeBenchmark(@NotNull BenchmarkParams params) {
+    super(params);
+  }
+
+  @NotNull
+  @Override
+  String getName() {
+    return "IntToIntBtree";
+  }
+
+  @Override
+  void setUp(@NotNull File dir) throws IOException {
+    final PagedFileStorage.StorageLockContext context = new PagedFileStorage.StorageLock(false).myDefaultStorageLockContext;
+    myTree = new IntToIntBtree(PAGE_SIZE, new File(dir, "tree"), context, true);
+    // a mapping takes 8 bytes, pages are partially filled
+    myKeysCount = getRecordsCount(16);
+    for (int i = 0; i < myKeysCount; i++) {
+      myTree.put(hash(i), i);
+    }
+    myTree.doFlush();
+  }
+
+  @Override
+  void tearDown() throws IOException {
+    myTree.doClose();
+  }
+
+  private static int hash(int i) {
+    // non-sequential non-zero keys, as hash codes of enumerated values are
+    return (i * 0x9E3779B9) | 1;
+  }
+
+  @NotNull
+  @Override
+  List<Operation> getOperations() {
+    return Arrays.asList(new Operation("get") {
+      final int[] myResult = new int[1];
+
+      @Override
+      void run(@NotNull Random random) throws IOException {
+        synchronized (myTree) {
+          myTree.get(hash(random.nextInt(myKeysCount)), myResult);
+        }
+      }
+    }, new Operation("put") {
+      @Override
+      void run(@NotNull Random random) throws IOException {
+        final int index = random.nextInt(myKeysCount);
+        synchronized (myTree) {
+          myTree.put(hash(index), index);
+        }
+      }
+    });
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.io;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Random access to a file of the data set size, which is preallocated as the storage doesn't grow by itself.
+ * Access is synchronized on the storage the same way as its users do.
+ */
+class PagedFileStorageBenchmark extends StorageBenchmark {
+  private PagedFileStorage myStorage;
+  private int myRecordsCount;
+
+  PagedFileStorageBenchmark(@NotNull BenchmarkParams params) {
+    super(params);
+  }
+
+  @NotNull
+  @Override
+  String getName() {
+    return "PagedFileStorage";
+  }
+
+  @Override
+  void setUp(@NotNull File dir) throws IOException {
+    final PagedFileStorage.StorageLockContext context = new PagedFileStorage.StorageLock(false).myDefaultStorageLockContext;
+    myStorage = new PagedFileStorage(new File(dir, "storage"), context, PagedFileStorage.BUFFER_SIZE, false);
+    myRecordsCount = getRecordsCount(myParams.myValueSize);
+    myStorage.resize(myRecordsCount * myParams.myValueSize);
+    for (int i = 0; i < myRecordsCount; i++) {
+      final byte[] value = value(i, myParams.myValueSize);
+      myStorage.put(i * myParams.myValueSize, value, 0, value.length);
+    }
+    myStorage.force();
+  }
+
+  @Override
+  void tearDown() throws IOException {
+    myStorage.close();
+  }
+
+  @NotNull
+  @Override
+  List<Operation> getOperations() {
+    return Arrays.asList(new Operation("getLong") {
+      @Override
+      void run(@NotNull Random random) throws IOException {
+        final int offset = random.nextInt(myRecordsCount) * myParams.myValueSize;
+        synchronized (myStorage) {
+          myStorage.getLong(offset);
+        }
+      }
+    }, new Operation("get") {
+      @Override
+      void run(@NotNull Random random) throws IOException {
+        final byte[] value = new byte[myParams.myValueSize];
+        final int offset = random.nextInt(myRecordsCount) * myParams.myValueSize;
+        synchronized (myStorage) {
+          myStorage.get(offset, value, 0, value.length);
+        }
+      }
+    }, new Operation("put") {
+      @Override
+      void run(@NotNull Random random) throws IOException {
+        final int record = random.nextInt(myRecordsCount);
+        final byte[] value = value(record, myParams.myValueSize);
+        synchronized (myStorage) {
+          myStorage.put(record * myParams.myValueSize, value, 0, value.length);
+        }
+      }
+    }, new Operation("sequentialGet") {
+      private int myNext;
+
+      @Override
+      void run(@NotNull Random random) throws IOException {
+        final byte[] value = new byte[myParams.myValueSize];
+        synchronized (myStorage) {
+          myNext = (myNext + 1) % myRecordsCount;
+          myStorage.get(myNext * myParams.myValueSize, value, 0, value.length);
+        }
+      }
+    }, new Operation("putAndForce") {
+      @Override
+      void run(@NotNull Random random) throws IOException {
+        final int record = random.nextInt(myRecordsCount);
+        final byte[] value = value(record, myParams.myValueSize);
+        synchronized (myStorage) {
+          myStorage.put(record * myParams.myValueSize, value, 0, value.length);
+          myStorage.force();
+        }
+      }
+    });
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.io;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class PersistentBTreeEnumeratorBenchmark extends StorageBenchmark {
+  private PersistentBTreeEnumerator<String> myEnumerator;
+  private int myKeysCount;
+  private final AtomicInteger myNextKey = new AtomicInteger();
+
+  PersistentBTreeEnumeratorBenchmark(@NotNull BenchmarkParams params) {
+    super(params);
+  }
+
+  @NotNull
+  @Override
+  String getName() {
+    return "PersistentBTreeEnumerator";
+  }
+
+  @Override
+  void setUp(@NotNull File dir) throws IOException {
+    myEnumerator = new PersistentBTreeEnumerator<String>(new File(dir, "enumerator"), new EnumeratorStringDescriptor(), 4096);
+    // the key takes 2 bytes per char in the data file plus a mapping in the tree
+    myKeysCount = getRecordsCount(2 * myParams.myKeySize + 16);
+    for (int i = 0; i < myKeysCount; i++) {
+      myEnumerator.enumerate(key(i));
+    }
+    myEnumerator.force();
+    myNextKey.set(myKeysCount);
+  }
+
+  @Override
+  void tearDown() throws IOException {
+    myEnumerator.close();
+  }
+
+  @NotNull
+  @Override
+  List<Operation> getOperations() {
+    return Arrays.asList(new Operation("enumerateExisting") {
+      @Override
+      void run(@NotNull Random random) throws IOException {
+        myEnumerator.enumerate(key(random.nextInt(myKeysCount)));
+      }
+    }, new Operation("tryEnumerateMissing") {
+      @Override
+      void run(@NotNull Random random) throws IOException {
+        myEnumerator.tryEnumerate(key(myKeysCount + random.nextInt(myKeysCount)));
+      }
+    }, new Operation("valueOf") {
+      @Override
+      void run(@NotNull Random random) throws IOException {
+        // ids are record addresses, so only enumerate-then-valueOf gives valid ones
+        myEnumerator.valueOf(myEnumerator.enumerate(key(random.nextInt(myKeysCount))));
+      }
+    }, new Operation("enumerateNew") {
+      @Override
+      void run(@NotNull Random random) throws IOException {
+        myEnumerator.enumerate(key(myNextKey.getAndIncrement()));
+      }
+    });
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.io;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+class PersistentHashMapBenchmark extends StorageBenchmark {
+  private PersistentHashMap<String, byte[]> myMap;
+  private int myKeysCount;
+
+  PersistentHashMapBenchmark(@NotNull BenchmarkParams params) {
+    super(params);
+  }
+
+  @NotNull
+  @Override
+  String getName() {
+    return "PersistentHashMap";
+  }
+
+  @Override
+  void setUp(@NotNull File dir) throws IOException {
+    myMap = new PersistentHashMap<String, byte[]>(new File(dir, "map"), new EnumeratorStringDescriptor(), new ByteArrayExternalizer());
+    myKeysCount = getRecordsCount(myParams.myKeySize + myParams.myValueSize);
+    for (int i = 0; i < myKeysCount; i++) {
+      myMap.put(key(i), value(i, myParams.myValueSize));
+    }
+    myMap.force();
+  }
+
+  @Override
+  void tearDown() throws IOException {
+    myMap.close();
+  }
+
+  @NotNull
+  @Override
+  List<Operation> getOperations() {
+    return Arrays.asList(new Operation("get") {
+      @Override
+      void run(@NotNull Random random) throws IOException {
+        myMap.get(key(random.nextInt(myKeysCount)));
+      }
+    }, new Operation("put") {
+      @Override
+      void run(@NotNull Random random) throws IOException {
+        final int index = random.nextInt(myKeysCount);
+        myMap.put(key(index), value(index, myParams.myValueSize));
+      }
+    }, new Operation("appendData") {
+      @Override
+      void run(@NotNull Random random) throws IOException {
+        final int index = random.nextInt(myKeysCount);
+        myMap.appendData(key(index), new PersistentHashMap.ValueDataAppender() {
+          @Override
+          public void append(DataOutput out) throws IOException {
+            out.writeInt(index);
+          }
+        });
+      }
+    }, new Operation("putAndForce") {
+      @Override
+      void run(@NotNull Random random) throws IOException {
+        final int index = random.nextInt(myKeysCount);
+        myMap.put(key(index), value(index, myParams.myValueSize));
+        myMap.force();
+      }
+    });
+  }
+
+  private static class ByteArrayExternalizer implements DataExternalizer<byte[]> {
+    @Override
+    public void save(DataOutput out, byte[] value) throws IOException {
+      out.write(value);
+    }
+
+    @Override
+    public byte[] read(DataInput in) throws IOException {
+      // the map reads values from a DataInputStream over the value bytes, appended data included
+      final byte[] bytes = new byte[((DataInputStream)in).available()];
+      in.readFully(bytes);
+      return bytes;
+    }
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.io;
+
+import com.intellij.openapi.util.io.ByteSequence;
+import com.intellij.util.io.storage.RefCountingStorage;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Records of the value size, as file contents are stored in FSRecords. Values are compressed by the storage,
+ * so a part of every value is random to keep them from compressing to nothing.
+ */
+class RefCountingStorageBenchmark extends StorageBenchmark {
+  private RefCountingStorage myStorage;
+  private int[] myRecords;
+
+  RefCountingStorageBenchmark(@NotNull BenchmarkParams params) {
+    super(params);
+  }
+
+  @NotNull
+  @Override
+  String getName() {
+    return "RefCountingStorage";
+  }
+
+  @Override
+  void setUp(@NotNull File dir) throws IOException {
+    myStorage = new RefCountingStorage(new File(dir, "contents").getPath());
+    myRecords = new int[getRecordsCount(myParams.myValueSize)];
+    final Random random = new Random();
+    for (int i = 0; i < myRecords.length; i++) {
+      myRecords[i] = myStorage.acquireNewRecord();
+      myStorage.writeBytes(myRecords[i], new ByteSequence(content(i, random)), false);
+    }
+    myStorage.force();
+  }
+
+  @Override
+  void tearDown() throws IOException {
+    myStorage.dispose();
+  }
+
+  @NotNull
+  private byte[] content(int index, @NotNull Random random) {
+    final byte[] bytes = value(index, myParams.myValueSize);
+    for (int i = 0; i < bytes.length; i += 4) {
+      bytes[i] = (byte)random.nextInt();
+    }
+    return bytes;
+  }
+
+  @NotNull
+  @Override
+  List<Operation> getOperations() {
+    return Arrays.asList(new Operation("readStream") {
+      @Override
+      void run(@NotNull Random random) throws IOException {
+        final DataInputStream stream = myStorage.readStream(myRecords[random.nextInt(myRecords.length)]);
+        try {
+          stream.readFully(new byte[myParams.myValueSize]);
+        }
+        finally {
+          stream.close();
+        }
+      }
+    }, new Operation("writeBytes") {
+      @Override
+      void run(@NotNull Random random) throws IOException {
+        final int index = random.nextInt(myRecords.length);
+        myStorage.writeBytes(myRecords[index], new ByteSequence(content(index, random)), false);
+      }
+    }, new Operation("acquireRelease") {
+      @Override
+      void run(@NotNull Random random) throws IOException {
+        final int record = myRecords[random.nextInt(myRecords.length)];
+        myStorage.acquireRecord(record);
+        myStorage.releaseRecord(record);
+      }
+    }, new Operation("writeBytesAndForce") {
+      @Override
+      void run(@NotNull Random random) throws IOException {
+        final int index = random.nextInt(myRecords.length);
+        myStorage.writeBytes(myRecords[index], new ByteSequence(content(index, random)), false);
+        myStorage.force();
+      }
+    });
+  }
+}
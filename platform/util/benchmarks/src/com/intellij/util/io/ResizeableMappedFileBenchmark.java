@@ -0,0 +1,117 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.io;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Fixed-size records of the value size, like the records of FSRecords. Access is synchronized on the file the same way
+ * as its users do.
+ */
+class ResizeableMappedFileBenchmark extends StorageBenchmark {
+  private ResizeableMappedFile myFile;
+  private int myRecordsCount;
+  private int myAppendedRecords;
+
+  ResizeableMappedFileBenchmark(@NotNull BenchmarkParams params) {
+    super(params);
+  }
+
+  @NotNull
+  @Override
+  String getName() {
+    return "ResizeableMappedFile";
+  }
+
+  @Override
+  void setUp(@NotNull File dir) throws IOException {
+    final PagedFileStorage.StorageLockContext context = new PagedFileStorage.StorageLock(false).myDefaultStorageLockContext;
+    myFile = new ResizeableMappedFile(new File(dir, "records"), 1024 * 1024, context, PagedFileStorage.BUFFER_SIZE, false);
+    myRecordsCount = getRecordsCount(myParams.myValueSize);
+    for (int i = 0; i < myRecordsCount; i++) {
+      final byte[] value = value(i, myParams.myValueSize);
+      myFile.put(offset(i), value, 0, value.length);
+    }
+    myFile.force();
+    myAppendedRecords = myRecordsCount;
+  }
+
+  @Override
+  void tearDown() throws IOException {
+    myFile.close();
+  }
+
+  private int offset(int record) {
+    return record * myParams.myValueSize;
+  }
+
+  @NotNull
+  @Override
+  List<Operation> getOperations() {
+    return Arrays.asList(new Operation("getInt") {
+      @Override
+      void run(@NotNull Random random) throws IOException {
+        final int offset = offset(random.nextInt(myRecordsCount));
+        synchronized (myFile) {
+          myFile.getInt(offset);
+        }
+      }
+    }, new Operation("putInt") {
+      @Override
+      void run(@NotNull Random random) throws IOException {
+        final int offset = offset(random.nextInt(myRecordsCount));
+        synchronized (myFile) {
+          myFile.putInt(offset, offset);
+        }
+      }
+    }, new Operation("getRecord") {
+      @Override
+      void run(@NotNull Random random) throws IOException {
+        final byte[] value = new byte[myParams.myValueSize];
+        final int offset = offset(random.nextInt(myRecordsCount));
+        synchronized (myFile) {
+          myFile.get(offset, value, 0, value.length);
+        }
+      }
+    }, new Operation("appendRecord") {
+      @Override
+      void run(@NotNull Random random) throws IOException {
+        final byte[] value = value(random.nextInt(), myParams.myValueSize);
+        synchronized (myFile) {
+          if ((long)(myAppendedRecords + 1) * myParams.myValueSize >= Integer.MAX_VALUE) {
+            myAppendedRecords = myRecordsCount;
+          }
+          myFile.put(offset(myAppendedRecords++), value, 0, value.length);
+        }
+      }
+    }, new Operation("putIntAndForce") {
+      @Override
+      void run(@NotNull Random random) throws IOException {
+        final int offset = offset(random.nextInt(myRecordsCount));
+        synchronized (myFile) {
+          myFile.putInt(offset, offset);
+          myFile.force();
+        }
+      }
+    });
+  }
+}
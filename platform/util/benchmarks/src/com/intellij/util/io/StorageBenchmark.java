@@ -0,0 +1,128 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.io;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A storage under benchmark: {@link #setUp} creates the storage in the given directory and fills it with the data set,
+ * then every {@link Operation} is measured by {@link StorageBenchmarks} on that data set.
+ */
+abstract class StorageBenchmark {
+  /**
+   * Number of base 36 digits of the largest key index, the minimal key size.
+   */
+  static final int KEY_DIGITS = Integer.toString(Integer.MAX_VALUE, 36).length();
+
+  protected final BenchmarkParams myParams;
+
+  protected StorageBenchmark(@NotNull BenchmarkParams params) {
+    myParams = params;
+  }
+
+  @NotNull
+  abstract String getName();
+
+  abstract void setUp(@NotNull File dir) throws IOException;
+
+  abstract void tearDown() throws IOException;
+
+  @NotNull
+  abstract List<Operation> getOperations();
+
+  /**
+   * Number of records needed for the data set to take the given number of bytes, which defaults to twice the maximal size
+   * of memory mapped by {@link PagedFileStorage}, so that pages are evicted and read again during the benchmark.
+   */
+  protected int getRecordsCount(int recordSize) {
+    return (int)Math.min(Integer.MAX_VALUE, myParams.myDatasetBytes / recordSize);
+  }
+
+  /**
+   * Key of the given size for the given index: the index in base 36, padded with zeroes to {@link #KEY_DIGITS} symbols so that
+   * distinct indices never give the same key, followed by letters.
+   */
+  @NotNull
+  protected String key(int index) {
+    if (index < 0) {
+      throw new IllegalArgumentException("Negative key index: " + index);
+    }
+    final char[] chars = new char[myParams.myKeySize];
+    final String digits = Integer.toString(index, 36);
+    final int padding = KEY_DIGITS - digits.length();
+    for (int i = 0; i < chars.length; i++) {
+      if (i < KEY_DIGITS) {
+        chars[i] = i < padding ? '0' : digits.charAt(i - padding);
+      }
+      else {
+        chars[i] = (char)('a' + (index + i) % 26);
+      }
+    }
+    return new String(chars);
+  }
+
+  @NotNull
+  protected static byte[] value(int index, int size) {
+    final byte[] bytes = new byte[size];
+    for (int i = 0; i < size; i++) {
+      bytes[i] = (byte)(index + i);
+    }
+    return bytes;
+  }
+
+  abstract static class Operation {
+    private final String myName;
+
+    Operation(@NotNull String name) {
+      myName = name;
+    }
+
+    @NotNull
+    String getName() {
+      return myName;
+    }
+
+    /**
+     * Called concurrently from all benchmark threads, each thread has its own random.
+     */
+    abstract void run(@NotNull Random random) throws IOException;
+  }
+
+  static class BenchmarkParams {
+    final long myDatasetBytes;
+    final int myKeySize;
+    final int myValueSize;
+
+    BenchmarkParams(long datasetBytes, int keySize, int valueSize) {
+      if (keySize < KEY_DIGITS) {
+        throw new IllegalArgumentException("Key size should be at least " + KEY_DIGITS + " for keys to be distinct: " + keySize);
+      }
+      myDatasetBytes = datasetBytes;
+      myKeySize = keySize;
+      myValueSize = valueSize;
+    }
+
+    @Override
+    public String toString() {
+      return "dataset=" + (myDatasetBytes / PagedFileStorage.MB) + "MB key=" + myKeySize + " value=" + myValueSize;
+    }
+  }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.io;
+
+import com.intellij.openapi.util.SystemInfo;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.SystemProperties;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+
+/**
+ * Throughput benchmarks of the persistent storages. Every operation of every benchmark is run for the configured number of
+ * warmup and measurement iterations of fixed duration, by each of the configured numbers of threads, and reported as
+ * operations per second with the 99.9% confidence interval over measurement iterations.
+ * <p/>
+ * Usage: {@code StorageBenchmarks [benchmark name regexp]}, parameters are given by system properties:
+ * <ul>
+ *   <li>{@code benchmark.dataset.mb} - size of the data set, twice the maximal paged storage cache by default</li>
+ *   <li>{@code benchmark.key.size} - length of string keys, at least 6, 32 by default</li>
+ *   <li>{@code benchmark.value.sizes} - comma separated sizes of values, "64,1024" by default</li>
+ *   <li>{@code benchmark.threads} - comma separated numbers of threads, "1,4" by default</li>
+ *   <li>{@code benchmark.warmup}, {@code benchmark.iterations} - numbers of iterations, 3 and 5 by default</li>
+ *   <li>{@code benchmark.iteration.ms} - duration of an iteration, 1000 by default</li>
+ * </ul>
+ */
+public class StorageBenchmarks {
+  private static final int ITERATION_MS = SystemProperties.getIntProperty("benchmark.iteration.ms", 1000);
+  private static final int WARMUP_ITERATIONS = SystemProperties.getIntProperty("benchmark.warmup", 3);
+  private static final int MEASUREMENT_ITERATIONS = SystemProperties.getIntProperty("benchmark.iterations", 5);
+
+  private StorageBenchmarks() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    final Pattern filter = Pattern.compile(args.length > 0 ? args[0] : ".*");
+    final int[] threads = parseInts(System.getProperty("benchmark.threads", "1,4"));
+    final int[] valueSizes = parseInts(System.getProperty("benchmark.value.sizes", "64,1024"));
+    final int keySize = SystemProperties.getIntProperty("benchmark.key.size", 32);
+    // the default of PagedFileStorage
+    final int defaultCacheMb = SystemInfo.is64Bit && !PersistentEnumeratorDelegate.useBtree() ? 500 : 200;
+    final int maxCacheMb = Math.max(100, SystemProperties.getIntProperty("idea.max.paged.storage.cache", defaultCacheMb));
+    final long datasetBytes = (long)SystemProperties.getIntProperty("benchmark.dataset.mb", 2 * maxCacheMb) * PagedFileStorage.MB;
+
+    System.out.println(String.format("%-60s %8s %14s %12s", "Benchmark", "Threads", "Score", "Error"));
+    for (int valueSize : valueSizes) {
+      final StorageBenchmark.BenchmarkParams params = new StorageBenchmark.BenchmarkParams(datasetBytes, keySize, valueSize);
+      for (StorageBenchmark benchmark : createBenchmarks(params)) {
+        if (!filter.matcher(benchmark.getName()).find()) continue;
+        run(benchmark, threads);
+      }
+    }
+  }
+
+  @NotNull
+  private static List<StorageBenchmark> createBenchmarks(@NotNull StorageBenchmark.BenchmarkParams params) {
+    return Arrays.asList(new PersistentHashMapBenchmark(params),
+                         new PersistentBTreeEnumeratorBenchmark(params),
+                         new IntToIntBtreeBenchmark(params),
+                         new ResizeableMappedFileBenchmark(params),
+                         new PagedFileStorageBenchmark(params),
+                         new RefCountingStorageBenchmark(params));
+  }
+
+  private static void run(@NotNull StorageBenchmark benchmark, @NotNull int[] threads) throws Exception {
+    final File dir = FileUtil.createTempDirectory("storage", "benchmark");
+    try {
+      System.out.println("# " + benchmark.getName() + ": " + benchmark.myParams);
+      benchmark.setUp(dir);
+      try {
+        for (StorageBenchmark.Operation operation : benchmark.getOperations()) {
+          for (int threadsCount : threads) {
+            for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+              runIteration(operation, threadsCount);
+            }
+            final double[] scores = new double[MEASUREMENT_ITERATIONS];
+            for (int i = 0; i < scores.length; i++) {
+              scores[i] = runIteration(operation, threadsCount);
+            }
+            report(benchmark.getName() + "." + operation.getName(), threadsCount, scores);
+          }
+        }
+      }
+      finally {
+        benchmark.tearDown();
+      }
+    }
+    finally {
+      FileUtil.delete(dir);
+    }
+  }
+
+  /**
+   * @return operations per second
+   */
+  private static double runIteration(@NotNull final StorageBenchmark.Operation operation, int threadsCount) throws Exception {
+    final CountDownLatch start = new CountDownLatch(1);
+    final long[] counts = new long[threadsCount];
+    final long[] deadline = new long[1];
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    final Thread[] workers = new Thread[threadsCount];
+    for (int i = 0; i < threadsCount; i++) {
+      final int index = i;
+      workers[i] = new Thread("Storage benchmark " + i) {
+        @Override
+        public void run() {
+          final Random random = new Random(index);
+          long count = 0;
+          try {
+            start.await();
+            while (System.nanoTime() < deadline[0]) {
+              // check the time rarely enough not to affect short operations
+              for (int j = 0; j < 16; j++) {
+                operation.run(random);
+              }
+              count += 16;
+            }
+          }
+          catch (Throwable e) {
+            error.compareAndSet(null, e);
+          }
+          counts[index] = count;
+        }
+      };
+      workers[i].start();
+    }
+
+    final long started = System.nanoTime();
+    deadline[0] = started + ITERATION_MS * 1000000L;
+    start.countDown();
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    final long elapsed = System.nanoTime() - started;
+
+    if (error.get() != null) {
+      throw new RuntimeException(operation.getName() + " failed", error.get());
+    }
+    long total = 0;
+    for (long count : counts) {
+      total += count;
+    }
+    return total * 1e9 / elapsed;
+  }
+
+  private static void report(@NotNull String name, int threadsCount, @NotNull double[] scores) {
+    double mean = 0;
+    for (double score : scores) {
+      mean += score;
+    }
+    mean /= scores.length;
+
+    double error = 0;
+    if (scores.length > 1) {
+      double variance = 0;
+      for (double score : scores) {
+        variance += (score - mean) * (score - mean);
+      }
+      variance /= scores.length - 1;
+      // normal approximation of the 99.9% confidence interval
+      error = 3.29 * Math.sqrt(variance / scores.length);
+    }
+    System.out.println(String.format("%-60s %8d %14.1f %12.1f ops/s", name, threadsCount, mean, error));
+  }
+
+  @NotNull
+  private static int[] parseInts(@NotNull String values) {
+    final List<Integer> result = new ArrayList<Integer>();
+    for (String value : values.split(",")) {
+      if (!value.trim().isEmpty()) {
+        result.add(Integer.parseInt(value.trim()));
+      }
+    }
+    final int[] ints = new int[result.size()];
+    for (int i = 0; i < ints.length; i++) {
+      ints[i] = result.get(i);
+    }
+    return ints;
+  }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.text;
+
+import com.intellij.util.SystemProperties;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Random edits of large documents stored as {@link ImmutableText} and as a flat array which tail is shifted on every edit,
+ * the way the document {@code CharArray} stores text by default. Every operation is run for the configured number of warmup
+ * and measurement iterations of fixed duration and reported as operations per second with the 99.9% confidence interval.
+ * <p/>
+ * Operations:
+ * <ul>
+ *   <li>{@code edit} - insertion of a few chars at a random offset followed by deletion of as many chars at another one</li>
+ *   <li>{@code charAt} - read of a char at a random offset</li>
+ *   <li>{@code snapshot} - taking the text which stays unchanged while the document is edited, as a background reader needs</li>
+ * </ul>
+ * Parameters are given by system properties: {@code benchmark.document.sizes.mb} - comma separated sizes of documents in millions
+ * of chars, "1,10,100" by default (run with -Xmx1g or more); {@code benchmark.warmup}, {@code benchmark.iterations} and
+ * {@code benchmark.iteration.ms} as for the storage benchmarks.
+ */
+public class ImmutableTextBenchmark {
+  private static final int ITERATION_MS = SystemProperties.getIntProperty("benchmark.iteration.ms", 1000);
+  private static final int WARMUP_ITERATIONS = SystemProperties.getIntProperty("benchmark.warmup", 3);
+  private static final int MEASUREMENT_ITERATIONS = SystemProperties.getIntProperty("benchmark.iterations", 5);
+  private static final String[] INSERTED = {"a", "ab", "abc", "    ", "\n", "foo();\n", "int i = 0;"};
+
+  private ImmutableTextBenchmark() {
+  }
+
+  public static void main(String[] args) {
+    System.out.println(String.format("%-60s %14s %12s", "Benchmark", "Score", "Error"));
+    for (String size : System.getProperty("benchmark.document.sizes.mb", "1,10,100").split(",")) {
+      if (size.trim().isEmpty()) continue;
+      int length = Integer.parseInt(size.trim()) * 1000 * 1000;
+      char[] initial = initialText(length);
+
+      run("ImmutableText", length, new ImmutableTextDocument(initial));
+      run("FlatArray", length, new FlatArrayDocument(initial));
+    }
+  }
+
+  private static void run(@NotNull String name, int length, @NotNull Document document) {
+    System.out.println("# " + name + ": " + length / (1000 * 1000) + "M chars");
+    for (Operation operation : document.getOperations()) {
+      for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+        runIteration(operation);
+      }
+      final double[] scores = new double[MEASUREMENT_ITERATIONS];
+      for (int i = 0; i < scores.length; i++) {
+        scores[i] = runIteration(operation);
+      }
+      report(name + "." + operation.myName + " " + length / (1000 * 1000) + "M", scores);
+    }
+  }
+
+  @NotNull
+  private static char[] initialText(int length) {
+    char[] chars = new char[length];
+    Random random = new Random(0);
+    for (int i = 0; i < length; i++) {
+      chars[i] = random.nextInt(40) == 0 ? '\n' : (char)('a' + random.nextInt(26));
+    }
+    return chars;
+  }
+
+  /**
+   * @return operations per second
+   */
+  private static double runIteration(@NotNull Operation operation) {
+    Random random = new Random(0);
+    long count = 0;
+    long started = System.nanoTime();
+    long deadline = started + ITERATION_MS * 1000000L;
+    while (System.nanoTime() < deadline) {
+      // check the time rarely enough not to affect short operations
+      for (int j = 0; j < 16; j++) {
+        operation.run(random);
+      }
+      count += 16;
+    }
+    return count * 1e9 / (System.nanoTime() - started);
+  }
+
+  private static void report(@NotNull String name, @NotNull double[] scores) {
+    double mean = 0;
+    for (double score : scores) {
+      mean += score;
+    }
+    mean /= scores.length;
+
+    double error = 0;
+    if (scores.length > 1) {
+      double variance = 0;
+      for (double score : scores) {
+        variance += (score - mean) * (score - mean);
+      }
+      variance /= scores.length - 1;
+      // normal approximation of the 99.9% confidence interval
+      error = 3.29 * Math.sqrt(variance / scores.length);
+    }
+    System.out.println(String.format("%-60s %14.1f %12.1f ops/s", name, mean, error));
+  }
+
+  private abstract static class Operation {
+    private final String myName;
+
+    Operation(@NotNull String name) {
+      myName = name;
+    }
+
+    abstract void run(@NotNull Random random);
+  }
+
+  private abstract static class Document {
+    // keeps results of reads alive
+    int myBlackhole;
+
+    abstract int length();
+
+    abstract void insert(int offset, @NotNull String text);
+
+    abstract void delete(int start, int end);
+
+    abstract char charAt(int offset);
+
+    @NotNull
+    abstract CharSequence snapshot();
+
+    @NotNull
+    List<Operation> getOperations() {
+      List<Operation> operations = new ArrayList<Operation>();
+      operations.add(new Operation("edit") {
+        @Override
+        void run(@NotNull Random random) {
+          String text = INSERTED[random.nextInt(INSERTED.length)];
+          insert(random.nextInt(length() + 1), text);
+          int start = random.nextInt(length() - text.length() + 1);
+          delete(start, start + text.length());
+        }
+      });
+      operations.add(new Operation("charAt") {
+        @Override
+        void run(@NotNull Random random) {
+          myBlackhole += charAt(random.nextInt(length()));
+        }
+      });
+      operations.add(new Operation("snapshot") {
+        @Override
+        void run(@NotNull Random random) {
+          CharSequence snapshot = snapshot();
+          myBlackhole += snapshot.charAt(random.nextInt(snapshot.length()));
+        }
+      });
+      return operations;
+    }
+  }
+
+  private static class ImmutableTextDocument extends Document {
+    private ImmutableText myText;
+
+    ImmutableTextDocument(@NotNull char[] chars) {
+      myText = ImmutableText.valueOf(new CharArrayCharSequence(chars));
+    }
+
+    @Override
+    int length() {
+      return myText.length();
+    }
+
+    @Override
+    void insert(int offset, @NotNull String text) {
+      myText = myText.insert(offset, text);
+    }
+
+    @Override
+    void delete(int start, int end) {
+      myText = myText.delete(start, end);
+    }
+
+    @Override
+    char charAt(int offset) {
+      return myText.charAt(offset);
+    }
+
+    @NotNull
+    @Override
+    CharSequence snapshot() {
+      return myText;
+    }
+  }
+
+  /**
+   * The array is grown the same way as by {@code CharArray}, snapshots are copies.
+   */
+  private static class FlatArrayDocument extends Document {
+    private char[] myArray;
+    private int myCount;
+
+    FlatArrayDocument(@NotNull char[] chars) {
+      myArray = chars.clone();
+      myCount = chars.length;
+    }
+
+    @Override
+    int length() {
+      return myCount;
+    }
+
+    @Override
+    void insert(int offset, @NotNull String text) {
+      int length = text.length();
+      if (myCount + length > myArray.length) {
+        char[] array = new char[(myCount + length) * 12 / 10 + 1];
+        System.arraycopy(myArray, 0, array, 0, myCount);
+        myArray = array;
+      }
+      System.arraycopy(myArray, offset, myArray, offset + length, myCount - offset);
+      text.getChars(0, length, myArray, offset);
+      myCount += length;
+    }
+
+    @Override
+    void delete(int start, int end) {
+      System.arraycopy(myArray, end, myArray, start, myCount - end);
+      myCount -= end - start;
+    }
+
+    @Override
+    char charAt(int offset) {
+      return myArray[offset];
+    }
+
+    @NotNull
+    @Override
+    CharSequence snapshot() {
+      return new String(myArray, 0, myCount);
+    }
+  }
+}
@@ -17,6 +17,7 @@ package com.intellij.execution.process;
 
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.util.Consumer;
+import com.intellij.util.SystemProperties;
 import com.intellij.util.io.OutputReader;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -27,6 +28,12 @@ import java.util.concurrent.*;
 
 public class BaseOSProcessHandler extends ProcessHandler {
   private static final Logger LOG = Logger.getInstance("#com.intellij.execution.process.OSProcessHandlerBase");
+  private static final boolean BLOCKING_READ = SystemProperties.getBooleanProperty("idea.process.output.blocking.read", false);
+  /**
+   * How long the stopped blocking readers of a terminated process are waited for, together; they are blocked until the streams
+   * are closed, which may never happen if the streams are inherited by a child process which is still running.
+   */
+  private static final long STOPPED_BLOCKING_READERS_TIMEOUT_MS = 1000;
   @NotNull
   protected final Process myProcess;
   @Nullable
@@ -51,6 +58,18 @@ public class BaseOSProcessHandler extends ProcessHandler {
     return ExecutorServiceHolder.ourThreadExecutorsService.submit(task);
   }
 
+  /**
+   * Override this method to choose how the process output is read, see {@link com.intellij.util.io.BaseOutputReader}.
+   * Blocking reading takes no CPU while the process is silent, but a stopped reader stays blocked until the output stream
+   * is closed, which may take long if the stream is inherited by another process; such streams are closed once the readers
+   * aren't done in a second after the process has terminated.
+   * <p/>
+   * Polling is the default; blocking reading is switched on for all handlers by {@code idea.process.output.blocking.read=true}.
+   */
+  protected boolean useBlockingRead() {
+    return BLOCKING_READ;
+  }
+
   @NotNull
   public Process getProcess() {
     return myProcess;
@@ -66,7 +85,7 @@ public class BaseOSProcessHandler extends ProcessHandler {
       @Override
       public void startNotified(final ProcessEvent event) {
         try {
-          final OutputReader stdoutReader = new OutputReader(createProcessOutReader()) {
+          final OutputReader stdoutReader = new OutputReader(createProcessOutReader(), useBlockingRead()) {
             @Override
             protected void onTextAvailable(@NotNull String text) {
               notifyTextAvailable(text, ProcessOutputTypes.STDOUT);
@@ -78,7 +97,7 @@ public class BaseOSProcessHandler extends ProcessHandler {
             }
           };
 
-          final OutputReader stderrReader = new OutputReader(createProcessErrReader()) {
+          final OutputReader stderrReader = new OutputReader(createProcessErrReader(), useBlockingRead()) {
             @Override
             protected void onTextAvailable(@NotNull String text) {
               notifyTextAvailable(text, ProcessOutputTypes.STDERR);
@@ -99,8 +118,13 @@ public class BaseOSProcessHandler extends ProcessHandler {
                 stdoutReader.stop();
 
                 try {
-                  stderrReader.waitFor();
-                  stdoutReader.waitFor();
+                  if (stdoutReader.isBlocking() || stderrReader.isBlocking()) {
+                    waitForStoppedBlockingReaders(stdoutReader, stderrReader);
+                  }
+                  else {
+                    stderrReader.waitFor();
+                    stdoutReader.waitFor();
+                  }
                 }
                 catch (InterruptedException ignore) {
                 }
@@ -119,6 +143,34 @@ public class BaseOSProcessHandler extends ProcessHandler {
 
     super.startNotify();
   }
+
+  private void waitForStoppedBlockingReaders(@NotNull OutputReader stdoutReader, @NotNull OutputReader stderrReader)
+    throws InterruptedException {
+    long deadline = System.currentTimeMillis() + STOPPED_BLOCKING_READERS_TIMEOUT_MS;
+    boolean stdoutFinished = stdoutReader.waitFor(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+    boolean stderrFinished = stderrReader.waitFor(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+
+    // a blocked read isn't interrupted by closing the stream, but the reader quits as soon as it returns, instead of
+    // reading the output of whoever holds the stream for as long as it's open
+    if (!stdoutFinished) {
+      LOG.info("The output stream is still open after the process has terminated, closing it");
+      closeQuietly(myProcess.getInputStream());
+    }
+    if (!stderrFinished) {
+      LOG.info("The error stream is still open after the process has terminated, closing it");
+      closeQuietly(myProcess.getErrorStream());
+    }
+  }
+
+  private static void closeQuietly(@NotNull InputStream stream) {
+    try {
+      stream.close();
+    }
+    catch (IOException e) {
+      LOG.info(e);
+    }
+  }
+
   protected void onOSProcessTerminated(final int exitCode) {
     notifyProcessTerminated(exitCode);
   }
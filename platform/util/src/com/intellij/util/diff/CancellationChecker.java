@@ -0,0 +1,32 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.diff;
+
+import com.intellij.openapi.progress.ProcessCanceledException;
+
+/**
+ * Called periodically while differences of long sequences are being calculated, so that the calculation can be stopped,
+ * e.g. by delegating to {@code ProgressManager.checkCanceled()} or to a progress indicator of a background task.
+ */
+public interface CancellationChecker {
+  CancellationChecker NONE = new CancellationChecker() {
+    @Override
+    public void checkCanceled() {
+    }
+  };
+
+  void checkCanceled() throws ProcessCanceledException;
+}
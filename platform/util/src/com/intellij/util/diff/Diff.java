@@ -24,6 +24,7 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * @author dyoma
@@ -31,14 +32,38 @@ import java.util.ArrayList;
 public class Diff {
   private static final Logger LOG = Logger.getInstance("#com.intellij.util.diff.Diff");
 
+  /**
+   * Sequences which are longer in total (after the common prefix and suffix and the elements present in one of them only
+   * are dropped) are compared by the patience and the linear space Myers algorithms rather than by {@link IntLCS}.
+   */
+  private static final int MAX_INT_LCS_LENGTH = 20000;
+
   @Nullable
   public static Change buildChanges(@NotNull CharSequence before, @NotNull CharSequence after) throws FilesTooBigForDiffException {
+    return buildChanges(before, after, CancellationChecker.NONE);
+  }
+
+  @Nullable
+  public static Change buildChanges(@NotNull CharSequence before, @NotNull CharSequence after, @NotNull CancellationChecker checker)
+    throws FilesTooBigForDiffException {
     final String[] strings1 = LineTokenizer.tokenize(before, false);
     final String[] strings2 = LineTokenizer.tokenize(after, false);
-    return buildChanges(strings1, strings2);
+    return buildChanges(strings1, strings2, checker);
   }
-  
+
   public static <T> Change buildChanges(T[] objects1, T[] objects2) throws FilesTooBigForDiffException {
+    return buildChanges(objects1, objects2, CancellationChecker.NONE);
+  }
+
+  /**
+   * Sequences of any length are compared, {@link FilesTooBigForDiffException} is declared for compatibility only.
+   * The method doesn't use any shared state, so it can be called from a background thread.
+   *
+   * @param checker called periodically while long sequences are compared, can stop the calculation by throwing
+   *                {@link com.intellij.openapi.progress.ProcessCanceledException}
+   */
+  public static <T> Change buildChanges(T[] objects1, T[] objects2, @NotNull CancellationChecker checker)
+    throws FilesTooBigForDiffException {
 
     // Old variant of enumerator worked incorrectly with null values.
     // This check is to ensure that the corrected version does not introduce bugs.
@@ -53,10 +78,25 @@ public class Diff {
     int[] ints2 = enumerator.enumerate(objects2, startShift, endCut);
     Reindexer reindexer = new Reindexer();
     int[][] discarded = reindexer.discardUnique(ints1, ints2);
-    IntLCS intLCS = new IntLCS(discarded[0], discarded[1]);
-    intLCS.execute();
     ChangeBuilder builder = new ChangeBuilder(startShift);
-    reindexer.reindex(intLCS.getPaths(), builder);
+    if (discarded[0].length + discarded[1].length <= MAX_INT_LCS_LENGTH) {
+      IntLCS intLCS = new IntLCS(discarded[0], discarded[1]);
+      try {
+        intLCS.execute();
+        reindexer.reindex(intLCS.getPaths(), builder);
+        return builder.getFirstChange();
+      }
+      catch (FilesTooBigForDiffException e) {
+        // too many differences to keep all the paths, fall back to the linear space algorithm
+      }
+    }
+
+    boolean[] changes1 = new boolean[discarded[0].length];
+    boolean[] changes2 = new boolean[discarded[1].length];
+    Arrays.fill(changes1, true);
+    Arrays.fill(changes2, true);
+    new PatienceLCS(discarded[0], discarded[1], changes1, changes2, checker).execute();
+    reindexer.reindex(changes1, changes2, builder);
     return builder.getFirstChange();
   }
 
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.diff;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Linear space variation of the Myers algorithm: the middle snake of the shortest edit script is found by running the search
+ * from both ends simultaneously, then both halves are solved recursively. Takes O((N + M) * D) time and O(N + M) memory,
+ * so unlike {@link IntLCS} it doesn't have to give up on long sequences.
+ * <p/>
+ * To keep sequences with lots of differences from taking quadratic time, the search for the middle snake is given up after
+ * the number of steps proportional to the square root of the lengths, and the sequences are split at the point which
+ * the search has advanced furthest to instead (the way GNU diff and git do). The found subsequence isn't the longest then.
+ * <p/>
+ * Elements which are not part of the found common subsequence are marked in the changes arrays, which should be filled with
+ * {@code true} initially.
+ */
+class MyersLCS {
+  private static final int MIN_COST_LIMIT = 256;
+
+  private final int[] myFirst;
+  private final int[] mySecond;
+  private final boolean[] myChanges1;
+  private final boolean[] myChanges2;
+  private final CancellationChecker myChecker;
+
+  private int[] myForward;
+  private int[] myBackward;
+
+  MyersLCS(@NotNull int[] first, @NotNull int[] second,
+           @NotNull boolean[] changes1, @NotNull boolean[] changes2,
+           @NotNull CancellationChecker checker) {
+    myFirst = first;
+    mySecond = second;
+    myChanges1 = changes1;
+    myChanges2 = changes2;
+    myChecker = checker;
+  }
+
+  public void execute() {
+    execute(0, myFirst.length, 0, mySecond.length);
+  }
+
+  /**
+   * Finds the common subsequence of the ranges [start1, end1) and [start2, end2) of the sequences.
+   */
+  public void execute(int start1, int end1, int start2, int end2) {
+    while (start1 < end1 && start2 < end2 && myFirst[start1] == mySecond[start2]) {
+      myChanges1[start1++] = false;
+      myChanges2[start2++] = false;
+    }
+    while (start1 < end1 && start2 < end2 && myFirst[end1 - 1] == mySecond[end2 - 1]) {
+      myChanges1[--end1] = false;
+      myChanges2[--end2] = false;
+    }
+    if (start1 == end1 || start2 == end2) return;
+
+    myChecker.checkCanceled();
+    long split = findSplit(start1, end1, start2, end2);
+    if (split < 0) return;
+    int x = (int)(split >>> 32);
+    int y = (int)split;
+    execute(start1, x, start2, y);
+    execute(x, end1, y, end2);
+  }
+
+  /**
+   * Both ranges should be non-empty and their first and last elements should differ.
+   *
+   * @return (x << 32 | y) of the point where the forward and backward searches meet on a shortest edit path,
+   *         or -1 if the ranges have nothing in common
+   */
+  private long findSplit(int start1, int end1, int start2, int end2) {
+    int n = end1 - start1;
+    int m = end2 - start2;
+    int maxD = (n + m + 1) / 2;
+    int offset = maxD;
+    int length = 2 * maxD + 2;
+    if (myForward == null || myForward.length < length) {
+      myForward = new int[length];
+      myBackward = new int[length];
+    }
+    int[] forward = myForward;
+    int[] backward = myBackward;
+    Arrays.fill(forward, 0, length, -1);
+    Arrays.fill(backward, 0, length, -1);
+    forward[offset + 1] = 0;
+    backward[offset + 1] = 0;
+
+    int delta = n - m;
+    // if the difference of lengths is odd, the paths can meet on a forward step only, otherwise on a backward one
+    boolean checkOnForward = (delta & 1) != 0;
+    // diagonals which have run out of the grid are not considered any more
+    int forwardStart = 0;
+    int forwardEnd = 0;
+    int backwardStart = 0;
+    int backwardEnd = 0;
+    int costLimit = Math.max(MIN_COST_LIMIT, (int)Math.sqrt(n + m));
+    for (int d = 0; d < maxD; d++) {
+      if ((d & 0xFF) == 0xFF) myChecker.checkCanceled();
+      if (d > costLimit) {
+        return findFurthestPoint(start1, end1, start2, end2, d - 1, offset, forward, backward);
+      }
+
+      for (int k = -d + forwardStart; k <= d - forwardEnd; k += 2) {
+        int index = offset + k;
+        int x;
+        if (k == -d || k != d && forward[index - 1] < forward[index + 1]) {
+          x = forward[index + 1];
+        }
+        else {
+          x = forward[index - 1] + 1;
+        }
+        int y = x - k;
+        while (x < n && y < m && myFirst[start1 + x] == mySecond[start2 + y]) {
+          x++;
+          y++;
+        }
+        forward[index] = x;
+        if (x > n) {
+          forwardEnd += 2;
+        }
+        else if (y > m) {
+          forwardStart += 2;
+        }
+        else if (checkOnForward) {
+          int backwardIndex = offset + delta - k;
+          if (backwardIndex >= 0 && backwardIndex < length && backward[backwardIndex] != -1) {
+            if (x >= n - backward[backwardIndex]) return split(start1 + x, start2 + y);
+          }
+        }
+      }
+
+      for (int k = -d + backwardStart; k <= d - backwardEnd; k += 2) {
+        int index = offset + k;
+        int x;
+        if (k == -d || k != d && backward[index - 1] < backward[index + 1]) {
+          x = backward[index + 1];
+        }
+        else {
+          x = backward[index - 1] + 1;
+        }
+        int y = x - k;
+        while (x < n && y < m && myFirst[end1 - x - 1] == mySecond[end2 - y - 1]) {
+          x++;
+          y++;
+        }
+        backward[index] = x;
+        if (x > n) {
+          backwardEnd += 2;
+        }
+        else if (y > m) {
+          backwardStart += 2;
+        }
+        else if (!checkOnForward) {
+          int forwardIndex = offset + delta - k;
+          if (forwardIndex >= 0 && forwardIndex < length && forward[forwardIndex] != -1) {
+            int forwardX = forward[forwardIndex];
+            int forwardY = forwardX - (forwardIndex - offset);
+            if (forwardX >= n - x) return split(start1 + forwardX, start2 + forwardY);
+          }
+        }
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return the point on the diagonals explored by the forward or the backward search which is the furthest from its start,
+   *         or -1 if there is none which splits the ranges
+   */
+  private static long findFurthestPoint(int start1, int end1, int start2, int end2, int d, int offset,
+                                        @NotNull int[] forward, @NotNull int[] backward) {
+    int n = end1 - start1;
+    int m = end2 - start2;
+    long best = -1;
+    int bestDistance = 0;
+    for (int k = -d; k <= d; k += 2) {
+      int x = forward[offset + k];
+      int y = x - k;
+      if (x >= 0 && x <= n && y >= 0 && y <= m && x + y < n + m && x + y > bestDistance) {
+        bestDistance = x + y;
+        best = split(start1 + x, start2 + y);
+      }
+      x = backward[offset + k];
+      y = x - k;
+      if (x >= 0 && x <= n && y >= 0 && y <= m && x + y < n + m && x + y > bestDistance) {
+        bestDistance = x + y;
+        best = split(end1 - x, end2 - y);
+      }
+    }
+    return best;
+  }
+
+  private static long split(int x, int y) {
+    return (long)x << 32 | y;
+  }
+}
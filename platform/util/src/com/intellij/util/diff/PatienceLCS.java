@@ -0,0 +1,169 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.diff;
+
+import gnu.trove.TIntIntHashMap;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Patience diff: elements occurring exactly once in both ranges are matched by the longest increasing subsequence of their
+ * positions, and the gaps between these anchors are processed recursively. Ranges which are short or have no such elements
+ * are passed to {@link MyersLCS}.
+ * <p/>
+ * Anchoring on unique elements (for texts - lines like method declarations rather than braces and blank lines) keeps
+ * the edit distance of the pieces given to the Myers algorithm small, so that long texts with many changes are compared
+ * in nearly linear time, and the result is usually closer to what a human would expect.
+ */
+class PatienceLCS {
+  /**
+   * Ranges where both sequences are shorter are compared by {@link MyersLCS} directly.
+   */
+  static final int MIN_RANGE_LENGTH = 1000;
+
+  private final int[] myFirst;
+  private final int[] mySecond;
+  private final boolean[] myChanges1;
+  private final boolean[] myChanges2;
+  private final MyersLCS myMyers;
+  private final CancellationChecker myChecker;
+
+  PatienceLCS(@NotNull int[] first, @NotNull int[] second,
+              @NotNull boolean[] changes1, @NotNull boolean[] changes2,
+              @NotNull CancellationChecker checker) {
+    myFirst = first;
+    mySecond = second;
+    myChanges1 = changes1;
+    myChanges2 = changes2;
+    myChecker = checker;
+    myMyers = new MyersLCS(first, second, changes1, changes2, checker);
+  }
+
+  public void execute() {
+    execute(0, myFirst.length, 0, mySecond.length);
+  }
+
+  private void execute(int start1, int end1, int start2, int end2) {
+    while (start1 < end1 && start2 < end2 && myFirst[start1] == mySecond[start2]) {
+      myChanges1[start1++] = false;
+      myChanges2[start2++] = false;
+    }
+    while (start1 < end1 && start2 < end2 && myFirst[end1 - 1] == mySecond[end2 - 1]) {
+      myChanges1[--end1] = false;
+      myChanges2[--end2] = false;
+    }
+    if (start1 == end1 || start2 == end2) return;
+
+    if (end1 - start1 < MIN_RANGE_LENGTH && end2 - start2 < MIN_RANGE_LENGTH) {
+      myMyers.execute(start1, end1, start2, end2);
+      return;
+    }
+
+    myChecker.checkCanceled();
+    int[][] anchors = findAnchors(start1, end1, start2, end2);
+    if (anchors[0].length == 0) {
+      myMyers.execute(start1, end1, start2, end2);
+      return;
+    }
+
+    int prev1 = start1;
+    int prev2 = start2;
+    for (int i = 0; i < anchors[0].length; i++) {
+      int anchor1 = anchors[0][i];
+      int anchor2 = anchors[1][i];
+      execute(prev1, anchor1, prev2, anchor2);
+      myChanges1[anchor1] = false;
+      myChanges2[anchor2] = false;
+      prev1 = anchor1 + 1;
+      prev2 = anchor2 + 1;
+    }
+    execute(prev1, end1, prev2, end2);
+  }
+
+  /**
+   * @return indices in the first and in the second sequence of the longest sequence of elements unique in both ranges,
+   *         which positions increase in both sequences
+   */
+  @NotNull
+  private int[][] findAnchors(int start1, int end1, int start2, int end2) {
+    // element -> its index in the range of the second sequence, or -1 if it occurs there more than once
+    TIntIntHashMap indices2 = new TIntIntHashMap();
+    for (int i = start2; i < end2; i++) {
+      int value = mySecond[i];
+      indices2.put(value, indices2.containsKey(value) ? -1 : i);
+    }
+    // element -> its index in the range of the first sequence, or -1 if it occurs there more than once
+    TIntIntHashMap indices1 = new TIntIntHashMap();
+    for (int i = start1; i < end1; i++) {
+      int value = myFirst[i];
+      if (indices2.containsKey(value) && indices2.get(value) >= 0) {
+        indices1.put(value, indices1.containsKey(value) ? -1 : i);
+      }
+    }
+
+    // candidates in the order of the first sequence with their positions in the second one
+    int[] candidates1 = new int[indices1.size()];
+    int[] candidates2 = new int[indices1.size()];
+    int count = 0;
+    for (int i = start1; i < end1; i++) {
+      int value = myFirst[i];
+      if (indices1.containsKey(value) && indices1.get(value) == i) {
+        int index2 = indices2.get(value);
+        if (index2 >= 0) {
+          candidates1[count] = i;
+          candidates2[count] = index2;
+          count++;
+        }
+      }
+    }
+    if (count == 0) return new int[2][0];
+
+    // patience sorting: the top card of every pile and the top of the previous pile at the moment the card was placed
+    int[] piles = new int[count];
+    int[] previous = new int[count];
+    int pileCount = 0;
+    for (int c = 0; c < count; c++) {
+      int pile = binarySearch(piles, pileCount, candidates2, candidates2[c]);
+      previous[c] = pile > 0 ? piles[pile - 1] : -1;
+      piles[pile] = c;
+      if (pile == pileCount) pileCount++;
+    }
+
+    int[][] anchors = new int[2][pileCount];
+    for (int c = piles[pileCount - 1], i = pileCount - 1; c >= 0; c = previous[c], i--) {
+      anchors[0][i] = candidates1[c];
+      anchors[1][i] = candidates2[c];
+    }
+    return anchors;
+  }
+
+  /**
+   * @return the first pile which top card is greater than the given value
+   */
+  private static int binarySearch(int[] piles, int pileCount, int[] values, int value) {
+    int low = 0;
+    int high = pileCount;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (values[piles[middle]] < value) {
+        low = middle + 1;
+      }
+      else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+}
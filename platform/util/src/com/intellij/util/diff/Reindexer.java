@@ -100,6 +100,31 @@ class Reindexer {
         }
       }
     });
+    buildChanges(changes1, changes2, builder);
+  }
+
+  /**
+   * Reports changes found for the sequences with unique elements discarded to the builder in terms of the original sequences.
+   *
+   * @param changes1 changed elements of the first discarded sequence
+   * @param changes2 changed elements of the second discarded sequence
+   */
+  public void reindex(boolean[] changes1, boolean[] changes2, LCSBuilder builder) {
+    final boolean[] originalChanges1 = restoreChanges(changes1, 0);
+    final boolean[] originalChanges2 = restoreChanges(changes2, 1);
+    buildChanges(originalChanges1, originalChanges2, builder);
+  }
+
+  private boolean[] restoreChanges(boolean[] changes, int array) {
+    final boolean[] originalChanges = new boolean[myOriginalLengths[array]];
+    Arrays.fill(originalChanges, true);
+    for (int i = 0; i < changes.length; i++) {
+      if (!changes[i]) originalChanges[myOldIndecies[array][i]] = false;
+    }
+    return originalChanges;
+  }
+
+  private static void buildChanges(boolean[] changes1, boolean[] changes2, LCSBuilder builder) {
     int x = 0;
     int y = 0;
     while (x < changes1.length && y < changes2.length) {
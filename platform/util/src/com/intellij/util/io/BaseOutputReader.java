@@ -22,8 +22,22 @@ import java.io.IOException;
 import java.io.Reader;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
+ * Reads a stream of process output on a pooled thread and reports it line by line via {@link #onTextAvailable(String)};
+ * a line which isn't finished when no more output is available is reported as it is.
+ * <p/>
+ * By default the stream is polled: the available output is read, then the thread sleeps for a few milliseconds. In blocking
+ * mode the thread is blocked in reading until the output arrives instead, which doesn't take CPU while the process is silent
+ * and doesn't delay the output which follows a pause. In both modes the reader stops, once {@link #stop()} is called,
+ * as soon as all the available output has been read.
+ * <p/>
+ * A stopped blocking reader may stay blocked until the stream is closed, e.g. when it's inherited by a child process of
+ * the terminated one, so its owner should wait for it with a timeout, see {@link #waitFor(long, TimeUnit)}, and close
+ * the underlying stream if it doesn't finish in time: the reader quits as soon as the pending read returns.
+ *
  * @author traff
  */
 public abstract class BaseOutputReader {
@@ -31,14 +45,24 @@ public abstract class BaseOutputReader {
 
   protected final Reader myReader;
   protected volatile boolean isStopped = false;
+  private final boolean myBlocking;
 
   private final char[] myBuffer = new char[8192];
+  private final StringBuilder myToken = new StringBuilder();
   private boolean skipLF = false;
 
   private Future<?> myFinishedFuture = null;
 
   public BaseOutputReader(@NotNull Reader reader) {
+    this(reader, false);
+  }
+
+  /**
+   * @param blocking whether the reader should be blocked in reading the stream instead of polling it
+   */
+  public BaseOutputReader(@NotNull Reader reader, boolean blocking) {
     myReader = reader;
+    myBlocking = blocking;
   }
 
   protected void start() {
@@ -55,30 +79,72 @@ public abstract class BaseOutputReader {
 
   protected void doRun() {
     try {
-      while (true) {
-        boolean read = readAvailable();
-
-        if (isStopped) {
-          myReader.close();
-          break;
+      if (myBlocking) {
+        readBlocking();
+      }
+      else {
+        while (true) {
+          boolean read = readAvailable();
+          if (!read) {
+            onBufferExhausted();
+          }
+
+          if (isStopped) {
+            break;
+          }
+
+          Thread.sleep(read ? 1 : 5); // give other threads a chance
         }
-
-        Thread.sleep(read ? 1 : 5); // give other threads a chance
       }
+      myReader.close();
     }
     catch (InterruptedException ignore) {
     }
     catch (IOException e) {
-      LOG.info(e);
+      // the owner closes the stream of a stopped reader which doesn't finish in time
+      if (!isStopped) {
+        LOG.info(e);
+      }
     }
     catch (Exception e) {
       LOG.error(e);
     }
   }
 
+  private void readBlocking() throws IOException {
+    while (true) {
+      if (!myReader.ready()) {
+        synchronized (this) {
+          flushToken();
+        }
+        onBufferExhausted();
+        if (isStopped) {
+          break;
+        }
+      }
+
+      // the stream isn't locked while the thread is blocked
+      int n = myReader.read(myBuffer);
+      if (n < 0) {
+        break;
+      }
+      synchronized (this) {
+        processInput(myBuffer, n);
+      }
+    }
+
+    synchronized (this) {
+      if (skipLF) {
+        skipLF = false;
+        myToken.append('\r');
+      }
+      flushToken();
+    }
+    onBufferExhausted();
+  }
+
   protected synchronized boolean readAvailable() throws IOException {
     char[] buffer = myBuffer;
-    StringBuilder token = new StringBuilder();
 
     boolean read = false;
     while (myReader.ready()) {
@@ -86,32 +152,47 @@ public abstract class BaseOutputReader {
       if (n <= 0) break;
       read = true;
 
-      for (int i = 0; i < n; i++) {
-        char c = buffer[i];
-        if (skipLF && c != '\n') {
-          token.append('\r');
-        }
+      processInput(buffer, n);
+    }
 
-        if (c == '\r') {
-          skipLF = true;
-        }
-        else {
-          skipLF = false;
-          token.append(c);
-        }
+    flushToken();
+    return read;
+  }
 
-        if (c == '\n') {
-          onTextAvailable(token.toString());
-          token.setLength(0);
-        }
+  private void processInput(@NotNull char[] buffer, int n) {
+    StringBuilder token = myToken;
+    for (int i = 0; i < n; i++) {
+      char c = buffer[i];
+      if (skipLF && c != '\n') {
+        token.append('\r');
+      }
+
+      if (c == '\r') {
+        skipLF = true;
+      }
+      else {
+        skipLF = false;
+        token.append(c);
+      }
+
+      if (c == '\n') {
+        onTextAvailable(token.toString());
+        token.setLength(0);
       }
     }
+  }
 
-    if (token.length() != 0) {
-      onTextAvailable(token.toString());
-      token.setLength(0);
+  private void flushToken() {
+    if (myToken.length() != 0) {
+      onTextAvailable(myToken.toString());
+      myToken.setLength(0);
     }
-    return read;
+  }
+
+  /**
+   * Called on the reader thread when all the output available at the moment has been read and reported.
+   */
+  protected void onBufferExhausted() {
   }
 
   protected abstract void onTextAvailable(@NotNull String text);
@@ -120,6 +201,10 @@ public abstract class BaseOutputReader {
     isStopped = true;
   }
 
+  public boolean isBlocking() {
+    return myBlocking;
+  }
+
   public void waitFor() throws InterruptedException {
     try {
       myFinishedFuture.get();
@@ -128,4 +213,20 @@ public abstract class BaseOutputReader {
       LOG.error(e);
     }
   }
+
+  /**
+   * @return false if the reader hasn't finished in the given time
+   */
+  public boolean waitFor(long timeout, @NotNull TimeUnit unit) throws InterruptedException {
+    try {
+      myFinishedFuture.get(timeout, unit);
+    }
+    catch (ExecutionException e) {
+      LOG.error(e);
+    }
+    catch (TimeoutException e) {
+      return false;
+    }
+    return true;
+  }
 }
@@ -47,6 +47,8 @@ public class Page {
   private int myFinalizationId;
   private BitSet myWriteMask;
 
+  int myPinCount; // guarded by the page pool owning the page
+
   private static class PageLock {}
   private final PageLock lock = new PageLock();
 
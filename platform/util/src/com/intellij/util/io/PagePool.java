@@ -19,6 +19,7 @@
  */
 package com.intellij.util.io;
 
+import com.intellij.util.SystemProperties;
 import com.intellij.util.containers.hash.LinkedHashMap;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -29,7 +30,6 @@ import java.util.SortedMap;
 import java.util.TreeMap;
 
 
-@SuppressWarnings({"AssignmentToStaticFieldFromInstanceMethod"})
 public class PagePool {
   private final Map<PoolPageKey, Page> myProtectedQueue;
   private final Map<PoolPageKey, Page> myProbationalQueue;
@@ -68,20 +68,26 @@ public class PagePool {
     };
   }
 
-  @SuppressWarnings({"FieldAccessedSynchronizedAndUnsynchronized"}) private static int hits = 0;
-  @SuppressWarnings({"FieldAccessedSynchronizedAndUnsynchronized"}) private static int cache_misses = 0;
-  @SuppressWarnings({"FieldAccessedSynchronizedAndUnsynchronized"}) private static int same_page_hits = 0;
-  @SuppressWarnings({"FieldAccessedSynchronizedAndUnsynchronized"}) private static int protected_queue_hits = 0;
-  @SuppressWarnings({"FieldAccessedSynchronizedAndUnsynchronized"}) private static int probational_queue_hits = 0;
-  @SuppressWarnings({"FieldAccessedSynchronizedAndUnsynchronized"}) private static int finalization_queue_hits = 0;
+  private int hits = 0;
+  private int cache_misses = 0;
+  private int same_page_hits = 0;
+  private int protected_queue_hits = 0;
+  private int probational_queue_hits = 0;
+  private int finalization_queue_hits = 0;
 
-  public final static PagePool SHARED = new PagePool(500, 500);
+  public final static PagePool SHARED = createSharedPool();
+
+  private static PagePool createSharedPool() {
+    if (SystemProperties.getBooleanProperty("idea.sharded.page.pool", false)) {
+      return new ShardedPagePool((long)SystemProperties.getIntProperty("idea.page.pool.capacity.kb", 4 * 1024) * 1024);
+    }
+    return new PagePool(500, 500);
+  }
 
   private RandomAccessDataFile lastOwner = null;
   private long lastOffset = 0;
   private Page lastHit = null;
 
-  @SuppressWarnings({"AssignmentToStaticFieldFromInstanceMethod"})
   @NotNull
   public Page alloc(RandomAccessDataFile owner, long offset) {
     synchronized (lock) {
@@ -103,6 +109,12 @@ public class PagePool {
     }
   }
 
+  /**
+   * Should be called when caller is done with the page returned by {@link #alloc(RandomAccessDataFile, long)}.
+   */
+  public void release(@NotNull Page page) {
+  }
+
   private Page hitQueues(final RandomAccessDataFile owner, final long offset) {
     PoolPageKey key = setupKey(owner, offset);
 
@@ -141,14 +153,57 @@ public class PagePool {
     return ((double)part * 1000 / whole) / 10;
   }
 
+  @NotNull
+  public Statistics getStatistics() {
+    synchronized (lock) {
+      return new Statistics(hits, same_page_hits + protected_queue_hits + probational_queue_hits, finalization_queue_hits, cache_misses, 0,
+                            myFinalizationQueue.size());
+    }
+  }
+
+  public static class Statistics {
+    public final long requests;
+    public final long hits;
+    /** pages found in write-back (finalization) queue and returned to the cache before they were recycled */
+    public final long writeBackHits;
+    public final long misses;
+    public final long writeBacks;
+    public final int pendingWriteBacks;
+
+    public Statistics(long requests, long hits, long writeBackHits, long misses, long writeBacks, int pendingWriteBacks) {
+      this.requests = requests;
+      this.hits = hits;
+      this.writeBackHits = writeBackHits;
+      this.misses = misses;
+      this.writeBacks = writeBacks;
+      this.pendingWriteBacks = pendingWriteBacks;
+    }
+
+    public double getHitRate() {
+      return requests == 0 ? 0 : (double)(hits + writeBackHits) / requests;
+    }
+
+    @Override
+    public String toString() {
+      return "requests=" + requests + ", hits=" + hits + ", writeBackHits=" + writeBackHits + ", misses=" + misses +
+             ", writeBacks=" + writeBacks + ", pendingWriteBacks=" + pendingWriteBacks;
+    }
+  }
+
   @SuppressWarnings({"ALL"})
   public static void printStatistics() {
-    System.out.println("Total requests: " + hits);
-    System.out.println("Same page hits: " + same_page_hits + " (" + percent(same_page_hits, hits) + "%)");
-    System.out.println("Protected queue hits: " + protected_queue_hits + " (" + percent(protected_queue_hits, hits) + "%)");
-    System.out.println("Probatinonal queue hits: " + probational_queue_hits + " (" + percent(probational_queue_hits, hits) + "%)");
-    System.out.println("Finalization queue hits: " + finalization_queue_hits + " (" + percent(finalization_queue_hits, hits) + "%)");
-    System.out.println("Cache misses: " + cache_misses + " (" + percent(cache_misses, hits) + "%)");
+    if (SHARED.getClass() != PagePool.class) {
+      System.out.println(SHARED.getStatistics());
+    }
+    else {
+      final int hits = SHARED.hits;
+      System.out.println("Total requests: " + hits);
+      System.out.println("Same page hits: " + SHARED.same_page_hits + " (" + percent(SHARED.same_page_hits, hits) + "%)");
+      System.out.println("Protected queue hits: " + SHARED.protected_queue_hits + " (" + percent(SHARED.protected_queue_hits, hits) + "%)");
+      System.out.println("Probatinonal queue hits: " + SHARED.probational_queue_hits + " (" + percent(SHARED.probational_queue_hits, hits) + "%)");
+      System.out.println("Finalization queue hits: " + SHARED.finalization_queue_hits + " (" + percent(SHARED.finalization_queue_hits, hits) + "%)");
+      System.out.println("Cache misses: " + SHARED.cache_misses + " (" + percent(SHARED.cache_misses, hits) + "%)");
+    }
 
     System.out.println("Total reads: " + RandomAccessDataFile.totalReads + ". Bytes read: " + RandomAccessDataFile.totalReadBytes);
     System.out.println("Total writes: " + RandomAccessDataFile.totalWrites + ". Bytes written: " + RandomAccessDataFile.totalWriteBytes);
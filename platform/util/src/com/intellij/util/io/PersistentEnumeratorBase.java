@@ -55,8 +55,6 @@ abstract class PersistentEnumeratorBase<Data> implements Forceable, Closeable {
   private boolean myDirty = false;
   protected final KeyDescriptor<Data> myDataDescriptor;
 
-  private static final CacheKey ourFlyweight = new FlyweightKey();
-
   protected final File myFile;
   private boolean myCorrupted = false;
   private final MyDataIS myKeyReadStream;
@@ -115,10 +113,11 @@ abstract class PersistentEnumeratorBase<Data> implements Forceable, Closeable {
     }
   }
 
-  private static CacheKey sharedKey(Object key, PersistentEnumeratorBase owner) {
-    ourFlyweight.key = key;
-    ourFlyweight.owner = owner;
-    return ourFlyweight;
+  private static CacheKey sharedKey(@NotNull EnumerationCacheSegment segment, Object key, PersistentEnumeratorBase owner) {
+    final CacheKey flyweight = segment.myFlyweight;
+    flyweight.key = key;
+    flyweight.owner = owner;
+    return flyweight;
   }
 
   protected static final PagedFileStorage.StorageLock ourLock = new PagedFileStorage.StorageLock();
@@ -129,11 +128,39 @@ abstract class PersistentEnumeratorBase<Data> implements Forceable, Closeable {
     ENUMERATION_CACHE_SIZE = property == null ? 8192 : Integer.valueOf(property);
   }
 
-  private static final SLRUMap<Object, Integer> ourEnumerationCache = new SLRUMap<Object, Integer>(ENUMERATION_CACHE_SIZE, ENUMERATION_CACHE_SIZE);
+  // enumeration cache is shared by all enumerators, so it is split into independently locked segments to reduce contention
+  private static final int ENUMERATION_CACHE_SEGMENTS = 16;
+  private static final EnumerationCacheSegment[] ourEnumerationCache = new EnumerationCacheSegment[ENUMERATION_CACHE_SEGMENTS];
+  static {
+    for (int i = 0; i < ourEnumerationCache.length; i++) {
+      ourEnumerationCache[i] = new EnumerationCacheSegment(ENUMERATION_CACHE_SIZE / ENUMERATION_CACHE_SEGMENTS);
+    }
+  }
+
+  private static class EnumerationCacheSegment {
+    private final SLRUMap<Object, Integer> myMap;
+    private final CacheKey myFlyweight = new FlyweightKey();
+
+    private EnumerationCacheSegment(int size) {
+      myMap = new SLRUMap<Object, Integer>(size, size);
+    }
+  }
+
+  @NotNull
+  private static EnumerationCacheSegment getEnumerationCacheSegment(Object value) {
+    int hash = value.hashCode();
+    hash ^= (hash >>> 20) ^ (hash >>> 12);
+    hash ^= (hash >>> 7) ^ (hash >>> 4);
+    return ourEnumerationCache[hash & (ENUMERATION_CACHE_SEGMENTS - 1)];
+  }
 
   @TestOnly
   public static void clearCacheForTests() {
-    ourEnumerationCache.clear();
+    for (EnumerationCacheSegment segment : ourEnumerationCache) {
+      synchronized (segment) {
+        segment.myMap.clear();
+      }
+    }
   }
 
   public static class CorruptedException extends IOException {
@@ -257,9 +284,10 @@ abstract class PersistentEnumeratorBase<Data> implements Forceable, Closeable {
   }
 
   private int doEnumerate(Data value, boolean onlyCheckForExisting, boolean saveNewValue) throws IOException {
-    if (myDoCaching && !saveNewValue) {
-      synchronized (ourEnumerationCache) {
-        final Integer cachedId = ourEnumerationCache.get(sharedKey(value, this));
+    final EnumerationCacheSegment cacheSegment = myDoCaching ? getEnumerationCacheSegment(value) : null;
+    if (cacheSegment != null && !saveNewValue) {
+      synchronized (cacheSegment) {
+        final Integer cachedId = cacheSegment.myMap.get(sharedKey(cacheSegment, value, this));
         if (cachedId != null) return cachedId.intValue();
       }
     }
@@ -278,9 +306,9 @@ abstract class PersistentEnumeratorBase<Data> implements Forceable, Closeable {
       throw new IOException(e);
     }
 
-    if (myDoCaching && id != NULL_ID) {
-      synchronized (ourEnumerationCache) {
-        ourEnumerationCache.put(new CacheKey(value, this), id);
+    if (cacheSegment != null && id != NULL_ID) {
+      synchronized (cacheSegment) {
+        cacheSegment.myMap.put(new CacheKey(value, this), id);
       }
     }
 
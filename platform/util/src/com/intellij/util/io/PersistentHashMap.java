@@ -31,6 +31,8 @@ import java.io.*;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * @author Eugene Zhuravlev
@@ -62,6 +64,8 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
   private int myLargeIndexWatermarkId;  // starting with this id we store offset in adjacent file in long format
   private boolean myIntAddressForNewRecord;
   private static final boolean doHardConsistencyChecks = false;
+  private final boolean myConcurrentReads;
+  private final ReadWriteLock myValueStorageLock = new ReentrantReadWriteLock(); // guards value storage replacement during compaction and close
 
   private static class AppendStream extends DataOutputStream {
     private AppendStream() {
@@ -141,7 +145,21 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
   }
   
   public PersistentHashMap(@NotNull final File file, @NotNull KeyDescriptor<Key> keyDescriptor, @NotNull DataExternalizer<Value> valueExternalizer, final int initialSize) throws IOException {
+    this(file, keyDescriptor, valueExternalizer, initialSize, false);
+  }
+
+  /**
+   * @param concurrentReads when true, {@link #get(Object)} holds the map lock only to locate the value record: reading value bytes and
+   *                        deserializing them are done without it, so lookups of different keys proceed in parallel while writes stay
+   *                        serialized. Subclasses overriding {@link #doGet(Object)} should not use this mode since it bypasses that method.
+   */
+  public PersistentHashMap(@NotNull final File file,
+                           @NotNull KeyDescriptor<Key> keyDescriptor,
+                           @NotNull DataExternalizer<Value> valueExternalizer,
+                           final int initialSize,
+                           boolean concurrentReads) throws IOException {
     super(checkDataFiles(file), keyDescriptor, initialSize);
+    myConcurrentReads = concurrentReads;
 
     final PersistentEnumeratorBase.RecordBufferHandler<PersistentEnumeratorBase> recordHandler = myEnumerator.getRecordHandler();
     myParentValueRefOffset = recordHandler.getRecordBuffer(myEnumerator).length;
@@ -374,11 +392,82 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
 
   @Override
   public final Value get(Key key) throws IOException {
+    if (myConcurrentReads) {
+      return doConcurrentGet(key);
+    }
     synchronized (myEnumerator) {
       return doGet(key);
     }
   }
 
+  @Nullable
+  private Value doConcurrentGet(Key key) throws IOException {
+    final int id;
+    final long header;
+    final PersistentHashMapValueStorage valueStorage;
+    synchronized (myEnumerator) {
+      myEnumerator.lockStorage();
+      try {
+        myAppendCache.remove(key);
+        id = tryEnumerate(key);
+        if (id == PersistentEnumerator.NULL_ID) {
+          return null;
+        }
+        header = readValueId(id);
+        if (header == NULL_ADDR) {
+          return null;
+        }
+        valueStorage = myValueStorage;
+        valueStorage.force();
+        // taken under the map lock, so compaction or close can't replace the storage before we finish reading
+        myValueStorageLock.readLock().lock();
+      }
+      finally {
+        myEnumerator.unlockStorage();
+      }
+    }
+
+    final PersistentHashMapValueStorage.ReadResult readResult;
+    try {
+      readResult = valueStorage.readBytesConcurrently(header);
+    }
+    finally {
+      myValueStorageLock.readLock().unlock();
+    }
+
+    if (readResult.chunksCount > 1) {
+      compactValueChunks(key, id, header, readResult.buffer);
+    }
+
+    final DataInputStream input = new DataInputStream(new UnsyncByteArrayInputStream(readResult.buffer));
+    try {
+      return myValueExternalizer.read(input);
+    }
+    finally {
+      input.close();
+    }
+  }
+
+  private void compactValueChunks(Key key, int id, long header, @NotNull byte[] bytes) throws IOException {
+    synchronized (myEnumerator) {
+      myEnumerator.lockStorage();
+      try {
+        if (tryEnumerate(key) != id || readValueId(id) != header) {
+          return; // value was changed while we were reading it
+        }
+        myEnumerator.markDirty(true);
+
+        long newHeader = myValueStorage.appendBytes(bytes, 0, bytes.length, 0);
+        updateValueId(id, newHeader, header, key, 0);
+        myLiveAndGarbageKeysCounter++;
+        myReadCompactionGarbageSize += bytes.length;
+      }
+      finally {
+        myEnumerator.unlockStorage();
+      }
+    }
+  }
+
   @Nullable
   protected Value doGet(Key key) throws IOException {
     myEnumerator.lockStorage();
@@ -513,7 +602,13 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
         myAppendCache.clear();
         final PersistentHashMapValueStorage valueStorage = myValueStorage;
         if (valueStorage != null) {
-          valueStorage.dispose();
+          myValueStorageLock.writeLock().lock();
+          try {
+            valueStorage.dispose();
+          }
+          finally {
+            myValueStorageLock.writeLock().unlock();
+          }
         }
       }
       finally {
@@ -531,40 +626,50 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
       final long now = System.currentTimeMillis();
       final String newPath = getDataFile(myEnumerator.myFile).getPath() + ".new";
       final PersistentHashMapValueStorage newStorage = PersistentHashMapValueStorage.create(newPath);
-      myValueStorage.switchToCompactionMode();
-      myLiveAndGarbageKeysCounter = 0;
-      myReadCompactionGarbageSize = 0;
-
+      myValueStorageLock.writeLock().lock();
       try {
-        traverseAllRecords(new PersistentEnumerator.RecordsProcessor() {
-          @Override
-          public boolean process(final int keyId) throws IOException {
-            final long record = readValueId(keyId);
-            if (record != NULL_ADDR) {
-              PersistentHashMapValueStorage.ReadResult readResult = myValueStorage.readBytes(record);
-              long value = newStorage.appendBytes(readResult.buffer, 0, readResult.buffer.length, 0);
-              updateValueId(keyId, value, record, null, getCurrentKey());
-              myLiveAndGarbageKeysCounter += LIVE_KEY_MASK;
-            }
-            return true;
-          }
-        });
+        doCompact(newPath, newStorage);
       }
       finally {
-        newStorage.dispose();
+        myValueStorageLock.writeLock().unlock();
       }
-
-      myValueStorage.dispose();
-
-      FileUtil.rename(new File(newPath), getDataFile(myEnumerator.myFile));
-
-      myValueStorage = PersistentHashMapValueStorage.create(getDataFile(myEnumerator.myFile).getPath());
       LOG.info("Compacted " + myEnumerator.myFile.getPath() + " in " + (System.currentTimeMillis() - now) + "ms.");
 
       myEnumerator.putMetaData(myLiveAndGarbageKeysCounter);
     }
   }
 
+  private void doCompact(@NotNull String newPath, @NotNull final PersistentHashMapValueStorage newStorage) throws IOException {
+    myValueStorage.switchToCompactionMode();
+    myLiveAndGarbageKeysCounter = 0;
+    myReadCompactionGarbageSize = 0;
+
+    try {
+      traverseAllRecords(new PersistentEnumerator.RecordsProcessor() {
+        @Override
+        public boolean process(final int keyId) throws IOException {
+          final long record = readValueId(keyId);
+          if (record != NULL_ADDR) {
+            PersistentHashMapValueStorage.ReadResult readResult = myValueStorage.readBytes(record);
+            long value = newStorage.appendBytes(readResult.buffer, 0, readResult.buffer.length, 0);
+            updateValueId(keyId, value, record, null, getCurrentKey());
+            myLiveAndGarbageKeysCounter += LIVE_KEY_MASK;
+          }
+          return true;
+        }
+      });
+    }
+    finally {
+      newStorage.dispose();
+    }
+
+    myValueStorage.dispose();
+
+    FileUtil.rename(new File(newPath), getDataFile(myEnumerator.myFile));
+
+    myValueStorage = PersistentHashMapValueStorage.create(getDataFile(myEnumerator.myFile).getPath());
+  }
+
   private long readValueId(final int keyId) {
     long address = myEnumerator.myStorage.getInt(keyId + myParentValueRefOffset);
     if (address == 0 || address == -POSITIVE_VALUE_SHIFT) {
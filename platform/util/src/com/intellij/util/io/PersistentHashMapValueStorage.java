@@ -30,7 +30,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 public class PersistentHashMapValueStorage {
   @Nullable
   private RAReader myCompactionModeReader = null;
-  private long mySize;
+  private volatile long mySize;
   private final File myFile;
   private final String myPath;
   private boolean myCompactionMode = false;
@@ -50,6 +50,9 @@ public class PersistentHashMapValueStorage {
     }
   };
 
+  private static final int CONCURRENT_READERS_COUNT = Math.min(8, Runtime.getRuntime().availableProcessors());
+  private final FileReader[] myConcurrentReaders = new FileReader[CONCURRENT_READERS_COUNT];
+
   private static final FileAccessorCache<RAReader> ourReadersCache = new FileAccessorCache<RAReader>(CACHE_PROTECTED_QUEUE_SIZE, CACHE_PROBATIONAL_QUEUE_SIZE) {
     @NotNull
     public CacheValue<RAReader> createValue(String path) {
@@ -123,10 +126,16 @@ public class PersistentHashMapValueStorage {
   public static class ReadResult {
     public final long offset;
     public final byte[] buffer;
+    public final int chunksCount;
 
     public ReadResult(long offset, byte[] buffer) {
+      this(offset, buffer, 1);
+    }
+
+    public ReadResult(long offset, byte[] buffer, int chunksCount) {
       this.offset = offset;
       this.buffer = buffer;
+      this.chunksCount = chunksCount;
     }
   }
 
@@ -136,10 +145,6 @@ public class PersistentHashMapValueStorage {
   public ReadResult readBytes(long tailChunkAddress) throws IOException {
     force();
 
-    long chunk = tailChunkAddress;
-    int chunkCount = 0;
-
-    byte[] result = null;
     RAReader reader = myCompactionModeReader;
     CacheValue<RAReader> readerHandle = null;
     if (reader == null) {
@@ -147,34 +152,82 @@ public class PersistentHashMapValueStorage {
       reader = readerHandle.get();
     }
 
+    final ReadResult readResult;
+    try {
+      readResult = readChunks(tailChunkAddress, reader, myBuffer);
+    }
+    finally {
+      if (readerHandle != null) {
+        readerHandle.release();
+      }
+    }
+
+    if (readResult.chunksCount > 1 && !myCompactionMode) {
+      long l = appendBytes(new ByteSequence(readResult.buffer), 0);
+      return new ReadResult(l, readResult.buffer);
+    }
+
+    return readResult;
+  }
+
+  /**
+   * Reads bytes pointed by tailChunkAddress without compacting linked list of chunks, so the method may be called from several
+   * threads simultaneously. Callers should {@link #force()} pending appends and serialize this method with {@link #dispose()}.
+   */
+  public ReadResult readBytesConcurrently(long tailChunkAddress) throws IOException {
+    final FileReader reader = getConcurrentReader();
+    //noinspection SynchronizationOnLocalVariableOrMethodParameter
+    synchronized (reader) {
+      return readChunks(tailChunkAddress, reader, new byte[myBuffer.length]);
+    }
+  }
+
+  @NotNull
+  private synchronized FileReader getConcurrentReader() {
+    final int stripe = (int)(Thread.currentThread().getId() % CONCURRENT_READERS_COUNT);
+    FileReader reader = myConcurrentReaders[stripe];
+    if (reader == null) {
+      reader = new FileReader(myFile);
+      myConcurrentReaders[stripe] = reader;
+    }
+    return reader;
+  }
+
+  private ReadResult readChunks(final long tailChunkAddress, @NotNull RAReader reader, @NotNull byte[] buffer) throws IOException {
+    final long size = mySize;
+    long chunk = tailChunkAddress;
+    int chunkCount = 0;
+
+    byte[] result = null;
+
     try {
       while (chunk != 0) {
-        if (chunk < 0 || chunk > mySize) throw new PersistentEnumeratorBase.CorruptedException(myFile);
-        int len = (int)Math.min(myBuffer.length, mySize - chunk);
-        reader.get(chunk, myBuffer, 0, len);
+        if (chunk < 0 || chunk > size) throw new PersistentEnumeratorBase.CorruptedException(myFile);
+        int len = (int)Math.min(buffer.length, size - chunk);
+        reader.get(chunk, buffer, 0, len);
 
-        final int sizePart = myBuffer[0];
+        final int sizePart = buffer[0];
         final long prevChunkAddress;
         final int chunkSize;
 
         if (sizePart < 0) {
           chunkSize = -sizePart - POSITIVE_VALUE_SHIFT;
-          prevChunkAddress = Bits.getInt(myBuffer, 1);
+          prevChunkAddress = Bits.getInt(buffer, 1);
           byte[] b = new byte[(result != null ? result.length:0) + chunkSize];
           if (result != null) System.arraycopy(result, 0, b, b.length - result.length, result.length);
           result = b;
 
           checkPreconditions(result, chunkSize, 0);
-          System.arraycopy(myBuffer, BYTE_LENGTH_INT_ADDRESS, result, 0, chunkSize);
+          System.arraycopy(buffer, BYTE_LENGTH_INT_ADDRESS, result, 0, chunkSize);
         } else {
-          chunkSize = Bits.getInt(myBuffer, 0);
-          prevChunkAddress = Bits.getLong(myBuffer, 4);
+          chunkSize = Bits.getInt(buffer, 0);
+          prevChunkAddress = Bits.getLong(buffer, 4);
           byte[] b = new byte[(result != null ? result.length:0) + chunkSize];
           if (result != null) System.arraycopy(result, 0, b, b.length - result.length, result.length);
           result = b;
 
-          if (chunkSize < myBuffer.length - INT_LENGTH_LONG_ADDRESS) {
-            System.arraycopy(myBuffer, INT_LENGTH_LONG_ADDRESS, result, 0, chunkSize);
+          if (chunkSize < buffer.length - INT_LENGTH_LONG_ADDRESS) {
+            System.arraycopy(buffer, INT_LENGTH_LONG_ADDRESS, result, 0, chunkSize);
           } else {
             reader.get(chunk + INT_LENGTH_LONG_ADDRESS, result, 0, chunkSize);
           }
@@ -184,7 +237,7 @@ public class PersistentHashMapValueStorage {
 
         chunk = prevChunkAddress;
         chunkCount++;
-        if (result.length > mySize) {
+        if (result.length > size) {
           throw new PersistentEnumeratorBase.CorruptedException(myFile);
         }
       }
@@ -192,18 +245,8 @@ public class PersistentHashMapValueStorage {
       result = null;
       throw new PersistentEnumeratorBase.CorruptedException(myFile);
     }
-    finally {
-      if (readerHandle != null) {
-        readerHandle.release();
-      }
-    }
-
-    if (chunkCount > 1 && !myCompactionMode) {
-      long l = appendBytes(new ByteSequence(result), 0);
-      return new ReadResult(l, result);
-    }
 
-    return new ReadResult(tailChunkAddress, result);
+    return new ReadResult(tailChunkAddress, result, chunkCount);
   }
 
   public long getSize() {
@@ -241,6 +284,19 @@ public class PersistentHashMapValueStorage {
     ourReadersCache.remove(myPath);
     ourAppendersCache.remove(myPath);
 
+    synchronized (this) {
+      for (int i = 0; i < myConcurrentReaders.length; i++) {
+        final FileReader reader = myConcurrentReaders[i];
+        if (reader != null) {
+          //noinspection SynchronizationOnLocalVariableOrMethodParameter
+          synchronized (reader) {
+            reader.dispose();
+          }
+          myConcurrentReaders[i] = null;
+        }
+      }
+    }
+
     if (myCompactionModeReader != null) {
       myCompactionModeReader.dispose();
       myCompactionModeReader = null;
@@ -80,7 +80,13 @@ public class RandomAccessDataFile implements Forceable, Closeable {
 
     while (len > 0) {
       final Page page = myPool.alloc(this, addr);
-      int written = page.put(addr, bytes, off, len);
+      final int written;
+      try {
+        written = page.put(addr, bytes, off, len);
+      }
+      finally {
+        myPool.release(page);
+      }
       len -= written;
       addr += written;
       off += written;
@@ -92,7 +98,13 @@ public class RandomAccessDataFile implements Forceable, Closeable {
 
     while (len > 0) {
       final Page page = myPool.alloc(this, addr);
-      int read = page.get(addr, bytes, off, len);
+      final int read;
+      try {
+        read = page.get(addr, bytes, off, len);
+      }
+      finally {
+        myPool.release(page);
+      }
       len -= read;
       addr += read;
       off += read;
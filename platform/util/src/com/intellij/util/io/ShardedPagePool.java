@@ -0,0 +1,316 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.io;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.util.ConcurrencyUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Page cache split into independently locked shards. Every shard evicts pages with generalized CLOCK: a page read once survives
+ * a single turn of the clock hand while frequently used pages survive several, so a sequential scan can't wash out the hot pages.
+ * Dirty evicted pages are written back by a background thread in file order instead of by allocating threads.
+ * Pages returned by {@link #alloc} are pinned and can't be evicted until they are {@link #release}d.
+ */
+public class ShardedPagePool extends PagePool {
+  private static final Logger LOG = Logger.getInstance("#com.intellij.util.io.ShardedPagePool");
+
+  private static final int MAX_USAGE_COUNT = 3;
+  private static final int DEFAULT_SHARDS_COUNT = 16;
+
+  private final Shard[] myShards;
+  private final int myMaxPendingWriteBacks;
+
+  private final ConcurrentLinkedQueue<FinalizationRequest> myWriteBackQueue = new ConcurrentLinkedQueue<FinalizationRequest>();
+  private final AtomicInteger myPendingWriteBacks = new AtomicInteger();
+  private final AtomicBoolean myWriteBackScheduled = new AtomicBoolean();
+  private final ExecutorService myWriteBackExecutor = ConcurrencyUtil.newSingleThreadExecutor("Page pool write-back");
+  private final AtomicInteger myFinalizationId = new AtomicInteger();
+
+  private final AtomicLong myRequests = new AtomicLong();
+  private final AtomicLong myHits = new AtomicLong();
+  private final AtomicLong myWriteBackHits = new AtomicLong();
+  private final AtomicLong myMisses = new AtomicLong();
+  private final AtomicLong myWriteBacks = new AtomicLong();
+
+  private final Runnable myWriteBackTask = new Runnable() {
+    @Override
+    public void run() {
+      myWriteBackScheduled.set(false);
+      try {
+        drainWriteBackQueue();
+      }
+      catch (Throwable e) {
+        LOG.error(e);
+      }
+    }
+  };
+
+  public ShardedPagePool(long capacityInBytes) {
+    this(capacityInBytes, DEFAULT_SHARDS_COUNT);
+  }
+
+  public ShardedPagePool(long capacityInBytes, int shardsCount) {
+    super(0, 0);
+    assert shardsCount > 0 && (shardsCount & (shardsCount - 1)) == 0 : "shards count should be a power of two: " + shardsCount;
+    final int pagesPerShard = (int)Math.max(2, capacityInBytes / Page.PAGE_SIZE / shardsCount);
+    myShards = new Shard[shardsCount];
+    for (int i = 0; i < shardsCount; i++) {
+      myShards[i] = new Shard(pagesPerShard);
+    }
+    myMaxPendingWriteBacks = pagesPerShard * shardsCount;
+  }
+
+  @NotNull
+  @Override
+  public Page alloc(RandomAccessDataFile owner, long offset) {
+    offset -= offset % Page.PAGE_SIZE;
+    myRequests.incrementAndGet();
+
+    final Page page = getShard(owner, offset).alloc(owner, offset);
+
+    if (myPendingWriteBacks.get() > myMaxPendingWriteBacks) {
+      // background writer doesn't keep up, help it
+      drainWriteBackQueue();
+    }
+    return page;
+  }
+
+  @Override
+  public void release(@NotNull Page page) {
+    getShard(page.getOwner(), page.getOffset()).release(page);
+  }
+
+  @Override
+  public boolean flushPages(RandomAccessDataFile owner, int maxPagesToFlush) {
+    final List<FinalizationRequest> requests = new ArrayList<FinalizationRequest>();
+    final List<Page> pinnedPages = new ArrayList<Page>();
+    for (Shard shard : myShards) {
+      shard.evictPages(owner, requests, pinnedPages);
+    }
+    for (Page page : pinnedPages) {
+      page.flush();
+    }
+    Collections.sort(requests, REQUESTS_COMPARATOR);
+
+    int count = 0;
+    for (FinalizationRequest request : requests) {
+      if (count++ >= maxPagesToFlush) {
+        return false; // the rest will be written by background writer
+      }
+      processWriteBack(request);
+    }
+    return true;
+  }
+
+  @NotNull
+  @Override
+  public Statistics getStatistics() {
+    return new Statistics(myRequests.get(), myHits.get(), myWriteBackHits.get(), myMisses.get(), myWriteBacks.get(),
+                          myPendingWriteBacks.get());
+  }
+
+  @NotNull
+  private Shard getShard(RandomAccessDataFile owner, long offset) {
+    int hash = owner.hashCode() * 31 + (int)(offset / Page.PAGE_SIZE);
+    hash ^= (hash >>> 20) ^ (hash >>> 12);
+    hash ^= (hash >>> 7) ^ (hash >>> 4);
+    return myShards[hash & (myShards.length - 1)];
+  }
+
+  private void scheduleWriteBack(@NotNull FinalizationRequest request) {
+    myWriteBackQueue.add(request);
+    myPendingWriteBacks.incrementAndGet();
+    if (myWriteBackScheduled.compareAndSet(false, true)) {
+      myWriteBackExecutor.submit(myWriteBackTask);
+    }
+  }
+
+  private void drainWriteBackQueue() {
+    final List<FinalizationRequest> requests = new ArrayList<FinalizationRequest>();
+    FinalizationRequest request;
+    while ((request = myWriteBackQueue.poll()) != null) {
+      requests.add(request);
+    }
+    // write pages in file order to avoid seeks
+    Collections.sort(requests, REQUESTS_COMPARATOR);
+    for (FinalizationRequest r : requests) {
+      processWriteBack(r);
+    }
+  }
+
+  private void processWriteBack(@NotNull FinalizationRequest request) {
+    final Page page = request.page;
+    try {
+      if (page.flushIfFinalizationIdIsEqualTo(request.finalizationId)) {
+        myWriteBacks.incrementAndGet();
+      }
+    }
+    finally {
+      if (getShard(page.getOwner(), page.getOffset()).removePendingWriteBack(request)) {
+        myPendingWriteBacks.decrementAndGet();
+      }
+      page.recycleIfFinalizationIdIsEqualTo(request.finalizationId);
+    }
+  }
+
+  private static final Comparator<FinalizationRequest> REQUESTS_COMPARATOR = new Comparator<FinalizationRequest>() {
+    @Override
+    public int compare(FinalizationRequest r1, FinalizationRequest r2) {
+      return r1.page.getKey().compareTo(r2.page.getKey());
+    }
+  };
+
+  private class Shard {
+    private Page[] mySlots;
+    private byte[] myUsageCounts;
+    private int[] myFreeSlots;
+    private int myFreeSlotsCount;
+    private int myClockHand;
+
+    private final Map<PoolPageKey, Integer> mySlotIndex = new HashMap<PoolPageKey, Integer>();
+    private final Map<PoolPageKey, FinalizationRequest> myWriteBackRequests = new HashMap<PoolPageKey, FinalizationRequest>();
+    private final PoolPageKey myKeyInstance = new PoolPageKey(null, -1);
+
+    private Shard(int capacity) {
+      mySlots = new Page[capacity];
+      myUsageCounts = new byte[capacity];
+      myFreeSlots = new int[capacity];
+      for (int i = 0; i < capacity; i++) {
+        myFreeSlots[i] = capacity - i - 1;
+      }
+      myFreeSlotsCount = capacity;
+    }
+
+    @NotNull
+    private synchronized Page alloc(RandomAccessDataFile owner, long offset) {
+      myKeyInstance.setup(owner, offset);
+
+      final Integer slot = mySlotIndex.get(myKeyInstance);
+      if (slot != null) {
+        myHits.incrementAndGet();
+        if (myUsageCounts[slot] < MAX_USAGE_COUNT) myUsageCounts[slot]++;
+        final Page page = mySlots[slot];
+        page.myPinCount++;
+        return page;
+      }
+
+      final Page page;
+      final FinalizationRequest request = myWriteBackRequests.remove(myKeyInstance);
+      if (request != null) {
+        myWriteBackHits.incrementAndGet();
+        myPendingWriteBacks.decrementAndGet();
+        page = request.page;
+      }
+      else {
+        myMisses.incrementAndGet();
+        page = new Page(owner, offset);
+      }
+
+      if (myFreeSlotsCount == 0 && !evict()) {
+        grow();
+      }
+      final int newSlot = myFreeSlots[--myFreeSlotsCount];
+      mySlots[newSlot] = page;
+      myUsageCounts[newSlot] = 0;
+      mySlotIndex.put(page.getKey(), newSlot);
+      page.myPinCount++;
+      return page;
+    }
+
+    private synchronized void release(@NotNull Page page) {
+      page.myPinCount--;
+    }
+
+    private boolean evict() {
+      // pinned pages are in use right now and are skipped, give up when every page is pinned after all usage counts are exhausted
+      for (int step = (MAX_USAGE_COUNT + 1) * mySlots.length; step >= 0; step--) {
+        final int slot = myClockHand;
+        myClockHand = (slot + 1) % mySlots.length;
+        if (mySlots[slot].myPinCount > 0) continue;
+        if (myUsageCounts[slot] == 0) {
+          removeFromSlot(slot);
+          myFreeSlots[myFreeSlotsCount++] = slot;
+          return true;
+        }
+        myUsageCounts[slot]--;
+      }
+      return false;
+    }
+
+    private void grow() {
+      final int oldCapacity = mySlots.length;
+      final int newCapacity = oldCapacity * 2;
+      LOG.info("All " + oldCapacity + " pages of the shard are in use, growing it");
+      mySlots = Arrays.copyOf(mySlots, newCapacity);
+      myUsageCounts = Arrays.copyOf(myUsageCounts, newCapacity);
+      myFreeSlots = Arrays.copyOf(myFreeSlots, newCapacity);
+      for (int slot = newCapacity - 1; slot >= oldCapacity; slot--) {
+        myFreeSlots[myFreeSlotsCount++] = slot;
+      }
+    }
+
+    private void removeFromSlot(int slot) {
+      final Page page = mySlots[slot];
+      mySlots[slot] = null;
+      mySlotIndex.remove(page.getKey());
+
+      final FinalizationRequest request = page.prepareForFinalization(myFinalizationId.incrementAndGet());
+      if (request != null) {
+        myWriteBackRequests.put(page.getKey(), request);
+        scheduleWriteBack(request);
+      }
+    }
+
+    private synchronized void evictPages(RandomAccessDataFile owner,
+                                         @NotNull List<FinalizationRequest> requests,
+                                         @NotNull List<Page> pinnedPages) {
+      for (int slot = 0; slot < mySlots.length; slot++) {
+        final Page page = mySlots[slot];
+        if (page != null && page.getOwner() == owner) {
+          if (page.myPinCount > 0) {
+            pinnedPages.add(page);
+            continue;
+          }
+          removeFromSlot(slot);
+          myFreeSlots[myFreeSlotsCount++] = slot;
+        }
+      }
+
+      for (FinalizationRequest request : myWriteBackRequests.values()) {
+        if (request.page.getOwner() == owner) {
+          requests.add(request);
+        }
+      }
+    }
+
+    private synchronized boolean removePendingWriteBack(@NotNull FinalizationRequest request) {
+      final PoolPageKey key = request.page.getKey();
+      if (myWriteBackRequests.get(key) == request) {
+        myWriteBackRequests.remove(key);
+        return true;
+      }
+      return false;
+    }
+  }
+}
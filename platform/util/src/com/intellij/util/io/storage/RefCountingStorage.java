@@ -230,6 +230,7 @@ public class RefCountingStorage extends AbstractStorage {
   @Override
   public void dispose() {
     flushPendingWrites();
+    myPendingWriteRequestsExecutor.shutdown();
     super.dispose();
   }
 
@@ -240,9 +241,9 @@ public class RefCountingStorage extends AbstractStorage {
   }
 
   private void flushPendingWrites() {
-    for(Map.Entry<Integer, Future<?>> entry:myPendingWriteRequests.entrySet()) {
+    for(Future<?> future:myPendingWriteRequests.values()) {
       try {
-        entry.getValue().get();
+        future.get();
       } catch (Exception e) {
         throw new RuntimeException(e);
       }
@@ -368,6 +368,13 @@ public class JBZipEntry implements Cloneable {
     myFile.eraseEntry(this);
   }
 
+  /**
+   * @return the compressed data of the entry, as it's stored in the archive
+   */
+  InputStream getRawInputStream() throws IOException {
+    return new BoundedInputStream(calcDataOffset(), getCompressedSize());
+  }
+
   private InputStream getInputStream() throws IOException {
     long start = calcDataOffset();
 
@@ -449,6 +456,25 @@ public class JBZipEntry implements Cloneable {
     setData(bytes, time);
   }
 
+  /**
+   * Sets the data of the entry to the content of the stream, which is compressed while it's read.
+   */
+  public void setData(InputStream content, long timestamp) throws IOException {
+    time = timestamp;
+    JBZipOutputStream stream = myFile.getOutputStream();
+    stream.putNextEntryContent(this, content);
+  }
+
+  /**
+   * Sets the data of the entry to the data of an entry of another archive. The compressed data is copied as is, without
+   * decompressing and compressing it again.
+   */
+  public void setRawData(JBZipEntry source, long timestamp) throws IOException {
+    time = timestamp;
+    JBZipOutputStream stream = myFile.getOutputStream();
+    stream.putNextEntryRaw(this, source);
+  }
+
   public byte[] getData() throws IOException {
     if (size == -1) throw new IOException("no data");
 
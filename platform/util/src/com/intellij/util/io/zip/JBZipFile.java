@@ -92,6 +92,7 @@ public class JBZipFile {
    * The actual data source.
    */
   final RandomAccessFile archive;
+  private final boolean myReadonly;
 
   private JBZipOutputStream myOutputStream;
   private long currentcfdfoffset = 0;
@@ -139,13 +140,26 @@ public class JBZipFile {
    * @throws IOException if an error occurs while reading the file.
    */
   public JBZipFile(File f, String encoding) throws IOException {
+    this(f, encoding, false);
+  }
+
+  /**
+   * Opens the given file, assuming the specified encoding for file names.
+   *
+   * @param f        the archive.
+   * @param encoding the encoding to use for file names
+   * @param readonly if true, the archive is opened for reading only, and attempts to modify it fail
+   * @throws IOException if an error occurs while reading the file.
+   */
+  public JBZipFile(File f, String encoding, boolean readonly) throws IOException {
     this.encoding = encoding;
-    archive = new RandomAccessFile(f, "rw");
+    myReadonly = readonly;
+    archive = new RandomAccessFile(f, readonly ? "r" : "rw");
     try {
       if (archive.length() > 0) {
         populateFromCentralDirectory();
       }
-      else {
+      else if (!readonly) {
         getOutputStream(); // Ensure we'll write central directory when closed even if no single entry created.
       }
     }
@@ -450,8 +464,12 @@ public class JBZipFile {
   }
 
   JBZipOutputStream getOutputStream() throws IOException {
+    if (myReadonly) {
+      throw new IOException("Archive is opened for reading only");
+    }
     if (myOutputStream == null) {
       myOutputStream = new JBZipOutputStream(this, currentcfdfoffset);
+      myOutputStream.setEncoding(encoding);
     }
     return myOutputStream;
   }
@@ -23,6 +23,7 @@ package com.intellij.util.io.zip;
 import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
 import java.util.List;
@@ -401,6 +402,7 @@ class JBZipOutputStream {
     final byte[] outputBytes;
     final int outputBytesLength;
     if (entry.getMethod() == ZipEntry.DEFLATED) {
+      def.reset();
       def.setLevel(level);
       final BufferExposingByteArrayOutputStream compressedBytesStream = new BufferExposingByteArrayOutputStream();
       final DeflaterOutputStream stream = new DeflaterOutputStream(compressedBytesStream, def);
@@ -422,4 +424,86 @@ class JBZipOutputStream {
     writeLocalFileHeader(entry);
     writeOut(outputBytes, 0, outputBytesLength);
   }
+
+  /**
+   * Compresses the content while it's read, so that it doesn't have to be kept in memory. The size and CRC of the content are
+   * written into the local file header when the content is over.
+   */
+  public void putNextEntryContent(JBZipEntry entry, InputStream content) throws IOException {
+    entry.setMethod(ZipEntry.DEFLATED);
+    entry.setCrc(0);
+    entry.setSize(0);
+    entry.setCompressedSize(0);
+
+    if (entry.getTime() == -1) {
+      entry.setTime(System.currentTimeMillis());
+    }
+
+    writeLocalFileHeader(entry);
+    final long dataStart = written;
+
+    crc.reset();
+    def.reset();
+    def.setLevel(level);
+    final byte[] buffer = new byte[8192];
+    final byte[] compressed = new byte[8192];
+    long size = 0;
+    int read;
+    while ((read = content.read(buffer)) > 0) {
+      crc.update(buffer, 0, read);
+      size += read;
+      def.setInput(buffer, 0, read);
+      while (!def.needsInput()) {
+        writeOut(compressed, 0, def.deflate(compressed));
+      }
+    }
+    def.finish();
+    while (!def.finished()) {
+      writeOut(compressed, 0, def.deflate(compressed));
+    }
+
+    entry.setCrc(crc.getValue());
+    entry.setSize(size);
+    entry.setCompressedSize(written - dataStart);
+
+    flushBuffer();
+    // crc-32, compressed and uncompressed sizes follow the signature, version, flags, method and time of the local header
+    raf.seek(entry.getHeaderOffset() + 14);
+    raf.write(ZipLong.getBytes(entry.getCrc()));
+    raf.write(ZipLong.getBytes(entry.getCompressedSize()));
+    raf.write(ZipLong.getBytes(entry.getSize()));
+    raf.seek(written);
+  }
+
+  public void putNextEntryRaw(JBZipEntry entry, JBZipEntry source) throws IOException {
+    if (source.getMethod() != ZipEntry.STORED && source.getMethod() != ZipEntry.DEFLATED) {
+      throw new ZipException("Found unsupported compression method " + source.getMethod());
+    }
+    entry.setMethod(source.getMethod());
+    entry.setCrc(source.getCrc());
+    entry.setSize(source.getSize());
+    entry.setCompressedSize(source.getCompressedSize());
+
+    if (entry.getTime() == -1) {
+      entry.setTime(source.getTime());
+    }
+
+    writeLocalFileHeader(entry);
+    final InputStream input = source.getRawInputStream();
+    try {
+      final byte[] buffer = new byte[8192];
+      long copied = 0;
+      int read;
+      while ((read = input.read(buffer)) > 0) {
+        writeOut(buffer, 0, read);
+        copied += read;
+      }
+      if (copied != source.getCompressedSize()) {
+        throw new ZipException("Unexpected end of data of " + source.getName());
+      }
+    }
+    finally {
+      input.close();
+    }
+  }
 }
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.lang;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.util.ShutDownTracker;
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URL;
+import java.util.*;
+
+/**
+ * Class loading cost per jar: time spent on enumerating the jar entries, on looking up resources and on reading them.
+ * Collected when "idea.classloading.stats" system property is set and written to classloading.txt in the log directory
+ * on shutdown, most expensive jars first.
+ */
+class ClassLoadingStats {
+  static final boolean ENABLED = System.getProperty("idea.classloading.stats") != null;
+
+  private static final Map<String, JarStats> ourStats = new HashMap<String, JarStats>();
+
+  static {
+    if (ENABLED) {
+      ShutDownTracker.getInstance().registerShutdownTask(new Runnable() {
+        public void run() {
+          dump();
+        }
+      });
+    }
+  }
+
+  private static class JarStats {
+    private final URL myUrl;
+    private boolean myIndexed;
+    private long myEnumerationTime;
+    private int myLookups;
+    private int myFound;
+    private long myLookupTime;
+    private int myRead;
+    private long myReadBytes;
+    private long myReadTime;
+
+    private JarStats(@NotNull URL url) {
+      myUrl = url;
+    }
+
+    private long getTotalTime() {
+      return myEnumerationTime + myLookupTime + myReadTime;
+    }
+  }
+
+  @NotNull
+  private static JarStats getStats(@NotNull URL url) {
+    String key = url.toExternalForm();
+    JarStats stats = ourStats.get(key);
+    if (stats == null) {
+      ourStats.put(key, stats = new JarStats(url));
+    }
+    return stats;
+  }
+
+  static synchronized void entriesEnumerated(@NotNull URL jar, boolean indexed, long nanos) {
+    JarStats stats = getStats(jar);
+    stats.myIndexed = indexed;
+    stats.myEnumerationTime += nanos;
+  }
+
+  static synchronized void resourceLookedUp(@NotNull URL jar, boolean found, long nanos) {
+    JarStats stats = getStats(jar);
+    stats.myLookups++;
+    if (found) stats.myFound++;
+    stats.myLookupTime += nanos;
+  }
+
+  static synchronized void resourceRead(@NotNull URL jar, int bytes, long nanos) {
+    JarStats stats = getStats(jar);
+    stats.myRead++;
+    stats.myReadBytes += bytes;
+    stats.myReadTime += nanos;
+  }
+
+  private static synchronized void dump() {
+    List<JarStats> stats = new ArrayList<JarStats>(ourStats.values());
+    Collections.sort(stats, new Comparator<JarStats>() {
+      public int compare(JarStats o1, JarStats o2) {
+        long time1 = o1.getTotalTime();
+        long time2 = o2.getTotalTime();
+        return time1 < time2 ? 1 : time1 == time2 ? 0 : -1;
+      }
+    });
+
+    File file = new File(PathManager.getLogPath(), "classloading.txt");
+    if (!FileUtil.ensureCanCreateFile(file)) return;
+    try {
+      PrintStream out = new PrintStream(new FileOutputStream(file));
+      try {
+        out.println("total ms\tentries ms\tindexed\tlookups\tfound\tlookup ms\tread\tread KB\tread ms\tjar");
+        for (JarStats s : stats) {
+          out.println(s.getTotalTime() / 1000000 + "\t" + s.myEnumerationTime / 1000000 + "\t" + s.myIndexed + "\t" +
+                      s.myLookups + "\t" + s.myFound + "\t" + s.myLookupTime / 1000000 + "\t" +
+                      s.myRead + "\t" + s.myReadBytes / 1024 + "\t" + s.myReadTime / 1000000 + "\t" + s.myUrl);
+        }
+      }
+      finally {
+        out.close();
+      }
+    }
+    catch (IOException e) {
+      System.err.println("Cannot write class loading statistics to " + file + ": " + e);
+    }
+  }
+}
@@ -21,6 +21,7 @@ import com.intellij.openapi.util.ShutDownTracker;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.util.SmartList;
+import com.intellij.util.SystemProperties;
 import com.intellij.util.containers.HashMap;
 import com.intellij.util.containers.Stack;
 import org.jetbrains.annotations.NonNls;
@@ -58,6 +59,7 @@ public class ClassPath {
   private static final String HOME = FileUtil.toSystemIndependentName(PathManager.getHomePath());
 
   private final boolean myAcceptUnescapedUrls;
+  @Nullable private final File myEntryIndexDir;
 
   private static synchronized void printOrder(Loader loader, String url, Resource resource) {
     if (!ourOrderedUrls.add(url)) return;
@@ -103,9 +105,20 @@ public class ClassPath {
     myCanLockJars = canLockJars;
     myCanUseCache = canUseCache;
     myAcceptUnescapedUrls = acceptUnescapedUrls;
+    myEntryIndexDir = canUseCache ? getEntryIndexDir() : null;
     push(urls);
   }
 
+  /**
+   * @return where to keep {@link JarEntryIndex}es of the jars, or null if they are disabled with "idea.jar.index" property
+   */
+  @Nullable
+  private static File getEntryIndexDir() {
+    if (!SystemProperties.getBooleanProperty("idea.jar.index", true)) return null;
+    String path = System.getProperty("idea.jar.index.dir");
+    return new File(path != null ? path : PathManager.getSystemPath() + File.separator + "jar-index");
+  }
+
   // Accessed by reflection from PluginClassLoader // TODO: do we need it?
   void addURL(URL url) {
     push(new URL[]{url});
@@ -208,7 +221,7 @@ public class ClassPath {
       }
     }
     else {
-      JarLoader jarLoader = new JarLoader(url, myCanLockJars, index);
+      JarLoader jarLoader = new JarLoader(url, myCanLockJars, index, myEntryIndexDir);
       jarLoader.preLoadClasses();
       loader = jarLoader;
     }
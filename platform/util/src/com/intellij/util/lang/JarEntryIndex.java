@@ -0,0 +1,415 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.lang;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Persistent table of the entries of a jar: entry name -> position, size and compression method of the entry data in the jar.
+ * It's built from the central directory of the jar once and then memory-mapped by every process using the jar,
+ * so that the entries can be enumerated, looked up and read directly without opening the jar as a {@link java.util.zip.ZipFile}.
+ * <p/>
+ * Index file layout (big-endian):
+ * <pre>
+ *   header:  magic, version, jar length (long), jar modification time (long), entry count
+ *   table:   (name hash, record offset) pairs sorted by the hash
+ *   records: name length (short), UTF-8 name, local header offset, compressed size, size, compression method (short)
+ * </pre>
+ * The index is rebuilt when the length or the modification time of the jar changes. Zip64 jars are not indexed.
+ */
+class JarEntryIndex {
+  private static final int MAGIC = 0x4A455849;
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4;
+  private static final int TABLE_ENTRY_SIZE = 8;
+
+  private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+  private static final int LOCAL_HEADER_SIZE = 30;
+  private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+  private static final int CENTRAL_HEADER_SIZE = 46;
+  private static final int END_SIGNATURE = 0x06054b50;
+  private static final int END_SIZE = 22;
+  private static final int STORED = 0;
+  private static final int DEFLATED = 8;
+
+  private static final int EXTRA_FIELD_LENGTH_GUESS = 64;
+  private static final int MAX_CACHED_INFLATERS = 8;
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final List<Inflater> ourInflaters = new ArrayList<Inflater>();
+
+  private final ByteBuffer myBuffer;
+  private final int myCount;
+
+  private JarEntryIndex(@NotNull ByteBuffer buffer, int count) {
+    myBuffer = buffer;
+    myCount = count;
+  }
+
+  /**
+   * @return the up-to-date index of the jar, built if necessary, or null if the jar can't be indexed
+   */
+  @Nullable
+  static JarEntryIndex getIndex(@NotNull File jar, @NotNull File indexDir) {
+    long length = jar.length();
+    long modified = jar.lastModified();
+    File indexFile = new File(indexDir, jar.getName() + "." + Integer.toHexString(jar.getAbsolutePath().hashCode()) + ".idx");
+    try {
+      JarEntryIndex index = map(indexFile, length, modified);
+      if (index == null && build(jar, indexFile, length, modified)) {
+        index = map(indexFile, length, modified);
+      }
+      return index;
+    }
+    catch (IOException e) {
+      return null;
+    }
+  }
+
+  @Nullable
+  private static JarEntryIndex map(@NotNull File indexFile, long jarLength, long jarModified) throws IOException {
+    if (!indexFile.isFile()) return null;
+
+    RandomAccessFile file = new RandomAccessFile(indexFile, "r");
+    ByteBuffer buffer;
+    try {
+      long length = file.length();
+      if (length < HEADER_SIZE || length > Integer.MAX_VALUE) return null;
+      // the mapping stays valid after the file is closed
+      buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+    }
+    finally {
+      file.close();
+    }
+
+    if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION ||
+        buffer.getLong(8) != jarLength || buffer.getLong(16) != jarModified) {
+      return null;
+    }
+    int count = buffer.getInt(24);
+    if (count < 0 || HEADER_SIZE + (long)count * TABLE_ENTRY_SIZE > buffer.limit()) return null;
+    return new JarEntryIndex(buffer, count);
+  }
+
+  int getEntryCount() {
+    return myCount;
+  }
+
+  @NotNull
+  String getEntryName(int i) {
+    return readName(getRecordOffset(i));
+  }
+
+  /**
+   * @return the entry with the given name; like {@link java.util.zip.ZipFile#getEntry(String)}, a directory entry
+   *         is found by its name without the trailing slash too
+   */
+  @Nullable
+  Entry findEntry(@NotNull String name) {
+    Entry entry = doFindEntry(name.getBytes(UTF8));
+    if (entry == null && !name.endsWith("/")) {
+      entry = doFindEntry(name.concat("/").getBytes(UTF8));
+    }
+    return entry;
+  }
+
+  @Nullable
+  private Entry doFindEntry(@NotNull byte[] name) {
+    int hash = hash(name, 0, name.length);
+    int low = 0;
+    int high = myCount;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (getHash(middle) < hash) {
+        low = middle + 1;
+      }
+      else {
+        high = middle;
+      }
+    }
+    for (int i = low; i < myCount && getHash(i) == hash; i++) {
+      int record = getRecordOffset(i);
+      if (nameEquals(record, name)) {
+        int position = record + 2 + name.length;
+        return new Entry(name.length,
+                         myBuffer.getInt(position) & 0xFFFFFFFFL,
+                         myBuffer.getInt(position + 4),
+                         myBuffer.getInt(position + 8),
+                         myBuffer.getShort(position + 12));
+      }
+    }
+    return null;
+  }
+
+  private int getHash(int i) {
+    return myBuffer.getInt(HEADER_SIZE + i * TABLE_ENTRY_SIZE);
+  }
+
+  private int getRecordOffset(int i) {
+    return myBuffer.getInt(HEADER_SIZE + i * TABLE_ENTRY_SIZE + 4);
+  }
+
+  private boolean nameEquals(int record, @NotNull byte[] name) {
+    if ((myBuffer.getShort(record) & 0xFFFF) != name.length) return false;
+    for (int i = 0; i < name.length; i++) {
+      if (myBuffer.get(record + 2 + i) != name[i]) return false;
+    }
+    return true;
+  }
+
+  @NotNull
+  private String readName(int record) {
+    int length = myBuffer.getShort(record) & 0xFFFF;
+    char[] chars = new char[length];
+    for (int i = 0; i < length; i++) {
+      byte b = myBuffer.get(record + 2 + i);
+      if (b < 0) return decodeName(record, length);
+      chars[i] = (char)b;
+    }
+    return new String(chars);
+  }
+
+  @NotNull
+  private String decodeName(int record, int length) {
+    byte[] bytes = new byte[length];
+    ByteBuffer buffer = myBuffer.duplicate();
+    buffer.position(record + 2);
+    buffer.get(bytes);
+    return new String(bytes, UTF8);
+  }
+
+  private static int hash(@NotNull byte[] bytes, int start, int end) {
+    int hash = 0;
+    for (int i = start; i < end; i++) {
+      hash = 31 * hash + (bytes[i] & 0xFF);
+    }
+    return hash;
+  }
+
+  static class Entry {
+    private final int myNameLength;
+    private final long myOffset;
+    private final int myCompressedSize;
+    private final int mySize;
+    private final int myMethod;
+
+    private Entry(int nameLength, long offset, int compressedSize, int size, int method) {
+      myNameLength = nameLength;
+      myOffset = offset;
+      myCompressedSize = compressedSize;
+      mySize = size;
+      myMethod = method;
+    }
+
+    int getSize() {
+      return mySize;
+    }
+
+    /**
+     * Reads the entry data from the jar file the index was built for.
+     */
+    @NotNull
+    byte[] read(@NotNull RandomAccessFile jar) throws IOException {
+      // the local header, the name, the extra field if it isn't too long and the data are read at once;
+      // the inflater may need an extra byte at the end of the input in "nowrap" mode
+      int headerLength = LOCAL_HEADER_SIZE + myNameLength + EXTRA_FIELD_LENGTH_GUESS;
+      byte[] bytes = new byte[headerLength + myCompressedSize + 1];
+      int dataStart;
+      synchronized (jar) {
+        jar.seek(myOffset);
+        int read = readAvailable(jar, bytes, bytes.length - 1);
+        if (read < LOCAL_HEADER_SIZE || getInt(bytes, 0) != LOCAL_HEADER_SIGNATURE) {
+          throw new IOException("Invalid local header at " + myOffset);
+        }
+        dataStart = LOCAL_HEADER_SIZE + getShort(bytes, 26) + getShort(bytes, 28);
+        if (dataStart + myCompressedSize > read) {
+          if (dataStart > headerLength) {
+            bytes = new byte[dataStart + myCompressedSize + 1];
+          }
+          jar.seek(myOffset + dataStart);
+          jar.readFully(bytes, dataStart, myCompressedSize);
+        }
+      }
+
+      if (myMethod == STORED) return Arrays.copyOfRange(bytes, dataStart, dataStart + myCompressedSize);
+      if (myMethod != DEFLATED) throw new IOException("Unsupported compression method " + myMethod);
+
+      byte[] result = new byte[mySize];
+      Inflater inflater = getInflater();
+      try {
+        inflater.setInput(bytes, dataStart, myCompressedSize + 1);
+        int read = 0;
+        while (read < mySize) {
+          int n = inflater.inflate(result, read, mySize - read);
+          if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) break;
+          read += n;
+        }
+        if (read != mySize) throw new IOException("Corrupted entry at " + myOffset);
+      }
+      catch (DataFormatException e) {
+        throw new IOException("Corrupted entry at " + myOffset + ": " + e.getMessage());
+      }
+      finally {
+        releaseInflater(inflater);
+      }
+      return result;
+    }
+  }
+
+  private static int readAvailable(@NotNull RandomAccessFile file, @NotNull byte[] bytes, int length) throws IOException {
+    int read = 0;
+    while (read < length) {
+      int n = file.read(bytes, read, length - read);
+      if (n < 0) break;
+      read += n;
+    }
+    return read;
+  }
+
+  @NotNull
+  private static Inflater getInflater() {
+    synchronized (ourInflaters) {
+      if (!ourInflaters.isEmpty()) return ourInflaters.remove(ourInflaters.size() - 1);
+    }
+    return new Inflater(true);
+  }
+
+  private static void releaseInflater(@NotNull Inflater inflater) {
+    synchronized (ourInflaters) {
+      if (ourInflaters.size() < MAX_CACHED_INFLATERS) {
+        inflater.reset();
+        ourInflaters.add(inflater);
+        return;
+      }
+    }
+    inflater.end();
+  }
+
+  private static boolean build(@NotNull File jar, @NotNull File indexFile, long jarLength, long jarModified) throws IOException {
+    byte[] directory = readCentralDirectory(jar);
+    if (directory == null) return false;
+
+    // (hash << 32 | record offset) of every entry, records are written in the central directory order
+    int count = 0;
+    for (int position = 0; position + CENTRAL_HEADER_SIZE <= directory.length; count++) {
+      if (getInt(directory, position) != CENTRAL_HEADER_SIGNATURE) return false;
+      position += CENTRAL_HEADER_SIZE + getShort(directory, position + 28) + getShort(directory, position + 30) +
+                  getShort(directory, position + 32);
+    }
+    long[] table = new long[count];
+    ByteArrayOutputStream records = new ByteArrayOutputStream(directory.length);
+    DataOutputStream recordsOutput = new DataOutputStream(records);
+    int recordsStart = HEADER_SIZE + count * TABLE_ENTRY_SIZE;
+    for (int i = 0, position = 0; i < count; i++) {
+      int method = getShort(directory, position + 10);
+      long compressedSize = getInt(directory, position + 20) & 0xFFFFFFFFL;
+      long size = getInt(directory, position + 24) & 0xFFFFFFFFL;
+      int nameLength = getShort(directory, position + 28);
+      long offset = getInt(directory, position + 42) & 0xFFFFFFFFL;
+      if (compressedSize == 0xFFFFFFFFL || size == 0xFFFFFFFFL || offset == 0xFFFFFFFFL) return false; // zip64
+
+      int nameStart = position + CENTRAL_HEADER_SIZE;
+      table[i] = (long)hash(directory, nameStart, nameStart + nameLength) << 32 | (recordsStart + recordsOutput.size());
+      recordsOutput.writeShort(nameLength);
+      recordsOutput.write(directory, nameStart, nameLength);
+      recordsOutput.writeInt((int)offset);
+      recordsOutput.writeInt((int)compressedSize);
+      recordsOutput.writeInt((int)size);
+      recordsOutput.writeShort(method);
+      position = nameStart + nameLength + getShort(directory, position + 30) + getShort(directory, position + 32);
+    }
+    Arrays.sort(table);
+
+    File indexDir = indexFile.getParentFile();
+    if (!indexDir.isDirectory() && !indexDir.mkdirs()) return false;
+    File tempFile = File.createTempFile(indexFile.getName(), ".tmp", indexDir);
+    try {
+      DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+      try {
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeLong(jarLength);
+        output.writeLong(jarModified);
+        output.writeInt(count);
+        for (long entry : table) {
+          output.writeLong(entry);
+        }
+        records.writeTo(output);
+      }
+      finally {
+        output.close();
+      }
+      // another process may be building the same index concurrently, any complete copy will do
+      indexFile.delete();
+      return tempFile.renameTo(indexFile) || indexFile.isFile();
+    }
+    finally {
+      tempFile.delete();
+    }
+  }
+
+  /**
+   * @return the central directory of the jar, or null if it can't be found or the jar is in zip64 format
+   */
+  @Nullable
+  private static byte[] readCentralDirectory(@NotNull File jar) throws IOException {
+    RandomAccessFile file = new RandomAccessFile(jar, "r");
+    try {
+      long length = file.length();
+      int tailLength = (int)Math.min(length, 0xFFFF + END_SIZE);
+      byte[] tail = new byte[tailLength];
+      file.seek(length - tailLength);
+      file.readFully(tail);
+
+      for (int end = tailLength - END_SIZE; end >= 0; end--) {
+        if (getInt(tail, end) != END_SIGNATURE || end + END_SIZE + getShort(tail, end + 20) != tailLength) continue;
+
+        long directorySize = getInt(tail, end + 12) & 0xFFFFFFFFL;
+        long directoryOffset = getInt(tail, end + 16) & 0xFFFFFFFFL;
+        if (getShort(tail, end + 10) == 0xFFFF || directoryOffset == 0xFFFFFFFFL) return null; // zip64
+        if (directoryOffset + directorySize > length - tailLength + end) return null; // e.g. data prepended to the jar
+
+        byte[] directory = new byte[(int)directorySize];
+        file.seek(directoryOffset);
+        file.readFully(directory);
+        return directory;
+      }
+      return null;
+    }
+    finally {
+      file.close();
+    }
+  }
+
+  private static int getShort(@NotNull byte[] bytes, int offset) {
+    return bytes[offset] & 0xFF | (bytes[offset + 1] & 0xFF) << 8;
+  }
+
+  private static int getInt(@NotNull byte[] bytes, int offset) {
+    return getShort(bytes, offset) | getShort(bytes, offset + 2) << 16;
+  }
+}
@@ -26,6 +26,7 @@ import sun.misc.Resource;
 
 import java.io.*;
 import java.lang.ref.SoftReference;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Enumeration;
 import java.util.zip.ZipEntry;
@@ -35,6 +36,8 @@ class JarLoader extends Loader {
   private final URL myURL;
   private SoftReference<JarMemoryLoader> myMemoryLoader;
   private final boolean myCanLockJar;
+  @Nullable private final JarEntryIndex myEntryIndex;
+  private RandomAccessFile myJarFile;
   private static final boolean myDebugTime = false;
   private static int misses;
   private static int hits;
@@ -59,10 +62,21 @@ class JarLoader extends Loader {
   @NonNls private static final String FILE_PROTOCOL = "file";
   private static final long NS_THRESHOLD = 10000000;
 
-  JarLoader(URL url, boolean canLockJar, int index) throws IOException {
+  /**
+   * @param entryIndexDir where to keep the persistent {@link JarEntryIndex} of the jar, null if the jar shouldn't be indexed
+   */
+  JarLoader(URL url, boolean canLockJar, int index, @Nullable File entryIndexDir) throws IOException {
     super(new URL(JAR_PROTOCOL, "", -1, url + "!/"), index);
     myURL = url;
     myCanLockJar = canLockJar;
+    myEntryIndex = entryIndexDir != null && FILE_PROTOCOL.equals(url.getProtocol())
+                   ? JarEntryIndex.getIndex(getJarPath(), entryIndexDir)
+                   : null;
+  }
+
+  @NotNull
+  private File getJarPath() {
+    return new File(FileUtil.unquote(myURL.getFile()));
   }
 
   void preLoadClasses() {
@@ -124,6 +138,17 @@ class JarLoader extends Loader {
   }
 
   void buildCache(final ClasspathCache cache) throws IOException {
+    final long started = ClassLoadingStats.ENABLED ? System.nanoTime() : 0;
+    if (myEntryIndex != null) {
+      for (int i = 0, count = myEntryIndex.getEntryCount(); i < count; i++) {
+        String name = myEntryIndex.getEntryName(i);
+        cache.addResourceEntry(name, this);
+        cache.addNameEntry(name, this);
+      }
+      if (ClassLoadingStats.ENABLED) ClassLoadingStats.entriesEnumerated(myURL, true, System.nanoTime() - started);
+      return;
+    }
+
     ZipFile zipFile = null;
     try {
       zipFile = acquireZipFile();
@@ -139,12 +164,13 @@ class JarLoader extends Loader {
     }
     finally {
       releaseZipFile(zipFile);
+      if (ClassLoadingStats.ENABLED) ClassLoadingStats.entriesEnumerated(myURL, false, System.nanoTime() - started);
     }
   }
 
   @Nullable
   Resource getResource(String name, boolean flag) {
-    final long started = myDebugTime ? System.nanoTime():0;
+    final long started = myDebugTime || ClassLoadingStats.ENABLED ? System.nanoTime():0;
     if (myMemoryLoader != null) {
       JarMemoryLoader loader = myMemoryLoader.get();
       if (loader != null) {
@@ -152,6 +178,18 @@ class JarLoader extends Loader {
         if (resource != null) return resource;
       }
     }
+    if (myEntryIndex != null) {
+      JarEntryIndex.Entry entry = myEntryIndex.findEntry(name);
+      if (ClassLoadingStats.ENABLED) ClassLoadingStats.resourceLookedUp(myURL, entry != null, System.nanoTime() - started);
+      if (entry == null) return null;
+      try {
+        return new IndexedResource(name, entry, new URL(getBaseURL(), name));
+      }
+      catch (MalformedURLException e) {
+        return null;
+      }
+    }
+
     ZipFile file = null;
     try {
       file = acquireZipFile();
@@ -162,8 +200,10 @@ class JarLoader extends Loader {
         if (hits % 1000 == 0 && UrlClassLoader.doDebug) {
           UrlClassLoader.debug("Exists jar loader: misses:" + misses + ", hits:" + hits);
         }
+        if (ClassLoadingStats.ENABLED) ClassLoadingStats.resourceLookedUp(myURL, true, System.nanoTime() - started);
         return new MyResource(entry, new URL(getBaseURL(), name));
       }
+      if (ClassLoadingStats.ENABLED) ClassLoadingStats.resourceLookedUp(myURL, false, System.nanoTime() - started);
 
       if (misses % 1000 == 0 && UrlClassLoader.doDebug) {
         UrlClassLoader.debug("Missed " + name + " from jar:" + myURL);
@@ -250,6 +290,77 @@ class JarLoader extends Loader {
     public int getContentLength() {
       return (int)myEntry.getSize();
     }
+
+    @Override
+    public byte[] getBytes() throws IOException {
+      long started = ClassLoadingStats.ENABLED ? System.nanoTime() : 0;
+      byte[] bytes = super.getBytes();
+      if (ClassLoadingStats.ENABLED) ClassLoadingStats.resourceRead(myURL, bytes.length, System.nanoTime() - started);
+      return bytes;
+    }
+  }
+
+  /**
+   * Reads the entry data directly from the position recorded in the {@link JarEntryIndex}.
+   */
+  private class IndexedResource extends Resource {
+    private final String myName;
+    private final JarEntryIndex.Entry myEntry;
+    private final URL myUrl;
+
+    private IndexedResource(String name, JarEntryIndex.Entry entry, URL url) {
+      myName = name;
+      myEntry = entry;
+      myUrl = url;
+    }
+
+    public String getName() {
+      return myName;
+    }
+
+    public URL getURL() {
+      return myUrl;
+    }
+
+    public URL getCodeSourceURL() {
+      return myURL;
+    }
+
+    public InputStream getInputStream() throws IOException {
+      return new ByteArrayInputStream(getBytes());
+    }
+
+    public int getContentLength() {
+      return myEntry.getSize();
+    }
+
+    @Override
+    public byte[] getBytes() throws IOException {
+      long started = ClassLoadingStats.ENABLED ? System.nanoTime() : 0;
+      byte[] bytes;
+      if (myCanLockJar) {
+        bytes = myEntry.read(getJarFile());
+      }
+      else {
+        RandomAccessFile file = new RandomAccessFile(getJarPath(), "r");
+        try {
+          bytes = myEntry.read(file);
+        }
+        finally {
+          file.close();
+        }
+      }
+      if (ClassLoadingStats.ENABLED) ClassLoadingStats.resourceRead(myURL, bytes.length, System.nanoTime() - started);
+      return bytes;
+    }
+  }
+
+  @NotNull
+  private synchronized RandomAccessFile getJarFile() throws IOException {
+    if (myJarFile == null) {
+      myJarFile = new RandomAccessFile(getJarPath(), "r");
+    }
+    return myJarFile;
   }
 
   @NonNls
@@ -0,0 +1,346 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.text;
+
+import com.intellij.util.ArrayUtil;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Immutable text stored as a balanced tree of small char chunks (a rope).
+ * <p/>
+ * {@link #insert}, {@link #delete} and {@link #subtext} take O(log n) time and share all untouched chunks with the original text,
+ * so every version of a text being edited stays valid and can be read from any thread without copying or locking.
+ * {@link #charAt} takes O(log n) time too, but sequential access hits the chunk found by the previous call.
+ */
+public final class ImmutableText implements CharSequence {
+  /**
+   * Maximal number of chars in a chunk: small enough to make copying on edit cheap, large enough to keep the tree shallow.
+   */
+  static final int LEAF_SIZE = 512;
+
+  public static final ImmutableText EMPTY = new ImmutableText(new Leaf(ArrayUtil.EMPTY_CHAR_ARRAY, 0, 0));
+
+  private final Node myRoot;
+  private volatile LeafHolder myLastLeaf;
+  private String myString;
+
+  private ImmutableText(@NotNull Node root) {
+    myRoot = root;
+  }
+
+  @NotNull
+  public static ImmutableText valueOf(@NotNull CharSequence text) {
+    if (text instanceof ImmutableText) return (ImmutableText)text;
+    if (text.length() == 0) return EMPTY;
+    return new ImmutableText(build(text, 0, text.length()));
+  }
+
+  @NotNull
+  private static Node build(@NotNull CharSequence text, int start, int end) {
+    int length = end - start;
+    if (length <= LEAF_SIZE) {
+      char[] chars = new char[length];
+      CharArrayUtil.getChars(text, chars, start, 0, length);
+      return new Leaf(chars, 0, length);
+    }
+    // split at a chunk boundary so that all chunks but the last one are full
+    int leaves = (length + LEAF_SIZE - 1) / LEAF_SIZE;
+    int middle = start + leaves / 2 * LEAF_SIZE;
+    return new Composite(build(text, start, middle), build(text, middle, end));
+  }
+
+  @NotNull
+  public ImmutableText concat(@NotNull CharSequence text) {
+    return new ImmutableText(concat(myRoot, valueOf(text).myRoot));
+  }
+
+  @NotNull
+  public ImmutableText insert(int index, @NotNull CharSequence text) {
+    checkRange(index, index);
+    if (text.length() == 0) return this;
+    return replace(index, index, text);
+  }
+
+  @NotNull
+  public ImmutableText delete(int start, int end) {
+    checkRange(start, end);
+    if (start == end) return this;
+    return new ImmutableText(concat(myRoot.subNode(0, start), myRoot.subNode(end, length())));
+  }
+
+  @NotNull
+  public ImmutableText replace(int start, int end, @NotNull CharSequence text) {
+    checkRange(start, end);
+    Node head = concat(myRoot.subNode(0, start), valueOf(text).myRoot);
+    return new ImmutableText(concat(head, myRoot.subNode(end, length())));
+  }
+
+  @NotNull
+  public ImmutableText subtext(int start, int end) {
+    checkRange(start, end);
+    if (start == 0 && end == length()) return this;
+    if (start == end) return EMPTY;
+    return new ImmutableText(myRoot.subNode(start, end));
+  }
+
+  @NotNull
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    return subtext(start, end);
+  }
+
+  @Override
+  public int length() {
+    return myRoot.length();
+  }
+
+  @Override
+  public char charAt(int index) {
+    LeafHolder holder = myLastLeaf;
+    if (holder == null || index < holder.myStart || index >= holder.myStart + holder.myLeaf.myLength) {
+      if (index < 0 || index >= length()) {
+        throw new IndexOutOfBoundsException("Wrong offset: " + index + "; length: " + length());
+      }
+      myLastLeaf = holder = findLeaf(index);
+    }
+    return holder.myLeaf.charAt(index - holder.myStart);
+  }
+
+  @NotNull
+  private LeafHolder findLeaf(int index) {
+    Node node = myRoot;
+    int start = 0;
+    while (node instanceof Composite) {
+      Composite composite = (Composite)node;
+      int leftLength = composite.myLeft.length();
+      if (index < leftLength) {
+        node = composite.myLeft;
+      }
+      else {
+        node = composite.myRight;
+        index -= leftLength;
+        start += leftLength;
+      }
+    }
+    return new LeafHolder((Leaf)node, start);
+  }
+
+  /**
+   * Copies chars from the given range of this text to the destination array, like {@link String#getChars(int, int, char[], int)}.
+   */
+  public void getChars(int start, int end, @NotNull char[] dest, int destPos) {
+    checkRange(start, end);
+    myRoot.getChars(start, end, dest, destPos);
+  }
+
+  @NotNull
+  @Override
+  public String toString() {
+    String string = myString;
+    if (string == null) {
+      char[] chars = new char[length()];
+      myRoot.getChars(0, chars.length, chars, 0);
+      myString = string = new String(chars);
+    }
+    return string;
+  }
+
+  /**
+   * @return depth of the chunk tree, for tests and diagnostics
+   */
+  int getDepth() {
+    return myRoot.depth();
+  }
+
+  private void checkRange(int start, int end) {
+    if (start < 0 || start > end || end > length()) {
+      throw new IndexOutOfBoundsException("Wrong range: [" + start + ", " + end + "); length: " + length());
+    }
+  }
+
+  @NotNull
+  private static Node concat(@NotNull Node left, @NotNull Node right) {
+    if (left.length() == 0) return right;
+    if (right.length() == 0) return left;
+
+    if (left.length() + right.length() <= LEAF_SIZE) {
+      return mergeLeaves(left, right);
+    }
+    // keep small edits from fragmenting the text into tiny chunks
+    if (right instanceof Leaf && left instanceof Composite) {
+      Composite composite = (Composite)left;
+      if (composite.myRight instanceof Leaf && composite.myRight.length() + right.length() <= LEAF_SIZE) {
+        return concat(composite.myLeft, mergeLeaves(composite.myRight, right));
+      }
+    }
+    if (left instanceof Leaf && right instanceof Composite) {
+      Composite composite = (Composite)right;
+      if (composite.myLeft instanceof Leaf && left.length() + composite.myLeft.length() <= LEAF_SIZE) {
+        return concat(mergeLeaves(left, composite.myLeft), composite.myRight);
+      }
+    }
+
+    if (left.depth() > right.depth() + 1) {
+      Composite composite = (Composite)left;
+      return balance(composite.myLeft, concat(composite.myRight, right));
+    }
+    if (right.depth() > left.depth() + 1) {
+      Composite composite = (Composite)right;
+      return balance(concat(left, composite.myLeft), composite.myRight);
+    }
+    return new Composite(left, right);
+  }
+
+  /**
+   * AVL rotation of two balanced trees which depths differ by two at most.
+   */
+  @NotNull
+  private static Node balance(@NotNull Node left, @NotNull Node right) {
+    if (left.depth() > right.depth() + 1) {
+      Composite composite = (Composite)left;
+      if (composite.myLeft.depth() >= composite.myRight.depth()) {
+        return new Composite(composite.myLeft, new Composite(composite.myRight, right));
+      }
+      Composite inner = (Composite)composite.myRight;
+      return new Composite(new Composite(composite.myLeft, inner.myLeft), new Composite(inner.myRight, right));
+    }
+    if (right.depth() > left.depth() + 1) {
+      Composite composite = (Composite)right;
+      if (composite.myRight.depth() >= composite.myLeft.depth()) {
+        return new Composite(new Composite(left, composite.myLeft), composite.myRight);
+      }
+      Composite inner = (Composite)composite.myLeft;
+      return new Composite(new Composite(left, inner.myLeft), new Composite(inner.myRight, composite.myRight));
+    }
+    return new Composite(left, right);
+  }
+
+  @NotNull
+  private static Leaf mergeLeaves(@NotNull Node left, @NotNull Node right) {
+    int leftLength = left.length();
+    char[] chars = new char[leftLength + right.length()];
+    left.getChars(0, leftLength, chars, 0);
+    right.getChars(0, right.length(), chars, leftLength);
+    return new Leaf(chars, 0, chars.length);
+  }
+
+  private abstract static class Node {
+    abstract int length();
+
+    abstract int depth();
+
+    abstract void getChars(int start, int end, @NotNull char[] dest, int destPos);
+
+    @NotNull
+    abstract Node subNode(int start, int end);
+  }
+
+  private static final class Leaf extends Node {
+    private final char[] myChars;
+    private final int myOffset;
+    private final int myLength;
+
+    private Leaf(@NotNull char[] chars, int offset, int length) {
+      myChars = chars;
+      myOffset = offset;
+      myLength = length;
+    }
+
+    @Override
+    int length() {
+      return myLength;
+    }
+
+    @Override
+    int depth() {
+      return 0;
+    }
+
+    char charAt(int index) {
+      return myChars[myOffset + index];
+    }
+
+    @Override
+    void getChars(int start, int end, @NotNull char[] dest, int destPos) {
+      System.arraycopy(myChars, myOffset + start, dest, destPos, end - start);
+    }
+
+    @NotNull
+    @Override
+    Node subNode(int start, int end) {
+      if (start == 0 && end == myLength) return this;
+      // chunks are small, so sharing the array doesn't retain much
+      return new Leaf(myChars, myOffset + start, end - start);
+    }
+  }
+
+  private static final class Composite extends Node {
+    private final Node myLeft;
+    private final Node myRight;
+    private final int myLength;
+    private final int myDepth;
+
+    private Composite(@NotNull Node left, @NotNull Node right) {
+      myLeft = left;
+      myRight = right;
+      myLength = left.length() + right.length();
+      myDepth = Math.max(left.depth(), right.depth()) + 1;
+    }
+
+    @Override
+    int length() {
+      return myLength;
+    }
+
+    @Override
+    int depth() {
+      return myDepth;
+    }
+
+    @Override
+    void getChars(int start, int end, @NotNull char[] dest, int destPos) {
+      int leftLength = myLeft.length();
+      if (start < leftLength) {
+        int leftEnd = Math.min(end, leftLength);
+        myLeft.getChars(start, leftEnd, dest, destPos);
+        destPos += leftEnd - start;
+      }
+      if (end > leftLength) {
+        myRight.getChars(Math.max(start, leftLength) - leftLength, end - leftLength, dest, destPos);
+      }
+    }
+
+    @NotNull
+    @Override
+    Node subNode(int start, int end) {
+      if (start == 0 && end == myLength) return this;
+      int leftLength = myLeft.length();
+      if (end <= leftLength) return myLeft.subNode(start, end);
+      if (start >= leftLength) return myRight.subNode(start - leftLength, end - leftLength);
+      return concat(myLeft.subNode(start, leftLength), myRight.subNode(0, end - leftLength));
+    }
+  }
+
+  private static final class LeafHolder {
+    private final Leaf myLeaf;
+    private final int myStart;
+
+    private LeafHolder(@NotNull Leaf leaf, int start) {
+      myLeaf = leaf;
+      myStart = start;
+    }
+  }
+}
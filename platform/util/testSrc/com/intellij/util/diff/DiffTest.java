@@ -15,10 +15,14 @@
  */
 package com.intellij.util.diff;
 
+import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.util.ArrayUtil;
 import junit.framework.TestCase;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
 
 /**
  * @author dyoma
@@ -85,4 +89,60 @@ public class DiffTest extends TestCase {
     System.out.println("Duration: " +(System.currentTimeMillis() - start));
   }
 
+  public void testLongSequencesWithManyChanges() throws FilesTooBigForDiffException {
+    Random random = new Random(0);
+    int size = 200000;
+    String[] first = new String[size];
+    String[] second = new String[size];
+    for (int i = 0; i < size; i++) {
+      first[i] = random.nextInt(4) == 0 ? "}" : "line " + random.nextInt(size);
+      second[i] = random.nextInt(3) == 0 ? "changed " + random.nextInt(size) : first[i];
+    }
+    checkChanges(first, second, Diff.buildChanges(first, second));
+  }
+
+  public void testLongRepetitiveSequences() throws FilesTooBigForDiffException {
+    int size = 50000;
+    String[] first = new String[size];
+    String[] second = new String[size];
+    for (int i = 0; i < size; i++) {
+      first[i] = String.valueOf(i % 7);
+      second[i] = String.valueOf(i * 3 % 7);
+    }
+    checkChanges(first, second, Diff.buildChanges(first, second));
+  }
+
+  public void testCancellation() throws FilesTooBigForDiffException {
+    int size = 100000;
+    String[] first = new String[size];
+    String[] second = new String[size];
+    for (int i = 0; i < size; i++) {
+      first[i] = String.valueOf(i % 7);
+      second[i] = String.valueOf(i * 3 % 7);
+    }
+    try {
+      Diff.buildChanges(first, second, new CancellationChecker() {
+        @Override
+        public void checkCanceled() {
+          throw new ProcessCanceledException();
+        }
+      });
+      fail();
+    }
+    catch (ProcessCanceledException ignored) {
+    }
+  }
+
+  private static void checkChanges(String[] first, String[] second, Diff.Change change) {
+    List<String> result = new ArrayList<String>();
+    int index = 0;
+    for (; change != null; change = change.link) {
+      while (index < change.line0) result.add(first[index++]);
+      result.addAll(Arrays.asList(second).subList(change.line1, change.line1 + change.inserted));
+      index += change.deleted;
+    }
+    while (index < first.length) result.add(first[index++]);
+    assertEquals(Arrays.asList(second), result);
+  }
+
 }
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.diff;
+
+import gnu.trove.TIntArrayList;
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class MyersLCSTest extends TestCase {
+  public void testFindsLongestCommonSubsequence() {
+    Random random = new Random(1);
+    for (int i = 0; i < 5000; i++) {
+      int alphabet = 1 + random.nextInt(8);
+      int[] first = randomInts(random, random.nextInt(60), alphabet);
+      int[] second = randomInts(random, random.nextInt(60), alphabet);
+      boolean[][] changes = newChanges(first, second);
+      new MyersLCS(first, second, changes[0], changes[1], CancellationChecker.NONE).execute();
+      assertEquals(Arrays.toString(first) + " " + Arrays.toString(second),
+                   lcsLength(first, second), checkCommonSubsequence(first, second, changes));
+    }
+  }
+
+  public void testPatienceFindsCommonSubsequence() {
+    Random random = new Random(2);
+    for (int i = 0; i < 20; i++) {
+      int[] first = randomInts(random, 2 * PatienceLCS.MIN_RANGE_LENGTH + random.nextInt(3000), 100000);
+      TIntArrayList second = new TIntArrayList(first);
+      for (int j = 0; j < 200; j++) {
+        int index = random.nextInt(second.size() + 1);
+        if (random.nextBoolean() && index < second.size()) {
+          second.remove(index);
+        }
+        else {
+          // frequent elements, which can't be anchors
+          second.insert(index, random.nextInt(10));
+        }
+      }
+      boolean[][] changes = newChanges(first, second.toNativeArray());
+      new PatienceLCS(first, second.toNativeArray(), changes[0], changes[1], CancellationChecker.NONE).execute();
+      checkCommonSubsequence(first, second.toNativeArray(), changes);
+    }
+  }
+
+  private static boolean[][] newChanges(int[] first, int[] second) {
+    boolean[][] changes = {new boolean[first.length], new boolean[second.length]};
+    Arrays.fill(changes[0], true);
+    Arrays.fill(changes[1], true);
+    return changes;
+  }
+
+  private static int checkCommonSubsequence(int[] first, int[] second, boolean[][] changes) {
+    TIntArrayList common1 = new TIntArrayList();
+    for (int i = 0; i < first.length; i++) {
+      if (!changes[0][i]) common1.add(first[i]);
+    }
+    TIntArrayList common2 = new TIntArrayList();
+    for (int i = 0; i < second.length; i++) {
+      if (!changes[1][i]) common2.add(second[i]);
+    }
+    assertEquals(common1, common2);
+    return common1.size();
+  }
+
+  private static int lcsLength(int[] first, int[] second) {
+    int[][] lengths = new int[first.length + 1][second.length + 1];
+    for (int i = first.length - 1; i >= 0; i--) {
+      for (int j = second.length - 1; j >= 0; j--) {
+        lengths[i][j] = first[i] == second[j] ? lengths[i + 1][j + 1] + 1 : Math.max(lengths[i + 1][j], lengths[i][j + 1]);
+      }
+    }
+    return lengths[0][0];
+  }
+
+  private static int[] randomInts(Random random, int length, int alphabet) {
+    int[] ints = new int[length];
+    for (int i = 0; i < length; i++) {
+      ints[i] = random.nextInt(alphabet);
+    }
+    return ints;
+  }
+}
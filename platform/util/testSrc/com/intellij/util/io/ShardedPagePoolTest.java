@@ -0,0 +1,140 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.io;
+
+import com.intellij.openapi.util.io.FileUtil;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class ShardedPagePoolTest extends TestCase {
+  private static final int PAGES_COUNT = 200;
+
+  private File myFile;
+  private ShardedPagePool myPool;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myFile = FileUtil.createTempFile("page", "pool");
+    // much less than the file size, so pages get evicted and written back
+    myPool = new ShardedPagePool(16 * Page.PAGE_SIZE, 4);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtil.delete(myFile);
+    super.tearDown();
+  }
+
+  public void testWriteBackAndReload() throws Exception {
+    RandomAccessDataFile file = new RandomAccessDataFile(myFile, myPool);
+    try {
+      for (int i = 0; i < PAGES_COUNT; i++) {
+        file.putInt((long)i * Page.PAGE_SIZE + 8, i);
+      }
+      for (int i = 0; i < PAGES_COUNT; i++) {
+        assertEquals(i, file.getInt((long)i * Page.PAGE_SIZE + 8));
+      }
+    }
+    finally {
+      file.dispose();
+    }
+
+    file = new RandomAccessDataFile(myFile, myPool);
+    try {
+      for (int i = 0; i < PAGES_COUNT; i++) {
+        assertEquals(i, file.getInt((long)i * Page.PAGE_SIZE + 8));
+      }
+    }
+    finally {
+      file.dispose();
+    }
+
+    PagePool.Statistics statistics = myPool.getStatistics();
+    assertTrue(statistics.toString(), statistics.misses >= PAGES_COUNT);
+    assertTrue(statistics.toString(), statistics.writeBacks > 0);
+    assertEquals(statistics.toString(), 0, statistics.pendingWriteBacks);
+  }
+
+  public void testHotPagesSurviveScan() throws Exception {
+    ShardedPagePool pool = new ShardedPagePool(8 * Page.PAGE_SIZE, 1);
+    RandomAccessDataFile file = new RandomAccessDataFile(myFile, pool);
+    try {
+      file.putInt(0, 0);
+      for (int i = 0; i < 3; i++) {
+        file.getInt(0);
+      }
+      // scan is longer than the pool, LRU would have evicted the first page
+      for (int i = 1; i <= 20; i++) {
+        file.putInt((long)i * Page.PAGE_SIZE, i);
+      }
+
+      long hitsBefore = pool.getStatistics().hits;
+      file.getInt(0);
+      assertEquals(hitsBefore + 1, pool.getStatistics().hits);
+    }
+    finally {
+      file.dispose();
+    }
+  }
+
+  public void testConcurrentAccess() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    final List<File> files = new ArrayList<File>();
+    try {
+      List<Future<?>> futures = new ArrayList<Future<?>>();
+      for (int t = 0; t < 4; t++) {
+        final File ioFile = FileUtil.createTempFile("page", "pool");
+        files.add(ioFile);
+        futures.add(executor.submit(new Callable<Object>() {
+          @Override
+          public Object call() throws Exception {
+            RandomAccessDataFile file = new RandomAccessDataFile(ioFile, myPool);
+            try {
+              for (int i = 0; i < PAGES_COUNT; i++) {
+                file.putInt((long)i * Page.PAGE_SIZE, i);
+              }
+              for (int i = 0; i < PAGES_COUNT; i++) {
+                assertEquals(i, file.getInt((long)i * Page.PAGE_SIZE));
+              }
+              file.force();
+            }
+            finally {
+              file.dispose();
+            }
+            return null;
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    }
+    finally {
+      executor.shutdownNow();
+      for (File file : files) {
+        FileUtil.delete(file);
+      }
+    }
+  }
+}
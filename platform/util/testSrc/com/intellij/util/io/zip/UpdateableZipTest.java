@@ -23,10 +23,9 @@ import com.intellij.openapi.util.io.FileUtil;
 import junit.framework.TestCase;
 
 import java.io.*;
-import java.util.zip.CRC32;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
-import java.util.zip.ZipOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.*;
 
 public class UpdateableZipTest extends TestCase {
   private File zipFile;
@@ -108,6 +107,116 @@ public class UpdateableZipTest extends TestCase {
     utilZip.close();
   }
   
+  public void testAppendDeflatedEntries() throws Exception {
+    File zipFile = FileUtil.createTempFile("test", ".zip");
+    try {
+      JBZipFile jbZip = new JBZipFile(zipFile);
+      for (String name : new String[]{"/first", "/second"}) {
+        JBZipEntry entry = jbZip.getOrCreateEntry(name);
+        entry.setMethod(ZipEntry.DEFLATED);
+        entry.setData(name.substring(1).getBytes());
+      }
+      jbZip.close();
+
+      ZipFile utilZip = new ZipFile(zipFile);
+      assertEquals("first", FileUtil.loadTextAndClose(new InputStreamReader(utilZip.getInputStream(utilZip.getEntry("/first")))));
+      assertEquals("second", FileUtil.loadTextAndClose(new InputStreamReader(utilZip.getInputStream(utilZip.getEntry("/second")))));
+      utilZip.close();
+    }
+    finally {
+      FileUtil.delete(zipFile);
+    }
+  }
+
+  public void testAppendStreamedEntry() throws Exception {
+    File zipFile = FileUtil.createTempFile("test", ".zip");
+    try {
+      byte[] content = new byte[3 * 1024 * 1024 + 17];
+      Random random = new Random(0);
+      for (int i = 0; i < content.length; i++) {
+        content[i] = (byte)('a' + random.nextInt(4));
+      }
+
+      JBZipFile jbZip = new JBZipFile(zipFile);
+      jbZip.getOrCreateEntry("/first").setData("first".getBytes());
+      jbZip.getOrCreateEntry("/streamed").setData(new ByteArrayInputStream(content), 0);
+      jbZip.getOrCreateEntry("/second").setData("second".getBytes());
+      jbZip.close();
+
+      ZipFile utilZip = new ZipFile(zipFile);
+      ZipEntry streamed = utilZip.getEntry("/streamed");
+      assertEquals(ZipEntry.DEFLATED, streamed.getMethod());
+      assertTrue(streamed.getCompressedSize() < content.length);
+      assertTrue(Arrays.equals(content, FileUtil.loadBytes(utilZip.getInputStream(streamed))));
+      assertEquals("second", FileUtil.loadTextAndClose(new InputStreamReader(utilZip.getInputStream(utilZip.getEntry("/second")))));
+      utilZip.close();
+
+      // sizes and CRC in the local header are checked by the stream
+      ZipInputStream zipStream = new ZipInputStream(new FileInputStream(zipFile));
+      try {
+        assertEquals("/first", zipStream.getNextEntry().getName());
+        assertEquals("/streamed", zipStream.getNextEntry().getName());
+        assertTrue(Arrays.equals(content, FileUtil.loadBytes(zipStream)));
+        assertEquals("/second", zipStream.getNextEntry().getName());
+      }
+      finally {
+        zipStream.close();
+      }
+    }
+    finally {
+      FileUtil.delete(zipFile);
+    }
+  }
+
+  public void testCopyRawEntry() throws Exception {
+    File sourceFile = FileUtil.createTempFile("source", ".zip");
+    File targetFile = FileUtil.createTempFile("target", ".zip");
+    try {
+      ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(sourceFile)));
+      zos.putNextEntry(new ZipEntry("/deflated"));
+      zos.write("deflated deflated deflated".getBytes());
+      zos.closeEntry();
+      appendEntry(zos, "/stored", "stored".getBytes());
+      zos.close();
+
+      JBZipFile source = new JBZipFile(sourceFile, "UTF-8", true);
+      JBZipFile target = new JBZipFile(targetFile);
+      try {
+        assertEquals(ZipEntry.DEFLATED, source.getEntry("/deflated").getMethod());
+        target.getOrCreateEntry("/first").setRawData(source.getEntry("/deflated"), 0);
+        target.getOrCreateEntry("/second").setRawData(source.getEntry("/stored"), 0);
+      }
+      finally {
+        target.close();
+        source.close();
+      }
+
+      ZipFile utilZip = new ZipFile(targetFile);
+      assertEquals("deflated deflated deflated",
+                   FileUtil.loadTextAndClose(new InputStreamReader(utilZip.getInputStream(utilZip.getEntry("/first")))));
+      assertEquals("stored", FileUtil.loadTextAndClose(new InputStreamReader(utilZip.getInputStream(utilZip.getEntry("/second")))));
+      utilZip.close();
+    }
+    finally {
+      FileUtil.delete(sourceFile);
+      FileUtil.delete(targetFile);
+    }
+  }
+
+  public void testReadonly() throws Exception {
+    JBZipFile jbZip = new JBZipFile(zipFile, "UTF-8", true);
+    try {
+      assertEntryWithContentExists(jbZip, "/first", "first");
+      jbZip.getOrCreateEntry("/third").setData("third".getBytes());
+      fail("read-only archive must not be modified");
+    }
+    catch (IOException ignored) {
+    }
+    finally {
+      jbZip.close();
+    }
+  }
+
   /*
   public void testAppendToIdeaJar() throws Exception {
     //ProfilingUtil.startCPUProfiling();
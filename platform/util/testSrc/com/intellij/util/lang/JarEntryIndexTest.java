@@ -0,0 +1,141 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.lang;
+
+import com.intellij.openapi.util.io.FileUtil;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+public class JarEntryIndexTest extends TestCase {
+  private File myDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDir = FileUtil.createTempDirectory("jarIndex", null);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtil.delete(myDir);
+    super.tearDown();
+  }
+
+  public void testEntriesMatchZipFile() throws Exception {
+    File jar = new File(myDir, "test.jar");
+    createJar(jar, "content");
+    File indexDir = new File(myDir, "index");
+
+    JarEntryIndex index = JarEntryIndex.getIndex(jar, indexDir);
+    assertNotNull(index);
+    assertEquals(1, indexDir.list().length);
+
+    ZipFile zipFile = new ZipFile(jar);
+    RandomAccessFile file = new RandomAccessFile(jar, "r");
+    try {
+      Set<String> names = new HashSet<String>();
+      for (Enumeration<? extends ZipEntry> entries = zipFile.entries(); entries.hasMoreElements(); ) {
+        ZipEntry zipEntry = entries.nextElement();
+        names.add(zipEntry.getName());
+        JarEntryIndex.Entry entry = index.findEntry(zipEntry.getName());
+        assertNotNull(zipEntry.getName(), entry);
+        byte[] expected = FileUtil.loadBytes(zipFile.getInputStream(zipEntry));
+        assertTrue(zipEntry.getName(), Arrays.equals(expected, entry.read(file)));
+      }
+
+      Set<String> indexedNames = new HashSet<String>();
+      for (int i = 0; i < index.getEntryCount(); i++) {
+        indexedNames.add(index.getEntryName(i));
+      }
+      assertEquals(names, indexedNames);
+
+      assertNotNull(index.findEntry("dir"));
+      assertNull(index.findEntry("dir/missing.txt"));
+      assertNull(index.findEntry("stored"));
+    }
+    finally {
+      file.close();
+      zipFile.close();
+    }
+  }
+
+  public void testIndexIsRebuiltWhenJarChanges() throws Exception {
+    File jar = new File(myDir, "test.jar");
+    createJar(jar, "old");
+    File indexDir = new File(myDir, "index");
+    assertNotNull(JarEntryIndex.getIndex(jar, indexDir));
+
+    createJar(jar, "new content");
+    assertTrue(jar.setLastModified(jar.lastModified() + 10000));
+    JarEntryIndex index = JarEntryIndex.getIndex(jar, indexDir);
+    assertNotNull(index);
+    RandomAccessFile file = new RandomAccessFile(jar, "r");
+    try {
+      JarEntryIndex.Entry entry = index.findEntry("stored.txt");
+      assertNotNull(entry);
+      assertEquals("new content", new String(entry.read(file), "UTF-8"));
+    }
+    finally {
+      file.close();
+    }
+  }
+
+  private static void createJar(File jar, String storedContent) throws IOException {
+    ZipOutputStream output = new ZipOutputStream(new FileOutputStream(jar));
+    try {
+      output.putNextEntry(new ZipEntry("dir/"));
+      output.closeEntry();
+
+      StringBuilder text = new StringBuilder();
+      for (int i = 0; i < 1000; i++) {
+        text.append("line ").append(i).append('\n');
+      }
+      output.putNextEntry(new ZipEntry("dir/deflated.txt"));
+      output.write(text.toString().getBytes("UTF-8"));
+      output.closeEntry();
+
+      byte[] bytes = storedContent.getBytes("UTF-8");
+      ZipEntry stored = new ZipEntry("stored.txt");
+      stored.setMethod(ZipEntry.STORED);
+      stored.setSize(bytes.length);
+      CRC32 crc = new CRC32();
+      crc.update(bytes);
+      stored.setCrc(crc.getValue());
+      output.putNextEntry(stored);
+      output.write(bytes);
+      output.closeEntry();
+
+      output.putNextEntry(new ZipEntry("dir/\u043f\u0440\u0438\u0432\u0435\u0442.class"));
+      output.write(new byte[]{(byte)0xCA, (byte)0xFE, (byte)0xBA, (byte)0xBE});
+      output.closeEntry();
+    }
+    finally {
+      output.close();
+    }
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.text;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+public class ImmutableTextTest extends TestCase {
+  public void testValueOf() {
+    assertSame(ImmutableText.EMPTY, ImmutableText.valueOf(""));
+    String text = randomText(new Random(0), 10 * ImmutableText.LEAF_SIZE + 17);
+    ImmutableText immutableText = ImmutableText.valueOf(text);
+    assertEquals(text, immutableText.toString());
+    assertSame(immutableText, ImmutableText.valueOf(immutableText));
+    for (int i = 0; i < text.length(); i++) {
+      assertEquals(text.charAt(i), immutableText.charAt(i));
+    }
+  }
+
+  public void testSnapshotsAreNotAffectedByEdits() {
+    ImmutableText original = ImmutableText.valueOf("abcdef");
+    ImmutableText inserted = original.insert(3, "xyz");
+    ImmutableText deleted = inserted.delete(0, 2);
+    ImmutableText replaced = deleted.replace(1, 4, "-");
+
+    assertEquals("abcdef", original.toString());
+    assertEquals("abcxyzdef", inserted.toString());
+    assertEquals("cxyzdef", deleted.toString());
+    assertEquals("c-def", replaced.toString());
+    assertEquals("xyz", inserted.subSequence(3, 6).toString());
+  }
+
+  public void testRandomEdits() {
+    Random random = new Random(42);
+    StringBuilder expected = new StringBuilder(randomText(random, 5000));
+    ImmutableText text = ImmutableText.valueOf(expected);
+    for (int i = 0; i < 20000; i++) {
+      int start = random.nextInt(expected.length() + 1);
+      int end = Math.min(expected.length(), start + random.nextInt(100));
+      switch (random.nextInt(3)) {
+        case 0:
+          String inserted = randomText(random, random.nextInt(random.nextBoolean() ? 10 : 2000));
+          expected.insert(start, inserted);
+          text = text.insert(start, inserted);
+          break;
+        case 1:
+          expected.delete(start, end);
+          text = text.delete(start, end);
+          break;
+        default:
+          String replacement = randomText(random, random.nextInt(50));
+          expected.replace(start, end, replacement);
+          text = text.replace(start, end, replacement);
+      }
+      assertEquals(expected.length(), text.length());
+      if (expected.length() > 0) {
+        int index = random.nextInt(expected.length());
+        assertEquals(expected.charAt(index), text.charAt(index));
+      }
+      if (i % 1000 == 0) {
+        assertEquals(expected.toString(), text.toString());
+      }
+    }
+    assertEquals(expected.toString(), text.toString());
+
+    int from = expected.length() / 3;
+    int to = expected.length() * 2 / 3;
+    assertEquals(expected.substring(from, to), text.subtext(from, to).toString());
+    char[] chars = new char[to - from + 2];
+    text.getChars(from, to, chars, 1);
+    assertEquals(expected.substring(from, to), new String(chars, 1, to - from));
+  }
+
+  public void testTreeStaysBalanced() {
+    ImmutableText text = ImmutableText.EMPTY;
+    // appending char by char is the worst case for an unbalanced tree
+    for (int i = 0; i < 200000; i++) {
+      text = text.insert(text.length(), String.valueOf((char)('a' + i % 26)));
+    }
+    Random random = new Random(1);
+    for (int i = 0; i < 10000; i++) {
+      text = text.insert(random.nextInt(text.length()), "x");
+    }
+    int leaves = text.length() / ImmutableText.LEAF_SIZE + 1;
+    int maxDepth = (int)(1.45 * Math.log(leaves) / Math.log(2)) + 2;
+    assertTrue(text.getDepth() + " > " + maxDepth, text.getDepth() <= maxDepth);
+  }
+
+  public void testOutOfBounds() {
+    ImmutableText text = ImmutableText.valueOf("abc");
+    try {
+      text.charAt(3);
+      fail();
+    }
+    catch (IndexOutOfBoundsException ignored) {
+    }
+    try {
+      text.delete(2, 4);
+      fail();
+    }
+    catch (IndexOutOfBoundsException ignored) {
+    }
+  }
+
+  private static String randomText(Random random, int length) {
+    char[] chars = new char[length];
+    for (int i = 0; i < length; i++) {
+      chars[i] = (char)('a' + random.nextInt(26));
+    }
+    return new String(chars);
+  }
+}
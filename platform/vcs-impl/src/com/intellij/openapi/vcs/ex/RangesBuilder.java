@@ -16,7 +16,9 @@
 package com.intellij.openapi.vcs.ex;
 
 import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.util.ArrayUtil;
+import com.intellij.util.diff.CancellationChecker;
 import com.intellij.util.diff.Diff;
 import com.intellij.util.diff.FilesTooBigForDiffException;
 
@@ -28,6 +30,13 @@ import java.util.List;
  */
 
 public class RangesBuilder {
+  private static final CancellationChecker PROGRESS_CHECKER = new CancellationChecker() {
+    @Override
+    public void checkCanceled() {
+      ProgressManager.checkCanceled();
+    }
+  };
+
   private List<Range> myRanges;
 
   public RangesBuilder(Document current, Document upToDate) throws FilesTooBigForDiffException {
@@ -37,7 +46,7 @@ public class RangesBuilder {
   public RangesBuilder(List<String> current, List<String> upToDate, int shift, int uShift) throws FilesTooBigForDiffException {
     myRanges = new LinkedList<Range>();
 
-    Diff.Change ch = Diff.buildChanges(ArrayUtil.toStringArray(upToDate), ArrayUtil.toStringArray(current));
+    Diff.Change ch = Diff.buildChanges(ArrayUtil.toStringArray(upToDate), ArrayUtil.toStringArray(current), PROGRESS_CHECKER);
 
 
     while (ch != null) {
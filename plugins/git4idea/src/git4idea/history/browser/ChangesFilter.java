@@ -166,6 +166,10 @@ public class ChangesFilter {
       };
     }
 
+    public String getRegexp() {
+      return myRegexp;
+    }
+
     public CommandParametersFilter getCommandParametersFilter() {
       return myCommandParametersFilter;
     }
@@ -218,6 +222,10 @@ public class ChangesFilter {
       };
     }
 
+    public String getRegexp() {
+      return myRegexp;
+    }
+
     public CommandParametersFilter getCommandParametersFilter() {
       return myCommandParametersFilter;
     }
@@ -268,6 +276,10 @@ public class ChangesFilter {
       };
     }
 
+    public Date getDate() {
+      return myDate;
+    }
+
     public CommandParametersFilter getCommandParametersFilter() {
       return myCommandParametersFilter;
     }
@@ -318,6 +330,10 @@ public class ChangesFilter {
       };
     }
 
+    public Date getDate() {
+      return myDate;
+    }
+
     public CommandParametersFilter getCommandParametersFilter() {
       return myCommandParametersFilter;
     }
@@ -0,0 +1,419 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package git4idea.history.wholeTree;
+
+import com.intellij.execution.process.ProcessOutputTypes;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Getter;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.ArrayUtil;
+import com.intellij.util.AsynchConsumer;
+import com.intellij.util.Processor;
+import com.intellij.util.SystemProperties;
+import com.intellij.util.concurrency.Semaphore;
+import git4idea.commands.GitCommand;
+import git4idea.commands.GitLineHandler;
+import git4idea.commands.GitLineHandlerListener;
+import git4idea.commands.GitSimpleHandler;
+import git4idea.history.browser.ChangesFilter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * !! application-level
+ * <p/>
+ * Persistent commit graph of git roots, which answers {@code git log --all --date-order} with hashes, parents, times and
+ * authors, as the log skeleton is loaded, without running git over the whole history each time the log is opened or
+ * refreshed.
+ * <p/>
+ * The index of a root is brought up to date by running {@code git log} only for the commits which are not reachable from
+ * the heads indexed the previous time, so after the first load of a big repository an update costs about as much as the
+ * number of new commits.
+ * <p/>
+ * Author and committer filters are applied by the index only if their patterns are literal strings, e.g. escaped user names:
+ * git interprets them as POSIX basic regular expressions, which don't agree with Java ones for most operators. Other
+ * patterns are left to git.
+ * <p/>
+ * Roots are indexed independently of each other, each under its own lock.
+ */
+public class GitCommitGraphIndex implements Disposable {
+  private static final Logger LOG = Logger.getInstance("#git4idea.history.wholeTree.GitCommitGraphIndex");
+
+  private static final boolean ENABLED = SystemProperties.getBooleanProperty("git.log.graph.index", true);
+  // old heads passed to "git log --not"; the more of them, the less already indexed commits git prints, but the command
+  // line is limited
+  private static final int MAX_EXCLUDED_HEADS = 300;
+  private static final int GARBAGE_THRESHOLD = 10000;
+  private static final String FIELD_SEPARATOR = "\u0001";
+  private static final String LITERAL_ESCAPES = ".*[]^$\\/@-,:;'\"#%&=!~";
+
+  private final File myDir;
+  private final Map<String, RootIndex> myRoots = new HashMap<String, RootIndex>();
+  private boolean myDisposed; // guarded by myRoots
+
+  public GitCommitGraphIndex() {
+    myDir = new File(new File(PathManager.getSystemPath(), "vcs"), "git_graph");
+  }
+
+  public static GitCommitGraphIndex getInstance() {
+    return ServiceManager.getService(GitCommitGraphIndex.class);
+  }
+
+  /**
+   * Feeds the consumer with commits of the root as {@code GitHistoryUtils.hashesWithParents()} does for
+   * {@code --all --date-order}.
+   *
+   * @param refresh whether to bring the index up to date with the repository first; otherwise, it's brought up to date only
+   *                if the root hasn't been indexed in this session yet
+   * @return false if the index can't answer the query with the given filters, and git should be asked instead
+   */
+  public boolean loadHashesWithParents(@NotNull Project project,
+                                       @NotNull VirtualFile root,
+                                       @NotNull Collection<ChangesFilter.Filter> filters,
+                                       @NotNull final AsynchConsumer<CommitHashPlusParents> consumer,
+                                       @NotNull final Getter<Boolean> isCanceled,
+                                       final int maxCount,
+                                       boolean refresh) throws VcsException {
+    if (!ENABLED) return false;
+
+    long before = 0;
+    long after = 0;
+    List<String> userRegexps = new ArrayList<String>();
+    for (ChangesFilter.Filter filter : filters) {
+      if (filter instanceof ChangesFilter.BeforeDate) {
+        long time = ((ChangesFilter.BeforeDate)filter).getDate().getTime();
+        before = before == 0 ? time : Math.min(before, time);
+      }
+      else if (filter instanceof ChangesFilter.AfterDate) {
+        after = Math.max(after, ((ChangesFilter.AfterDate)filter).getDate().getTime());
+      }
+      else if (filter instanceof ChangesFilter.Author) {
+        String regexp = ((ChangesFilter.Author)filter).getRegexp();
+        if (!isLiteral(regexp)) return false;
+        userRegexps.add(regexp);
+      }
+      else if (filter instanceof ChangesFilter.Committer) {
+        String regexp = ((ChangesFilter.Committer)filter).getRegexp();
+        if (!isLiteral(regexp)) return false;
+        userRegexps.add(regexp);
+      }
+      else {
+        return false;
+      }
+    }
+    // git matches a commit if any of --author and --committer patterns matches
+    Pattern userPattern = null;
+    if (!userRegexps.isEmpty()) {
+      StringBuilder regexp = new StringBuilder();
+      for (String userRegexp : userRegexps) {
+        if (regexp.length() > 0) regexp.append('|');
+        regexp.append("(?:").append(userRegexp).append(')');
+      }
+      userPattern = Pattern.compile(regexp.toString());
+    }
+
+    String key = root.getPath();
+    RootIndex rootIndex;
+    synchronized (myRoots) {
+      if (myDisposed) return false;
+      rootIndex = myRoots.get(key);
+      if (rootIndex == null) {
+        rootIndex = new RootIndex(new File(myDir, getDirName(root)));
+        myRoots.put(key, rootIndex);
+      }
+    }
+
+    // the consumer is fed outside the lock, so that a slow one doesn't hold up loading of the root elsewhere
+    final List<CommitHashPlusParents> commits = new ArrayList<CommitHashPlusParents>();
+    synchronized (rootIndex) {
+      if (rootIndex.myClosed) return false;
+      try {
+        if (rootIndex.myStorage == null) {
+          rootIndex.myStorage = GitCommitGraphStorage.open(rootIndex.myDir);
+          refresh = true;
+        }
+        if (refresh) {
+          update(project, root, rootIndex);
+        }
+
+        rootIndex.myStorage.iterate(before, after, userPattern, new Processor<CommitHashPlusParents>() {
+          @Override
+          public boolean process(CommitHashPlusParents commit) {
+            if (maxCount > 0 && commits.size() >= maxCount) return false;
+            if ((commits.size() + 1) % 100 == 0 && isCanceled.get()) return false;
+            commits.add(commit);
+            return true;
+          }
+        });
+      }
+      catch (IOException e) {
+        LOG.info("Commit graph index of " + root.getPath() + " is broken, rebuilding", e);
+        rootIndex.drop();
+        return false;
+      }
+      catch (VcsException e) {
+        // the storage may have been left with a part of the update in memory; it's discarded on reopen
+        rootIndex.close();
+        throw e;
+      }
+    }
+
+    try {
+      for (CommitHashPlusParents commit : commits) {
+        consumer.consume(commit);
+      }
+    }
+    catch (ProcessCanceledException e) {
+      // the consumer doesn't want more, same as for the git process
+    }
+    consumer.finished();
+    return true;
+  }
+
+  /**
+   * @return true if the pattern matches the same strings as a Java regular expression and as git's basic one, i.e. it only has
+   * letters, digits and characters escaped to stand for themselves
+   */
+  static boolean isLiteral(@NotNull String regexp) {
+    for (int i = 0; i < regexp.length(); i++) {
+      char c = regexp.charAt(i);
+      if (c == '\\') {
+        if (++i == regexp.length()) return false;
+        // in git some escaped characters are operators, e.g. \| or \<
+        if (LITERAL_ESCAPES.indexOf(regexp.charAt(i)) < 0) return false;
+      }
+      else if (!Character.isLetterOrDigit(c) && c != ' ' && c != '_') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void update(@NotNull Project project, @NotNull VirtualFile root, @NotNull RootIndex rootIndex)
+    throws VcsException, IOException {
+    GitCommitGraphStorage storage = rootIndex.myStorage;
+    assert storage != null;
+    String[] heads = loadHeads(project, root);
+    String[] oldHeads = storage.getHeads();
+    if (new HashSet<String>(Arrays.asList(heads)).equals(new HashSet<String>(Arrays.asList(oldHeads)))) {
+      return;
+    }
+
+    long start = System.currentTimeMillis();
+    int commitsBefore = storage.getCommitCount();
+    GitCommitGraphStorage.Update update = storage.startUpdate();
+    boolean committed = false;
+    try {
+      if (heads.length > 0) {
+        List<String> excluded = new ArrayList<String>();
+        for (String head : oldHeads) {
+          if (excluded.size() >= MAX_EXCLUDED_HEADS) break;
+          excluded.add(head);
+        }
+        // an old head which was force-pushed over may have been pruned by gc, and git log fails on it as a bad revision
+        appendNewCommits(project, root, update, filterExisting(project, root, excluded));
+      }
+      update.commit(heads);
+      committed = true;
+    }
+    finally {
+      if (!committed) {
+        update.abort();
+      }
+    }
+    LOG.info("Commit graph index of " + root.getPath() + " updated in " + (System.currentTimeMillis() - start) + " ms: " +
+             (storage.getCommitCount() - commitsBefore) + " commits added, " + storage.getCommitCount() + " total");
+
+    // history rewrites leave commits nobody refers to anymore; start from scratch when they take much space
+    int garbage = storage.getCommitCount() - storage.getReachableCount();
+    if (garbage > GARBAGE_THRESHOLD && garbage > storage.getCommitCount() / 2) {
+      rootIndex.drop();
+      rootIndex.myStorage = GitCommitGraphStorage.open(rootIndex.myDir);
+      update(project, root, rootIndex);
+    }
+  }
+
+  /**
+   * @return commits referred by HEAD and refs, the same as {@code git log --all} starts from
+   */
+  @NotNull
+  private static String[] loadHeads(@NotNull Project project, @NotNull VirtualFile root) throws VcsException {
+    GitSimpleHandler h = new GitSimpleHandler(project, root, GitCommand.REV_LIST);
+    h.setNoSSH(true);
+    h.setSilent(true);
+    h.addParameters("--no-walk", "--all");
+    h.endOptions();
+    return ArrayUtil.toStringArray(parseHashes(h.run()));
+  }
+
+  /**
+   * @return the commits which are still present in the repository, in the same order
+   */
+  @NotNull
+  private static List<String> filterExisting(@NotNull Project project, @NotNull VirtualFile root, @NotNull List<String> hashes)
+    throws VcsException {
+    if (hashes.isEmpty()) return hashes;
+
+    GitSimpleHandler h = new GitSimpleHandler(project, root, GitCommand.REV_LIST);
+    h.setNoSSH(true);
+    h.setSilent(true);
+    h.addParameters("--no-walk", "--ignore-missing");
+    h.addParameters(hashes);
+    h.endOptions();
+    Set<String> existing = parseHashes(h.run());
+
+    List<String> result = new ArrayList<String>(hashes.size());
+    for (String hash : hashes) {
+      if (existing.contains(hash)) {
+        result.add(hash);
+      }
+      else {
+        LOG.info("Commit " + hash + " indexed as a head of " + root.getPath() + " is not in the repository anymore");
+      }
+    }
+    return result;
+  }
+
+  @NotNull
+  private static Set<String> parseHashes(@NotNull String output) {
+    Set<String> hashes = new LinkedHashSet<String>();
+    for (StringTokenizer tokenizer = new StringTokenizer(output, "\n\r \t", false); tokenizer.hasMoreTokens(); ) {
+      hashes.add(tokenizer.nextToken());
+    }
+    return hashes;
+  }
+
+  private static void appendNewCommits(@NotNull Project project,
+                                       @NotNull VirtualFile root,
+                                       @NotNull final GitCommitGraphStorage.Update update,
+                                       @NotNull List<String> excludedHeads) throws VcsException, IOException {
+    final GitLineHandler h = new GitLineHandler(project, root, GitCommand.LOG);
+    h.setNoSSH(true);
+    h.setSilent(true);
+    h.addParameters("--all", "--date-order", "--encoding=UTF-8",
+                    "--pretty=format:%H%x01%h%x01%ct%x01%an <%ae>%x01%cn <%ce>%x01%P");
+    if (!excludedHeads.isEmpty()) {
+      h.addParameters("--not");
+      h.addParameters(excludedHeads);
+    }
+    h.endOptions();
+
+    final Semaphore semaphore = new Semaphore();
+    final Exception[] exception = new Exception[1];
+    h.addLineListener(new GitLineHandlerListener() {
+      @Override
+      public void onLineAvailable(String line, Key outputType) {
+        if (!ProcessOutputTypes.STDOUT.equals(outputType) || line.length() == 0 || exception[0] != null) return;
+        try {
+          String[] fields = line.split(FIELD_SEPARATOR, -1);
+          if (fields.length != 6) throw new VcsException("Can not parse git log output: " + line);
+          String[] parents = fields[5].length() == 0 ? ArrayUtil.EMPTY_STRING_ARRAY : fields[5].split(" ");
+          update.append(fields[0], fields[1], Long.parseLong(fields[2]) * 1000, fields[3], fields[4], parents);
+        }
+        catch (Exception e) {
+          exception[0] = e;
+          h.cancel();
+        }
+      }
+
+      @Override
+      public void processTerminated(int exitCode) {
+        if (exitCode != 0 && exception[0] == null) {
+          exception[0] = new VcsException("git log exited with code " + exitCode);
+        }
+        semaphore.up();
+      }
+
+      @Override
+      public void startFailed(Throwable e) {
+        exception[0] = new VcsException(e);
+        semaphore.up();
+      }
+    });
+    semaphore.down();
+    h.start();
+    semaphore.waitFor();
+
+    if (exception[0] instanceof IOException) throw (IOException)exception[0];
+    if (exception[0] instanceof VcsException) throw (VcsException)exception[0];
+    if (exception[0] != null) throw new VcsException(exception[0]);
+  }
+
+  @NotNull
+  private static String getDirName(@NotNull VirtualFile root) {
+    return root.getName() + "_" + Integer.toHexString(FileUtil.pathHashCode(root.getPath()));
+  }
+
+  @Override
+  public void dispose() {
+    List<RootIndex> roots;
+    synchronized (myRoots) {
+      myDisposed = true;
+      roots = new ArrayList<RootIndex>(myRoots.values());
+      myRoots.clear();
+    }
+    for (RootIndex rootIndex : roots) {
+      synchronized (rootIndex) {
+        rootIndex.close();
+        rootIndex.myClosed = true;
+      }
+    }
+  }
+
+  /**
+   * The storage of a root, accessed under the lock on this object.
+   */
+  private static class RootIndex {
+    private final File myDir;
+    @Nullable private GitCommitGraphStorage myStorage;
+    private boolean myClosed;
+
+    private RootIndex(@NotNull File dir) {
+      myDir = dir;
+    }
+
+    private void close() {
+      GitCommitGraphStorage storage = myStorage;
+      myStorage = null;
+      if (storage != null) {
+        try {
+          storage.close();
+        }
+        catch (IOException e) {
+          LOG.info(e);
+        }
+      }
+    }
+
+    private void drop() {
+      close();
+      FileUtil.delete(myDir);
+    }
+  }
+}
@@ -0,0 +1,454 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package git4idea.history.wholeTree;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.ArrayUtil;
+import com.intellij.util.Processor;
+import com.intellij.util.io.IOUtil;
+import com.intellij.util.io.PersistentStringEnumerator;
+import gnu.trove.*;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * On-disk commit graph of one git repository, see {@link GitCommitGraphIndex}.
+ * <p/>
+ * Full hashes and user identities ("name &lt;email&gt;") are enumerated by {@link PersistentStringEnumerator}s; commits are
+ * appended to a data file as records of the hash id, length of the abbreviated hash git printed, commit time, author and
+ * committer ids and parent hash ids. The records are read into int/long arrays on open, so the graph is walked without
+ * touching the disk; hashes and identities are read from the enumerators only for the commits actually returned.
+ * <p/>
+ * The state file holds the length of the data file and the heads the commits were indexed from, and is rewritten after
+ * every update, so an update which hasn't completed is discarded on next open. Commits which are no longer reachable from the
+ * heads are kept, but skipped by {@link #iterate}.
+ * <p/>
+ * Not thread-safe.
+ */
+class GitCommitGraphStorage {
+  private static final int VERSION = 1;
+
+  private final File myDir;
+  private final File myStateFile;
+  private final File myCommitsFile;
+  private final PersistentStringEnumerator myHashes;
+  private final PersistentStringEnumerator myUsers;
+
+  private final TIntArrayList myHashIds = new TIntArrayList();
+  private final TIntArrayList myAbbreviationLengths = new TIntArrayList();
+  private final TLongArrayList myTimes = new TLongArrayList();
+  private final TIntArrayList myAuthors = new TIntArrayList();
+  private final TIntArrayList myCommitters = new TIntArrayList();
+  private final TIntArrayList myParentsStarts = new TIntArrayList();
+  private final TIntArrayList myParents = new TIntArrayList();
+  // hash id -> commit number + 1
+  private final TIntIntHashMap myCommitsByHashId = new TIntIntHashMap();
+  private final TIntObjectHashMap<String> myUserNames = new TIntObjectHashMap<String>();
+  private long myCommitsLength;
+  private String[] myHeads;
+
+  // commits reachable from the heads, in date order; computed on demand
+  @Nullable private int[] myOrder;
+  // myMinTimes[i] - minimal time of myOrder[0..i]
+  private long[] myMinTimes;
+
+  private GitCommitGraphStorage(@NotNull File dir) throws IOException {
+    myDir = dir;
+    myStateFile = new File(dir, "state");
+    myCommitsFile = new File(dir, "commits");
+    String[] heads = ArrayUtil.EMPTY_STRING_ARRAY;
+    long commitsLength = 0;
+    if (myStateFile.exists()) {
+      DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(myStateFile)));
+      try {
+        if (input.readInt() != VERSION) throw new IOException("Index version changed");
+        commitsLength = input.readLong();
+        heads = new String[input.readInt()];
+        for (int i = 0; i < heads.length; i++) {
+          heads[i] = IOUtil.readString(input);
+        }
+      }
+      finally {
+        input.close();
+      }
+    }
+    myHeads = heads;
+    readCommits(commitsLength);
+
+    myHashes = new PersistentStringEnumerator(new File(dir, "hashes"));
+    try {
+      myUsers = new PersistentStringEnumerator(new File(dir, "users"));
+    }
+    catch (IOException e) {
+      myHashes.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Opens the storage, dropping it if it's of an older format or can't be read.
+   */
+  @NotNull
+  static GitCommitGraphStorage open(@NotNull File dir) throws IOException {
+    try {
+      return new GitCommitGraphStorage(dir);
+    }
+    catch (IOException e) {
+      FileUtil.delete(dir);
+      return new GitCommitGraphStorage(dir);
+    }
+  }
+
+  private void readCommits(long length) throws IOException {
+    myParentsStarts.add(0);
+    if (length == 0) {
+      FileUtil.delete(myCommitsFile);
+      return;
+    }
+
+    RandomAccessFile file = new RandomAccessFile(myCommitsFile, "rw");
+    try {
+      // drop the tail an interrupted update may have written
+      if (file.length() < length) throw new IOException("Commits file is truncated");
+      file.setLength(length);
+    }
+    finally {
+      file.close();
+    }
+
+    DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(myCommitsFile), 64 * 1024));
+    try {
+      long position = 0;
+      while (position < length) {
+        int hashId = input.readInt();
+        int abbreviationLength = input.readUnsignedByte();
+        long time = input.readLong();
+        int author = input.readInt();
+        int committer = input.readInt();
+        int parentCount = input.readUnsignedByte();
+        int[] parents = new int[parentCount];
+        for (int i = 0; i < parentCount; i++) {
+          parents[i] = input.readInt();
+        }
+        addCommit(hashId, abbreviationLength, time, author, committer, parents);
+        position += 4 + 1 + 8 + 4 + 4 + 1 + 4 * parentCount;
+      }
+    }
+    finally {
+      input.close();
+    }
+    myCommitsLength = length;
+  }
+
+  private void addCommit(int hashId, int abbreviationLength, long time, int author, int committer, int[] parents) {
+    myCommitsByHashId.put(hashId, myHashIds.size() + 1);
+    myHashIds.add(hashId);
+    myAbbreviationLengths.add(abbreviationLength);
+    myTimes.add(time);
+    myAuthors.add(author);
+    myCommitters.add(committer);
+    myParents.add(parents);
+    myParentsStarts.add(myParents.size());
+  }
+
+  @NotNull
+  String[] getHeads() {
+    return myHeads;
+  }
+
+  int getCommitCount() {
+    return myHashIds.size();
+  }
+
+  /**
+   * @return number of commits reachable from the heads
+   */
+  int getReachableCount() {
+    return getOrder().length;
+  }
+
+  boolean contains(@NotNull String hash) throws IOException {
+    int hashId = myHashes.tryEnumerate(hash);
+    return hashId != 0 && myCommitsByHashId.containsKey(hashId);
+  }
+
+  /**
+   * Starts an update, which is finished by {@link Update#commit(String[])}. The appended commits should be closed under
+   * parents together with the ones already stored, i.e. be all commits reachable from the new heads which aren't reachable
+   * from the {@link #getHeads() old heads}.
+   */
+  @NotNull
+  Update startUpdate() throws IOException {
+    return new Update();
+  }
+
+  class Update {
+    private final DataOutputStream myOutput;
+    private long myLength = myCommitsLength;
+
+    private Update() throws IOException {
+      myOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(myCommitsFile, true), 64 * 1024));
+    }
+
+    /**
+     * @param abbreviatedHash the hash as the log shows it, a prefix of the full one
+     * @param time            commit time in milliseconds
+     */
+    void append(@NotNull String hash, @NotNull String abbreviatedHash, long time, @NotNull String author, @NotNull String committer,
+                @NotNull String[] parents) throws IOException {
+      int hashId = myHashes.enumerate(hash);
+      if (myCommitsByHashId.containsKey(hashId)) return;
+
+      int abbreviationLength = Math.min(hash.length(), abbreviatedHash.length());
+      int authorId = myUsers.enumerate(author);
+      int committerId = myUsers.enumerate(committer);
+      int[] parentIds = new int[parents.length];
+      for (int i = 0; i < parents.length; i++) {
+        parentIds[i] = myHashes.enumerate(parents[i]);
+      }
+
+      myOutput.writeInt(hashId);
+      myOutput.writeByte(abbreviationLength);
+      myOutput.writeLong(time);
+      myOutput.writeInt(authorId);
+      myOutput.writeInt(committerId);
+      myOutput.writeByte(parentIds.length);
+      for (int parentId : parentIds) {
+        myOutput.writeInt(parentId);
+      }
+      myLength += 4 + 1 + 8 + 4 + 4 + 1 + 4 * parentIds.length;
+      addCommit(hashId, abbreviationLength, time, authorId, committerId, parentIds);
+    }
+
+    /**
+     * Closes the data file; the appended commits are dropped on next open, and the storage shouldn't be used until then.
+     */
+    void abort() {
+      try {
+        myOutput.close();
+      }
+      catch (IOException ignored) {
+      }
+    }
+
+    void commit(@NotNull String[] heads) throws IOException {
+      myOutput.close();
+      myHashes.force();
+      myUsers.force();
+
+      File tempFile = new File(myDir, myStateFile.getName() + ".tmp");
+      DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+      try {
+        output.writeInt(VERSION);
+        output.writeLong(myLength);
+        output.writeInt(heads.length);
+        for (String head : heads) {
+          IOUtil.writeString(head, output);
+        }
+      }
+      finally {
+        output.close();
+      }
+      FileUtil.delete(myStateFile);
+      FileUtil.rename(tempFile, myStateFile);
+
+      myCommitsLength = myLength;
+      myHeads = heads;
+      myOrder = null;
+      myMinTimes = null;
+    }
+  }
+
+  void close() throws IOException {
+    try {
+      myHashes.close();
+    }
+    finally {
+      myUsers.close();
+    }
+  }
+
+  /**
+   * Walks commits reachable from the heads in the order of {@code git log --date-order}: newest first, but never a parent
+   * before its child.
+   *
+   * @param before      if positive, only commits with time less than that are processed
+   * @param after       if positive, only commits with time greater than that are processed
+   * @param userPattern if not null, only commits which author or committer identity matches it are processed
+   * @return false if the processor has stopped the walk
+   */
+  boolean iterate(long before, long after, @Nullable Pattern userPattern, @NotNull Processor<CommitHashPlusParents> processor)
+    throws IOException {
+    int[] order = getOrder();
+    int start = 0;
+    if (before > 0) {
+      // minimal times are descending, so the first commit passing the filter is found by the binary search
+      int low = 0;
+      int high = order.length;
+      while (low < high) {
+        int middle = (low + high) >>> 1;
+        if (myMinTimes[middle] < before) {
+          high = middle;
+        }
+        else {
+          low = middle + 1;
+        }
+      }
+      start = low;
+    }
+
+    TIntHashSet matchingUsers = userPattern == null ? null : new TIntHashSet();
+    TIntHashSet checkedUsers = userPattern == null ? null : new TIntHashSet();
+    for (int i = start; i < order.length; i++) {
+      int commit = order[i];
+      long time = myTimes.get(commit);
+      if (before > 0 && time >= before || after > 0 && time <= after) continue;
+      if (userPattern != null &&
+          !matchesUser(myAuthors.get(commit), userPattern, matchingUsers, checkedUsers) &&
+          !matchesUser(myCommitters.get(commit), userPattern, matchingUsers, checkedUsers)) {
+        continue;
+      }
+      if (!processor.process(createCommit(commit))) return false;
+    }
+    return true;
+  }
+
+  private boolean matchesUser(int userId, Pattern pattern, TIntHashSet matchingUsers, TIntHashSet checkedUsers) throws IOException {
+    if (checkedUsers.add(userId)) {
+      String user = myUsers.valueOf(userId);
+      if (user != null && pattern.matcher(user).find()) {
+        matchingUsers.add(userId);
+      }
+    }
+    return matchingUsers.contains(userId);
+  }
+
+  @NotNull
+  private CommitHashPlusParents createCommit(int commit) throws IOException {
+    int parentsStart = myParentsStarts.get(commit);
+    String[] parents = new String[myParentsStarts.get(commit + 1) - parentsStart];
+    for (int i = 0; i < parents.length; i++) {
+      int parentId = myParents.get(parentsStart + i);
+      int parent = myCommitsByHashId.get(parentId) - 1;
+      // a parent beyond a shallow clone boundary isn't indexed, and is shown by its full hash
+      parents[i] = parent >= 0 ? getAbbreviatedHash(parent) : myHashes.valueOf(parentId);
+    }
+    return new CommitHashPlusParents(getAbbreviatedHash(commit), parents, myTimes.get(commit), getUserName(myAuthors.get(commit)));
+  }
+
+  @NotNull
+  private String getAbbreviatedHash(int commit) throws IOException {
+    String hash = myHashes.valueOf(myHashIds.get(commit));
+    return hash.substring(0, Math.min(hash.length(), myAbbreviationLengths.get(commit)));
+  }
+
+  @NotNull
+  private String getUserName(int userId) throws IOException {
+    String name = myUserNames.get(userId);
+    if (name == null) {
+      String user = myUsers.valueOf(userId);
+      int emailStart = user.lastIndexOf(" <");
+      name = emailStart >= 0 ? user.substring(0, emailStart) : user;
+      myUserNames.put(userId, name);
+    }
+    return name;
+  }
+
+  @NotNull
+  private int[] getOrder() {
+    if (myOrder == null) {
+      try {
+        myOrder = computeOrder();
+      }
+      catch (IOException e) {
+        myOrder = ArrayUtil.EMPTY_INT_ARRAY;
+      }
+      myMinTimes = new long[myOrder.length];
+      long minTime = Long.MAX_VALUE;
+      for (int i = 0; i < myOrder.length; i++) {
+        minTime = Math.min(minTime, myTimes.get(myOrder[i]));
+        myMinTimes[i] = minTime;
+      }
+    }
+    return myOrder;
+  }
+
+  /**
+   * Topological sort of the commits reachable from the heads, which picks the newest commit of those which children are all
+   * already taken.
+   */
+  @NotNull
+  private int[] computeOrder() throws IOException {
+    int count = myHashIds.size();
+    BitSet reachable = new BitSet(count);
+    TIntArrayList stack = new TIntArrayList();
+    for (String head : myHeads) {
+      int hashId = myHashes.tryEnumerate(head);
+      int commit = hashId == 0 ? -1 : myCommitsByHashId.get(hashId) - 1;
+      if (commit >= 0 && !reachable.get(commit)) {
+        reachable.set(commit);
+        stack.add(commit);
+      }
+    }
+
+    int[] childCounts = new int[count];
+    while (!stack.isEmpty()) {
+      int commit = stack.remove(stack.size() - 1);
+      for (int i = myParentsStarts.get(commit); i < myParentsStarts.get(commit + 1); i++) {
+        int parent = myCommitsByHashId.get(myParents.get(i)) - 1;
+        if (parent < 0) continue;
+        childCounts[parent]++;
+        if (!reachable.get(parent)) {
+          reachable.set(parent);
+          stack.add(parent);
+        }
+      }
+    }
+
+    PriorityQueue<Integer> queue = new PriorityQueue<Integer>(Math.max(1, myHeads.length), new Comparator<Integer>() {
+      @Override
+      public int compare(Integer o1, Integer o2) {
+        long time1 = myTimes.get(o1);
+        long time2 = myTimes.get(o2);
+        // of the commits with the same time, the one which was indexed first comes first, as git has printed it so
+        return time1 < time2 ? 1 : time1 > time2 ? -1 : o1 - o2;
+      }
+    });
+    for (int commit = reachable.nextSetBit(0); commit >= 0; commit = reachable.nextSetBit(commit + 1)) {
+      if (childCounts[commit] == 0) {
+        queue.add(commit);
+      }
+    }
+
+    int[] order = new int[reachable.cardinality()];
+    int size = 0;
+    while (!queue.isEmpty()) {
+      int commit = queue.poll();
+      order[size++] = commit;
+      for (int i = myParentsStarts.get(commit); i < myParentsStarts.get(commit + 1); i++) {
+        int parent = myCommitsByHashId.get(myParents.get(i)) - 1;
+        if (parent >= 0 && --childCounts[parent] == 0) {
+          queue.add(parent);
+        }
+      }
+    }
+    return size == order.length ? order : Arrays.copyOf(order, size);
+  }
+}
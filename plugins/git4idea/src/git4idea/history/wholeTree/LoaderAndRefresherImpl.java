@@ -12,6 +12,7 @@
  */
 package git4idea.history.wholeTree;
 
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Getter;
@@ -32,6 +33,7 @@ import java.util.*;
  * @author irengrig
  */
 public class LoaderAndRefresherImpl implements LoaderAndRefresher<CommitHashPlusParents> {
+  private static final Logger LOG = Logger.getInstance("#git4idea.history.wholeTree.LoaderAndRefresherImpl");
   private final static int ourFirstLoadCount = 15;
   private final static int ourPreload = (! parameterCheck(Integer.getInteger("git.log.preload.size"))) ? 100 : Integer.getInteger("git.log.preload.size");
 
@@ -57,6 +59,7 @@ public class LoaderAndRefresherImpl implements LoaderAndRefresher<CommitHashPlus
   @NotNull
   private volatile StepType myStepType;
   private final boolean myTopoOrder;
+  private boolean myGraphIndexRefreshed;
 
   private static boolean parameterCheck(final Integer i) {
     return i != null && i > 0;
@@ -281,6 +284,20 @@ public class LoaderAndRefresherImpl implements LoaderAndRefresher<CommitHashPlus
 
   private void loadShort(final long continuation, int maxCount) {
     final Collection<ChangesFilter.Filter> filters = addContinuation(continuation);
+    if (myStartingPoints.isEmpty() && ! myTopoOrder) {
+      // the index is brought up to date once per log (re)load, and serves the following pages as is
+      final boolean refresh = ! myGraphIndexRefreshed;
+      myGraphIndexRefreshed = true;
+      try {
+        if (GitCommitGraphIndex.getInstance().loadHashesWithParents(myProject, myRootHolder.getRoot(), filters, myRepeatingLoadConsumer,
+                                                                    myProgressAnalog, maxCount, refresh)) {
+          return;
+        }
+      }
+      catch (VcsException e) {
+        LOG.info("Can not load commits from the index, asking git", e);
+      }
+    }
     try {
       myLowLevelAccess.loadHashesWithParents(myStartingPoints, filters, myRepeatingLoadConsumer, myProgressAnalog, maxCount, myTopoOrder);
     }
@@ -18,6 +18,7 @@ package git4idea.repo;
 import com.intellij.openapi.Disposable;
 import com.intellij.openapi.components.ServiceManager;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Comparing;
 import com.intellij.openapi.util.Disposer;
 import com.intellij.openapi.vfs.VfsUtil;
 import com.intellij.openapi.vfs.VirtualFile;
@@ -34,6 +35,8 @@ import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * @author Kirill Likhodedov
@@ -213,60 +216,114 @@ public class GitRepositoryImpl implements GitRepository, Disposable {
     connection.subscribe(GIT_REPO_CHANGE, listener);
   }
 
+  /**
+   * Re-reads the given information from disk, and notifies listeners if anything has changed.
+   * Note that files under .git are often touched without changing their meaning (e.g. on fetch with nothing new),
+   * and notifying listeners, which usually re-read the whole repository state, is much more expensive than comparing.
+   */
   @Override
   public void update(TrackedTopic... topics) {
+    boolean changed = false;
     for (TrackedTopic topic : topics) {
       switch (topic) {
-        case STATE:            updateState(); break;
-        case CURRENT_REVISION: updateCurrentRevision(); break;
-        case CURRENT_BRANCH:   updateCurrentBranch(); break;
-        case BRANCHES:         updateBranchList(); break;
-        case CONFIG:           updateConfig(); break;
+        case STATE:            changed |= updateState(); break;
+        case CURRENT_REVISION: changed |= updateCurrentRevision(); break;
+        case CURRENT_BRANCH:   changed |= updateCurrentBranch(); break;
+        case BRANCHES:         changed |= updateBranchList(); break;
+        case CONFIG:           changed |= updateConfig(); break;
         case ALL_CURRENT:
-          updateState();
-          updateCurrentRevision();
-          updateCurrentBranch();
+          changed |= updateState();
+          changed |= updateCurrentRevision();
+          changed |= updateCurrentBranch();
           break;
         case ALL:
-          updateState();
-          updateCurrentRevision();
-          updateCurrentBranch();
-          updateBranchList();
-          updateConfig();
+          changed |= updateState();
+          changed |= updateCurrentRevision();
+          changed |= updateCurrentBranch();
+          changed |= updateBranchList();
+          changed |= updateConfig();
           break;
       }
     }
-    notifyListeners();
+    if (changed) {
+      notifyListeners();
+    }
   }
 
-  private void updateConfig() {
+  /**
+   * The config is not compared, it is considered changed each time it's re-read.
+   */
+  private boolean updateConfig() {
     File configFile = new File(VfsUtil.virtualToIoFile(myGitDir), "config");
     myConfig = GitConfig.read(ServiceManager.getService(PlatformFacade.class), configFile);
+    return true;
   }
 
   /**
-   * Reads current state and notifies listeners about the change.
+   * Reads current state.
+   * @return true if the state has changed.
    */
-  private void updateState() {
-    myState = myReader.readState();
+  private boolean updateState() {
+    State state = myReader.readState();
+    boolean changed = state != myState;
+    myState = state;
+    return changed;
   }
 
   /**
-   * Reads current revision and notifies listeners about the change.
+   * Reads current revision.
+   * @return true if the revision has changed.
    */
-  private void updateCurrentRevision() {
-    myCurrentRevision = myReader.readCurrentRevision();
+  private boolean updateCurrentRevision() {
+    String revision = myReader.readCurrentRevision();
+    boolean changed = !Comparing.equal(revision, myCurrentRevision);
+    myCurrentRevision = revision;
+    return changed;
   }
 
   /**
-   * Reads current branch and notifies listeners about the change.
+   * Reads current branch.
+   * @return true if another branch is current now, or the current branch points to another commit.
    */
-  private void updateCurrentBranch() {
-    myCurrentBranch = myReader.readCurrentBranch();
+  private boolean updateCurrentBranch() {
+    GitBranch branch = myReader.readCurrentBranch();
+    boolean changed = branch == null || myCurrentBranch == null ? branch != myCurrentBranch : !sameBranch(branch, myCurrentBranch);
+    myCurrentBranch = branch;
+    return changed;
   }
 
-  private void updateBranchList() {
-    myBranches = myReader.readBranches();
+  /**
+   * Reads local and remote branches.
+   * @return true if a branch was added, removed or moved to another commit.
+   */
+  private boolean updateBranchList() {
+    GitBranchesCollection branches = myReader.readBranches();
+    boolean changed = !sameBranches(branches.getLocalBranches(), myBranches.getLocalBranches()) ||
+                      !sameBranches(branches.getRemoteBranches(), myBranches.getRemoteBranches());
+    myBranches = branches;
+    return changed;
+  }
+
+  private static boolean sameBranch(@NotNull GitBranch branch1, @NotNull GitBranch branch2) {
+    return branch1.getName().equals(branch2.getName()) && branch1.getHash().equals(branch2.getHash()) &&
+           branch1.isActive() == branch2.isActive();
+  }
+
+  private static boolean sameBranches(@NotNull Collection<GitBranch> branches1, @NotNull Collection<GitBranch> branches2) {
+    if (branches1.size() != branches2.size()) {
+      return false;
+    }
+    Map<String, GitBranch> byName = new HashMap<String, GitBranch>();
+    for (GitBranch branch : branches2) {
+      byName.put(branch.getName(), branch);
+    }
+    for (GitBranch branch : branches1) {
+      GitBranch other = byName.get(branch.getName());
+      if (other == null || !sameBranch(branch, other)) {
+        return false;
+      }
+    }
+    return true;
   }
 
   private void notifyListeners() {
@@ -28,23 +28,18 @@ import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.nio.charset.Charset;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
 import java.util.concurrent.Callable;
-import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
  * Reads information about the Git repository from Git service files located in the {@code .git} folder.
- * NB: works with {@link java.io.File}, i.e. reads from disk. Consider using caching.
+ * NB: works with {@link java.io.File}, i.e. reads from disk. Contents of ref files and of {@code packed-refs} are cached
+ * and are re-read only when the timestamp or the length of the file changes.
  * Throws a {@link GitRepoStateException} in the case of incorrect Git file format.
  * @author Kirill Likhodedov
  */
@@ -60,6 +55,9 @@ class GitRepositoryReader {
   @NonNls private static final String REFS_HEADS_PREFIX = "refs/heads/";
   @NonNls private static final String REFS_REMOTES_PREFIX = "refs/remotes/";
   private static final int    IO_RETRIES        = 3; // number of retries before fail if an IOException happens during file read.
+  // timestamps of some file systems are as coarse as 2 seconds, so a file which was modified that recently may be modified
+  // again without changing its timestamp and length (a ref file is always 41 bytes long): contents of such files are not cached
+  private static final long   RACY_TIMESTAMP_INTERVAL = 2000;
 
   private final File          myGitDir;         // .git/
   private final File          myHeadFile;       // .git/HEAD
@@ -67,6 +65,9 @@ class GitRepositoryReader {
   private final File          myRefsRemotesDir; // .git/refs/remotes/
   private final File          myPackedRefsFile; // .git/packed-refs
 
+  private final Map<String, CachedFile<String>> myRefFiles = new HashMap<String, CachedFile<String>>(); // guarded by itself
+  private volatile CachedFile<Map<String, String>> myPackedRefs;
+
   GitRepositoryReader(@NotNull File gitDir) {
     myGitDir = gitDir;
     assertFileExists(myGitDir, ".git directory not found in " + gitDir);
@@ -103,19 +104,19 @@ class GitRepositoryReader {
       return head.ref;
     }
 
+    return readBranchRevision(head.ref);
+  }
+
+  @Nullable
+  private String readBranchRevision(@NotNull String branchName) {
     // look in /refs/heads/<branch name>
-    File branchFile = null;
-    for (Map.Entry<String, File> entry : readLocalBranches().entrySet()) {
-      if (entry.getKey().equals(head.ref)) {
-        branchFile = entry.getValue();
-      }
-    }
-    if (branchFile != null) {
-      return readBranchFile(branchFile);
+    File branchFile = new File(myRefsHeadsDir, branchName);
+    if (branchFile.isFile()) {
+      return readRefFile(branchFile);
     }
 
     // finally look in packed-refs
-    return findBranchRevisionInPackedRefs(head.ref);
+    return readPackedRefs().get(REFS_HEADS_PREFIX + branchName);
   }
 
   /**
@@ -128,7 +129,7 @@ class GitRepositoryReader {
     Head head = readHead();
     if (head.isBranch) {
       String branchName = head.ref;
-      String hash = readCurrentRevision();  // TODO make this faster, because we know the branch name
+      String hash = readBranchRevision(branchName);
       return new GitBranch(branchName, hash == null ? "" : hash, true, false);
     }
     if (isRebaseInProgress()) {
@@ -176,53 +177,6 @@ class GitRepositoryReader {
     return f.exists();
   }
 
-  /**
-   * Reads the {@code .git/packed-refs} file and tries to find the revision hash for the given reference (branch actually).
-   * @param ref short name of the reference to find. For example, {@code master}.
-   * @return commit hash, or {@code null} if the given ref wasn't found in {@code packed-refs}
-   */
-  @Nullable
-  private String findBranchRevisionInPackedRefs(final String ref) {
-    if (!myPackedRefsFile.exists()) {
-      return null;
-    }
-
-    return tryOrThrow(new Callable<String>() {
-      @Override
-      public String call() throws Exception {
-        BufferedReader reader = null;
-        try {
-          reader = new BufferedReader(new FileReader(myPackedRefsFile));
-          String line;
-          while ((line = reader.readLine()) != null) {
-            final AtomicReference<String> hashRef = new AtomicReference<String>();
-            parsePackedRefsLine(line, new PackedRefsLineResultHandler() {
-              @Override
-              public void handleResult(String hash, String branchName) {
-                if (hash == null || branchName == null) {
-                  return;
-                }
-                if (branchName.endsWith(ref)) {
-                  hashRef.set(hash);
-                }
-              }
-            });
-            
-            if (hashRef.get() != null) {
-              return hashRef.get();
-            }
-          }
-          return null;
-        }
-        finally {
-          if (reader != null) {
-            reader.close();
-          }
-        }
-      }
-    }, myPackedRefsFile);
-  }
-
   /**
    * @return the list of local branches in this Git repository.
    *         key is the branch name, value is the file.
@@ -251,8 +205,13 @@ class GitRepositoryReader {
    * @return all branches in this repository. local/remote/active information is stored in branch objects themselves. 
    */
   GitBranchesCollection readBranches() {
-    Set<GitBranch> localBranches = readUnpackedLocalBranches();
-    Set<GitBranch> remoteBranches = readUnpackedRemoteBranches();
+    Set<String> refPaths = new HashSet<String>();
+    Set<GitBranch> localBranches = readUnpackedLocalBranches(refPaths);
+    Set<GitBranch> remoteBranches = readUnpackedRemoteBranches(refPaths);
+    synchronized (myRefFiles) {
+      // forget deleted branches
+      myRefFiles.keySet().retainAll(refPaths);
+    }
     GitBranchesCollection packedBranches = readPackedBranches();
     localBranches.addAll(packedBranches.getLocalBranches());
     remoteBranches.addAll(packedBranches.getRemoteBranches());
@@ -284,11 +243,12 @@ class GitRepositoryReader {
    * @return list of branches from refs/heads. active branch is not marked as active - the caller should do this.
    */
   @NotNull
-  private Set<GitBranch> readUnpackedLocalBranches() {
+  private Set<GitBranch> readUnpackedLocalBranches(@NotNull Set<String> refPaths) {
     Set<GitBranch> branches = new HashSet<GitBranch>();
     for (Map.Entry<String, File> entry : readLocalBranches().entrySet()) {
       String branchName = entry.getKey();
       File branchFile = entry.getValue();
+      refPaths.add(branchFile.getPath());
       String hash = loadHashFromBranchFile(branchFile);
       branches.add(new GitBranch(branchName, hash == null ? "" : hash, false, false));
     }
@@ -296,9 +256,9 @@ class GitRepositoryReader {
   }
   
   @Nullable
-  private static String loadHashFromBranchFile(@NotNull File branchFile) {
+  private String loadHashFromBranchFile(@NotNull File branchFile) {
     try {
-      return tryLoadFile(branchFile, null);
+      return readRefFile(branchFile);
     }
     catch (GitRepoStateException e) {  // notify about error but don't break the process
       LOG.error("Couldn't read " + branchFile, e);
@@ -309,7 +269,7 @@ class GitRepositoryReader {
   /**
    * @return list of branches from refs/remotes.
    */
-  private Set<GitBranch> readUnpackedRemoteBranches() {
+  private Set<GitBranch> readUnpackedRemoteBranches(@NotNull final Set<String> refPaths) {
     final Set<GitBranch> branches = new HashSet<GitBranch>();
     if (!myRefsRemotesDir.exists()) {
       return branches;
@@ -321,6 +281,7 @@ class GitRepositoryReader {
           final String relativePath = FileUtil.getRelativePath(myRefsRemotesDir, file);
           if (relativePath != null) {
             String branchName = FileUtil.toSystemIndependentName(relativePath);
+            refPaths.add(file.getPath());
             String hash = loadHashFromBranchFile(file);
             branches.add(new GitBranch(branchName, hash == null ? "": hash, false, true));
           }
@@ -336,34 +297,88 @@ class GitRepositoryReader {
    */
   @NotNull
   private GitBranchesCollection readPackedBranches() {
-    final Set<GitBranch> localBranches = new HashSet<GitBranch>();
-    final Set<GitBranch> remoteBranches = new HashSet<GitBranch>();
-    if (!myPackedRefsFile.exists()) {
+    Map<String, String> packedRefs = readPackedRefs();
+    if (packedRefs.isEmpty()) {
       return GitBranchesCollection.EMPTY;
     }
-    final String content = tryLoadFile(myPackedRefsFile, calcEncoding(myPackedRefsFile));
-    
+    Set<GitBranch> localBranches = new HashSet<GitBranch>();
+    Set<GitBranch> remoteBranches = new HashSet<GitBranch>();
+    for (Map.Entry<String, String> entry : packedRefs.entrySet()) {
+      String branchName = entry.getKey();
+      String hash = entry.getValue();
+      if (branchName.startsWith(REFS_HEADS_PREFIX)) {
+        localBranches.add(new GitBranch(branchName.substring(REFS_HEADS_PREFIX.length()), hash, false, false));
+      } else if (branchName.startsWith(REFS_REMOTES_PREFIX)) {
+        remoteBranches.add(new GitBranch(branchName.substring(REFS_REMOTES_PREFIX.length()), hash, false, true));
+      }
+    }
+    return new GitBranchesCollection(localBranches, remoteBranches);
+  }
+
+  /**
+   * @return hashes of references from packed-refs by full reference names, e.g. {@code refs/heads/master}.
+   *         The file is parsed again only if it has changed since the previous call.
+   */
+  @NotNull
+  private Map<String, String> readPackedRefs() {
+    long timestamp = myPackedRefsFile.lastModified();
+    if (timestamp == 0) { // the file doesn't exist
+      myPackedRefs = null;
+      return Collections.emptyMap();
+    }
+    long length = myPackedRefsFile.length();
+    CachedFile<Map<String, String>> cached = myPackedRefs;
+    if (cached != null && cached.isUpToDate(timestamp, length)) {
+      return cached.content;
+    }
+
+    long readStart = System.currentTimeMillis();
+    String content = tryLoadFile(myPackedRefsFile, calcEncoding(myPackedRefsFile));
+    final Map<String, String> refs = new HashMap<String, String>();
     for (String line : content.split("\n")) {
       parsePackedRefsLine(line, new PackedRefsLineResultHandler() {
         @Override public void handleResult(@Nullable String hash, @Nullable String branchName) {
-          if (hash == null || branchName == null) {
-            return;
-          }
-          if (branchName.startsWith(REFS_HEADS_PREFIX)) {
-            localBranches.add(new GitBranch(branchName.substring(REFS_HEADS_PREFIX.length()), hash, false, false));
-          } else if (branchName.startsWith(REFS_REMOTES_PREFIX)) {
-            remoteBranches.add(new GitBranch(branchName.substring(REFS_REMOTES_PREFIX.length()), hash, false, true));
+          // the first entry wins, as it did when the file was searched line by line
+          if (hash != null && branchName != null && !refs.containsKey(branchName)) {
+            refs.put(branchName, hash);
           }
         }
       });
     }
-    return new GitBranchesCollection(localBranches, remoteBranches);
+    myPackedRefs = isRacy(timestamp, readStart) ? null : new CachedFile<Map<String, String>>(timestamp, length, refs);
+    return refs;
   }
 
-    
-  private static String readBranchFile(File branchFile) {
-    String rev = tryLoadFile(branchFile, null); // we expect just hash in branch file, no need to check encoding
-    return rev.trim();
+  /**
+   * @return trimmed content of the ref file, which is read again only if it has changed since the previous call.
+   */
+  @NotNull
+  private String readRefFile(@NotNull File refFile) {
+    String path = refFile.getPath();
+    long timestamp = refFile.lastModified();
+    long length = refFile.length();
+    synchronized (myRefFiles) {
+      CachedFile<String> cached = myRefFiles.get(path);
+      if (cached != null && cached.isUpToDate(timestamp, length)) {
+        return cached.content;
+      }
+    }
+
+    long readStart = System.currentTimeMillis();
+    String content = tryLoadFile(refFile, null).trim(); // we expect just hash in branch file, no need to check encoding
+    synchronized (myRefFiles) {
+      if (isRacy(timestamp, readStart)) {
+        myRefFiles.remove(path);
+      }
+      else {
+        myRefFiles.put(path, new CachedFile<String>(timestamp, length, content));
+      }
+    }
+    return content;
+  }
+
+  private static boolean isRacy(long timestamp, long readStart) {
+    return readStart - timestamp < RACY_TIMESTAMP_INTERVAL;
   }
 
   private static void assertFileExists(File file, String message) {
@@ -415,7 +430,7 @@ class GitRepositoryReader {
    * If an other exception happens, rethrows it as a {@link GitRepoStateException}.
    * In the case of success returns the result of the task execution.
    */
-  private static String tryOrThrow(Callable<String> actionToTry, File fileToLoad) {
+  private static <T> T tryOrThrow(Callable<T> actionToTry, File fileToLoad) {
     IOException cause = null;
     for (int i = 0; i < IO_RETRIES; i++) {
       try {
@@ -493,6 +508,25 @@ class GitRepositoryReader {
     return ApplicationManager.getApplication().isDisposed() ? null : EncodingManager.getInstance().getEncoding(vf, false);
   }
 
+  /**
+   * Parsed content of a file together with the timestamp and the length the file had when it was read.
+   */
+  private static class CachedFile<T> {
+    private final long timestamp;
+    private final long length;
+    private final T content;
+
+    CachedFile(long timestamp, long length, T content) {
+      this.timestamp = timestamp;
+      this.length = length;
+      this.content = content;
+    }
+
+    boolean isUpToDate(long timestamp, long length) {
+      return this.timestamp == timestamp && this.length == length;
+    }
+  }
+
   /**
    * Container to hold two information items: current .git/HEAD value and is Git on branch.
    */
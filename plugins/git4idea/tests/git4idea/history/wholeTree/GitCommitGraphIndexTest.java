@@ -0,0 +1,80 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package git4idea.history.wholeTree;
+
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.Getter;
+import com.intellij.util.AsynchConsumer;
+import git4idea.history.browser.ChangesFilter;
+import git4idea.tests.GitTest;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class GitCommitGraphIndexTest extends GitTest {
+
+  @Test
+  public void testPrunedOldHead() throws Exception {
+    GitCommitGraphIndex index = new GitCommitGraphIndex();
+    try {
+      String first = myRepo.createAddCommit();
+      String second = myRepo.createAddCommit();
+      assertEquals(load(index), Arrays.asList(second, first));
+
+      // force-push like rewrite: the indexed head is gone from the repository after gc
+      myRepo.run("reset", "--hard", first);
+      String third = myRepo.createAddCommit();
+      myRepo.run("reflog", "expire", "--expire=now", "--all");
+      myRepo.run("gc", "--prune=now");
+      assertEquals(myRepo.run("rev-list", "--no-walk", "--ignore-missing", second).trim(), "");
+
+      assertEquals(load(index), Arrays.asList(third, first));
+      // the next refresh doesn't stumble over it either
+      assertEquals(load(index), Arrays.asList(third, first));
+    }
+    finally {
+      Disposer.dispose(index);
+    }
+  }
+
+  private List<String> load(GitCommitGraphIndex index) throws Exception {
+    final List<String> hashes = new ArrayList<String>();
+    boolean loaded = index.loadHashesWithParents(myProject, myRepo.getVFRootDir(), Collections.<ChangesFilter.Filter>emptyList(),
+                                                 new AsynchConsumer<CommitHashPlusParents>() {
+                                                   @Override
+                                                   public void finished() {
+                                                   }
+
+                                                   @Override
+                                                   public void consume(CommitHashPlusParents commit) {
+                                                     hashes.add(commit.getHash());
+                                                   }
+                                                 }, new Getter<Boolean>() {
+                                                   @Override
+                                                   public Boolean get() {
+                                                     return false;
+                                                   }
+                                                 }, 0, true);
+    assertTrue(loaded);
+    return hashes;
+  }
+}
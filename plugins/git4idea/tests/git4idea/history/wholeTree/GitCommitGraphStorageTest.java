@@ -0,0 +1,189 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package git4idea.history.wholeTree;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.Processor;
+import junit.framework.TestCase;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+public class GitCommitGraphStorageTest extends TestCase {
+  private File myDir;
+  private GitCommitGraphStorage myStorage;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDir = FileUtil.createTempDirectory("git", "graph");
+    myStorage = GitCommitGraphStorage.open(myDir);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      myStorage.close();
+      FileUtil.delete(myDir);
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testIncrementalAppend() throws IOException {
+    GitCommitGraphStorage.Update update = myStorage.startUpdate();
+    append(update, "a1", 1000, "b2");
+    append(update, "b2", 500);
+    update.commit(new String[]{hash("a1")});
+    assertCommits("a1", "b2");
+
+    reopen();
+    assertCommits("a1", "b2");
+    assertEquals(Arrays.asList(hash("a1")), Arrays.asList(myStorage.getHeads()));
+
+    // only the commits which aren't reachable from the old heads are appended
+    update = myStorage.startUpdate();
+    append(update, "c3", 3000, "a1");
+    append(update, "d4", 2000, "b2");
+    update.commit(new String[]{hash("c3"), hash("d4")});
+    assertCommits("c3", "d4", "a1", "b2");
+
+    reopen();
+    assertEquals(4, myStorage.getCommitCount());
+    assertCommits("c3", "d4", "a1", "b2");
+  }
+
+  public void testFilters() throws IOException {
+    GitCommitGraphStorage.Update update = myStorage.startUpdate();
+    append(update, "c3", 3000, "a1");
+    append(update, "a1", 1000, "b2");
+    append(update, "b2", 500);
+    update.commit(new String[]{hash("c3")});
+
+    assertCommits(2000, 0, null, "a1", "b2");
+    assertCommits(0, 600, null, "c3", "a1");
+    assertCommits(0, 0, Pattern.compile("author_a1"), "a1");
+    assertCommits(0, 0, Pattern.compile("committer_c3|author_b2"), "c3", "b2");
+  }
+
+  public void testAbortedUpdateIsDiscarded() throws IOException {
+    GitCommitGraphStorage.Update update = myStorage.startUpdate();
+    append(update, "a1", 1000);
+    update.commit(new String[]{hash("a1")});
+
+    update = myStorage.startUpdate();
+    append(update, "b2", 2000, "a1");
+    update.abort();
+
+    reopen();
+    assertEquals(1, myStorage.getCommitCount());
+    assertEquals(Arrays.asList(hash("a1")), Arrays.asList(myStorage.getHeads()));
+    assertCommits("a1");
+
+    // the tail written by the aborted update doesn't get in the way of the next one
+    update = myStorage.startUpdate();
+    append(update, "b2", 2000, "a1");
+    update.commit(new String[]{hash("b2")});
+    reopen();
+    assertEquals(2, myStorage.getCommitCount());
+    assertCommits("b2", "a1");
+  }
+
+  public void testRebuildAfterCorruption() throws IOException {
+    GitCommitGraphStorage.Update update = myStorage.startUpdate();
+    append(update, "a1", 1000, "b2");
+    append(update, "b2", 500);
+    update.commit(new String[]{hash("a1")});
+    myStorage.close();
+
+    RandomAccessFile commits = new RandomAccessFile(new File(myDir, "commits"), "rw");
+    try {
+      commits.setLength(commits.length() / 2);
+    }
+    finally {
+      commits.close();
+    }
+
+    myStorage = GitCommitGraphStorage.open(myDir);
+    assertEquals(0, myStorage.getCommitCount());
+    assertEquals(0, myStorage.getHeads().length);
+    assertCommits();
+
+    update = myStorage.startUpdate();
+    append(update, "a1", 1000, "b2");
+    append(update, "b2", 500);
+    update.commit(new String[]{hash("a1")});
+    reopen();
+    assertCommits("a1", "b2");
+  }
+
+  public void testLiteralUserPatterns() {
+    assertTrue(GitCommitGraphIndex.isLiteral("John Doe"));
+    assertTrue(GitCommitGraphIndex.isLiteral("john\\.doe\\@example\\.com"));
+    assertFalse(GitCommitGraphIndex.isLiteral("john|jane"));
+    assertFalse(GitCommitGraphIndex.isLiteral("john\\|jane"));
+    assertFalse(GitCommitGraphIndex.isLiteral("jo+hn"));
+    assertFalse(GitCommitGraphIndex.isLiteral("\\<john"));
+    assertFalse(GitCommitGraphIndex.isLiteral("john\\"));
+  }
+
+  private void reopen() throws IOException {
+    myStorage.close();
+    myStorage = GitCommitGraphStorage.open(myDir);
+  }
+
+  private static void append(GitCommitGraphStorage.Update update, String name, long time, String... parents) throws IOException {
+    String[] parentHashes = new String[parents.length];
+    for (int i = 0; i < parents.length; i++) {
+      parentHashes[i] = hash(parents[i]);
+    }
+    update.append(hash(name), name, time, "author_" + name + " <a@example.com>", "committer_" + name + " <c@example.com>", parentHashes);
+  }
+
+  /**
+   * @return a full hash which abbreviated form is the name
+   */
+  private static String hash(String name) {
+    StringBuilder hash = new StringBuilder(name);
+    while (hash.length() < 40) {
+      hash.append('0');
+    }
+    return hash.toString();
+  }
+
+  private void assertCommits(String... expected) throws IOException {
+    assertCommits(0, 0, null, expected);
+  }
+
+  private void assertCommits(long before, long after, @Nullable Pattern userPattern, String... expected) throws IOException {
+    final List<String> actual = new ArrayList<String>();
+    myStorage.iterate(before, after, userPattern, new Processor<CommitHashPlusParents>() {
+      @Override
+      public boolean process(CommitHashPlusParents commit) {
+        actual.add(commit.getHash());
+        return true;
+      }
+    });
+    assertEquals(Arrays.asList(expected), actual);
+  }
+}